@@ -0,0 +1,247 @@
+package airhockeyjava.benchmark;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.util.Intersection;
+import airhockeyjava.util.PrimitiveGeometry;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Micro-benchmark of the geometry queries run many times per tick in prediction and strategy,
+ * comparing Intersection (java.awt.geom arguments, allocated results) with PrimitiveGeometry
+ * (primitive arguments, out-parameters): segment against rectangle, segment against segment, and
+ * the collision edge of a point. Each case is first checked to agree between the two, then timed
+ * over a fixed set of random inputs for several warm-up and measured rounds, reporting the mean
+ * and best time per operation and the bytes allocated per operation.
+ *
+ * Usage: GeometryBenchmark [measured rounds] [operations per round]
+ */
+public class GeometryBenchmark {
+
+	private static final int WARM_UP_ROUNDS = 10; // Let the JIT compile both versions first
+	private static final int DEFAULT_MEASURED_ROUNDS = 10;
+	private static final int DEFAULT_OPERATIONS_PER_ROUND = 1000000;
+	private static final int NUMBER_OF_INPUTS = 4096; // Cycled through, to defeat constant folding
+	private static final double AGREEMENT_TOLERANCE_METERS = 1e-4;
+
+	private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	// Inputs: segments from inside the table, and points on or near its edges
+	private final Rectangle2D rectangle;
+	private final Line2D[] segments = new Line2D[NUMBER_OF_INPUTS];
+	private final Line2D[] otherSegments = new Line2D[NUMBER_OF_INPUTS];
+	private final float[] edgePointX = new float[NUMBER_OF_INPUTS];
+	private final float[] edgePointY = new float[NUMBER_OF_INPUTS];
+
+	private final Vector2 out = new Vector2();
+	private double sink = 0d; // Consumes results, so the work can't be eliminated
+
+	/**
+	 * A benchmarked operation, run the given number of times, cycling through the inputs.
+	 */
+	private abstract class Case {
+		final String label;
+
+		Case(String label) {
+			this.label = label;
+		}
+
+		abstract void run(int operations);
+	}
+
+	public GeometryBenchmark(long seed) {
+		this.rectangle = new Rectangle2D.Float(0f, 0f, Constants.GAME_TABLE_WIDTH_METERS,
+				Constants.GAME_TABLE_HEIGHT_METERS);
+		Random random = new Random(seed);
+		float width = Constants.GAME_TABLE_WIDTH_METERS;
+		float height = Constants.GAME_TABLE_HEIGHT_METERS;
+		for (int i = 0; i < NUMBER_OF_INPUTS; i++) {
+			float x = random.nextFloat() * width;
+			float y = random.nextFloat() * height;
+			float angle = random.nextFloat() * (float) (2 * Math.PI);
+			float length = 4f; // Long enough to leave the table
+			segments[i] = new Line2D.Float(x, y, x + length * (float) Math.cos(angle), y + length
+					* (float) Math.sin(angle));
+			otherSegments[i] = new Line2D.Float(random.nextFloat() * width, random.nextFloat()
+					* height, random.nextFloat() * width, random.nextFloat() * height);
+			int edge = random.nextInt(5); // Four edges, or none
+			float offset = (random.nextFloat() - 0.5f)
+					* (float) Constants.INTERSECTION_EPSILON_METERS;
+			edgePointX[i] = (edge == 0) ? offset : ((edge == 2) ? width + offset : x);
+			edgePointY[i] = (edge == 1) ? offset : ((edge == 3) ? height + offset : y);
+		}
+	}
+
+	public static void main(String[] args) {
+		int measuredRounds = (args.length > 0) ? Integer.parseInt(args[0])
+				: DEFAULT_MEASURED_ROUNDS;
+		int operationsPerRound = (args.length > 1) ? Integer.parseInt(args[1])
+				: DEFAULT_OPERATIONS_PER_ROUND;
+
+		GeometryBenchmark benchmark = new GeometryBenchmark(Constants.MONTE_CARLO_DEFAULT_SEED);
+		int disagreements = benchmark.checkAgreement();
+		if (disagreements > 0) {
+			System.out.println("FAILED: " + disagreements
+					+ " inputs on which Intersection and PrimitiveGeometry disagree");
+			System.exit(1);
+		}
+
+		Case[] cases = benchmark.createCases();
+		System.out.println(String.format("%-44s %12s %12s %12s", "Case", "mean ns/op",
+				"best ns/op", "bytes/op"));
+		for (Case c : cases) {
+			benchmark.measure(c, measuredRounds, operationsPerRound);
+		}
+		// Print the sink so that it is live
+		System.out.println("(checksum " + benchmark.sink + ")");
+	}
+
+	private Case[] createCases() {
+		return new Case[] { new Case("Intersection.getIntersectionPoint(rect)") {
+			void run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					Point2D point = Intersection.getIntersectionPoint(segments[i
+							& (NUMBER_OF_INPUTS - 1)], rectangle);
+					if (point != null) {
+						sink += point.getX();
+					}
+				}
+			}
+		}, new Case("PrimitiveGeometry.getRectangleExit") {
+			void run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					Line2D segment = segments[i & (NUMBER_OF_INPUTS - 1)];
+					if (PrimitiveGeometry.getRectangleExit(segment.getX1(), segment.getY1(),
+							segment.getX2(), segment.getY2(), rectangle.getMinX(),
+							rectangle.getMinY(), rectangle.getMaxX(), rectangle.getMaxY(), out)) {
+						sink += out.x;
+					}
+				}
+			}
+		}, new Case("Intersection.getIntersectionPoint(line)") {
+			void run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					int index = i & (NUMBER_OF_INPUTS - 1);
+					Point2D point = Intersection.getIntersectionPoint(otherSegments[index],
+							otherSegments[(index + 1) & (NUMBER_OF_INPUTS - 1)]);
+					if (point != null) {
+						sink += point.getX();
+					}
+				}
+			}
+		}, new Case("PrimitiveGeometry.getSegmentIntersection") {
+			void run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					int index = i & (NUMBER_OF_INPUTS - 1);
+					Line2D a = otherSegments[index];
+					Line2D b = otherSegments[(index + 1) & (NUMBER_OF_INPUTS - 1)];
+					if (PrimitiveGeometry.getSegmentIntersection(a.getX1(), a.getY1(),
+							a.getX2(), a.getY2(), b.getX1(), b.getY1(), b.getX2(), b.getY2(),
+							out)) {
+						sink += out.x;
+					}
+				}
+			}
+		}, new Case("Intersection.getCollisionEdge") {
+			void run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					int index = i & (NUMBER_OF_INPUTS - 1);
+					Line2D edge = Intersection.getCollisionEdge(edgePointX[index],
+							edgePointY[index], rectangle);
+					if (edge != null) {
+						sink += edge.getX1();
+					}
+				}
+			}
+		}, new Case("PrimitiveGeometry.getCollisionEdge") {
+			void run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					int index = i & (NUMBER_OF_INPUTS - 1);
+					sink += PrimitiveGeometry.getCollisionEdge(edgePointX[index],
+							edgePointY[index], rectangle.getMinX(), rectangle.getMinY(),
+							rectangle.getMaxX(), rectangle.getMaxY(),
+							Constants.INTERSECTION_EPSILON_METERS);
+				}
+			}
+		} };
+	}
+
+	/**
+	 * Run a case for the warm-up rounds, then time the measured rounds and print the result.
+	 */
+	private void measure(Case c, int measuredRounds, int operationsPerRound) {
+		for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+			c.run(operationsPerRound);
+		}
+		long threadId = Thread.currentThread().getId();
+		long totalNanoseconds = 0;
+		long bestNanoseconds = Long.MAX_VALUE;
+		long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+		for (int round = 0; round < measuredRounds; round++) {
+			long start = System.nanoTime();
+			c.run(operationsPerRound);
+			long elapsed = System.nanoTime() - start;
+			totalNanoseconds += elapsed;
+			bestNanoseconds = Math.min(bestNanoseconds, elapsed);
+		}
+		long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+		long operations = (long) measuredRounds * operationsPerRound;
+		System.out.println(String.format("%-44s %12.2f %12.2f %12.2f", c.label,
+				(double) totalNanoseconds / operations, (double) bestNanoseconds
+						/ operationsPerRound, (double) allocatedBytes / operations));
+	}
+
+	/**
+	 * Check that both versions give the same results on every input. Intersection finds no
+	 * rectangle crossing for axis-aligned segments, so those are skipped.
+	 * @return number of inputs on which they disagree
+	 */
+	private int checkAgreement() {
+		int disagreements = 0;
+		for (int i = 0; i < NUMBER_OF_INPUTS; i++) {
+			Line2D segment = segments[i];
+			if (segment.getX1() != segment.getX2() && segment.getY1() != segment.getY2()) {
+				Point2D expected = Intersection.getIntersectionPoint(segment, rectangle);
+				boolean isFound = PrimitiveGeometry.getRectangleExit(segment.getX1(),
+						segment.getY1(), segment.getX2(), segment.getY2(), rectangle.getMinX(),
+						rectangle.getMinY(), rectangle.getMaxX(), rectangle.getMaxY(), out);
+				if (!agrees(expected, isFound)) {
+					disagreements++;
+				}
+			}
+
+			Line2D a = otherSegments[i];
+			Line2D b = otherSegments[(i + 1) & (NUMBER_OF_INPUTS - 1)];
+			Point2D expected = Intersection.getIntersectionPoint(a, b);
+			boolean isFound = PrimitiveGeometry.getSegmentIntersection(a.getX1(), a.getY1(),
+					a.getX2(), a.getY2(), b.getX1(), b.getY1(), b.getX2(), b.getY2(), out);
+			if (!agrees(expected, isFound)) {
+				disagreements++;
+			}
+
+			Line2D expectedEdge = Intersection.getCollisionEdge(edgePointX[i], edgePointY[i],
+					rectangle);
+			int edge = PrimitiveGeometry.getCollisionEdge(edgePointX[i], edgePointY[i],
+					rectangle.getMinX(), rectangle.getMinY(), rectangle.getMaxX(),
+					rectangle.getMaxY(), Constants.INTERSECTION_EPSILON_METERS);
+			if ((expectedEdge == null) != (edge == PrimitiveGeometry.EDGE_NONE)) {
+				disagreements++;
+			}
+		}
+		return disagreements;
+	}
+
+	private boolean agrees(Point2D expected, boolean isFound) {
+		if (expected == null || !isFound) {
+			return (expected == null) == !isFound;
+		}
+		return Math.abs(expected.getX() - out.x) <= AGREEMENT_TOLERANCE_METERS
+				&& Math.abs(expected.getY() - out.y) <= AGREEMENT_TOLERANCE_METERS;
+	}
+}
@@ -0,0 +1,107 @@
+package airhockeyjava.benchmark;
+
+import java.util.Random;
+
+import airhockeyjava.control.ReachabilityMap;
+import airhockeyjava.game.Constants;
+import airhockeyjava.physical.Table;
+import airhockeyjava.simulation.PuckPrediction;
+import airhockeyjava.strategy.InterceptPlanner;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Benchmark of the intercept planner over a fixed set of random shots towards the robot's side,
+ * with the robot mallet at random positions in its workspace. Each shot is predicted up front, so
+ * only the planning is timed. Plans are run once without a deadline, to report the mean cost per
+ * candidate, candidates per plan and time per plan, and then with the game's deadline, to report
+ * how often it cuts a plan short.
+ *
+ * Usage: InterceptPlannerBenchmark [measured rounds]
+ */
+public class InterceptPlannerBenchmark {
+
+	private static final int WARM_UP_ROUNDS = 20; // Let the JIT compile the planner first
+	private static final int DEFAULT_MEASURED_ROUNDS = 20;
+	private static final int NUMBER_OF_SHOTS = 256;
+	private static final float MIN_SHOT_SPEED = 1f;
+	private static final float MAX_SHOT_SPEED = 15f;
+
+	private final PuckPrediction[] predictions = new PuckPrediction[NUMBER_OF_SHOTS];
+	private final float[] malletX = new float[NUMBER_OF_SHOTS];
+	private final float[] malletY = new float[NUMBER_OF_SHOTS];
+	private long maxPlanNanoseconds = 0; // Over the last run
+
+	public InterceptPlannerBenchmark(Table table, long seed) {
+		Random random = new Random(seed);
+		float width = (float) table.getWidth();
+		float height = (float) table.getHeight();
+		float margin = Constants.MECHANICAL_ROBOT_EDGE_SAFETY_MARGIN_METERS;
+		Vector2 position = new Vector2();
+		Vector2 velocity = new Vector2();
+		for (int i = 0; i < NUMBER_OF_SHOTS; i++) {
+			// From the user's half, heading for the robot's
+			position.set(random.nextFloat() * width / 2f, margin + random.nextFloat()
+					* (height - 2 * margin));
+			float angle = (random.nextFloat() - 0.5f) * (float) Math.PI * 0.8f;
+			float speed = MIN_SHOT_SPEED + random.nextFloat() * (MAX_SHOT_SPEED - MIN_SHOT_SPEED);
+			velocity.set(speed * (float) Math.cos(angle), speed * (float) Math.sin(angle));
+			predictions[i] = new PuckPrediction(table);
+			predictions[i].update(position, velocity);
+			malletX[i] = Constants.MALLET_DEFENDABLE_REGION + random.nextFloat()
+					* (width - margin - Constants.MALLET_DEFENDABLE_REGION);
+			malletY[i] = margin + random.nextFloat() * (height - 2 * margin);
+		}
+	}
+
+	public static void main(String[] args) {
+		int measuredRounds = (args.length > 0) ? Integer.parseInt(args[0])
+				: DEFAULT_MEASURED_ROUNDS;
+
+		Table table = new Table();
+		ReachabilityMap reachabilityMap = ReachabilityMap.getDefault();
+		InterceptPlannerBenchmark benchmark = new InterceptPlannerBenchmark(table,
+				Constants.MONTE_CARLO_DEFAULT_SEED);
+
+		InterceptPlanner unlimited = new InterceptPlanner(table, Constants.GAME_PUCK_RADIUS_METERS,
+				Constants.GAME_MALLET_RADIUS_METERS, reachabilityMap,
+				Constants.MALLET_DEFENDABLE_REGION);
+		benchmark.run(unlimited, WARM_UP_ROUNDS, Float.POSITIVE_INFINITY);
+		unlimited = new InterceptPlanner(table, Constants.GAME_PUCK_RADIUS_METERS,
+				Constants.GAME_MALLET_RADIUS_METERS, reachabilityMap,
+				Constants.MALLET_DEFENDABLE_REGION);
+		int found = benchmark.run(unlimited, measuredRounds, Float.POSITIVE_INFINITY);
+		int plans = unlimited.getPlanCount();
+		System.out.println(String.format("No deadline: %.2f ns/candidate, "
+				+ "%.1f candidates/plan, %.2f us/plan mean, %.2f us/plan max, %.1f%% found",
+				unlimited.getNanosecondsPerCandidate(), (double) unlimited.getTotalCandidateCount()
+						/ plans, unlimited.getTotalElapsedNanoseconds() / 1e3 / plans,
+				benchmark.maxPlanNanoseconds / 1e3, 100f * found / plans));
+
+		InterceptPlanner limited = new InterceptPlanner(table, Constants.MALLET_DEFENDABLE_REGION);
+		benchmark.run(limited, measuredRounds, Constants.STRATEGY_INTERCEPT_DEADLINE_SECONDS);
+		System.out.println(String.format("Deadline %.3f ms: %d of %d plans cut short",
+				Constants.STRATEGY_INTERCEPT_DEADLINE_SECONDS * 1e3,
+				limited.getDeadlineMissCount(), limited.getPlanCount()));
+	}
+
+	/**
+	 * Plan every shot, from a stationary mallet, for the given number of rounds.
+	 * @param deadlineSeconds per plan, or infinite for none
+	 * @return number of plans that found an intercept
+	 */
+	private int run(InterceptPlanner planner, int rounds, float deadlineSeconds) {
+		int found = 0;
+		maxPlanNanoseconds = 0;
+		for (int round = 0; round < rounds; round++) {
+			for (int i = 0; i < NUMBER_OF_SHOTS; i++) {
+				if (planner.plan(predictions[i], malletX[i], malletY[i], 0f, 0f,
+						deadlineSeconds)) {
+					found++;
+				}
+				maxPlanNanoseconds = Math.max(maxPlanNanoseconds,
+						planner.getLastElapsedNanoseconds());
+			}
+		}
+		return found;
+	}
+}
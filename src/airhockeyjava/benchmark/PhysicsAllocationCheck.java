@@ -0,0 +1,148 @@
+package airhockeyjava.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import airhockeyjava.detection.SimulatedDetection;
+import airhockeyjava.game.Constants;
+import airhockeyjava.game.Game;
+import airhockeyjava.game.Game.GameTypeEnum;
+import airhockeyjava.physical.Table.GoalScoredEnum;
+import airhockeyjava.strategy.SimulatedUserStrategy;
+
+/**
+ * Checks that the game tick does not allocate, by measuring the bytes allocated by the current
+ * thread over many ticks with com.sun.management.ThreadMXBean. Garbage produced on every tick
+ * leads to GC pauses in the long-running game JVM. Two loops are measured: the simulated physics
+ * step (swept goal, wall and mallet crossings, air friction) with the predicted path refresh that
+ * follows it, and then the full headless tick, Game.updateFixedStep, with the default robot
+ * features and a SimulatedUserStrategy opponent, with and without sensor emulation. Goal detection
+ * is off in the full tick: serving a new puck after a goal allocates, once per goal.
+ *
+ * Meant to be run as a check, e.g. after a build: exits with status 0 only if the measurement ran,
+ * exercised collisions and saw no allocation. Any allocation, a JVM that cannot measure it, or a
+ * run without a single collision exits with status 1.
+ */
+public class PhysicsAllocationCheck {
+
+	private static final int WARM_UP_TICKS = 200000; // Let the JIT compile the hot path first
+	private static final int MEASURED_TICKS = 100000;
+	private static final int FULL_TICK_WARM_UP_TICKS = 600000; // More code to compile
+	private static final long FULL_TICK_SEED = 1L; // Opponent and sensor noise in the full tick
+
+	public static void main(String[] args) {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		if (!threadBean.isThreadAllocatedMemorySupported()) {
+			fail("this JVM cannot measure thread allocation");
+		}
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+
+		Game game = new Game(GameTypeEnum.SIMULATED_HEADLESS_GAME_TYPE);
+		SimulatedDetection detection = new SimulatedDetection(game, null);
+		// Moving robot mallet, so that swept contacts against a moving mallet are exercised
+		game.robotMallet.getVelocity().set(0f, 0.5f);
+		float deltaTime = 1f / Constants.GAME_SIMULATION_PHYSICS_STEPS_PER_SECOND;
+
+		runTicks(game, detection, WARM_UP_TICKS, deltaTime);
+
+		// Account for any allocation by the measurement itself
+		long overheadBytes = -threadBean.getThreadAllocatedBytes(threadId)
+				+ threadBean.getThreadAllocatedBytes(threadId);
+		long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+		int collisions = runTicks(game, detection, MEASURED_TICKS, deltaTime);
+		long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes
+				- overheadBytes;
+
+		System.out.println(String.format(
+				"Ticks: %d, collisions: %d, bytes allocated: %d (%.3f per tick)", MEASURED_TICKS,
+				collisions, allocatedBytes, (float) allocatedBytes / MEASURED_TICKS));
+		if (collisions == 0) {
+			fail("no collisions, so the swept contacts were not exercised");
+		}
+		if (allocatedBytes > 0) {
+			fail("physics step or predicted path refresh allocates");
+		}
+
+		checkFullTick(threadBean, threadId, false);
+		checkFullTick(threadBean, threadId, true);
+		System.out.println("OK");
+	}
+
+	/**
+	 * Measure the full headless tick, as HeadlessGameEngine runs it.
+	 * @param threadBean
+	 * @param threadId
+	 * @param isSensorEmulated
+	 */
+	private static void checkFullTick(com.sun.management.ThreadMXBean threadBean, long threadId,
+			boolean isSensorEmulated) {
+		Game game = new Game(GameTypeEnum.SIMULATED_HEADLESS_GAME_TYPE);
+		game.setUserStrategy(new SimulatedUserStrategy(game, FULL_TICK_SEED));
+		game.settings.emulateSensor = isSensorEmulated;
+		game.settings.sensorEmulationSeed = FULL_TICK_SEED;
+		game.settings.goalDetectionOn = false;
+		game.settings.interceptDeadlineSeconds = Float.POSITIVE_INFINITY;
+		float stepSeconds = 1f / Constants.GAME_SIMULATION_PHYSICS_STEPS_PER_SECOND;
+
+		long allocatedBytes;
+		try {
+			for (int i = 0; i < FULL_TICK_WARM_UP_TICKS; i++) {
+				game.updateFixedStep(stepSeconds);
+			}
+			long overheadBytes = -threadBean.getThreadAllocatedBytes(threadId)
+					+ threadBean.getThreadAllocatedBytes(threadId);
+			long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+			for (int i = 0; i < MEASURED_TICKS; i++) {
+				game.updateFixedStep(stepSeconds);
+			}
+			allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes
+					- overheadBytes;
+		} finally {
+			game.close();
+		}
+
+		System.out.println(String.format(
+				"Full ticks (sensor emulation %s): %d, bytes allocated: %d (%.3f per tick)",
+				isSensorEmulated ? "on" : "off", MEASURED_TICKS, allocatedBytes,
+				(float) allocatedBytes / MEASURED_TICKS));
+		if (allocatedBytes > 0) {
+			fail("full game tick allocates");
+		}
+	}
+
+	/**
+	 * Report a failed check and exit with a non-zero status.
+	 * @param reason
+	 */
+	private static void fail(String reason) {
+		System.out.println("FAILED: " + reason);
+		System.exit(1);
+	}
+
+	/**
+	 * Step the puck physics and refresh the predicted path (fully after a collision), serving the
+	 * puck again in place (rather than through Game.resetPuck, which allocates a new puck)
+	 * whenever a goal is scored or it comes to rest.
+	 * @return number of ticks with a collision
+	 */
+	private static int runTicks(Game game, SimulatedDetection detection, int numberOfTicks,
+			float deltaTime) {
+		int collisions = 0;
+		for (int i = 0; i < numberOfTicks; i++) {
+			boolean isCollision = detection.stepPuckPhysics(deltaTime);
+			if (isCollision) {
+				collisions++;
+			}
+			game.gamePuck.updatePredictedPath(Constants.NUMBER_PREDICTED_PATH_REFLECTIONS,
+					isCollision);
+			if (!detection.getGoalScored().equals(GoalScoredEnum.NO_GOAL_SCORED)
+					|| game.gamePuck.getVelocity().len2() < 0.01f) {
+				game.gamePuck.getPosition().set(Constants.GAME_PUCK_INITIAL_POSITION_X,
+						Constants.GAME_PUCK_INITIAL_POSITION_Y);
+				game.gamePuck.getVelocity().set(4f + (i % 7), 3f - (i % 5));
+			}
+		}
+		return collisions;
+	}
+}
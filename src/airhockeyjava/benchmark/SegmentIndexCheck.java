@@ -0,0 +1,147 @@
+package airhockeyjava.benchmark;
+
+import java.util.Random;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.util.SegmentIndex;
+
+/**
+ * Checks the grid walk of SegmentIndex against a plain scan of every segment. The strategies
+ * register at most a few lines, which SegmentIndex simply scans, so the grid clip and cell walk
+ * are only exercised here: random sets of more than SEGMENT_INDEX_LINEAR_SCAN_MAX_SEGMENTS
+ * segments on the table are queried with random segments, some starting or ending off the grid,
+ * and the first crossing found must be the same segment, at the same point, as the scan's.
+ *
+ * Meant to be run as a check, e.g. after a build: exits with status 0 only if every query agreed.
+ *
+ * Usage: SegmentIndexCheck [segment sets] [queries per set]
+ */
+public class SegmentIndexCheck {
+
+	private static final int DEFAULT_SEGMENT_SETS = 200;
+	private static final int DEFAULT_QUERIES_PER_SET = 2000;
+	private static final int MAX_SEGMENTS = 64;
+	private static final float MAX_SEGMENT_LENGTH_METERS = 0.6f;
+	private static final float QUERY_OVERHANG_METERS = 0.5f; // Queries may start off the grid
+	private static final long SEED = 1;
+
+	private static final float width = Constants.GAME_TABLE_WIDTH_METERS;
+	private static final float height = Constants.GAME_TABLE_HEIGHT_METERS;
+
+	// Segments of the current set, for the reference scan
+	private static final float[] x1 = new float[MAX_SEGMENTS];
+	private static final float[] y1 = new float[MAX_SEGMENTS];
+	private static final float[] x2 = new float[MAX_SEGMENTS];
+	private static final float[] y2 = new float[MAX_SEGMENTS];
+	private static float scanFraction;
+
+	public static void main(String[] args) {
+		int segmentSets = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_SEGMENT_SETS;
+		int queriesPerSet = (args.length > 1) ? Integer.parseInt(args[1])
+				: DEFAULT_QUERIES_PER_SET;
+
+		Random random = new Random(SEED);
+		SegmentIndex index = new SegmentIndex(MAX_SEGMENTS);
+		int queries = 0;
+		int crossings = 0;
+		for (int set = 0; set < segmentSets; set++) {
+			int numberOfSegments = Constants.SEGMENT_INDEX_LINEAR_SCAN_MAX_SEGMENTS + 1
+					+ random.nextInt(MAX_SEGMENTS - Constants.SEGMENT_INDEX_LINEAR_SCAN_MAX_SEGMENTS);
+			index.clear();
+			for (int i = 0; i < numberOfSegments; i++) {
+				x1[i] = random.nextFloat() * width;
+				y1[i] = random.nextFloat() * height;
+				x2[i] = clamp(x1[i] + (random.nextFloat() * 2f - 1f) * MAX_SEGMENT_LENGTH_METERS,
+						0f, width);
+				y2[i] = clamp(y1[i] + (random.nextFloat() * 2f - 1f) * MAX_SEGMENT_LENGTH_METERS,
+						0f, height);
+				index.addSegment(x1[i], y1[i], x2[i], y2[i]);
+			}
+			index.build();
+
+			for (int q = 0; q < queriesPerSet; q++) {
+				float startX = randomCoordinate(random, width);
+				float startY = randomCoordinate(random, height);
+				float endX = randomCoordinate(random, width);
+				float endY = randomCoordinate(random, height);
+				if (q % 4 == 0) {
+					endX = startX; // Axis-aligned queries take the degenerate branches
+				} else if (q % 4 == 1) {
+					endY = startY;
+				}
+
+				int expected = scan(numberOfSegments, startX, startY, endX, endY);
+				int actual = index.findFirstCrossing(startX, startY, endX, endY);
+				queries++;
+				if (actual != expected || (expected != SegmentIndex.NONE
+						&& index.getCrossingFraction() != scanFraction)) {
+					fail(String.format(
+							"set %d, query (%f, %f) to (%f, %f): grid walk found segment %d at %f,"
+									+ " scan found segment %d at %f",
+							set, startX, startY, endX, endY, actual, index.getCrossingFraction(),
+							expected, scanFraction));
+				}
+				if (expected != SegmentIndex.NONE) {
+					crossings++;
+				}
+			}
+		}
+
+		System.out.println(String.format("Segment sets: %d, queries: %d, crossings: %d",
+				segmentSets, queries, crossings));
+		if (crossings == 0) {
+			fail("no crossings, so the grid walk was not exercised");
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Find the first crossing by testing every segment, with the same arithmetic and tie break as
+	 * SegmentIndex.
+	 * @return index of the segment, or SegmentIndex.NONE
+	 */
+	private static int scan(int numberOfSegments, float startX, float startY, float endX,
+			float endY) {
+		float dx = endX - startX;
+		float dy = endY - startY;
+		int best = SegmentIndex.NONE;
+		scanFraction = Float.POSITIVE_INFINITY;
+		if (dx == 0f && dy == 0f) {
+			return best;
+		}
+		for (int segment = 0; segment < numberOfSegments; segment++) {
+			float ex = x2[segment] - x1[segment];
+			float ey = y2[segment] - y1[segment];
+			float denominator = dx * ey - dy * ex;
+			if (denominator == 0f) {
+				continue;
+			}
+			float offsetX = x1[segment] - startX;
+			float offsetY = y1[segment] - startY;
+			float t = (offsetX * ey - offsetY * ex) / denominator;
+			float w = (offsetX * dy - offsetY * dx) / denominator;
+			if (t >= 0f && t <= 1f && w >= 0f && w <= 1f && t < scanFraction) {
+				scanFraction = t;
+				best = segment;
+			}
+		}
+		return best;
+	}
+
+	private static float randomCoordinate(Random random, float size) {
+		return -QUERY_OVERHANG_METERS + random.nextFloat() * (size + 2f * QUERY_OVERHANG_METERS);
+	}
+
+	private static float clamp(float value, float min, float max) {
+		return Math.min(max, Math.max(min, value));
+	}
+
+	/**
+	 * Report a failed check and exit with a non-zero status.
+	 * @param reason
+	 */
+	private static void fail(String reason) {
+		System.out.println("FAILED: " + reason);
+		System.exit(1);
+	}
+}
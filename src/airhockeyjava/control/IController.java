@@ -14,10 +14,16 @@ public interface IController {
 	/**
 	 * Plan path and control mallet velocity and/or to reach target position.
 	 * @param targetPosition
-	 * @param deltaTime step interval
+	 * @param deltaTime control interval
 	 */
 	public void controlMallet(Vector2 targetPosition, float deltaTime);
 
+	/**
+	 * Advance a simulated mallet under the last control, once per physics step.
+	 * @param deltaTime step interval
+	 */
+	public void moveMallet(float deltaTime);
+
 	/**
 	 * Initialize the controller.
 	 */
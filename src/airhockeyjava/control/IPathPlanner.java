@@ -14,14 +14,14 @@ public interface IPathPlanner {
 	/**
 	 * Transforms the current target position to a target instantaneous velocity 
 	 * @param targetPosition
-	 * @return target velocity
+	 * @return target velocity, which may be overwritten by the next call
 	 */
 	public Vector2 targetPositionToVelocity(Vector2 targetPosition);
 	
 	/**
 	 * Transforms the current target position to a target instantaneous acceleration
 	 * @param targetPosition
-	 * @return target acceleration
+	 * @return target acceleration, which may be overwritten by the next call
 	 */
 	public Vector2 targetPositionToAcceleration(Vector2 targetPosition);
 }
\ No newline at end of file
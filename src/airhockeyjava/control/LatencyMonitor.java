@@ -0,0 +1,95 @@
+package airhockeyjava.control;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.util.WindowedMean;
+
+/**
+ * Measures the end-to-end delay of the robot pipeline, from the capture of the camera frame behind
+ * a command to the moment the command is written to the serial port. The game sets the capture
+ * time of the state it is acting on before computing a command, and the controller records the
+ * write; the windowed mean of the delays is the pipeline delay used to extrapolate the puck state
+ * to when the command takes effect.
+ *
+ * Times are in seconds on the measurement clock (System.nanoTime). Until the window has filled,
+ * the default delay is returned.
+ */
+public class LatencyMonitor {
+
+	private final WindowedMean delays;
+	private final float defaultDelaySeconds;
+
+	private double pendingCaptureTime = Double.NaN; // Capture time of the state behind the next command
+	private float latestDelaySeconds = 0f;
+	private float maxDelaySeconds = 0f;
+	private long sampleCount = 0;
+
+	/**
+	 * Constructor.
+	 * @param windowSize number of delays averaged
+	 * @param defaultDelaySeconds delay assumed until the window has filled
+	 */
+	public LatencyMonitor(int windowSize, float defaultDelaySeconds) {
+		this.delays = new WindowedMean(windowSize);
+		this.defaultDelaySeconds = defaultDelaySeconds;
+	}
+
+	/**
+	 * Overloaded. Uses the default window and delay.
+	 */
+	public LatencyMonitor() {
+		this(Constants.LATENCY_MONITOR_WINDOW_SIZE, Constants.LATENCY_DEFAULT_PIPELINE_DELAY_SECONDS);
+	}
+
+	/**
+	 * Set the capture time of the state that the next command will be computed from.
+	 * @param captureTimeSeconds
+	 */
+	public synchronized void setPendingCaptureTime(double captureTimeSeconds) {
+		this.pendingCaptureTime = captureTimeSeconds;
+	}
+
+	/**
+	 * Record that a command computed from the pending state was written at the given time.
+	 * @param commandTimeSeconds
+	 */
+	public synchronized void recordCommand(double commandTimeSeconds) {
+		if (Double.isNaN(pendingCaptureTime)) {
+			return;
+		}
+		addSample(pendingCaptureTime, commandTimeSeconds);
+		pendingCaptureTime = Double.NaN; // One sample per capture
+	}
+
+	/**
+	 * Record a delay directly.
+	 * @param captureTimeSeconds
+	 * @param commandTimeSeconds
+	 */
+	public synchronized void addSample(double captureTimeSeconds, double commandTimeSeconds) {
+		latestDelaySeconds = (float) (commandTimeSeconds - captureTimeSeconds);
+		maxDelaySeconds = Math.max(maxDelaySeconds, latestDelaySeconds);
+		delays.addValue(latestDelaySeconds);
+		sampleCount++;
+	}
+
+	/**
+	 * Get the measured pipeline delay: the mean over the window, or the default until it has
+	 * filled.
+	 * @return delay, in seconds
+	 */
+	public synchronized float getPipelineDelaySeconds() {
+		return delays.hasEnoughData() ? delays.getMean() : defaultDelaySeconds;
+	}
+
+	public synchronized float getLatestDelaySeconds() {
+		return latestDelaySeconds;
+	}
+
+	public synchronized float getMaxDelaySeconds() {
+		return maxDelaySeconds;
+	}
+
+	public synchronized long getSampleCount() {
+		return sampleCount;
+	}
+}
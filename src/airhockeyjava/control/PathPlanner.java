@@ -15,6 +15,10 @@ public class PathPlanner implements IPathPlanner {
 
 	public final Mallet mallet;
 
+	// Results, reused by every call so that planning every physics step does not allocate
+	private final Vector2 velocity = new Vector2();
+	private final Vector2 acceleration = new Vector2();
+
 	protected PathPlanner(Mallet mallet) {
 		this.mallet = mallet;
 	}
@@ -24,9 +28,9 @@ public class PathPlanner implements IPathPlanner {
 	 */
 	@Override
 	public Vector2 targetPositionToVelocity(Vector2 targetPosition) {
-		Vector2 positionDeltaVector = getPositionDeltaVector(targetPosition);
+		Vector2 positionDeltaVector = getPositionDeltaVector(targetPosition, velocity);
 		if (positionDeltaVector.len() < Constants.MECHANICAL_MAX_POSITION_RESOLUTION_METERS) {
-			return new Vector2();
+			return positionDeltaVector.set(0f, 0f);
 		}
 		else {
 			return positionDeltaVector.nor().scl(Constants.MECHANICAL_MAX_SPEED_METERS_PER_SECOND);
@@ -36,13 +40,14 @@ public class PathPlanner implements IPathPlanner {
 	@Override
 	// Gets the appropriate current smoothing acceleration (limiting overshoot) based on position difference.
 	public Vector2 targetPositionToAcceleration(Vector2 targetPosition) {
-		Vector2 aceeleration =  getPositionDeltaVector(targetPosition).scl(Constants.DIRECTIONAL_FORCE_SCALE_FACTOR)
-				.sub(new Vector2(mallet.getVelocity()).scl(Constants.DAMPENING_FORCE_SCALE_FACTOR));
+		Vector2 aceeleration =  getPositionDeltaVector(targetPosition, acceleration)
+				.scl(Constants.DIRECTIONAL_FORCE_SCALE_FACTOR)
+				.mulAdd(mallet.getVelocity(), -Constants.DAMPENING_FORCE_SCALE_FACTOR);
 
 		return aceeleration;
 	}
 
-	private Vector2 getPositionDeltaVector(Vector2 targetPosition) {
-		return new Vector2(targetPosition).sub(mallet.getPosition());
+	private Vector2 getPositionDeltaVector(Vector2 targetPosition, Vector2 result) {
+		return result.set(targetPosition).sub(mallet.getPosition());
 	}
 }
\ No newline at end of file
@@ -0,0 +1,194 @@
+package airhockeyjava.control;
+
+import airhockeyjava.game.Constants;
+
+/**
+ * Precomputed minimum arrival times for the robot gantry, for checking whether the mallet can get
+ * to a point before the puck does. The gantry drives each axis independently, limited to
+ * MECHANICAL_MAX_SPEED_METERS_PER_SECOND and MECHANICAL_MAX_ACCELERATION_METERS_PER_SECOND_SQUARED,
+ * so the time to reach a target is the greater of the two axis times, and each axis time depends
+ * only on the displacement to the target along the axis and the current velocity along it. The map
+ * is therefore a single table over (displacement, velocity) buckets, shared by both axes and
+ * covering every displacement within the robot workspace, rather than a table per position pair.
+ *
+ * The axis time is the earliest time after which the axis can be at the target at any later time:
+ * with the mallet already moving, it may pass the target and then need to turn back, and an
+ * intercept must not count on catching the target only in passing. Entries are stored as unsigned
+ * shorts in units of REACHABILITY_TIME_RESOLUTION_SECONDS, and a query reads the four buckets
+ * around it, so queries are O(1) and do not allocate.
+ *
+ * The table for the mechanical limits is computed on first use, in a few milliseconds. Immutable
+ * once built, so one instance is shared by all games and threads.
+ */
+public class ReachabilityMap {
+
+	private static ReachabilityMap defaultMap; // Computed on first use
+
+	private final float maxSpeed;
+	private final float maxAcceleration;
+	private final float maxDisplacement; // Table covers [-maxDisplacement, maxDisplacement]
+	private final float displacementCellSize;
+	private final float velocityCellSize; // Table covers [-maxSpeed, maxSpeed]
+	private final float timeResolution;
+	private final int displacementBuckets;
+	private final int velocityBuckets;
+
+	// Axis times, indexed by velocity bucket then displacement bucket
+	private final short[] times;
+
+	/**
+	 * Constructor. Computes the table.
+	 * @param maxSpeed per axis
+	 * @param maxAcceleration per axis
+	 * @param maxDisplacement greatest displacement along an axis
+	 * @param displacementCellSize
+	 * @param velocityCellSize
+	 * @param timeResolution
+	 */
+	public ReachabilityMap(float maxSpeed, float maxAcceleration, float maxDisplacement,
+			float displacementCellSize, float velocityCellSize, float timeResolution) {
+		this.maxSpeed = maxSpeed;
+		this.maxAcceleration = maxAcceleration;
+		this.maxDisplacement = maxDisplacement;
+		this.displacementCellSize = displacementCellSize;
+		this.velocityCellSize = velocityCellSize;
+		this.timeResolution = timeResolution;
+		this.displacementBuckets = 2 * (int) Math.ceil(maxDisplacement / displacementCellSize) + 1;
+		this.velocityBuckets = 2 * (int) Math.ceil(maxSpeed / velocityCellSize) + 1;
+		this.times = new short[displacementBuckets * velocityBuckets];
+		computeTable();
+	}
+
+	/**
+	 * Overloaded. Uses the mechanical limits, and covers the robot workspace.
+	 */
+	public ReachabilityMap() {
+		this(Constants.MECHANICAL_MAX_SPEED_METERS_PER_SECOND,
+				Constants.MECHANICAL_MAX_ACCELERATION_METERS_PER_SECOND_SQUARED, Math.max(
+						Constants.GAME_TABLE_WIDTH_METERS / 2f, Constants.GAME_TABLE_HEIGHT_METERS),
+				Constants.REACHABILITY_DISPLACEMENT_CELL_METERS,
+				Constants.REACHABILITY_VELOCITY_CELL_METERS_PER_SECOND,
+				Constants.REACHABILITY_TIME_RESOLUTION_SECONDS);
+	}
+
+	/**
+	 * Get the map for the mechanical limits, computing it on first use.
+	 * @return the shared map
+	 */
+	public static synchronized ReachabilityMap getDefault() {
+		if (defaultMap == null) {
+			defaultMap = new ReachabilityMap();
+		}
+		return defaultMap;
+	}
+
+	private void computeTable() {
+		for (int v = 0; v < velocityBuckets; v++) {
+			float velocity = Math.min(Math.max(getBucketVelocity(v), -maxSpeed), maxSpeed);
+			for (int d = 0; d < displacementBuckets; d++) {
+				float time = getAxisTime(getBucketDisplacement(d), velocity, maxSpeed,
+						maxAcceleration);
+				times[v * displacementBuckets + d] = (short) Math.min(
+						Math.round(time / timeResolution), 0xFFFF);
+			}
+		}
+	}
+
+	private float getBucketDisplacement(int bucket) {
+		return (bucket - displacementBuckets / 2) * displacementCellSize;
+	}
+
+	private float getBucketVelocity(int bucket) {
+		return (bucket - velocityBuckets / 2) * velocityCellSize;
+	}
+
+	/**
+	 * Exact axis time: the earliest time after which an axis starting with the given velocity can
+	 * be at the given displacement at any later time.
+	 * @param displacement from the current position to the target
+	 * @param velocity current velocity, within the maximum speed
+	 * @param maxSpeed
+	 * @param maxAcceleration
+	 * @return time, in seconds
+	 */
+	public static float getAxisTime(float displacement, float velocity, float maxSpeed,
+			float maxAcceleration) {
+		// Reachable positions at time t lie between the extremes under full acceleration either
+		// way; the target must stay between them from then on
+		return (float) Math.max(
+				getTimeUntilAlwaysBeyond(displacement, velocity, maxSpeed, maxAcceleration),
+				getTimeUntilAlwaysBeyond(-displacement, -velocity, maxSpeed, maxAcceleration));
+	}
+
+	/**
+	 * Earliest time after which the position under full positive acceleration (up to the maximum
+	 * speed) is always at least the given displacement.
+	 */
+	private static double getTimeUntilAlwaysBeyond(double displacement, double velocity,
+			double maxSpeed, double maxAcceleration) {
+		// The position falls while the velocity is negative, then rises
+		double lowestPosition = (velocity < 0d) ? -velocity * velocity / (2d * maxAcceleration)
+				: 0d;
+		if (displacement <= lowestPosition) {
+			return 0d;
+		}
+		double accelerationTime = (maxSpeed - velocity) / maxAcceleration;
+		double accelerationDistance = (maxSpeed * maxSpeed - velocity * velocity)
+				/ (2d * maxAcceleration);
+		if (displacement <= accelerationDistance) {
+			// Later root of velocity * t + a * t^2 / 2 = displacement
+			return (-velocity + Math.sqrt(velocity * velocity + 2d * maxAcceleration
+					* displacement)) / maxAcceleration;
+		}
+		return accelerationTime + (displacement - accelerationDistance) / maxSpeed;
+	}
+
+	/**
+	 * Axis time from the table: the greatest of the four buckets around the query, so that it errs
+	 * late, including where the exact time jumps (at the point where the axis would have to turn
+	 * back). Displacements and velocities beyond the table are clamped to it.
+	 * @param displacement
+	 * @param velocity
+	 * @return time, in seconds
+	 */
+	public float getAxisTime(float displacement, float velocity) {
+		float d = Math.min(Math.max(displacement / displacementCellSize + displacementBuckets / 2,
+				0f), displacementBuckets - 1);
+		float v = Math.min(Math.max(velocity / velocityCellSize + velocityBuckets / 2, 0f),
+				velocityBuckets - 1);
+		int index = Math.min((int) v, velocityBuckets - 2) * displacementBuckets
+				+ Math.min((int) d, displacementBuckets - 2);
+		int time = Math.max(times[index] & 0xFFFF, times[index + 1] & 0xFFFF);
+		index += displacementBuckets;
+		time = Math.max(time, Math.max(times[index] & 0xFFFF, times[index + 1] & 0xFFFF));
+		return time * timeResolution;
+	}
+
+	/**
+	 * Minimum time for the mallet to reach a target, the later of the two axes.
+	 * @param fromX current mallet position
+	 * @param fromY
+	 * @param velocityX current mallet velocity
+	 * @param velocityY
+	 * @param toX target
+	 * @param toY
+	 * @return time, in seconds
+	 */
+	public float getArrivalTime(float fromX, float fromY, float velocityX, float velocityY,
+			float toX, float toY) {
+		return Math.max(getAxisTime(toX - fromX, velocityX), getAxisTime(toY - fromY, velocityY));
+	}
+
+	/**
+	 * Whether the mallet can reach a target within the given time.
+	 */
+	public boolean isReachable(float fromX, float fromY, float velocityX, float velocityY,
+			float toX, float toY, float time) {
+		return getAxisTime(toX - fromX, velocityX) <= time
+				&& getAxisTime(toY - fromY, velocityY) <= time;
+	}
+
+	public int getNumberOfEntries() {
+		return times.length;
+	}
+}
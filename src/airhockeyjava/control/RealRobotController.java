@@ -16,6 +16,7 @@ public class RealRobotController implements IController {
 
 	private final SerialConnection serialConnection;
 	private final Mallet mallet;
+	private final LatencyMonitor latencyMonitor;
 	private boolean isArduinoReadyNextPosition = true;
 
 	private class InvalidMessageException extends Exception {
@@ -26,8 +27,9 @@ public class RealRobotController implements IController {
 		}
 	}
 
-	public RealRobotController(Mallet mallet) {
+	public RealRobotController(Mallet mallet, LatencyMonitor latencyMonitor) {
 		this.mallet = mallet;
+		this.latencyMonitor = latencyMonitor;
 		serialConnection = new SerialConnection(this);
 	}
 
@@ -49,11 +51,16 @@ public class RealRobotController implements IController {
 		}
 	}
 
+	@Override
+	public void moveMallet(float deltaTime) { // The mallet position comes from the robot
+	}
+
 	private void sendAbsolutePositionOverSerial(Vector2 targetPositionAbsoluteSteps) {
 
 		String positionString = getDataStringFromPositionVector(targetPositionAbsoluteSteps);
 		System.out.println("targetPos: " + positionString);
 		serialConnection.writeBytes(positionString.getBytes());
+		latencyMonitor.recordCommand(System.nanoTime() / 1e9);
 	}
 
 	private static String getDataStringFromPositionVector(Vector2 position) {
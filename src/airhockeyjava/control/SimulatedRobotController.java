@@ -14,19 +14,30 @@ public class SimulatedRobotController implements IController {
 	
 	private final IPathPlanner pathPlanner;
 	private final Mallet mallet;
+	private final Vector2 targetPosition = new Vector2(); // Of the last control
 
 	public SimulatedRobotController(Mallet mallet) {
 		this.mallet = mallet;
 		pathPlanner = new PathPlanner(mallet);
+		targetPosition.set(mallet.getPosition()); // Hold still until the first control
 	}
 
 	/**
-	 * Set instantaneous mallet velocity and acceleration
+	 * Command the target position, as the robot is sent absolute positions
 	 */
 	@Override
 	public void controlMallet(Vector2 targetPosition, float deltaTime) {
+		this.targetPosition.set(targetPosition);
+	}
+
+	/**
+	 * Set instantaneous mallet velocity and acceleration towards the last target, every physics
+	 * step as the robot's own controller does
+	 */
+	@Override
+	public void moveMallet(float deltaTime) {
 		// mallet.setAcceleration(pathPlanner.targetPositionToAcceleration(targetPosition));
-		mallet.setVelocity(pathPlanner.targetPositionToVelocity(targetPosition));
+		mallet.getVelocity().set(pathPlanner.targetPositionToVelocity(targetPosition));
 
 		// Update internal tracking variables for rendering
 		mallet.updatePosition(deltaTime);
@@ -14,20 +14,31 @@ public class UserController implements IController {
 
 	private final IPathPlanner pathPlanner;
 	private final Mallet mallet;
+	private final Vector2 targetPosition = new Vector2(); // Of the last control
 
 	public UserController(Mallet mallet) {
 		this.mallet = mallet;
 		pathPlanner = new PathPlanner(mallet);
+		targetPosition.set(mallet.getPosition()); // Hold still until the first control
 	}
 
 	/**
-	 * Set instantaneous mallet velocity and acceleration
+	 * Set the target position the user's hand moves the mallet towards
 	 */
 	@Override
 	public void controlMallet(Vector2 targetPosition, float deltaTime) {
+		this.targetPosition.set(targetPosition);
+	}
+
+	/**
+	 * Set instantaneous mallet velocity and acceleration towards the last target, every physics
+	 * step: holding the acceleration over a control period would overshoot
+	 */
+	@Override
+	public void moveMallet(float deltaTime) {
 		Vector2 acceleration = pathPlanner.targetPositionToAcceleration(targetPosition);
 		
-		mallet.setAcceleration(acceleration);
+		mallet.getAcceleration().set(acceleration);
 		
 		// Update internal tracking variables for rendering
 		mallet.updatePositionAndVelocity(deltaTime);
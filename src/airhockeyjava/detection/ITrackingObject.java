@@ -14,6 +14,13 @@ public interface ITrackingObject {
 
 	public void setPosition(Vector2 newPosition);
 
+	/**
+	 * Report a detected position, for objects whose state is estimated from measurements.
+	 * @param measuredPosition
+	 * @param timeSeconds time at which the position was measured
+	 */
+	public void addMeasurement(Vector2 measuredPosition, double timeSeconds);
+
 	public Scalar getHSVMin();
 
 	public Scalar getHSVMax();
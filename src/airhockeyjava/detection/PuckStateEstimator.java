@@ -0,0 +1,419 @@
+package airhockeyjava.detection;
+
+import java.awt.geom.Rectangle2D;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.physical.FrictionGrid;
+import airhockeyjava.physical.Table;
+import airhockeyjava.simulation.PuckSimulation;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Kalman filter estimating the puck state (position and velocity) from timestamped position
+ * measurements, replacing the fixed-alpha position blend and the two-frame velocity difference.
+ * The motion model is constant velocity with drag, as in the simulation: over a time t the
+ * velocity decays by e ^ (-ct), with c the air drag rate plus the surface friction where the puck
+ * is, and the puck covers the drag-adjusted time (1 - e ^ (-ct)) / c times its velocity. Unmodelled
+ * accelerations are white noise. The axes are independent under this model, so the filter is two
+ * 2x2 filters, and an update costs a few dozen flops and no allocation.
+ *
+ * Reflections break the motion model, so they are handled separately:
+ * - Wall: if the predicted position is beyond a wall of the collision frame, the state is
+ *   reflected about the wall with the wall restitution, and the velocity uncertainty is inflated.
+ * - Mallet (or anything else unexpected): if the measurement is too far from the prediction, by
+ *   the normalised innovation squared, the filter is reset to the measurement, with the velocity
+ *   from the difference to the previous measurement.
+ *
+ * The estimate may be extrapolated by the motion model to a later time, e.g. to when a command
+ * based on it will be executed, to compensate for the latency from capture to actuation.
+ *
+ * Measurements may come from a tracking thread while the game thread reads the estimate, so all
+ * public methods are synchronized.
+ */
+public class PuckStateEstimator {
+
+	// Bits returned by advance
+	private static final int REFLECTED_IN_X = 1;
+	private static final int REFLECTED_IN_Y = 2;
+
+	private final float airDragRate; // k/m
+	private final FrictionGrid frictionGrid;
+	private final float minX, maxX, minY, maxY; // Collision frame of the puck centre
+	private final float wallRestitution;
+
+	private final float measurementVariance; // R, per axis
+	private final float processNoiseDensity; // q, acceleration variance per second
+	private final float initialVelocityVariance;
+	private final float bounceVelocityVariance; // Added on a wall reflection
+	private final float innovationGate; // Normalised innovation squared beyond which to reset
+
+	// State, as of time
+	private boolean isInitialized = false;
+	private double time;
+	private float x, y, vx, vy;
+	// Covariance, per axis: position variance, position-velocity covariance, velocity variance
+	private float pxx, pxvx, pvxvx;
+	private float pyy, pyvy, pvyvy;
+
+	// Scratch, for advancing the state
+	private final Vector2 scratchPosition = new Vector2();
+	private final Vector2 scratchVelocity = new Vector2();
+
+	// Last measurement, for resets
+	private float lastMeasuredX, lastMeasuredY;
+	private double lastMeasurementTime;
+
+	// Counters
+	private long measurementCount = 0;
+	private long wallReflectionCount = 0;
+	private long resetCount = 0;
+
+	/**
+	 * Constructor.
+	 * @param table
+	 * @param puckRadius
+	 * @param puckMass
+	 * @param measurementNoise standard deviation of a measured position, per axis, in meters
+	 * @param processNoiseAcceleration standard deviation of unmodelled accelerations over a second,
+	 * in meters per second squared
+	 */
+	public PuckStateEstimator(Table table, float puckRadius, float puckMass,
+			float measurementNoise, float processNoiseAcceleration) {
+		this.airDragRate = Constants.PUCK_AIR_FRICTION_COEFFICIENT / puckMass;
+		this.frictionGrid = table.getFrictionGrid();
+		Rectangle2D collisionFrame = table.getCollisionFrame(puckRadius);
+		this.minX = (float) collisionFrame.getMinX();
+		this.maxX = (float) collisionFrame.getMaxX();
+		this.minY = (float) collisionFrame.getMinY();
+		this.maxY = (float) collisionFrame.getMaxY();
+		this.wallRestitution = Constants.WALL_PUCK_COLLISION_RESTITUTION_COEFFICIENT;
+		this.measurementVariance = measurementNoise * measurementNoise;
+		this.processNoiseDensity = processNoiseAcceleration * processNoiseAcceleration;
+		this.initialVelocityVariance = Constants.KALMAN_INITIAL_VELOCITY_STANDARD_DEVIATION
+				* Constants.KALMAN_INITIAL_VELOCITY_STANDARD_DEVIATION;
+		this.bounceVelocityVariance = Constants.KALMAN_BOUNCE_VELOCITY_STANDARD_DEVIATION
+				* Constants.KALMAN_BOUNCE_VELOCITY_STANDARD_DEVIATION;
+		this.innovationGate = Constants.KALMAN_INNOVATION_GATE;
+	}
+
+	/**
+	 * Overloaded. Uses the game puck dimensions and the default noise model.
+	 * @param table
+	 */
+	public PuckStateEstimator(Table table) {
+		this(table, Constants.GAME_PUCK_RADIUS_METERS, Constants.GAME_PUCK_MASS_GRAMS,
+				Constants.KALMAN_MEASUREMENT_NOISE_METERS,
+				Constants.KALMAN_PROCESS_NOISE_ACCELERATION_METERS_PER_SECOND_SQUARED);
+	}
+
+	/**
+	 * Add a position measurement: predict the state to the measurement time, then correct it, or
+	 * reset to the measurement if it is inconsistent with the prediction.
+	 * @param measuredX
+	 * @param measuredY
+	 * @param timeSeconds time at which the position was measured
+	 */
+	public synchronized void addMeasurement(float measuredX, float measuredY, double timeSeconds) {
+		measurementCount++;
+		if (!isInitialized
+				|| timeSeconds - lastMeasurementTime > Constants.KALMAN_MAX_MEASUREMENT_GAP_SECONDS) {
+			initialize(measuredX, measuredY, timeSeconds);
+			return;
+		}
+		if (timeSeconds > time) {
+			predict((float) (timeSeconds - time));
+			time = timeSeconds;
+		}
+
+		float innovationX = measuredX - x;
+		float innovationY = measuredY - y;
+		float innovationVarianceX = pxx + measurementVariance;
+		float innovationVarianceY = pyy + measurementVariance;
+		float normalisedInnovation = innovationX * innovationX / innovationVarianceX
+				+ innovationY * innovationY / innovationVarianceY;
+		if (normalisedInnovation > innovationGate) {
+			reset(measuredX, measuredY, timeSeconds);
+			return;
+		}
+
+		// Correct each axis: gain K = P H' / S, with H = [1 0]
+		float gainX = pxx / innovationVarianceX;
+		float gainVX = pxvx / innovationVarianceX;
+		x += gainX * innovationX;
+		vx += gainVX * innovationX;
+		pvxvx -= gainVX * pxvx;
+		pxvx *= 1f - gainX;
+		pxx *= 1f - gainX;
+
+		float gainY = pyy / innovationVarianceY;
+		float gainVY = pyvy / innovationVarianceY;
+		y += gainY * innovationY;
+		vy += gainVY * innovationY;
+		pvyvy -= gainVY * pyvy;
+		pyvy *= 1f - gainY;
+		pyy *= 1f - gainY;
+
+		setLastMeasurement(measuredX, measuredY, timeSeconds);
+	}
+
+	/**
+	 * Overloaded.
+	 * @param measuredPosition
+	 * @param timeSeconds
+	 */
+	public void addMeasurement(Vector2 measuredPosition, double timeSeconds) {
+		addMeasurement(measuredPosition.x, measuredPosition.y, timeSeconds);
+	}
+
+	/**
+	 * Propagate the state and covariance by the motion model, reflecting off the walls.
+	 */
+	private void predict(float deltaTime) {
+		float dragRate = airDragRate + frictionGrid.getFrictionCoefficient(x, y);
+		float displacementScale = PuckSimulation.getDragAdjustedTime(dragRate, deltaTime);
+		float decay = (float) StrictMath.exp(-dragRate * deltaTime);
+
+		scratchPosition.set(x, y);
+		scratchVelocity.set(vx, vy);
+		int reflections = advance(scratchPosition, scratchVelocity, displacementScale, decay);
+		x = scratchPosition.x;
+		y = scratchPosition.y;
+		vx = scratchVelocity.x;
+		vy = scratchVelocity.y;
+
+		// P = F P F' + Q, with F = [1 a; 0 d] and white acceleration noise
+		float a = displacementScale;
+		float q = processNoiseDensity;
+		float dt2 = deltaTime * deltaTime;
+		pxx += 2f * a * pxvx + a * a * pvxvx + q * dt2 * deltaTime / 3f;
+		pxvx = decay * (pxvx + a * pvxvx) + q * dt2 / 2f;
+		pvxvx = decay * decay * pvxvx + q * deltaTime;
+		pyy += 2f * a * pyvy + a * a * pvyvy + q * dt2 * deltaTime / 3f;
+		pyvy = decay * (pyvy + a * pvyvy) + q * dt2 / 2f;
+		pvyvy = decay * decay * pvyvy + q * deltaTime;
+
+		if ((reflections & REFLECTED_IN_X) != 0) {
+			scaleCovarianceForReflection(true);
+		}
+		if ((reflections & REFLECTED_IN_Y) != 0) {
+			scaleCovarianceForReflection(false);
+		}
+	}
+
+	/**
+	 * Advance a state by the motion model, then reflect it back off any walls it has passed.
+	 * Restitution scales the whole velocity; the reflected axis maps (x, v) to (-e x, -e v) about
+	 * the wall.
+	 * @param position in/out
+	 * @param velocity in/out
+	 * @param displacementScale drag-adjusted time
+	 * @param decay velocity decay factor
+	 * @return REFLECTED_IN_X and/or REFLECTED_IN_Y bits
+	 */
+	private int advance(Vector2 position, Vector2 velocity, float displacementScale, float decay) {
+		position.mulAdd(velocity, displacementScale);
+		velocity.scl(decay);
+
+		float e = wallRestitution;
+		int reflections = 0;
+		for (int i = 0; i < Constants.SIMULATION_MAX_CONTACTS_PER_STEP; i++) {
+			if (position.x < minX || position.x > maxX) {
+				float wall = (position.x < minX) ? minX : maxX;
+				position.x = wall - e * (position.x - wall);
+				velocity.x *= -e;
+				velocity.y *= e;
+				reflections |= REFLECTED_IN_X;
+			} else if (position.y < minY || position.y > maxY) {
+				float wall = (position.y < minY) ? minY : maxY;
+				position.y = wall - e * (position.y - wall);
+				velocity.y *= -e;
+				velocity.x *= e;
+				reflections |= REFLECTED_IN_Y;
+			} else {
+				break;
+			}
+		}
+		return reflections;
+	}
+
+	private void scaleCovarianceForReflection(boolean isReflectedInX) {
+		float e = wallRestitution;
+		if (isReflectedInX) {
+			pxx *= e * e;
+			pxvx *= e * e;
+			pvxvx = e * e * pvxvx + bounceVelocityVariance;
+			pyvy *= e;
+			pvyvy = e * e * pvyvy + bounceVelocityVariance;
+		} else {
+			pyy *= e * e;
+			pyvy *= e * e;
+			pvyvy = e * e * pvyvy + bounceVelocityVariance;
+			pxvx *= e;
+			pvxvx = e * e * pvxvx + bounceVelocityVariance;
+		}
+		wallReflectionCount++;
+	}
+
+	/**
+	 * Start from a measurement, at rest with a large velocity uncertainty.
+	 */
+	private void initialize(float measuredX, float measuredY, double timeSeconds) {
+		x = measuredX;
+		y = measuredY;
+		vx = 0f;
+		vy = 0f;
+		pxx = measurementVariance;
+		pyy = measurementVariance;
+		pxvx = 0f;
+		pyvy = 0f;
+		pvxvx = initialVelocityVariance;
+		pvyvy = initialVelocityVariance;
+		time = timeSeconds;
+		isInitialized = true;
+		setLastMeasurement(measuredX, measuredY, timeSeconds);
+	}
+
+	/**
+	 * Restart from a measurement after an unmodelled change of velocity (e.g. a mallet hit), with
+	 * the velocity from the difference to the previous measurement.
+	 */
+	private void reset(float measuredX, float measuredY, double timeSeconds) {
+		resetCount++;
+		float deltaTime = (float) (timeSeconds - lastMeasurementTime);
+		if (deltaTime <= 0f) {
+			initialize(measuredX, measuredY, timeSeconds);
+			return;
+		}
+		x = measuredX;
+		y = measuredY;
+		vx = (measuredX - lastMeasuredX) / deltaTime;
+		vy = (measuredY - lastMeasuredY) / deltaTime;
+		// Covariance of a two-point difference, plus the uncertainty of the impulse itself
+		pxx = measurementVariance;
+		pyy = measurementVariance;
+		pxvx = measurementVariance / deltaTime;
+		pyvy = measurementVariance / deltaTime;
+		pvxvx = 2f * measurementVariance / (deltaTime * deltaTime) + bounceVelocityVariance;
+		pvyvy = pvxvx;
+		time = timeSeconds;
+		setLastMeasurement(measuredX, measuredY, timeSeconds);
+	}
+
+	private void setLastMeasurement(float measuredX, float measuredY, double timeSeconds) {
+		lastMeasuredX = measuredX;
+		lastMeasuredY = measuredY;
+		lastMeasurementTime = timeSeconds;
+	}
+
+	/**
+	 * Forget the state, e.g. when the puck is served again. The next measurement starts afresh.
+	 */
+	public synchronized void clear() {
+		isInitialized = false;
+	}
+
+	/**
+	 * Get the estimated position and velocity together, as of the latest measurement.
+	 * @param position output
+	 * @param velocity output
+	 * @return false iff there is no estimate yet, in which case the outputs are unchanged
+	 */
+	public synchronized boolean getState(Vector2 position, Vector2 velocity) {
+		if (!isInitialized) {
+			return false;
+		}
+		position.set(x, y);
+		velocity.set(vx, vy);
+		return true;
+	}
+
+	/**
+	 * Get the latest raw measurement, before filtering, e.g. for estimators that must not see the
+	 * filter's own motion model.
+	 * @param position output
+	 * @return time of the measurement, or NaN iff there is no estimate yet, in which case the output
+	 * is unchanged
+	 */
+	public synchronized double getLastMeasurement(Vector2 position) {
+		if (!isInitialized) {
+			return Double.NaN;
+		}
+		position.set(lastMeasuredX, lastMeasuredY);
+		return lastMeasurementTime;
+	}
+
+	/**
+	 * Extrapolate the estimate by the motion model to a later time, e.g. the expected time at
+	 * which a command based on it will be executed. Extrapolation is capped at
+	 * KALMAN_MAX_EXTRAPOLATION_SECONDS beyond the latest measurement.
+	 * @param timeSeconds time to extrapolate to, on the measurement clock; earlier times give the
+	 * estimate as of the latest measurement
+	 * @param position output
+	 * @param velocity output
+	 * @return false iff there is no estimate yet, in which case the outputs are unchanged
+	 */
+	public synchronized boolean extrapolate(double timeSeconds, Vector2 position, Vector2 velocity) {
+		if (!isInitialized) {
+			return false;
+		}
+		position.set(x, y);
+		velocity.set(vx, vy);
+		float deltaTime = (float) Math.min(timeSeconds - time,
+				Constants.KALMAN_MAX_EXTRAPOLATION_SECONDS);
+		if (deltaTime > 0f) {
+			float dragRate = airDragRate + frictionGrid.getFrictionCoefficient(x, y);
+			advance(position, velocity, PuckSimulation.getDragAdjustedTime(dragRate, deltaTime),
+					(float) StrictMath.exp(-dragRate * deltaTime));
+		}
+		return true;
+	}
+
+	/**
+	 * Get the variance of the estimated position, per axis.
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public synchronized Vector2 getPositionVariance(Vector2 out) {
+		return out.set(pxx, pyy);
+	}
+
+	/**
+	 * Get the variance of the estimated velocity, per axis.
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public synchronized Vector2 getVelocityVariance(Vector2 out) {
+		return out.set(pvxvx, pvyvy);
+	}
+
+	/**
+	 * Get the covariance between the estimated position and velocity, per axis.
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public synchronized Vector2 getPositionVelocityCovariance(Vector2 out) {
+		return out.set(pxvx, pyvy);
+	}
+
+	/**
+	 * Time of the latest measurement, in seconds.
+	 */
+	public synchronized double getTime() {
+		return time;
+	}
+
+	public synchronized long getMeasurementCount() {
+		return measurementCount;
+	}
+
+	public synchronized long getWallReflectionCount() {
+		return wallReflectionCount;
+	}
+
+	/**
+	 * Number of resets to a measurement inconsistent with the prediction (e.g. mallet hits).
+	 */
+	public synchronized long getResetCount() {
+		return resetCount;
+	}
+}
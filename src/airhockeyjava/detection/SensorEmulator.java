@@ -0,0 +1,191 @@
+package airhockeyjava.detection;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.util.RandomXS128;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Emulates the camera and vision pipeline for a tracked object in simulated games, so that the
+ * prediction and strategy layers see what they would see on the real table rather than perfect
+ * state every tick. The true position is sampled at the camera frame rate; each frame may be
+ * dropped, has gaussian centroid noise added, and is delivered after a latency drawn from a
+ * gaussian distribution (frames are delivered in capture order, as from a FIFO pipeline). The
+ * velocity is estimated as on the real system, from the last two delivered frames.
+ *
+ * All randomness comes from a seeded RandomXS128, so runs are reproducible. Frames in flight are
+ * held in a preallocated queue, so updates do not allocate. Not thread safe.
+ */
+public class SensorEmulator {
+
+	private final float framePeriodSeconds;
+	private final float latencyMeanSeconds;
+	private final float latencyJitterSeconds; // Standard deviation
+	private final float positionNoiseMeters; // Standard deviation, per axis
+	private final float frameDropProbability;
+	private final RandomXS128 random;
+
+	// Frames captured but not yet delivered, oldest at queueHead
+	private final double[] queuedCaptureTimes;
+	private final double[] queuedDeliveryTimes;
+	private final float[] queuedX;
+	private final float[] queuedY;
+	private int queueHead = 0;
+	private int queueSize = 0;
+
+	private double nextCaptureTime = 0.0;
+	private double lastDeliveryTime = 0.0;
+
+	// Last two delivered frames
+	private final Vector2 framePosition = new Vector2();
+	private final Vector2 previousFramePosition = new Vector2();
+	private double frameCaptureTime = 0.0;
+	private double previousFrameCaptureTime = 0.0;
+	private int framesSinceReset = 0;
+
+	// Counters
+	private int framesCaptured = 0;
+	private int framesDropped = 0;
+	private int framesDelivered = 0;
+
+	/**
+	 * Constructor.
+	 * @param framesPerSecond camera frame rate
+	 * @param latencyMeanSeconds mean delay from capture to delivery
+	 * @param latencyJitterSeconds standard deviation of the delay
+	 * @param positionNoiseMeters standard deviation of the centroid noise, per axis
+	 * @param frameDropProbability probability that a captured frame is never delivered
+	 * @param maxFramesInFlight capacity of the pipeline; frames captured while it is full are dropped
+	 * @param seed
+	 */
+	public SensorEmulator(float framesPerSecond, float latencyMeanSeconds,
+			float latencyJitterSeconds, float positionNoiseMeters, float frameDropProbability,
+			int maxFramesInFlight, long seed) {
+		this.framePeriodSeconds = 1f / framesPerSecond;
+		this.latencyMeanSeconds = latencyMeanSeconds;
+		this.latencyJitterSeconds = latencyJitterSeconds;
+		this.positionNoiseMeters = positionNoiseMeters;
+		this.frameDropProbability = frameDropProbability;
+		this.random = new RandomXS128(seed);
+		this.queuedCaptureTimes = new double[maxFramesInFlight];
+		this.queuedDeliveryTimes = new double[maxFramesInFlight];
+		this.queuedX = new float[maxFramesInFlight];
+		this.queuedY = new float[maxFramesInFlight];
+	}
+
+	/**
+	 * Overloaded. Uses the default camera and pipeline characteristics.
+	 * @param seed
+	 */
+	public SensorEmulator(long seed) {
+		this(Constants.SENSOR_EMULATION_FRAMES_PER_SECOND,
+				Constants.SENSOR_EMULATION_LATENCY_MEAN_SECONDS,
+				Constants.SENSOR_EMULATION_LATENCY_JITTER_SECONDS,
+				Constants.SENSOR_EMULATION_POSITION_NOISE_METERS,
+				Constants.SENSOR_EMULATION_FRAME_DROP_PROBABILITY,
+				Constants.SENSOR_EMULATION_MAX_FRAMES_IN_FLIGHT, seed);
+	}
+
+	/**
+	 * Advance the emulated pipeline to the given time: capture a frame of the true position if one
+	 * is due, and deliver any frames whose latency has elapsed. Call once per physics step.
+	 * @param truePosition
+	 * @param timeSeconds
+	 * @return true iff at least one frame was delivered
+	 */
+	public boolean update(Vector2 truePosition, double timeSeconds) {
+		if (timeSeconds >= nextCaptureTime) {
+			capture(truePosition, timeSeconds);
+			nextCaptureTime += framePeriodSeconds;
+			if (nextCaptureTime <= timeSeconds) {
+				nextCaptureTime = timeSeconds + framePeriodSeconds; // Fell behind, e.g. after a reset
+			}
+		}
+
+		boolean isFrameDelivered = false;
+		while (queueSize > 0 && queuedDeliveryTimes[queueHead] <= timeSeconds) {
+			previousFramePosition.set(framePosition);
+			previousFrameCaptureTime = frameCaptureTime;
+			framePosition.set(queuedX[queueHead], queuedY[queueHead]);
+			frameCaptureTime = queuedCaptureTimes[queueHead];
+			queueHead = (queueHead + 1) % queuedX.length;
+			queueSize--;
+			framesSinceReset++;
+			framesDelivered++;
+			isFrameDelivered = true;
+		}
+		return isFrameDelivered;
+	}
+
+	/**
+	 * Capture a frame of the true position, unless it is dropped.
+	 */
+	private void capture(Vector2 truePosition, double timeSeconds) {
+		framesCaptured++;
+		if (random.nextFloat() < frameDropProbability || queueSize == queuedX.length) {
+			framesDropped++;
+			return;
+		}
+		float latency = Math.max(0f, latencyMeanSeconds + latencyJitterSeconds
+				* (float) random.nextGaussian());
+		// Frames leave the pipeline in order
+		double deliveryTime = Math.max(timeSeconds + latency, lastDeliveryTime);
+		lastDeliveryTime = deliveryTime;
+
+		int queueTail = (queueHead + queueSize) % queuedX.length;
+		queuedCaptureTimes[queueTail] = timeSeconds;
+		queuedDeliveryTimes[queueTail] = deliveryTime;
+		queuedX[queueTail] = truePosition.x + positionNoiseMeters * (float) random.nextGaussian();
+		queuedY[queueTail] = truePosition.y + positionNoiseMeters * (float) random.nextGaussian();
+		queueSize++;
+	}
+
+	/**
+	 * Discard frames in flight, e.g. after the puck is served again, and restart capturing from
+	 * the given time.
+	 * @param timeSeconds
+	 */
+	public void reset(double timeSeconds) {
+		queueSize = 0;
+		nextCaptureTime = timeSeconds;
+		lastDeliveryTime = timeSeconds;
+		framesSinceReset = 0;
+	}
+
+	/**
+	 * Get the position in the latest delivered frame.
+	 * @return position, owned by the emulator
+	 */
+	public Vector2 getFramePosition() {
+		return framePosition;
+	}
+
+	public double getFrameCaptureTime() {
+		return frameCaptureTime;
+	}
+
+	/**
+	 * Get the velocity estimated from the last two delivered frames, or zero if there have not yet
+	 * been two frames since the last reset.
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public Vector2 getFrameVelocity(Vector2 out) {
+		if (framesSinceReset < 2) {
+			return out.setZero();
+		}
+		return out.set(framePosition).sub(previousFramePosition).scl(
+				(float) (1.0 / (frameCaptureTime - previousFrameCaptureTime)));
+	}
+
+	public int getFramesCaptured() {
+		return framesCaptured;
+	}
+
+	public int getFramesDropped() {
+		return framesDropped;
+	}
+
+	public int getFramesDelivered() {
+		return framesDelivered;
+	}
+}
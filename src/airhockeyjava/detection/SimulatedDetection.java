@@ -5,10 +5,9 @@ import java.awt.geom.Rectangle2D;
 import airhockeyjava.game.Game;
 import airhockeyjava.game.Constants;
 import airhockeyjava.input.IInputLayer;
+import airhockeyjava.physical.Puck;
 import airhockeyjava.util.Conversion;
-import airhockeyjava.util.Vector2;
 import airhockeyjava.physical.Table.GoalScoredEnum;
-import airhockeyjava.simulation.Collision;
 import airhockeyjava.simulation.PuckSimulation;
 
 /**
@@ -16,6 +15,10 @@ import airhockeyjava.simulation.PuckSimulation;
  * TODO determine whether detection layer is responsible for choosing which it should update or if
  * this should be specified by the constructing/calling class (i.e. Game class).
  *
+ * If sensor emulation is enabled in the game settings, the physics runs on a private "true" puck,
+ * and the game puck is only updated from emulated camera frames (see SensorEmulator), as it would
+ * be by the vision system on the real table.
+ *
  * @author Joshua Segeren
  *
  */
@@ -23,6 +26,13 @@ public class SimulatedDetection implements IDetection {
 	private Game game;
 
 	private final Rectangle2D tablePuckCollisionFrame;
+	private final PuckSimulation puckSimulation;
+
+	// Sensor emulation. The emulator is created when emulation is first enabled, so that the seed
+	// may be set in the game settings after construction.
+	private final Puck truePuck;
+	private SensorEmulator sensorEmulator;
+	private boolean isEmulatingSensor = false;
 
 	/**
 	 * Constructor. Instantiates the collision frame member.
@@ -32,6 +42,8 @@ public class SimulatedDetection implements IDetection {
 	public SimulatedDetection(Game game, IInputLayer inputLayer) {
 		this.game = game;
 		this.tablePuckCollisionFrame = game.gameTable.getCollisionFrame(game.gamePuck.getRadius());
+		this.puckSimulation = new PuckSimulation(game.gameTable);
+		this.truePuck = new Puck(game.gameTable);
 	}
 
 	/* (non-Javadoc)
@@ -47,48 +59,105 @@ public class SimulatedDetection implements IDetection {
 	 * @param deltaTime
 	 */
 	private void updateItemStates(float deltaTime) {
-		// Check for and update goals scored
-		if (game.settings.goalDetectionOn) {
-			Vector2 expectedPuckPosition = game.gamePuck.getExpectedPosition(deltaTime);
-			GoalScoredEnum goalScoredEnum = game.gameTable.checkForIntersectionGoal(
-					expectedPuckPosition, game.gamePuck.getRadius());
-			if (goalScoredEnum.equals(GoalScoredEnum.GOAL_SCORED_FOR_ROBOT)) {
-				game.robotScore++;
-				game.resetPuck();
-				return;
-			} else if (goalScoredEnum.equals(GoalScoredEnum.GOAL_SCORED_FOR_USER)) {
-				game.userScore++;
-				game.resetPuck();
-				return;
+		if (game.settings.emulateSensor != isEmulatingSensor) {
+			setSensorEmulation(game.settings.emulateSensor);
+		}
+
+		// Update position, velocity, and check for goals scored along the way
+		boolean isPuckCollision = stepPuckPhysics(deltaTime);
+
+		// Update goals scored
+		GoalScoredEnum goalScoredEnum = getGoalScored();
+		if (goalScoredEnum.equals(GoalScoredEnum.GOAL_SCORED_FOR_ROBOT)) {
+			game.robotScore++;
+			resetPuck();
+			return;
+		} else if (goalScoredEnum.equals(GoalScoredEnum.GOAL_SCORED_FOR_USER)) {
+			game.userScore++;
+			resetPuck();
+			return;
+		}
+
+		if (isEmulatingSensor) {
+			// The game puck only changes when a camera frame arrives. The measurement is stamped
+			// with its capture time, and the estimate carried forward over the latency to now
+			if (sensorEmulator.update(truePuck.getPosition(), game.gameTimeElapsedSeconds)) {
+				game.gamePuck.addMeasurement(sensorEmulator.getFramePosition(),
+						sensorEmulator.getFrameCaptureTime());
+				game.latencyMonitor.addSample(sensorEmulator.getFrameCaptureTime(),
+						game.gameTimeElapsedSeconds);
+				if (game.gamePuck.updateFromStateEstimate(game.gameTimeElapsedSeconds)) {
+					game.gamePuck
+							.updatePredictedPath(Constants.NUMBER_PREDICTED_PATH_REFLECTIONS);
+				}
 			}
+			return;
 		}
 
-		// Update position, velocity, and projection if necessary
-		updatePuckState(deltaTime);
+		// Update predicted path
+		game.gamePuck.updatePredictedPath(Constants.NUMBER_PREDICTED_PATH_REFLECTIONS,
+				isPuckCollision);
+	}
+
+	/**
+	 * Switch sensor emulation on or off. The physics carries on from the current state of whichever
+	 * puck it was running on.
+	 * @param isEnabled
+	 */
+	private void setSensorEmulation(boolean isEnabled) {
+		if (isEnabled) {
+			if (sensorEmulator == null) {
+				sensorEmulator = new SensorEmulator(game.settings.sensorEmulationSeed);
+			}
+			copyPuckState(game.gamePuck, truePuck);
+			sensorEmulator.reset(game.gameTimeElapsedSeconds);
+		} else {
+			copyPuckState(truePuck, game.gamePuck);
+		}
+		isEmulatingSensor = isEnabled;
 	}
 
 	/**
-	 * Internal method to update puck state!
+	 * Serve the puck again after a goal.
+	 */
+	private void resetPuck() {
+		game.resetPuck();
+		if (isEmulatingSensor) {
+			copyPuckState(game.gamePuck, truePuck);
+			sensorEmulator.reset(game.gameTimeElapsedSeconds);
+		}
+	}
+
+	private static void copyPuckState(Puck from, Puck to) {
+		to.setPosition(from.getPosition());
+		to.getVelocity().set(from.getVelocity());
+	}
+
+	/**
+	 * Advance the puck physics over one tick, detecting goals as swept goal line crossings if goal
+	 * detection is on. Allocation-free.
 	 * @param deltaTime
+	 * @return true iff a collision occurred
 	 */
-	private void updatePuckState(float deltaTime) {
-		boolean isPuckCollision = false; // Flag to check whether puck collision occurred
-		// Update puck position, velocity based on wall collisions
-		isPuckCollision |= PuckSimulation.updatePuckFromWallCollisions(game.gamePuck,
-				tablePuckCollisionFrame, deltaTime);
-		// Update puck position, velocity based on mallet collision
-		isPuckCollision |= PuckSimulation.updatePuckFromMalletCollisions(game.gamePuck,
-				game.userMallet, game.robotMallet, deltaTime);
-
-		// Apply air friction. Surface is assumed frictionless // TODO is this reasonable?
-		PuckSimulation.applyAirFrictionToPuckVelocity(game.gamePuck,
-				Constants.PUCK_AIR_FRICTION_COEFFICIENT, deltaTime);
-
-		// Cap out the maximum puck speed
-		game.gamePuck.getVelocity().limit(Constants.MAX_PUCK_SPEED_METERS_PER_SECOND);
+	public boolean stepPuckPhysics(float deltaTime) {
+		return puckSimulation.stepPuck(isEmulatingSensor ? truePuck : game.gamePuck,
+				tablePuckCollisionFrame, game.userMallet, game.robotMallet, deltaTime,
+				game.settings.goalDetectionOn);
+	}
 
-		// Update predicted path
-		game.gamePuck.updatePredictedPath(Constants.NUMBER_PREDICTED_PATH_REFLECTIONS,
-				isPuckCollision);
+	/**
+	 * Get the sensor emulator, e.g. for its frame counters.
+	 * @return SensorEmulator, or null if sensor emulation has never been enabled
+	 */
+	public SensorEmulator getSensorEmulator() {
+		return sensorEmulator;
+	}
+
+	/**
+	 * Get the goal scored during the last physics step, if any.
+	 * @return GoalScoredEnum
+	 */
+	public GoalScoredEnum getGoalScored() {
+		return puckSimulation.getGoalScored();
 	}
 }
\ No newline at end of file
@@ -55,4 +55,9 @@ public class TableBound implements ITrackingObject{
 		// TODO Auto-generated method stub
 		
 	}
+
+	@Override
+	public void addMeasurement(Vector2 measuredPosition, double timeSeconds) {
+		// Not estimated
+	}
 }
@@ -187,6 +187,9 @@ public class Tracking implements Runnable {
 
 				videoCapture.read(originalImage);
 			}
+			// Stamp the frame as soon as it is delivered, so that the processing time below is
+			// accounted for in the measured pipeline delay rather than hidden in the state
+			double captureTimeSeconds = System.nanoTime() / 1e9;
 
 			if (!originalImage.empty()) {
 				//TODO FIX RESIZING OF FRAME
@@ -240,7 +243,8 @@ public class Tracking implements Runnable {
 					reduceNoise(hsvImageThresholded);
 
 					// Find instance(s) of object to track
-					findObjects(hsvImageThresholded.clone(), trackingObjectList);
+					findObjects(hsvImageThresholded.clone(), trackingObjectList,
+							captureTimeSeconds);
 				}
 
 				// Draw if GUI available
@@ -313,9 +317,12 @@ public class Tracking implements Runnable {
 	 * 
 	 * @param inputImage
 	 *            - Image that will be scanned for objects
+	 * @param captureTimeSeconds
+	 *            - Time the frame was captured, on the System.nanoTime clock
 	 * @return Position of the centroid
 	 * */
-	private static void findObjects(Mat inputImage, List<ITrackingObject> trackingObjectList) {
+	private static void findObjects(Mat inputImage, List<ITrackingObject> trackingObjectList,
+			double captureTimeSeconds) {
 		PriorityQueue<Moments> maxAreaHeap = new PriorityQueue<Moments>(trackingObjectList.size(),
 				new Comparator<Moments>() {
 					public int compare(Moments x, Moments y) {
@@ -378,8 +385,8 @@ public class Tracking implements Runnable {
 							detectedPositionPixelX, Constants.getDetectionWidthScalingFactor()),
 							Conversion.pixelToMeter(detectedPositionPixelY,
 									Constants.getDetectionHeightScalingFactor()));
-					Vector2 filteredPosition = new Vector2(trackingObject.getPosition()).add(updatedPosition.sub(trackingObject.getPosition()).scl(Constants.VELOCITY_FILTER_ALPHA));
-					trackingObject.setPosition(filteredPosition);
+					// Filtering is left to the object's state estimator
+					trackingObject.addMeasurement(updatedPosition, captureTimeSeconds);
 
 					// Log the position
 					// System.out.println(trackingObject.getPosition().toString());
@@ -21,9 +21,13 @@ public class Constants {
 	public static final String REAL_GAME_TYPE_ARG = "real";
 	public static final String REAL_HEADLESS_GAME_TYPE_ARG = "realHeadless"; // No GUI output
 	public static final String SIMULATED_GAME_TYPE_ARG = "sim";
+	public static final String SIMULATED_HEADLESS_GAME_TYPE_ARG = "simHeadless"; // Batch of games, no GUI
 	public static final int GAME_TYPE_ARG_INDEX = 0;
 	public static final String DEFAULT_GAME_TYPE_ARG = SIMULATED_GAME_TYPE_ARG;
 
+	// Per-tick console output (strategy transitions, path refreshes), for debugging only
+	public static final boolean DEBUG_LOGGING_ENABLED = false;
+
 	/**
 	 * Physical Parameter Constants
 	 */
@@ -127,11 +131,88 @@ public class Constants {
 	public static final float WALL_PUCK_COLLISION_RESTITUTION_COEFFICIENT = 0.80f;
 	public static final float PUCK_SURFACE_FRICTION_LOSS_COEFFICIENT = 0.001f;
 	public static final float PUCK_AIR_FRICTION_COEFFICIENT = 0.3f;
+	public static final int FRICTION_GRID_ROWS = 8; // Along the table height
+	public static final int FRICTION_GRID_COLUMNS = 16; // Along the table width
+	public static final float FRICTION_ESTIMATOR_LEARNING_RATE = 0.05f;
+	public static final float FRICTION_ESTIMATOR_MIN_SPEED_METERS_PER_SECOND = 0.2f;
+	public static final float FRICTION_ESTIMATOR_MIN_DIRECTION_COSINE = 0.98f; // About 11 degrees
+	public static final float FRICTION_ESTIMATOR_MAX_FRICTION_COEFFICIENT = 5f; // Rejects outliers
+	public static final float TABLE_DISTANCE_FIELD_CELL_SIZE_METERS = 0.01f;
+	public static final float TABLE_DISTANCE_FIELD_MARGIN_METERS = 0.05f; // Beyond the table edges
 	public static final int GAME_SIMULATION_TARGET_FRAMES_PER_SECOND = 120;
 	public static final int GAME_REAL_TARGET_FRAMES_PER_SECOND = 10;
+	// Fixed physics rate for simulated games, independent of the loop/render rate above
+	public static final int GAME_SIMULATION_PHYSICS_STEPS_PER_SECOND = 1000;
+	// Rate of the strategies and controllers in fixed-step games; at most the physics rate
+	public static final int GAME_SIMULATION_CONTROL_STEPS_PER_SECOND = 120;
+	// Cap on simulated time per loop iteration, so a long stall (e.g. GC) can't snowball
+	public static final float GAME_SIMULATION_MAX_FRAME_TIME_SECONDS = 0.25f;
+	public static final int SIMULATION_MAX_CONTACTS_PER_STEP = 8; // Bounds pinned-puck cases
+	public static final float SIMULATION_MIN_PUCK_SPEED_METERS_PER_SECOND = 0.001f; // Treated as stopped
+	public static final float SIMULATION_BOUNDARY_CONTACT_TOLERANCE_METERS = 0.0001f;
+
+	/**
+	 * Sensor Emulation Constants (simulated games): characteristics of the real camera pipeline
+	 */
+	public static final float SENSOR_EMULATION_FRAMES_PER_SECOND = 75f;
+	public static final float SENSOR_EMULATION_LATENCY_MEAN_SECONDS = 0.03f;
+	public static final float SENSOR_EMULATION_LATENCY_JITTER_SECONDS = 0.005f; // Standard deviation
+	public static final float SENSOR_EMULATION_POSITION_NOISE_METERS = 0.002f; // Standard deviation
+	public static final float SENSOR_EMULATION_FRAME_DROP_PROBABILITY = 0.02f;
+	public static final int SENSOR_EMULATION_MAX_FRAMES_IN_FLIGHT = 16;
+	public static final long SENSOR_EMULATION_DEFAULT_SEED = 0xCA3E7AL;
+
+	/**
+	 * Headless Simulation Constants
+	 */
+	public static final int HEADLESS_DEFAULT_NUMBER_OF_GAMES = 1000;
+	public static final float HEADLESS_DEFAULT_GAME_TIME_SECONDS = 60f;
+	public static final long HEADLESS_DEFAULT_BASE_SEED = 0x5EED5EEDL;
+	public static final float HEADLESS_USER_AIM_SPREAD_METERS = 0.5f;
+	public static final String HEADLESS_FEATURE_MONTE_CARLO = "montecarlo"; // Robot settings to enable
+	public static final String HEADLESS_FEATURE_ROLLOUT = "rollout";
+	public static final String HEADLESS_FEATURE_BANK_SHOT = "bankshot";
+	public static final String HEADLESS_FEATURE_ADVERSARIAL = "adversarial";
+	public static final int HEADLESS_MONTE_CARLO_SAMPLES = 256; // Fixed, with no time budget
 
 	public static final float MAX_PUCK_SPEED_METERS_PER_SECOND = 15f;
 	public static final int NUMBER_PREDICTED_PATH_REFLECTIONS = 1;
+	public static final float PREDICTION_MAX_TIME_SECONDS = 5f; // Horizon of the predicted path
+	public static final int PREDICTION_MAX_BOUNCES = 4; // Bounces followed by the strategy prediction
+	// Change detector tolerances, beyond which the predicted path is rebuilt rather than reused
+	public static final float PREDICTION_REFRESH_SPEED_TOLERANCE = 0.25f; // Fraction of speed
+	public static final float PREDICTION_REFRESH_MIN_DIRECTION_COSINE = 0.995f; // About 6 degrees
+	public static final float PREDICTION_REFRESH_POSITION_TOLERANCE_METERS = 0.01f;
+	// Grid over which strategy lines are indexed for intersection with the predicted path
+	public static final float SEGMENT_INDEX_CELL_SIZE_METERS = 0.1f;
+	public static final float SEGMENT_INDEX_MARGIN_METERS = 0.1f; // Covered beyond the table edges
+	public static final int SEGMENT_INDEX_LINEAR_SCAN_MAX_SEGMENTS = 8; // Fewer are scanned
+	// Monte Carlo prediction of the goal line crossing, from a noisy measured puck state
+	public static final float MONTE_CARLO_POSITION_NOISE_METERS = 0.002f; // Camera centroid noise
+	// Two-frame velocity difference at the camera frame rate: sqrt(2) * position noise * rate
+	public static final float MONTE_CARLO_VELOCITY_NOISE_METERS_PER_SECOND = 1.4142f
+			* MONTE_CARLO_POSITION_NOISE_METERS * SENSOR_EMULATION_FRAMES_PER_SECOND;
+	public static final int MONTE_CARLO_MAX_SAMPLES = 4096;
+	public static final int MONTE_CARLO_CHUNK_SIZE = 128; // Samples per unit of parallel work
+	public static final float MONTE_CARLO_UPDATE_PERIOD_SECONDS = 1f / SENSOR_EMULATION_FRAMES_PER_SECOND;
+	public static final int MONTE_CARLO_PARALLEL_MIN_CHUNKS = 8; // Fewer are propagated sequentially
+	public static final float MONTE_CARLO_STEP_SECONDS = 0.002f;
+	public static final float MONTE_CARLO_TIME_HORIZON_SECONDS = 2f;
+	public static final int MONTE_CARLO_STEPS_PER_DEADLINE_CHECK = 16;
+	public static final float MONTE_CARLO_DEFAULT_TIME_BUDGET_SECONDS = 0.002f; // Per update
+	public static final long MONTE_CARLO_DEFAULT_SEED = 0x3C0DE5L;
+	// Kalman filter estimating the puck state from measured positions
+	public static final float KALMAN_MEASUREMENT_NOISE_METERS = 0.002f; // Standard deviation, per axis
+	public static final float KALMAN_PROCESS_NOISE_ACCELERATION_METERS_PER_SECOND_SQUARED = 1f;
+	public static final float KALMAN_INITIAL_VELOCITY_STANDARD_DEVIATION = 3f; // m/s
+	public static final float KALMAN_BOUNCE_VELOCITY_STANDARD_DEVIATION = 0.3f; // m/s
+	public static final float KALMAN_INNOVATION_GATE = 16f; // Normalised innovation squared; 4 sigma
+	public static final float KALMAN_MAX_MEASUREMENT_GAP_SECONDS = 0.5f; // Longer gaps start afresh
+	public static final float KALMAN_MAX_EXTRAPOLATION_SECONDS = 0.25f;
+	// Latency compensation (real games): delay from capture to serial write, then to actuation
+	public static final int LATENCY_MONITOR_WINDOW_SIZE = 16;
+	public static final float LATENCY_DEFAULT_PIPELINE_DELAY_SECONDS = 0.1f; // One real game tick
+	public static final float LATENCY_ACTUATION_DELAY_SECONDS = 0.01f; // Serial transfer and Arduino
 	public static final float DIRECTIONAL_FORCE_SCALE_FACTOR = 10000f;
 	public static final float DAMPENING_FORCE_SCALE_FACTOR = 100f;
 
@@ -145,6 +226,10 @@ public class Constants {
 	public static final float MECHANICAL_STEPS_PER_METER_Y = 3333; // TODO update with physical calc
 //	public static final float MECHANICAL_STEPS_PER_METER_Y = 3193; // TODO update with physical calc
 	public static final float MECHANICAL_ROBOT_EDGE_SAFETY_MARGIN_METERS = 0.10f;
+	// Bucket sizes and time resolution of the precomputed gantry arrival times (ReachabilityMap)
+	public static final float REACHABILITY_DISPLACEMENT_CELL_METERS = 0.01f;
+	public static final float REACHABILITY_VELOCITY_CELL_METERS_PER_SECOND = 0.02f;
+	public static final float REACHABILITY_TIME_RESOLUTION_SECONDS = 0.0001f;
 
 	/**
 	 * Strategy Constants
@@ -159,21 +244,62 @@ public class Constants {
 	public static final float STRATEGY_VIA_DISTANCE_AHEAD_PUCK_METERS = 0.15f;
 	public static final float STRATEGY_VIA_SWITCH_DISTANCE_METERS_SQUARED = 0.05f*0.05f;
 	public static final float STRATEGY_VIA_ROTATE_ANGLE_DEGREES = 120f;
+	// Monte Carlo goal probability above which the defense covers the mean shot rather than the
+	// single predicted path
+	public static final float STRATEGY_MONTE_CARLO_MIN_GOAL_PROBABILITY = 0.2f;
+	// Rollout-scored strategy selection
+	public static final float STRATEGY_ROLLOUT_HORIZON_SECONDS = 0.5f; // Mallet follows the strategy
+	public static final float STRATEGY_ROLLOUT_STEP_SECONDS = 0.02f; // Mallet motion step
+	public static final float STRATEGY_ROLLOUT_TAIL_SECONDS = 1f; // Then puck only, mallets still
+	public static final float STRATEGY_ROLLOUT_TAIL_WEIGHT = 0.5f; // Of a goal in the tail
+	public static final int STRATEGY_ROLLOUT_MAX_EVENTS_PER_STEP = 8;
+	public static final float STRATEGY_ROLLOUT_GOAL_RISK_WEIGHT = 1f;
+	public static final float STRATEGY_ROLLOUT_SCORING_WEIGHT = 0.5f;
+	public static final float STRATEGY_ROLLOUT_MIN_SCORE_IMPROVEMENT = 0.75f; // Over the rule-based choice
+	public static final float STRATEGY_ROLLOUT_DEFAULT_TIME_BUDGET_SECONDS = 0.002f; // Per tick
+	// Intercept planning along the predicted path
+	public static final float STRATEGY_INTERCEPT_DEADLINE_SECONDS = 0.0005f; // Per tick
+	public static final int STRATEGY_INTERCEPT_DEADLINE_CHECK_INTERVAL = 16; // Candidates per clock read
+	public static final float STRATEGY_INTERCEPT_TIME_MARGIN_SECONDS = 0.03f; // Robot ahead of the puck by
+	public static final float STRATEGY_INTERCEPT_ANGLE_WINDOW_SECONDS = 0.1f; // After the earliest intercept
+	// Anytime bank shot search for the offense
+	public static final int STRATEGY_BANK_SHOT_INITIAL_ANGLES = 8; // Over the half turn towards the user
+	public static final int STRATEGY_BANK_SHOT_MAX_REFINEMENTS = 6; // Each doubles the angles
+	public static final int STRATEGY_BANK_SHOT_SPEEDS = 3; // Fractions of the maximum strike speed
+	public static final float STRATEGY_BANK_SHOT_SEARCH_BUDGET_SECONDS = 0.01f; // Per puck state
+	public static final float STRATEGY_BANK_SHOT_REQUEST_TOLERANCE_METERS = 0.01f; // Before a new search
+	public static final float STRATEGY_BANK_SHOT_MAX_STRIKE_METERS = 1f; // Mallet travel through the puck
+	// Reach of the mallets, as assumed by the shot searches
+	public static final float STRATEGY_USER_MALLET_SPEED_METERS_PER_SECOND = 1.5f; // Assumed
+	public static final float STRATEGY_REACH_TIMING_SPREAD_SECONDS = 0.25f; // Of a mallet's reach
+	// Bounded-depth adversarial search for the offense
+	public static final int STRATEGY_ADVERSARIAL_MAX_DEPTH = 3; // Strikes: robot, user, robot
+	public static final int STRATEGY_ADVERSARIAL_ROOT_ANGLES = 9; // Over the half turn towards the user
+	public static final int STRATEGY_ADVERSARIAL_STRIKE_SPEEDS = 3; // Fractions of the robot's maximum
+	public static final int STRATEGY_ADVERSARIAL_INTERCEPTS = 4; // Sampled along each path, per reply
+	public static final float STRATEGY_ADVERSARIAL_HORIZON_SECONDS = 2f; // Of each path
+	public static final float STRATEGY_ADVERSARIAL_TERRITORY_WEIGHT = 0.05f; // Puck left in a half, no goal
+	public static final float STRATEGY_ADVERSARIAL_DEFAULT_TIME_BUDGET_SECONDS = 0.002f; // Per tick
+	public static final int STRATEGY_ADVERSARIAL_CACHE_BITS = 14; // Transposition table entries, log 2
+	public static final float STRATEGY_ADVERSARIAL_POSITION_CELL_METERS = 0.02f; // Cache discretisation
+	public static final float STRATEGY_ADVERSARIAL_VELOCITY_CELL_METERS_PER_SECOND = 0.1f;
+	public static final float STRATEGY_ADVERSARIAL_TIME_CELL_SECONDS = 0.05f;
 
 	public static final String STRATEGY_USER_INPUT_STRING = "User input strategy";
 	public static final String STRATEGY_NAIVE_DEFENSE_STRING = "Naive defense strategy";
 	public static final String STRATEGY_TRIANGLE_DEFENSE_STRING = "Triangle defense strategy";
 	public static final String STRATEGY_NAIVE_OFFENSE_STRING = "Naive offense strategy";
 	public static final String STRATEGY_WAYPOINT_OFFENSE_STRING = "Waypoint offense strategy";
+	public static final String STRATEGY_ADVERSARIAL_OFFENSE_STRING = "Adversarial offense strategy";
 	public static final String STRATEGY_HYBRID_DEFENSE_STRING = "Hybrid defense strategy";
 	public static final String STRATEGY_RETREATING_DEFENSE_STRING = "Retreating defense strategy";
 	public static final String STRATEGY_AROUND_PUCK_MANNEUVER_STRING = "Around puck manneuver strategy";
 	public static final String STRATEGY_HOMING_POSITION_STRING = "Homing position strategy";
+	public static final String STRATEGY_SIMULATED_USER_STRING = "Simulated user strategy";
 
 	public static final float STRATEGY_MOVEMENT_TOLERANCE = 0.03f;
 	public static final float MALLET_DEFENDABLE_REGION = GAME_TABLE_WIDTH_METERS - 0.4f;
 	
-	public static final float VELOCITY_FILTER_ALPHA = 0.5f;
 	public static final float CONTROLLER_MOVEMENT_TOLERANCE_SQUARED = 0.005f;
 	/**
 	 * Input Constants
@@ -186,6 +312,14 @@ public class Constants {
 	public static final String INPUT_TOGGLE_RESTRICT_USER_MALLET_NAME = "toggleRestrictUserMalletMovement";
 	public static final int INPUT_TOGGLE_GOAL_DETECTION_KEY = KeyEvent.VK_G;
 	public static final String INPUT_TOGGLE_GOAL_DETECTION_NAME = "toggleGoalDetection";
+	public static final int INPUT_TOGGLE_MONTE_CARLO_KEY = KeyEvent.VK_P;
+	public static final String INPUT_TOGGLE_MONTE_CARLO_NAME = "toggleMonteCarloPrediction";
+	public static final int INPUT_TOGGLE_ROLLOUT_KEY = KeyEvent.VK_O;
+	public static final String INPUT_TOGGLE_ROLLOUT_NAME = "toggleRolloutStrategySelection";
+	public static final int INPUT_TOGGLE_BANK_SHOT_KEY = KeyEvent.VK_B;
+	public static final String INPUT_TOGGLE_BANK_SHOT_NAME = "toggleBankShotSearch";
+	public static final int INPUT_TOGGLE_ADVERSARIAL_KEY = KeyEvent.VK_V;
+	public static final String INPUT_TOGGLE_ADVERSARIAL_NAME = "toggleAdversarialSearch";
 
 	/**
 	 * Output/Communication Constants
@@ -2,6 +2,7 @@ package airhockeyjava.game;
 
 import java.awt.event.ActionEvent;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -20,6 +21,7 @@ import org.opencv.core.Core;
 import org.opencv.highgui.VideoCapture;
 
 import airhockeyjava.control.IController;
+import airhockeyjava.control.LatencyMonitor;
 import airhockeyjava.control.RealRobotController;
 import airhockeyjava.control.SerialConnection;
 import airhockeyjava.control.SimulatedRobotController;
@@ -27,20 +29,27 @@ import airhockeyjava.control.UserController;
 import airhockeyjava.detection.IDetection;
 import airhockeyjava.detection.ITrackingObject;
 import airhockeyjava.detection.PS3EyeFrameGrabber;
+import airhockeyjava.detection.PuckStateEstimator;
 import airhockeyjava.detection.SimulatedDetection;
 import airhockeyjava.detection.TableBound;
 import airhockeyjava.detection.Tracking;
 import airhockeyjava.graphics.GuiLayer;
 import airhockeyjava.input.IInputLayer;
 import airhockeyjava.input.InputLayer;
+import airhockeyjava.physical.FrictionEstimator;
 import airhockeyjava.physical.IMovingItem;
 import airhockeyjava.physical.Mallet;
 import airhockeyjava.physical.Puck;
 import airhockeyjava.physical.Table;
+import airhockeyjava.simulation.MonteCarloPuckPrediction;
+import airhockeyjava.simulation.PuckPrediction;
 import airhockeyjava.strategy.IStrategy;
+import airhockeyjava.strategy.SimulatedUserStrategy;
+import airhockeyjava.strategy.StrategyRolloutEvaluator;
 import airhockeyjava.strategy.StrategySelector;
 import airhockeyjava.strategy.UserInputStrategy;
 import airhockeyjava.util.Conversion;
+import airhockeyjava.util.Vector2;
 
 /**
  * Top-level class for the game. Used for both simulated and actual games.
@@ -57,7 +66,8 @@ public class Game {
 	public static enum GameTypeEnum {
 		REAL_GAME_TYPE(Constants.REAL_GAME_TYPE_ARG), REAL_HEADLESS_GAME_TYPE(
 				Constants.REAL_HEADLESS_GAME_TYPE_ARG), SIMULATED_GAME_TYPE(
-				Constants.SIMULATED_GAME_TYPE_ARG);
+				Constants.SIMULATED_GAME_TYPE_ARG), SIMULATED_HEADLESS_GAME_TYPE(
+				Constants.SIMULATED_HEADLESS_GAME_TYPE_ARG);
 
 		private final String typeString;
 
@@ -95,6 +105,10 @@ public class Game {
 					Constants.INPUT_TOGGLE_RESTRICT_USER_MALLET_NAME);
 			put(Constants.INPUT_TOGGLE_GOAL_DETECTION_KEY,
 					Constants.INPUT_TOGGLE_GOAL_DETECTION_NAME);
+			put(Constants.INPUT_TOGGLE_MONTE_CARLO_KEY, Constants.INPUT_TOGGLE_MONTE_CARLO_NAME);
+			put(Constants.INPUT_TOGGLE_ROLLOUT_KEY, Constants.INPUT_TOGGLE_ROLLOUT_NAME);
+			put(Constants.INPUT_TOGGLE_BANK_SHOT_KEY, Constants.INPUT_TOGGLE_BANK_SHOT_NAME);
+			put(Constants.INPUT_TOGGLE_ADVERSARIAL_KEY, Constants.INPUT_TOGGLE_ADVERSARIAL_NAME);
 		}
 	};
 
@@ -133,17 +147,56 @@ public class Game {
 					settings.goalDetectionOn = !settings.goalDetectionOn;
 				}
 			});
+			put(Constants.INPUT_TOGGLE_MONTE_CARLO_NAME, new AbstractAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					settings.enableMonteCarloPrediction = !settings.enableMonteCarloPrediction;
+				}
+			});
+			put(Constants.INPUT_TOGGLE_ROLLOUT_NAME, new AbstractAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					settings.enableRolloutStrategySelection = !settings.enableRolloutStrategySelection;
+				}
+			});
+			put(Constants.INPUT_TOGGLE_BANK_SHOT_NAME, new AbstractAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					settings.enableBankShotSearch = !settings.enableBankShotSearch;
+				}
+			});
+			put(Constants.INPUT_TOGGLE_ADVERSARIAL_NAME, new AbstractAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					settings.enableAdversarialSearch = !settings.enableAdversarialSearch;
+				}
+			});
 		}
 	};
 
 
-	private static GameTypeEnum gameType;
+	private final GameTypeEnum gameType;
 
 	// Configurable Game Settings
 	public GameSettings settings = new GameSettings();
 
 	// Game-related global variables
 	public float gameTimeRemainingSeconds;
+	public double gameTimeElapsedSeconds = 0; // Simulated (not wall-clock) time; advanced every update
+
+	// Fixed-timestep state. Alpha is the fraction of a physics step not yet simulated, used by the
+	// GUI to interpolate between the previous and current physics states.
+	private float physicsTimeAccumulatorSeconds = 0f;
+	public volatile float renderInterpolationAlpha = 1f;
+	private float controlTimeAccumulatorSeconds = Float.POSITIVE_INFINITY; // Control on the first step
 	public Integer userScore = 0;
 	public Integer robotScore = 0;
 
@@ -154,6 +207,32 @@ public class Game {
 	public Mallet userMallet;
 	public Mallet robotMallet;
 
+	// Prediction of the puck from its current state, rebuilt every update for the robot strategies
+	public final PuckPrediction puckPrediction;
+
+	// Distribution of goal line crossings given the measurement noise, when enabled in the settings
+	public final MonteCarloPuckPrediction puckUncertainty;
+	private double lastPuckUncertaintyUpdateTime = Double.NEGATIVE_INFINITY;
+
+	// Predicted path refreshes of the pucks replaced by resetPuck
+	private long retiredFullPathRefreshCount = 0;
+	private long retiredPartialPathRefreshCount = 0;
+
+	// Learns the table's friction grid from the tracked puck (real games only)
+	private final FrictionEstimator frictionEstimator;
+
+	// Delay from frame capture to command output (real games only), and the puck state as of the
+	// latest capture
+	public final LatencyMonitor latencyMonitor = new LatencyMonitor();
+	private final Vector2 capturedPuckPosition = new Vector2();
+	private final Vector2 measuredPuckPosition = new Vector2();
+	private final Vector2 capturedPuckVelocity = new Vector2();
+
+	// Snapshot of the game state taken once per tick and passed to the strategies, reused every
+	// tick; only the game thread reads it
+	private final WorldSnapshot worldSnapshot;
+	private final Vector2 robotTargetPosition = new Vector2();
+
 	// Application layer interfaces
 	private Tracking realDetectionLayer; // TODO integrate this more cleanly
 	private IDetection detectionLayer;
@@ -181,8 +260,12 @@ public class Game {
 	 * Top-level constructor
 	 */
 	public Game(GameTypeEnum gameType) {
+		this.gameType = gameType;
+
 		// Output game type
-		System.out.println(String.format("Starting game: %s", gameType));
+		if (Constants.DEBUG_LOGGING_ENABLED) {
+			System.out.println(String.format("Starting game: %s", gameType));
+		}
 
 		// Initialize member variables
 		gameTimeRemainingSeconds = Constants.GAME_TIME_SECONDS;
@@ -192,6 +275,13 @@ public class Game {
 		gamePuck = new Puck(this.gameTable);
 		userMallet = new Mallet(true, this.gameTable);
 		robotMallet = new Mallet(false, this.gameTable);
+		robotTargetPosition.set(robotMallet.getPosition());
+		frictionEstimator = new FrictionEstimator(gameTable.getFrictionGrid(), gamePuck.getMass());
+		puckPrediction = new PuckPrediction(gameTable, gamePuck.getRadius(), gamePuck.getMass(),
+				Constants.PREDICTION_MAX_BOUNCES);
+		puckUncertainty = new MonteCarloPuckPrediction(gameTable, gamePuck.getRadius(),
+				gamePuck.getMass(), Constants.MONTE_CARLO_MAX_SAMPLES,
+				Constants.MONTE_CARLO_CHUNK_SIZE, Constants.MONTE_CARLO_DEFAULT_SEED);
 
 		// Initialize items set which is accessible to other layers
 		movingItems = new HashSet<IMovingItem>();
@@ -199,6 +289,8 @@ public class Game {
 		movingItems.add(userMallet);
 		movingItems.add(robotMallet);
 
+		worldSnapshot = new WorldSnapshot(this);
+
 		userStrategy = new UserInputStrategy(this);
 		userController = new UserController(this.userMallet);
 
@@ -214,7 +306,7 @@ public class Game {
 		case REAL_GAME_TYPE:
 			setupGUI();
 			setupRealDetection(true);
-			robotController = new RealRobotController(this.robotMallet);
+			robotController = new RealRobotController(this.robotMallet, latencyMonitor);
 			robotController.initialize();
 			OPTIMAL_TIME = Conversion
 					.secondsToNanoseconds(1f / Constants.GAME_SIMULATION_TARGET_FRAMES_PER_SECOND);
@@ -222,7 +314,7 @@ public class Game {
 		// Real game without GUI output
 		case REAL_HEADLESS_GAME_TYPE:
 			setupRealDetection(false);
-			robotController = new RealRobotController(this.robotMallet);
+			robotController = new RealRobotController(this.robotMallet, latencyMonitor);
 			robotController.initialize();
 			OPTIMAL_TIME = Conversion
 					.secondsToNanoseconds(1f / Constants.GAME_REAL_TARGET_FRAMES_PER_SECOND);
@@ -238,6 +330,13 @@ public class Game {
 			OPTIMAL_TIME = Conversion
 					.secondsToNanoseconds(1f / Constants.GAME_SIMULATION_TARGET_FRAMES_PER_SECOND);
 			break;
+		// Simulated game without GUI or input; both mallets are AI-controlled. Stepped externally
+		// by the HeadlessGameEngine rather than by the main loop.
+		case SIMULATED_HEADLESS_GAME_TYPE:
+			detectionLayer = new SimulatedDetection(this, null);
+			userStrategy = new SimulatedUserStrategy(this, Constants.HEADLESS_DEFAULT_BASE_SEED);
+			robotController = new SimulatedRobotController(this.robotMallet);
+			break;
 		default:
 			break;
 		}
@@ -321,11 +420,18 @@ public class Game {
 
 		// Set the game type based on command-line argument, or use default
 
-		gameType = (args != null && args.length >= (Constants.GAME_TYPE_ARG_INDEX + 1) && (GameTypeEnum
+		GameTypeEnum gameType = (args != null && args.length >= (Constants.GAME_TYPE_ARG_INDEX + 1) && (GameTypeEnum
 				.findByValue(args[Constants.GAME_TYPE_ARG_INDEX]) != null)) ? GameTypeEnum
 				.findByValue(args[Constants.GAME_TYPE_ARG_INDEX]) : GameTypeEnum
 				.findByValue(Constants.DEFAULT_GAME_TYPE_ARG);
 
+		// Headless simulations run many games in parallel, faster than real time, and have no main loop
+		if (gameType.equals(GameTypeEnum.SIMULATED_HEADLESS_GAME_TYPE)) {
+			HeadlessGameEngine.main(Arrays.copyOfRange(args, Constants.GAME_TYPE_ARG_INDEX + 1,
+					args.length));
+			return;
+		}
+
 		// Initialize the game object and game layers
 		game = new Game(gameType);
 
@@ -355,7 +461,11 @@ public class Game {
 													// by 1 second
 			}
 
-			game.updateStates(Conversion.nanosecondsToSeconds(updateLengthTime));
+			if (game.isFixedTimestep()) {
+				game.advanceFixedSteps(Conversion.nanosecondsToSeconds(updateLengthTime));
+			} else {
+				game.updateStates(Conversion.nanosecondsToSeconds(updateLengthTime));
+			}
 
 			// If target FPS = 60 (for example), want each frame to take 10 ms,
 			// we sleep until the next target frame, taking into account the
@@ -382,47 +492,244 @@ public class Game {
 	 * Send game info to the GUI for display
 	 */
 	private void setGameInfoDisplay() {
-		this.guiLayer.setExternalInfoBarData(new String[] { "User Score: " + this.userScore,
-				"Robot Score: " + this.robotScore, });
+		List<String> infoLines = new ArrayList<String>();
+		infoLines.add("User Score: " + this.userScore);
+		infoLines.add("Robot Score: " + this.robotScore);
+		infoLines.add(String.format("Path refreshes: %d full, %d partial",
+				getFullPathRefreshCount(), getPartialPathRefreshCount()));
+		if (settings.enableMonteCarloPrediction) {
+			infoLines.add(String.format("Monte Carlo: %d samples, %.2f ms, P(goal) %.2f",
+					puckUncertainty.getSampleCount(),
+					puckUncertainty.getLastElapsedSeconds() * 1000f,
+					puckUncertainty.getGoalProbability()));
+		}
+		if (settings.enableRolloutStrategySelection) {
+			StrategyRolloutEvaluator rolloutEvaluator = robotStrategy.getRolloutEvaluator();
+			infoLines.add(String.format("Rollouts: %s, %.2f ms, %d over budget",
+					robotStrategy.getCurrentStrategy().getLabelString(),
+					rolloutEvaluator.getLastElapsedSeconds() * 1000f,
+					rolloutEvaluator.getBudgetOverrunCount()));
+		}
+		this.guiLayer.setExternalInfoBarData(infoLines.toArray(new String[infoLines.size()]));
 	}
 
 	/**
 	 * Destroy and reinitialize puck object entirely
 	 */
 	public void resetPuck() {
+		retiredFullPathRefreshCount += gamePuck.getFullPathRefreshCount();
+		retiredPartialPathRefreshCount += gamePuck.getPartialPathRefreshCount();
 		movingItems.remove(gamePuck);
 		gamePuck = new Puck(this.gameTable);
 		movingItems.add(gamePuck);
+		frictionEstimator.reset();
+	}
+
+	/**
+	 * Number of full rebuilds of the puck's predicted path this game, over every puck served.
+	 */
+	public long getFullPathRefreshCount() {
+		return retiredFullPathRefreshCount + gamePuck.getFullPathRefreshCount();
+	}
+
+	/**
+	 * Number of partial refreshes (start point advanced, path reused) of the puck's predicted path
+	 * this game, over every puck served.
+	 */
+	public long getPartialPathRefreshCount() {
+		return retiredPartialPathRefreshCount + gamePuck.getPartialPathRefreshCount();
+	}
+
+	/**
+	 * Stop the game's background work, i.e. the robot strategies' search threads. Call once the
+	 * game is over; the game cannot be updated afterwards.
+	 */
+	public void close() {
+		robotStrategy.close();
 	}
 
 	/**
-	 * Update the game state
+	 * Strategy selector driving the robot mallet, for its rollout scores and costs.
 	 */
-	private void updateStates(float deltaTime) {
+	public StrategySelector getRobotStrategy() {
+		return robotStrategy;
+	}
+
+	/**
+	 * Get the target the robot mallet was last sent to, after the safety check.
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public Vector2 getRobotTargetPosition(Vector2 out) {
+		return out.set(robotTargetPosition);
+	}
+
+	/**
+	 * Replace the strategy driving the user mallet, e.g. with a seeded opponent for headless games.
+	 * @param userStrategy
+	 */
+	public void setUserStrategy(IStrategy userStrategy) {
+		this.userStrategy = userStrategy;
+	}
+
+	/**
+	 * Whether physics is advanced in fixed steps (simulated games only), rather than by the
+	 * measured loop time.
+	 */
+	private boolean isFixedTimestep() {
+		return settings.useFixedTimestep && gameType.equals(GameTypeEnum.SIMULATED_GAME_TYPE);
+	}
+
+	/**
+	 * Fixed-timestep update. Accumulates elapsed loop time and consumes it in whole physics steps of
+	 * 1 / physicsStepsPerSecond, so the simulation no longer depends on scheduler jitter or GC
+	 * pauses, and identical inputs give bit-identical states. The remainder is left for the next
+	 * loop iteration and exposed to the GUI as the interpolation alpha. The info bar is updated once
+	 * per loop iteration.
+	 * Reference: http://gafferongames.com/game-physics/fix-your-timestep/
+	 * @param frameTimeSeconds wall-clock time since the last loop iteration
+	 */
+	void advanceFixedSteps(float frameTimeSeconds) {
+		float stepSeconds = 1f / settings.physicsStepsPerSecond;
+		physicsTimeAccumulatorSeconds += Math.min(frameTimeSeconds,
+				Constants.GAME_SIMULATION_MAX_FRAME_TIME_SECONDS);
+		while (physicsTimeAccumulatorSeconds >= stepSeconds) {
+			savePreviousStates();
+			updateFixedStep(stepSeconds);
+			physicsTimeAccumulatorSeconds -= stepSeconds;
+		}
+		renderInterpolationAlpha = physicsTimeAccumulatorSeconds / stepSeconds;
+		if (guiLayer != null) {
+			setGameInfoDisplay();
+		}
+	}
+
+	/**
+	 * Advance a fixed-step game by one physics step, and run the strategies and controllers if a
+	 * control period of 1 / controlStepsPerSecond has passed since they last ran. Public so that
+	 * the headless engine and PhysicsAllocationCheck can step games directly.
+	 * @param stepSeconds
+	 */
+	public void updateFixedStep(float stepSeconds) {
+		updatePhysics(stepSeconds);
+		float controlPeriodSeconds = 1f / settings.controlStepsPerSecond;
+		controlTimeAccumulatorSeconds += stepSeconds;
+		if (controlTimeAccumulatorSeconds >= controlPeriodSeconds) {
+			// Carry the remainder, but no more than a period: control cannot outrun the physics
+			controlTimeAccumulatorSeconds = Math.min(
+					controlTimeAccumulatorSeconds - controlPeriodSeconds, controlPeriodSeconds);
+			updateControl(controlPeriodSeconds);
+		}
+	}
+
+	/**
+	 * Snapshot the current state of each moving item before it is stepped.
+	 */
+	private void savePreviousStates() {
+		gamePuck.savePreviousState();
+		userMallet.savePreviousState();
+		robotMallet.savePreviousState();
+	}
+
+	/**
+	 * Variable-timestep update of the game state: physics, then the strategies and controllers,
+	 * over the measured loop time.
+	 */
+	void updateStates(float deltaTime) {
+		updatePhysics(deltaTime);
+		if (guiLayer != null && (gameType.equals(GameTypeEnum.SIMULATED_GAME_TYPE)
+				|| gameType.equals(GameTypeEnum.SIMULATED_HEADLESS_GAME_TYPE))) {
+			setGameInfoDisplay();
+		}
+		updateControl(deltaTime);
+	}
+
+	/**
+	 * Advance the items: the puck by the simulated detection (or the vision system) and the
+	 * simulated mallets under their last control.
+	 */
+	private void updatePhysics(float deltaTime) {
+		gameTimeElapsedSeconds += deltaTime;
+
 		// If simulated, we need to use input data to update user mallet state
 		// Also need to use mocked detection layer to update puck position via
 		// physics
-		if (gameType.equals(GameTypeEnum.SIMULATED_GAME_TYPE)) {
-			setGameInfoDisplay();
-			game.detectionLayer.detectAndUpdateItemStates(deltaTime);
-			userController.controlMallet(userStrategy.getTargetPosition(deltaTime), deltaTime);
+		if (gameType.equals(GameTypeEnum.SIMULATED_GAME_TYPE)
+				|| gameType.equals(GameTypeEnum.SIMULATED_HEADLESS_GAME_TYPE)) {
+			detectionLayer.detectAndUpdateItemStates(deltaTime);
+			userController.moveMallet(deltaTime);
+			if (settings.enableAI) {
+				robotController.moveMallet(deltaTime);
+			}
 		}
 		// Otherwise we will use the vision system
 		else if (gameType.equals(GameTypeEnum.REAL_GAME_TYPE)) {
+			PuckStateEstimator stateEstimator = gamePuck.getStateEstimator();
+			if (stateEstimator.getState(capturedPuckPosition, capturedPuckVelocity)) {
+				double captureTime = stateEstimator.getTime();
+				// The friction estimator works from the raw measurements: the filtered state
+				// already decays by the friction grid it is learning
+				double measurementTime = stateEstimator.getLastMeasurement(measuredPuckPosition);
+				if (!Double.isNaN(measurementTime)) {
+					frictionEstimator.addPosition(measuredPuckPosition, measurementTime);
+				}
+				// Act on the puck as it will be when the command takes effect: the capture time
+				// plus the measured delay to the serial write plus the actuation delay
+				latencyMonitor.setPendingCaptureTime(captureTime);
+				gamePuck.updateFromStateEstimate(captureTime
+						+ latencyMonitor.getPipelineDelaySeconds()
+						+ Constants.LATENCY_ACTUATION_DELAY_SECONDS);
+			}
 			// Update predicted path
-			game.gamePuck.calculateAndUpdateDectectedVelocity(deltaTime);
-			game.gamePuck.updatePredictedPath(Constants.NUMBER_PREDICTED_PATH_REFLECTIONS,
-					true);
+			gamePuck.updatePredictedPath(Constants.NUMBER_PREDICTED_PATH_REFLECTIONS);
+		}
+	}
+
+	/**
+	 * Run the strategies on the current state and hand their targets to the controllers.
+	 * @param deltaTime control interval
+	 */
+	private void updateControl(float deltaTime) {
+		// Every strategy this tick works from the same snapshot of the items
+		WorldSnapshot world = captureWorldSnapshot();
+		if (gameType.equals(GameTypeEnum.SIMULATED_GAME_TYPE)
+				|| gameType.equals(GameTypeEnum.SIMULATED_HEADLESS_GAME_TYPE)) {
+			userController.controlMallet(userStrategy.getTargetPosition(world, deltaTime),
+					deltaTime);
 		}
 
 		// Check if should control robot mallet
-		if (game.settings.enableAI) {
-			robotController.controlMallet(game.gameTable.enforceSafeRobotPosition(robotStrategy
-					.getBestStrategy().getTargetPosition(deltaTime),
+		if (settings.enableAI) {
+			// Once per camera frame period, each update within the time budget
+			if (settings.enableMonteCarloPrediction
+					&& gameTimeElapsedSeconds - lastPuckUncertaintyUpdateTime
+						>= Constants.MONTE_CARLO_UPDATE_PERIOD_SECONDS) {
+				lastPuckUncertaintyUpdateTime = gameTimeElapsedSeconds;
+				puckUncertainty.update(world.getPuckPosition(capturedPuckPosition),
+						world.getPuckVelocity(capturedPuckVelocity),
+						settings.monteCarloTimeBudgetSeconds);
+			}
+			// Copy the target, as the strategy may reuse it and the safety check adjusts it in place
+			robotTargetPosition.set(robotStrategy.getBestStrategy(world, deltaTime)
+					.getTargetPosition(world, deltaTime));
+			robotController.controlMallet(gameTable.enforceSafeRobotPosition(robotTargetPosition,
 					Constants.MECHANICAL_ROBOT_EDGE_SAFETY_MARGIN_METERS), deltaTime);
 		}
 	}
 
+	/**
+	 * Internal method to capture the state of the items into the snapshot, with the puck
+	 * prediction if the AI is enabled.
+	 * @return the snapshot
+	 */
+	private WorldSnapshot captureWorldSnapshot() {
+		worldSnapshot.capture(this);
+		if (settings.enableAI) {
+			worldSnapshot.predict(puckPrediction);
+		}
+		return worldSnapshot;
+	}
+
 	private void setKeyBindings() {
 		InputMap inputMap = guiLayer.getInputMap(JPanel.WHEN_IN_FOCUSED_WINDOW);
 		ActionMap actionMap = guiLayer.getActionMap();
@@ -6,5 +6,19 @@ public class GameSettings {
 	public boolean restrictUserMalletMovement = true;
 	public boolean enableAI = true;
 	public boolean usePS3Camera = true;
+	public boolean useFixedTimestep = true; // Simulated games only; real games follow the camera
+	public int physicsStepsPerSecond = Constants.GAME_SIMULATION_PHYSICS_STEPS_PER_SECOND;
+	public int controlStepsPerSecond = Constants.GAME_SIMULATION_CONTROL_STEPS_PER_SECOND;
+	public boolean emulateSensor = false; // Simulated games only; camera rate, latency, noise, drops
+	public long sensorEmulationSeed = Constants.SENSOR_EMULATION_DEFAULT_SEED;
+	public boolean enableMonteCarloPrediction = false; // Goal line crossing distribution, for defense
+	public float monteCarloTimeBudgetSeconds = Constants.MONTE_CARLO_DEFAULT_TIME_BUDGET_SECONDS;
+	public boolean enableRolloutStrategySelection = false; // Score strategies by short rollouts
+	public float rolloutTimeBudgetSeconds = Constants.STRATEGY_ROLLOUT_DEFAULT_TIME_BUDGET_SECONDS;
+	public boolean enableBankShotSearch = false; // Offense aims by searching shots on a worker thread
+	public float bankShotSearchBudgetSeconds = Constants.STRATEGY_BANK_SHOT_SEARCH_BUDGET_SECONDS; // Infinite for in-tick
+	public boolean enableAdversarialSearch = false; // Offense shoots against the user's replies
+	public float interceptDeadlineSeconds = Constants.STRATEGY_INTERCEPT_DEADLINE_SECONDS; // Infinite for none
+	public float adversarialTimeBudgetSeconds = Constants.STRATEGY_ADVERSARIAL_DEFAULT_TIME_BUDGET_SECONDS;
 
 }
@@ -0,0 +1,332 @@
+package airhockeyjava.game;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import airhockeyjava.game.Game.GameTypeEnum;
+import airhockeyjava.strategy.SimulatedUserStrategy;
+import airhockeyjava.strategy.StrategyRolloutEvaluator;
+import airhockeyjava.util.Conversion;
+
+/**
+ * Headless simulation engine. Runs a batch of independent simulated games (no GUI, no input, no
+ * sleeping) on a fork-join pool, as fast as the hardware allows. Each game is driven by the usual
+ * SimulatedDetection physics and StrategySelector robot AI, against a seeded SimulatedUserStrategy
+ * opponent, so a batch is reproducible for a given base seed. Used for offline strategy evaluation.
+ */
+public class HeadlessGameEngine {
+
+	private final int numberOfGames;
+	private final float gameTimeSeconds;
+	private final float stepSeconds;
+	private final int parallelism;
+	private final long baseSeed;
+	private boolean isSensorEmulated = false;
+	private boolean isMonteCarloPredictionEnabled = false;
+	private boolean isRolloutStrategySelectionEnabled = false;
+	private boolean isBankShotSearchEnabled = false;
+	private boolean isAdversarialSearchEnabled = false;
+
+	// Per-game results, indexed by game number. Each slot is written by exactly one task.
+	private final int[] userScores;
+	private final int[] robotScores;
+	private final long[] ticks;
+	private final long[] fullPathRefreshes;
+	private final long[] partialPathRefreshes;
+	private final long[] rolloutEvaluations;
+	private final long[] rolloutOverruns;
+	private final float[][] rolloutMeanCandidateSeconds; // By game, then candidate
+	private String[] rolloutCandidateLabels; // Written by the first game only
+
+	private long elapsedNanoseconds;
+
+	/**
+	 * Batch of games which are split in half until a single game remains, then run to completion.
+	 */
+	private class GameBatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 4870615309470124551L;
+
+		private final int fromIndex; // Inclusive
+		private final int toIndex; // Exclusive
+
+		GameBatchTask(int fromIndex, int toIndex) {
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+		}
+
+		@Override
+		protected void compute() {
+			if (toIndex - fromIndex <= 1) {
+				for (int i = fromIndex; i < toIndex; i++) {
+					runGame(i);
+				}
+			} else {
+				int midIndex = (fromIndex + toIndex) >>> 1;
+				invokeAll(new GameBatchTask(fromIndex, midIndex), new GameBatchTask(midIndex, toIndex));
+			}
+		}
+	}
+
+	public HeadlessGameEngine(int numberOfGames, float gameTimeSeconds, float stepSeconds,
+			int parallelism, long baseSeed) {
+		this.numberOfGames = numberOfGames;
+		this.gameTimeSeconds = gameTimeSeconds;
+		this.stepSeconds = stepSeconds;
+		this.parallelism = parallelism;
+		this.baseSeed = baseSeed;
+		this.userScores = new int[numberOfGames];
+		this.robotScores = new int[numberOfGames];
+		this.ticks = new long[numberOfGames];
+		this.fullPathRefreshes = new long[numberOfGames];
+		this.partialPathRefreshes = new long[numberOfGames];
+		this.rolloutEvaluations = new long[numberOfGames];
+		this.rolloutOverruns = new long[numberOfGames];
+		this.rolloutMeanCandidateSeconds = new float[numberOfGames][];
+	}
+
+	/**
+	 * Overloaded. Uses default game count, length, and seed, the fixed physics rate, and all
+	 * available cores.
+	 */
+	public HeadlessGameEngine() {
+		this(Constants.HEADLESS_DEFAULT_NUMBER_OF_GAMES, Constants.HEADLESS_DEFAULT_GAME_TIME_SECONDS,
+				1f / Constants.GAME_SIMULATION_PHYSICS_STEPS_PER_SECOND, Runtime.getRuntime()
+						.availableProcessors(), Constants.HEADLESS_DEFAULT_BASE_SEED);
+	}
+
+	/**
+	 * Have the robot see the puck through emulated camera frames (rate, latency, noise and drops)
+	 * rather than perfect state, to load-test prediction and strategy under production timing.
+	 * @param isSensorEmulated
+	 */
+	public void setSensorEmulated(boolean isSensorEmulated) {
+		this.isSensorEmulated = isSensorEmulated;
+	}
+
+	/**
+	 * Enable an optional robot feature in every game, by name: HEADLESS_FEATURE_MONTE_CARLO,
+	 * HEADLESS_FEATURE_ROLLOUT, HEADLESS_FEATURE_BANK_SHOT or HEADLESS_FEATURE_ADVERSARIAL.
+	 * @param feature
+	 * @throws IllegalArgumentException if the name is not known
+	 */
+	public void enableFeature(String feature) {
+		if (feature.equals(Constants.HEADLESS_FEATURE_MONTE_CARLO)) {
+			isMonteCarloPredictionEnabled = true;
+		} else if (feature.equals(Constants.HEADLESS_FEATURE_ROLLOUT)) {
+			isRolloutStrategySelectionEnabled = true;
+		} else if (feature.equals(Constants.HEADLESS_FEATURE_BANK_SHOT)) {
+			isBankShotSearchEnabled = true;
+		} else if (feature.equals(Constants.HEADLESS_FEATURE_ADVERSARIAL)) {
+			isAdversarialSearchEnabled = true;
+		} else {
+			throw new IllegalArgumentException("Unknown headless feature: " + feature);
+		}
+	}
+
+	/**
+	 * Run the whole batch, blocking until every game has finished.
+	 */
+	public void run() {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		long startTime = System.nanoTime();
+		try {
+			pool.invoke(new GameBatchTask(0, numberOfGames));
+		} finally {
+			pool.shutdown();
+		}
+		elapsedNanoseconds = System.nanoTime() - startTime;
+	}
+
+	/**
+	 * Play a single game for the configured game time, with fixed steps.
+	 * @param gameIndex
+	 */
+	private void runGame(int gameIndex) {
+		Game game = new Game(GameTypeEnum.SIMULATED_HEADLESS_GAME_TYPE);
+		game.setUserStrategy(new SimulatedUserStrategy(game, baseSeed + gameIndex));
+		game.gameTimeRemainingSeconds = gameTimeSeconds;
+		game.settings.emulateSensor = isSensorEmulated;
+		game.settings.sensorEmulationSeed = baseSeed + gameIndex;
+		game.settings.enableMonteCarloPrediction = isMonteCarloPredictionEnabled;
+		game.settings.enableRolloutStrategySelection = isRolloutStrategySelectionEnabled;
+		game.settings.enableBankShotSearch = isBankShotSearchEnabled;
+		game.settings.enableAdversarialSearch = isAdversarialSearchEnabled;
+		// No wall-clock deadlines, so that a seed always plays out the same game
+		game.settings.interceptDeadlineSeconds = Float.POSITIVE_INFINITY;
+		game.settings.rolloutTimeBudgetSeconds = Float.POSITIVE_INFINITY;
+		game.settings.monteCarloTimeBudgetSeconds = Float.POSITIVE_INFINITY;
+		game.settings.adversarialTimeBudgetSeconds = Float.POSITIVE_INFINITY;
+		game.settings.bankShotSearchBudgetSeconds = Float.POSITIVE_INFINITY; // Searched in the tick
+		game.puckUncertainty.setSampleCount(Constants.HEADLESS_MONTE_CARLO_SAMPLES);
+
+		long gameTicks = 0;
+		try {
+			while (game.gameTimeRemainingSeconds > 0f) {
+				game.updateFixedStep(stepSeconds);
+				game.gameTimeRemainingSeconds -= stepSeconds;
+				gameTicks++;
+			}
+		} finally {
+			game.close();
+		}
+
+		userScores[gameIndex] = game.userScore;
+		robotScores[gameIndex] = game.robotScore;
+		ticks[gameIndex] = gameTicks;
+		fullPathRefreshes[gameIndex] = game.getFullPathRefreshCount();
+		partialPathRefreshes[gameIndex] = game.getPartialPathRefreshCount();
+
+		StrategyRolloutEvaluator rolloutEvaluator = game.getRobotStrategy().getRolloutEvaluator();
+		rolloutEvaluations[gameIndex] = rolloutEvaluator.getEvaluationCount();
+		rolloutOverruns[gameIndex] = rolloutEvaluator.getBudgetOverrunCount();
+		rolloutMeanCandidateSeconds[gameIndex] = new float[rolloutEvaluator.getNumberOfCandidates()];
+		for (int i = 0; i < rolloutMeanCandidateSeconds[gameIndex].length; i++) {
+			rolloutMeanCandidateSeconds[gameIndex][i] = rolloutEvaluator.getMeanEvaluationSeconds(i);
+		}
+		if (gameIndex == 0) {
+			rolloutCandidateLabels = new String[rolloutEvaluator.getNumberOfCandidates()];
+			for (int i = 0; i < rolloutCandidateLabels.length; i++) {
+				rolloutCandidateLabels[i] = rolloutEvaluator.getStrategy(i).getLabelString();
+			}
+		}
+	}
+
+	public int getUserScore(int gameIndex) {
+		return userScores[gameIndex];
+	}
+
+	public int getRobotScore(int gameIndex) {
+		return robotScores[gameIndex];
+	}
+
+	public long getTotalTicks() {
+		long totalTicks = 0;
+		for (int i = 0; i < numberOfGames; i++) {
+			totalTicks += ticks[i];
+		}
+		return totalTicks;
+	}
+
+	public float getGamesPerSecond() {
+		return numberOfGames / Conversion.nanosecondsToSeconds(elapsedNanoseconds);
+	}
+
+	public float getTicksPerSecondPerCore() {
+		return getTotalTicks() / Conversion.nanosecondsToSeconds(elapsedNanoseconds) / parallelism;
+	}
+
+	/**
+	 * Names of the optional robot features enabled, comma separated, or "none".
+	 */
+	private String getFeatureList() {
+		StringBuilder features = new StringBuilder();
+		if (isMonteCarloPredictionEnabled) {
+			features.append(Constants.HEADLESS_FEATURE_MONTE_CARLO);
+		}
+		if (isRolloutStrategySelectionEnabled) {
+			features.append((features.length() > 0) ? "," : "").append(
+					Constants.HEADLESS_FEATURE_ROLLOUT);
+		}
+		if (isBankShotSearchEnabled) {
+			features.append((features.length() > 0) ? "," : "").append(
+					Constants.HEADLESS_FEATURE_BANK_SHOT);
+		}
+		if (isAdversarialSearchEnabled) {
+			features.append((features.length() > 0) ? "," : "").append(
+					Constants.HEADLESS_FEATURE_ADVERSARIAL);
+		}
+		return (features.length() > 0) ? features.toString() : "none";
+	}
+
+	/**
+	 * Rollout evaluations over all games, and the mean cost of each candidate per evaluation
+	 * (target plus rollout), or an empty string if there were none.
+	 */
+	private String getRolloutCostReport() {
+		long totalEvaluations = 0;
+		long totalOverruns = 0;
+		for (int i = 0; i < numberOfGames; i++) {
+			totalEvaluations += rolloutEvaluations[i];
+			totalOverruns += rolloutOverruns[i];
+		}
+		if (totalEvaluations == 0) {
+			return "";
+		}
+		StringBuilder report = new StringBuilder(String.format(
+				"%nRollout evaluations: %d, over budget: %d", totalEvaluations, totalOverruns));
+		for (int candidate = 0; candidate < rolloutCandidateLabels.length; candidate++) {
+			double totalSeconds = 0;
+			for (int i = 0; i < numberOfGames; i++) {
+				totalSeconds += (double) rolloutMeanCandidateSeconds[i][candidate]
+						* rolloutEvaluations[i];
+			}
+			report.append(String.format("%n  %-32s %8.1f us", rolloutCandidateLabels[candidate],
+					totalSeconds / totalEvaluations * 1e6));
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Summary of throughput and results of the last run.
+	 */
+	public String getReport() {
+		int totalUserScore = 0;
+		int totalRobotScore = 0;
+		int robotWins = 0;
+		int userWins = 0;
+		long totalFullPathRefreshes = 0;
+		long totalPartialPathRefreshes = 0;
+		for (int i = 0; i < numberOfGames; i++) {
+			totalFullPathRefreshes += fullPathRefreshes[i];
+			totalPartialPathRefreshes += partialPathRefreshes[i];
+			totalUserScore += userScores[i];
+			totalRobotScore += robotScores[i];
+			robotWins += (robotScores[i] > userScores[i]) ? 1 : 0;
+			userWins += (userScores[i] > robotScores[i]) ? 1 : 0;
+		}
+		float simulatedSeconds = getTotalTicks() * stepSeconds;
+		float wallSeconds = Conversion.nanosecondsToSeconds(elapsedNanoseconds);
+		return String.format("Games: %d (%.1f s each, step %.4f s) on %d threads in %.2f s%n"
+				+ "Sensor emulation: %s%n" + "Robot features: %s%n" + "Games per second: %.2f%n" + "Ticks per second per core: %.0f%n"
+				+ "Speed-up over real time: %.1fx%n" + "Robot goals: %d, user goals: %d%n"
+				+ "Robot wins: %d, user wins: %d, draws: %d%n"
+				+ "Predicted path refreshes: %d full, %d partial (%.1f%% full)%s", numberOfGames,
+				gameTimeSeconds,
+				stepSeconds, parallelism, wallSeconds, isSensorEmulated ? "on" : "off",
+				getFeatureList(), getGamesPerSecond(),
+				getTicksPerSecondPerCore(), simulatedSeconds / wallSeconds, totalRobotScore,
+				totalUserScore, robotWins, userWins, numberOfGames - robotWins - userWins,
+				totalFullPathRefreshes, totalPartialPathRefreshes, 100f * totalFullPathRefreshes
+						/ Math.max(totalFullPathRefreshes + totalPartialPathRefreshes, 1L),
+				getRolloutCostReport());
+	}
+
+	/**
+	 * Entry point for headless batch runs. Optional arguments, in order: number of games, number of
+	 * threads, game time in seconds, physics steps per second, sensor emulation (true/false), and
+	 * robot features to enable, comma separated (see enableFeature).
+	 */
+	public static void main(String[] args) {
+		int numberOfGames = (args.length > 0) ? Integer.parseInt(args[0])
+				: Constants.HEADLESS_DEFAULT_NUMBER_OF_GAMES;
+		int parallelism = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime()
+				.availableProcessors();
+		float gameTimeSeconds = (args.length > 2) ? Float.parseFloat(args[2])
+				: Constants.HEADLESS_DEFAULT_GAME_TIME_SECONDS;
+		int stepsPerSecond = (args.length > 3) ? Integer.parseInt(args[3])
+				: Constants.GAME_SIMULATION_PHYSICS_STEPS_PER_SECOND;
+
+		boolean isSensorEmulated = (args.length > 4) && Boolean.parseBoolean(args[4]);
+
+		HeadlessGameEngine engine = new HeadlessGameEngine(numberOfGames, gameTimeSeconds,
+				1f / stepsPerSecond, parallelism, Constants.HEADLESS_DEFAULT_BASE_SEED);
+		engine.setSensorEmulated(isSensorEmulated);
+		if (args.length > 5) {
+			for (String feature : args[5].split(",")) {
+				engine.enableFeature(feature.trim());
+			}
+		}
+		engine.run();
+		System.out.println(engine.getReport());
+	}
+}
@@ -0,0 +1,271 @@
+package airhockeyjava.game;
+
+import airhockeyjava.physical.PredictedPath;
+import airhockeyjava.physical.Table.GoalScoredEnum;
+import airhockeyjava.simulation.PuckPrediction;
+import airhockeyjava.util.Vector2;
+
+/**
+ * View of the game state taken once per tick, before the strategies run, and passed to every
+ * strategy: the positions and velocities of the puck and mallets, the predicted path of the puck,
+ * the time-parameterised prediction built from the same state, and the derived values the
+ * strategies share (puck speed, which side of the table the puck is on, and where and when the
+ * predicted path crosses the robot's goal line). All strategies in a tick see the same state,
+ * however the tracked items change meanwhile.
+ *
+ * Snapshots are read-only outside the game package: the getters return primitives or copy into
+ * out-parameters. The game reuses one snapshot rather than allocating one per tick, so a
+ * snapshot should not be held beyond the tick it was passed in.
+ */
+public class WorldSnapshot {
+
+	private double time; // Game time, in seconds
+
+	private final Vector2 puckPosition = new Vector2();
+	private final Vector2 puckVelocity = new Vector2();
+	private final Vector2 robotMalletPosition = new Vector2();
+	private final Vector2 robotMalletVelocity = new Vector2();
+	private final Vector2 userMalletPosition = new Vector2();
+	private final Vector2 userMalletVelocity = new Vector2();
+	private float puckSpeed;
+	private boolean isPuckOnRobotSide;
+
+	private final PredictedPath predictedPath = new PredictedPath(
+			Constants.NUMBER_PREDICTED_PATH_REFLECTIONS + 2);
+	private PuckPrediction puckPrediction;
+
+	// Crossing of the robot's goal line (within the goal mouth) by the predicted path, if any
+	private boolean isGoalThreat;
+	private float goalCrossingTime;
+	private float goalCrossingY;
+	private final Vector2 scratch = new Vector2();
+
+	private final float tableWidth;
+	private final float tableHeight;
+	private final float goalStartY;
+	private final float goalWidth;
+	private final float puckRadius;
+	private final float malletRadius;
+
+	/**
+	 * Constructor. Takes the fixed dimensions from the game; the state is captured per tick.
+	 * @param game
+	 */
+	WorldSnapshot(Game game) {
+		this.tableWidth = (float) game.gameTable.getWidth();
+		this.tableHeight = (float) game.gameTable.getHeight();
+		this.goalStartY = game.gameTable.getGoalStartY();
+		this.goalWidth = game.gameTable.getGoalWidth();
+		this.puckRadius = game.gamePuck.getRadius();
+		this.malletRadius = game.robotMallet.getRadius();
+	}
+
+	/**
+	 * Capture the current state of the game items.
+	 * @param game
+	 */
+	void capture(Game game) {
+		time = game.gameTimeElapsedSeconds;
+		puckPosition.set(game.gamePuck.getPosition());
+		puckVelocity.set(game.gamePuck.getVelocity());
+		robotMalletPosition.set(game.robotMallet.getPosition());
+		robotMalletVelocity.set(game.robotMallet.getVelocity());
+		userMalletPosition.set(game.userMallet.getPosition());
+		userMalletVelocity.set(game.userMallet.getVelocity());
+		puckSpeed = puckVelocity.len();
+		isPuckOnRobotSide = puckPosition.x > tableWidth / 2f;
+		game.gamePuck.copyPredictedPath(predictedPath);
+		puckPrediction = null;
+		isGoalThreat = false;
+	}
+
+	/**
+	 * Rebuild the given prediction from the captured puck state, and attach it along with the goal
+	 * line crossing derived from it.
+	 * @param prediction
+	 */
+	void predict(PuckPrediction prediction) {
+		prediction.update(puckPosition, puckVelocity);
+		puckPrediction = prediction;
+		// A goal for the user is a goal in the robot's net
+		isGoalThreat = prediction.getGoalScored() == GoalScoredEnum.GOAL_SCORED_FOR_USER;
+		if (isGoalThreat) {
+			goalCrossingTime = prediction.getTimeToGoal();
+			goalCrossingY = prediction.getPositionAt(goalCrossingTime, scratch).y;
+		}
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	public float getPuckX() {
+		return puckPosition.x;
+	}
+
+	public float getPuckY() {
+		return puckPosition.y;
+	}
+
+	public float getPuckVelocityX() {
+		return puckVelocity.x;
+	}
+
+	public float getPuckVelocityY() {
+		return puckVelocity.y;
+	}
+
+	public float getPuckSpeed() {
+		return puckSpeed;
+	}
+
+	public boolean isPuckOnRobotSide() {
+		return isPuckOnRobotSide;
+	}
+
+	public float getRobotMalletX() {
+		return robotMalletPosition.x;
+	}
+
+	public float getRobotMalletY() {
+		return robotMalletPosition.y;
+	}
+
+	public float getRobotMalletVelocityX() {
+		return robotMalletVelocity.x;
+	}
+
+	public float getRobotMalletVelocityY() {
+		return robotMalletVelocity.y;
+	}
+
+	public float getUserMalletX() {
+		return userMalletPosition.x;
+	}
+
+	public float getUserMalletY() {
+		return userMalletPosition.y;
+	}
+
+	public float getUserMalletVelocityX() {
+		return userMalletVelocity.x;
+	}
+
+	public float getUserMalletVelocityY() {
+		return userMalletVelocity.y;
+	}
+
+	/**
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public Vector2 getPuckPosition(Vector2 out) {
+		return out.set(puckPosition);
+	}
+
+	/**
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public Vector2 getPuckVelocity(Vector2 out) {
+		return out.set(puckVelocity);
+	}
+
+	/**
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public Vector2 getRobotMalletPosition(Vector2 out) {
+		return out.set(robotMalletPosition);
+	}
+
+	/**
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public Vector2 getUserMalletPosition(Vector2 out) {
+		return out.set(userMalletPosition);
+	}
+
+	/**
+	 * Squared distance from the robot mallet to a point.
+	 */
+	public float getRobotMalletDistanceSquared(float x, float y) {
+		return robotMalletPosition.dst2(x, y);
+	}
+
+	public int getPredictedPathNumberOfPoints() {
+		return predictedPath.getNumberOfPoints();
+	}
+
+	public float getPredictedPathX(int index) {
+		return predictedPath.getX(index);
+	}
+
+	public float getPredictedPathY(int index) {
+		return predictedPath.getY(index);
+	}
+
+	/**
+	 * Whether the predicted path of the puck leads to a goal.
+	 */
+	public boolean isPredictedPathCritical() {
+		return predictedPath.isCritical();
+	}
+
+	/**
+	 * Time-parameterised prediction built from this snapshot's puck state. Only built when the AI
+	 * is enabled; query only, do not update.
+	 * @return prediction, or null
+	 */
+	public PuckPrediction getPuckPrediction() {
+		return puckPrediction;
+	}
+
+	/**
+	 * Whether the prediction ends in the robot's goal.
+	 */
+	public boolean isGoalThreat() {
+		return isGoalThreat;
+	}
+
+	/**
+	 * Time from this snapshot at which the puck is predicted to reach the robot's goal; only
+	 * meaningful if isGoalThreat.
+	 */
+	public float getGoalCrossingTime() {
+		return goalCrossingTime;
+	}
+
+	/**
+	 * Position along the robot's goal line at which the puck is predicted to reach it; only
+	 * meaningful if isGoalThreat.
+	 */
+	public float getGoalCrossingY() {
+		return goalCrossingY;
+	}
+
+	public float getTableWidth() {
+		return tableWidth;
+	}
+
+	public float getTableHeight() {
+		return tableHeight;
+	}
+
+	public float getGoalStartY() {
+		return goalStartY;
+	}
+
+	public float getGoalWidth() {
+		return goalWidth;
+	}
+
+	public float getPuckRadius() {
+		return puckRadius;
+	}
+
+	public float getMalletRadius() {
+		return malletRadius;
+	}
+}
@@ -18,6 +18,7 @@ import airhockeyjava.game.Game;
 import airhockeyjava.physical.IMovingItem;
 import airhockeyjava.physical.Mallet;
 import airhockeyjava.physical.MovingItem;
+import airhockeyjava.physical.PredictedPath;
 import airhockeyjava.physical.Puck;
 import airhockeyjava.physical.Table;
 import airhockeyjava.util.Conversion;
@@ -49,6 +50,12 @@ public class GuiLayer extends JPanel implements IGuiLayer {
 	
 	public Line2D[] strategyLines = null;
 
+	private final Vector2 renderPosition = new Vector2(); // Scratch vector for interpolated positions
+	// Read-only copy of a predicted path and the shape built from it, reused every frame
+	private final PredictedPath renderPredictedPath = new PredictedPath(
+			Constants.NUMBER_PREDICTED_PATH_REFLECTIONS + 2);
+	private final Path2D.Float renderPredictedPathShape = new Path2D.Float();
+
 
 	private static final Map<Boolean, Color> criticalPathColorMap = new HashMap<Boolean, Color>() {
 		private static final long serialVersionUID = 8650122016462175223L;
@@ -153,6 +160,10 @@ public class GuiLayer extends JPanel implements IGuiLayer {
 		this.infoBar.writeLine("M: Toggle mallet movement restriction");
 		this.infoBar.writeLine("G: Toggle goal detection");
 		this.infoBar.writeLine("A: Toggle AI");
+		this.infoBar.writeLine("P: Toggle Monte Carlo prediction");
+		this.infoBar.writeLine("O: Toggle rollout strategy selection");
+		this.infoBar.writeLine("B: Toggle bank shot search");
+		this.infoBar.writeLine("V: Toggle adversarial search");
 		this.infoBar.writeLine("");
 		this.infoBar.writeLine("FPS:" + this.currentFps);
 
@@ -165,11 +176,22 @@ public class GuiLayer extends JPanel implements IGuiLayer {
 
 	private void drawPredictedPath(MovingItem item) {
 		Graphics2D context = this.bufferContext;
+		PredictedPath path = this.renderPredictedPath;
+		item.copyPredictedPath(path);
+		if (path.getNumberOfPoints() < 2) {
+			return;
+		}
 		// Use critical path color only if goal detection enabled
 		context.setColor(GuiLayer.criticalPathColorMap.get(game.settings.goalDetectionOn
-				&& item.getPathAndFlag().isCriticalFlag));
-		context.draw((Path2D) item.getPathAndFlag().predictedPath
-				.createTransformedShape(coordinateTranslate));
+				&& path.isCritical()));
+		Path2D.Float shape = this.renderPredictedPathShape;
+		shape.reset();
+		shape.moveTo(path.getX(0), path.getY(0));
+		for (int i = 1; i < path.getNumberOfPoints(); i++) {
+			shape.lineTo(path.getX(i), path.getY(i));
+		}
+		shape.transform(coordinateTranslate);
+		context.draw(shape);
 	}
 
 	/**
@@ -287,7 +309,10 @@ public class GuiLayer extends JPanel implements IGuiLayer {
 	private void drawMovingItem(IMovingItem item) {
 		Graphics context = this.bufferContext;
 		context.setColor(GuiLayer.colorMap.get(item.getClass()));
-		Vector2 position = item.getPosition();
+		// Draw between the last two physics states, since physics may run ahead of the frame rate
+		Vector2 position = (item instanceof MovingItem) ? ((MovingItem) item)
+				.getInterpolatedPosition(game.renderInterpolationAlpha, renderPosition) : item
+				.getPosition();
 		float radius = item.getRadius();
 		context.fillOval(scale(position.x - radius) + Constants.GUI_TABLE_OFFSET_X,
 				scale(position.y - radius) + Constants.GUI_TABLE_OFFSET_Y, scale(radius * 2),
@@ -0,0 +1,90 @@
+package airhockeyjava.physical;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Learns the table's friction grid online from the tracked puck. Velocities are estimated from
+ * successive tracked positions; where the puck runs freely between two velocity estimates (no
+ * sharp change of direction, i.e. no wall or mallet contact, and no speed-up from a mallet), the
+ * observed decay rate ln(v1 / v2) / t, less the modelled air drag, is the surface friction at that
+ * point. Each observation is blended into the nearest grid cells, so dead zones where the air holes
+ * clog show up over time.
+ */
+public class FrictionEstimator {
+
+	private final FrictionGrid frictionGrid;
+	private final float airDragRate; // k/m
+
+	private final Vector2 lastPosition = new Vector2();
+	private final Vector2 lastVelocity = new Vector2();
+	private final Vector2 velocity = new Vector2(); // Scratch
+	private double lastTime;
+	private float lastDeltaTime;
+	private int numberOfPositions = 0;
+	private int numberOfObservations = 0;
+
+	public FrictionEstimator(FrictionGrid frictionGrid, float puckMass) {
+		this.frictionGrid = frictionGrid;
+		this.airDragRate = Constants.PUCK_AIR_FRICTION_COEFFICIENT / puckMass;
+	}
+
+	/**
+	 * Add a tracked puck position. Call once per tracked frame.
+	 * @param position
+	 * @param timeSeconds time of the position
+	 */
+	public void addPosition(Vector2 position, double timeSeconds) {
+		float deltaTime = (float) (timeSeconds - lastTime);
+		if (numberOfPositions > 0 && deltaTime <= 0f) {
+			return; // Same frame
+		}
+		if (numberOfPositions > 0) {
+			velocity.set(position).sub(lastPosition).scl(1f / deltaTime);
+			if (numberOfPositions > 1) {
+				estimate(deltaTime);
+			}
+			lastVelocity.set(velocity);
+			lastDeltaTime = deltaTime;
+		}
+		lastPosition.set(position);
+		lastTime = timeSeconds;
+		numberOfPositions++;
+	}
+
+	/**
+	 * Compare the new velocity estimate with the last one, and update the grid at the position
+	 * between them if the puck was running freely.
+	 */
+	private void estimate(float deltaTime) {
+		float lastSpeed = lastVelocity.len();
+		float speed = velocity.len();
+		if (speed < Constants.FRICTION_ESTIMATOR_MIN_SPEED_METERS_PER_SECOND
+				|| speed >= lastSpeed) {
+			return; // Too slow to measure reliably, or pushed by a mallet
+		}
+		if (lastVelocity.dot(velocity) < Constants.FRICTION_ESTIMATOR_MIN_DIRECTION_COSINE
+				* lastSpeed * speed) {
+			return; // Changed direction: bounced off a wall or mallet
+		}
+		// Velocity estimates are averages over their frames, so centred half a frame apart each
+		float elapsedTime = (lastDeltaTime + deltaTime) / 2f;
+		float surfaceFriction = (float) Math.log(lastSpeed / speed) / elapsedTime - airDragRate;
+		surfaceFriction = Math.min(Math.max(surfaceFriction, 0f),
+				Constants.FRICTION_ESTIMATOR_MAX_FRICTION_COEFFICIENT);
+		frictionGrid.addObservation(lastPosition.x, lastPosition.y, surfaceFriction,
+				Constants.FRICTION_ESTIMATOR_LEARNING_RATE);
+		numberOfObservations++;
+	}
+
+	/**
+	 * Forget the tracked positions, e.g. after the puck is reset. The grid is kept.
+	 */
+	public void reset() {
+		numberOfPositions = 0;
+	}
+
+	public int getNumberOfObservations() {
+		return numberOfObservations;
+	}
+}
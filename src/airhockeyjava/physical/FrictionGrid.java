@@ -9,28 +9,155 @@ import airhockeyjava.game.Constants;
  * by overlaying a grid on the table, with each grid cell mapping to a specific friction coefficient value.
  * The values may either be explicitly set or implicitly determined from physical item collisions and subsequent
  * responses.
+ *
+ * Coefficients are surface drag rates in 1/s, added to the air drag rate k/m, so that the puck
+ * velocity decays as v_t = v_0 * e ^ (-(k/m + coefficient) * t) while over a cell. Values are
+ * defined at cell centres and sampled with bilinear interpolation, clamped at the table edges.
+ * Cells are stored row-major (rows along y, columns along x) in a flat array.
  * @author Joshua Segeren
  *
  */
 public class FrictionGrid {
-	// Use two-dimensional float array to store coefficients
-	private float[][] frictionGrid;
-	
+	private final int rows;
+	private final int columns;
+	private final float cellWidth; // Along x
+	private final float cellHeight; // Along y
+	private final float[] frictionGrid;
+	private boolean isUniform; // True only if every cell is known to hold the same value
+
 	/**
-	 * Normal constructor. Initializes with default surface friction coefficient.
+	 * Normal constructor. Initializes with default surface friction coefficient, over the default
+	 * table dimensions.
 	 * @param rows
 	 * @param columns
 	 */
 	public FrictionGrid(int rows, int columns) {
-		this(rows, columns, Constants.PUCK_SURFACE_FRICTION_LOSS_COEFFICIENT);
+		this(rows, columns, Constants.GAME_TABLE_WIDTH_METERS, Constants.GAME_TABLE_HEIGHT_METERS,
+				Constants.PUCK_SURFACE_FRICTION_LOSS_COEFFICIENT);
 	}
 
-	public FrictionGrid(int rows, int columns, float initialFrictionCoefficient) {
-		frictionGrid = new float[rows][columns];
-		Arrays.fill(frictionGrid,  initialFrictionCoefficient);
+	public FrictionGrid(int rows, int columns, float tableWidth, float tableHeight,
+			float initialFrictionCoefficient) {
+		this.rows = rows;
+		this.columns = columns;
+		this.cellWidth = tableWidth / columns;
+		this.cellHeight = tableHeight / rows;
+		this.frictionGrid = new float[rows * columns];
+		Arrays.fill(frictionGrid, initialFrictionCoefficient);
+		this.isUniform = true;
 	}
-	
+
+	/**
+	 * Constructor from explicit coefficients, indexed [row][column], over the default table
+	 * dimensions. The values are copied.
+	 * @param frictionGrid
+	 */
 	public FrictionGrid(float[][] frictionGrid) {
-		this.frictionGrid = frictionGrid;
+		this(frictionGrid.length, frictionGrid[0].length, Constants.GAME_TABLE_WIDTH_METERS,
+				Constants.GAME_TABLE_HEIGHT_METERS, 0f);
+		for (int row = 0; row < rows; row++) {
+			System.arraycopy(frictionGrid[row], 0, this.frictionGrid, row * columns, columns);
+		}
+		this.isUniform = false;
+	}
+
+	/**
+	 * Get the friction coefficient at a point on the table, interpolated bilinearly between the
+	 * four nearest cell centres. O(1), allocation-free.
+	 * @param x
+	 * @param y
+	 * @return friction coefficient, in 1/s
+	 */
+	public float getFrictionCoefficient(float x, float y) {
+		float column = clamp(x / cellWidth - 0.5f, columns - 1);
+		float row = clamp(y / cellHeight - 0.5f, rows - 1);
+		int column0 = (int) column;
+		int row0 = (int) row;
+		int column1 = Math.min(column0 + 1, columns - 1);
+		int row1 = Math.min(row0 + 1, rows - 1);
+		float tx = column - column0;
+		float ty = row - row0;
+
+		float top = frictionGrid[row0 * columns + column0] * (1f - tx)
+				+ frictionGrid[row0 * columns + column1] * tx;
+		float bottom = frictionGrid[row1 * columns + column0] * (1f - tx)
+				+ frictionGrid[row1 * columns + column1] * tx;
+		return top * (1f - ty) + bottom * ty;
+	}
+
+	/**
+	 * Blend an observed friction coefficient at a point into the grid. The four nearest cells move
+	 * towards the observation in proportion to their bilinear weights, i.e. an exponentially
+	 * weighted running mean per cell.
+	 * @param x
+	 * @param y
+	 * @param observedFrictionCoefficient
+	 * @param learningRate fraction of the difference applied at full weight, between 0 and 1
+	 */
+	public void addObservation(float x, float y, float observedFrictionCoefficient,
+			float learningRate) {
+		float column = clamp(x / cellWidth - 0.5f, columns - 1);
+		float row = clamp(y / cellHeight - 0.5f, rows - 1);
+		int column0 = (int) column;
+		int row0 = (int) row;
+		int column1 = Math.min(column0 + 1, columns - 1);
+		int row1 = Math.min(row0 + 1, rows - 1);
+		float tx = column - column0;
+		float ty = row - row0;
+
+		blend(row0 * columns + column0, (1f - tx) * (1f - ty) * learningRate,
+				observedFrictionCoefficient);
+		blend(row0 * columns + column1, tx * (1f - ty) * learningRate, observedFrictionCoefficient);
+		blend(row1 * columns + column0, (1f - tx) * ty * learningRate, observedFrictionCoefficient);
+		blend(row1 * columns + column1, tx * ty * learningRate, observedFrictionCoefficient);
+		isUniform = false;
+	}
+
+	private void blend(int index, float weight, float observedFrictionCoefficient) {
+		frictionGrid[index] += weight * (observedFrictionCoefficient - frictionGrid[index]);
+	}
+
+	/**
+	 * Clamp a fractional cell index to [0, max].
+	 */
+	private static float clamp(float index, int max) {
+		return Math.min(Math.max(index, 0f), max);
+	}
+
+	public float get(int row, int column) {
+		return frictionGrid[row * columns + column];
+	}
+
+	public void set(int row, int column, float frictionCoefficient) {
+		frictionGrid[row * columns + column] = frictionCoefficient;
+		isUniform = false;
+	}
+
+	public void fill(float frictionCoefficient) {
+		Arrays.fill(frictionGrid, frictionCoefficient);
+		isUniform = true;
+	}
+
+	/**
+	 * Whether the friction is the same everywhere, so that it need not be re-sampled along a path.
+	 * May be false for a grid which happens to be uniform after being modified cell by cell.
+	 */
+	public boolean isUniform() {
+		return isUniform;
+	}
+
+	/**
+	 * Get the smaller cell dimension, i.e. the distance over which the friction may change.
+	 */
+	public float getCellSize() {
+		return Math.min(cellWidth, cellHeight);
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
 	}
-}
\ No newline at end of file
+}
@@ -1,21 +1,15 @@
 package airhockeyjava.physical;
 
-import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
-import java.awt.geom.Path2D;
-import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
-import java.awt.geom.Rectangle2D;
-import java.util.List;
-import java.util.ArrayList;
 
 import airhockeyjava.game.Constants;
-import airhockeyjava.strategy.StrategySelector;
-import airhockeyjava.util.FixedStack;
-import airhockeyjava.util.Geometry;
-import airhockeyjava.util.LineVectorUtils;
+import airhockeyjava.physical.Table.GoalScoredEnum;
+import airhockeyjava.simulation.TrajectoryPredictor;
+import airhockeyjava.util.Interpolation;
 import airhockeyjava.util.Vector2;
-import airhockeyjava.util.Intersection;
+import airhockeyjava.util.PrimitiveGeometry;
+import airhockeyjava.util.SegmentIndex;
 
 /**
  * Superclass to represent moving items.
@@ -24,31 +18,33 @@ import airhockeyjava.util.Intersection;
  */
 public abstract class MovingItem implements IMovingItem {
 
-	public class PathAndFlag {
-		public Path2D predictedPath;
-		public boolean isCriticalFlag;
-
-		PathAndFlag(Path2D predictedPath, boolean isCriticalPath) {
-			this.predictedPath = predictedPath;
-			this.isCriticalFlag = isCriticalPath;
-		}
-	}
-
 	private Table table;
-	private List<Point2D> predictedPathPoints;
 	private Line2D trajectoryLine;
-	private PathAndFlag pathAndFlag;
 	private Vector2 position;
+	private final Vector2 previousPosition; // As of the previous physics step; used for rendering
 	private Vector2 velocity;
 	private Vector2 acceleration;
 	private final float mass; // Used in simulated friction calculation and energy transfer model
 	private final float radius;
 	
-	private FixedStack<Vector2> pastPositions; 
-	
-	private Point2D intersectionPoint = new Point2D.Float();
+	// Predicted path, double buffered: the game thread writes predictedPath and publishes it by
+	// swapping it with publishedPredictedPath under predictedPathLock; readers on other threads
+	// (the GUI) copy the published path under the same lock. Neither side allocates.
+	private PredictedPath predictedPath;
+	private PredictedPath publishedPredictedPath;
+	private final Object predictedPathLock = new Object();
+	private final Vector2 expectedIntersection = new Vector2(); // Scratch, for intersections
+
+	// Lines of the active strategy, intersected with the predicted path
+	private SegmentIndex strategyIndex;
 	
-	boolean predictedPathFound = true;
+	private TrajectoryPredictor trajectoryPredictor; // Created on first use
+
+	// State at the last full refresh of the predicted path, for the change detector
+	private final Vector2 predictionStartPosition = new Vector2();
+	private final Vector2 predictionVelocity = new Vector2();
+	private long fullPathRefreshCount = 0;
+	private long partialPathRefreshCount = 0;
 
 	/**
 	 * Constructor which sets the starting state of the item.
@@ -57,16 +53,16 @@ public abstract class MovingItem implements IMovingItem {
 	 */
 	protected MovingItem(Vector2 position, Vector2 velocity, float radius, float mass, Table table) {
 		this.position = position;
+		this.previousPosition = new Vector2(position);
 		this.velocity = velocity;
 		this.acceleration = new Vector2();
 		this.radius = radius;
 		this.mass = mass;
-		this.predictedPathPoints = new ArrayList<Point2D>();
+		this.predictedPath = new PredictedPath(Constants.NUMBER_PREDICTED_PATH_REFLECTIONS + 2);
+		this.publishedPredictedPath = new PredictedPath(Constants.NUMBER_PREDICTED_PATH_REFLECTIONS + 2);
 		this.trajectoryLine = new Line2D.Float(new Point2D.Float(position.x, position.y),
 				new Point2D.Float(position.x, position.y));
-		this.pathAndFlag = new PathAndFlag(new Path2D.Float(), false);
 		this.table = table;
-		this.pastPositions = new FixedStack(4);
 	}
 
 	@Override
@@ -74,10 +70,40 @@ public abstract class MovingItem implements IMovingItem {
 		return this.position;
 	}
 
+	/**
+	 * Set the position. The new position is copied,
+	 * so the item keeps its own position vector.
+	 */
 	@Override
 	public void setPosition(Vector2 newPosition) {
-		this.pastPositions.push(position);
-		this.position = newPosition;
+		setPosition(newPosition.x, newPosition.y);
+	}
+
+	/**
+	 * Overloaded. Set the position from components.
+	 * @param x
+	 * @param y
+	 */
+	public void setPosition(float x, float y) {
+		this.position.set(x, y);
+	}
+
+	/**
+	 * Save the current position as the previous physics state. Called before each fixed step.
+	 */
+	public void savePreviousState() {
+		this.previousPosition.set(this.position);
+	}
+
+	/**
+	 * Get the position interpolated between the previous and current physics states, for rendering.
+	 * @param alpha fraction of a step elapsed past the current state, between 0 and 1
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public Vector2 getInterpolatedPosition(float alpha, Vector2 out) {
+		return out.set(Interpolation.linear.apply(previousPosition.x, position.x, alpha),
+				Interpolation.linear.apply(previousPosition.y, position.y, alpha));
 	}
 
 	@Override
@@ -129,25 +155,48 @@ public abstract class MovingItem implements IMovingItem {
 	 * Gets the latest  projected point available
 	 */
 	public Vector2 getLastExpectedPointVector() {
-		if (!predictedPathPoints.isEmpty()) {
-			return new Vector2(predictedPathPoints.get(predictedPathPoints.size() - 1));
+		int numberOfPoints = predictedPath.getNumberOfPoints();
+		if (numberOfPoints > 0) {
+			return new Vector2(predictedPath.getX(numberOfPoints - 1),
+					predictedPath.getY(numberOfPoints - 1));
 		}
 		else {
 			return new Vector2(this.getPosition());
 		}
 	}
 
-	public PathAndFlag getPathAndFlag() {
-		return pathAndFlag;
+	/**
+	 * Set the index of lines against which the predicted path is intersected (see
+	 * getExpectedInterectionPoint).
+	 * @param strategyIndex may be null if the active strategy has no lines
+	 */
+	public void setStrategyIndex(SegmentIndex strategyIndex) {
+		this.strategyIndex = strategyIndex;
 	}
 
-	public void setPathAndFlag(Path2D predictedPath, boolean isCriticalFlag) {
-		this.pathAndFlag.predictedPath = predictedPath;
-		this.pathAndFlag.isCriticalFlag = isCriticalFlag;
+	/**
+	 * Copy the latest published predicted path, e.g. for rendering. Safe to call from any thread.
+	 * @param out path in which to store the result; should have room for
+	 * NUMBER_PREDICTED_PATH_REFLECTIONS + 2 points
+	 */
+	public void copyPredictedPath(PredictedPath out) {
+		synchronized (predictedPathLock) {
+			out.copyFrom(publishedPredictedPath);
+		}
 	}
 
-	public void setPathAndFlag(PathAndFlag pathAndFlag) {
-		this.pathAndFlag = pathAndFlag;
+	/**
+	 * Publish the path just written, by swapping the buffers, then bring the new back buffer up to
+	 * date so that partial refreshes can continue from it. Only the game thread writes or swaps
+	 * the buffers, so the copy needs no lock.
+	 */
+	private void publishPredictedPath() {
+		PredictedPath written = predictedPath;
+		synchronized (predictedPathLock) {
+			predictedPath = publishedPredictedPath;
+			publishedPredictedPath = written;
+		}
+		predictedPath.copyFrom(written);
 	}
 
 	/**
@@ -155,26 +204,16 @@ public abstract class MovingItem implements IMovingItem {
 	 * @param deltaTime
 	 */
 	public void updatePositionAndVelocity(float deltaTime) {
-		this.velocity.add(new Vector2(this.acceleration).scl(deltaTime));
+		this.velocity.mulAdd(this.acceleration, deltaTime);
 		updatePosition(deltaTime);
 	}
 	
-	public void calculateAndUpdateDectectedVelocity(float deltaTime){
-		if(this.pastPositions.size() > 0){
-			System.out.println("pos: " + this.position + " past pos: " + this.pastPositions.peek());
-			Vector2 newVel = (new Vector2(this.position).sub(this.pastPositions.peek()));
-			//this.velocity.add(newVel.sub(this.velocity).scl(Constants.VELOCITY_FILTER_ALPHA)); 
-			this.velocity = newVel;
-			System.out.println("x vel: " + this.velocity.x + " y vel: " + this.velocity.y);			
-		}
-	}
-
 	/**
 	 * Update position based on velocity
 	 * @param deltaTime
 	 */
 	public void updatePosition(float deltaTime) {
-		this.position.add(new Vector2(this.velocity).scl(deltaTime));
+		this.position.mulAdd(this.velocity, deltaTime);
 	}
 
 	/**
@@ -183,227 +222,179 @@ public abstract class MovingItem implements IMovingItem {
 	 * @return Vector2 expected future position
 	 */
 	public Vector2 getExpectedPosition(float deltaTime) {
-		return new Vector2(this.getPosition()).add(new Vector2(this.velocity).scl(deltaTime));
+		return getExpectedPosition(deltaTime, new Vector2());
+	}
+
+	/**
+	 * Overloaded. Stores the expected position in the given vector rather than allocating one.
+	 * @param deltaTime
+	 * @param out
+	 * @return out
+	 */
+	public Vector2 getExpectedPosition(float deltaTime, Vector2 out) {
+		return out.set(this.position).mulAdd(this.velocity, deltaTime);
 	}
 
 	/*
 
 	/**
 	 * Public method to updated predicted path and visual projection of the moving item.
-	 * @param tableCollisionFrame
 	 * @param maximum number of reflections desired in the projection
 	 * @param whether or not to recalculate entire path or just update beginning point
 	 */
 	public void updatePredictedPath(int numberReflections, boolean isFullRefresh) {
-		Rectangle2D tableCollisionFrame = this.table.getCollisionFrame(this);
-
 		// If not full refresh, just update the initial point (where object currently is)
 		// Otherwise, have to recalculate entire projection
-		Point2D currentPoint = new Point2D.Float(this.position.x, this.position.y);
 		if (!isFullRefresh) {
-			if (predictedPathPoints.isEmpty()) {
-				predictedPathPoints.add(currentPoint);
+			partialPathRefreshCount++;
+			if (predictedPath.getNumberOfPoints() == 0) {
+				predictedPath.addPoint(this.position.x, this.position.y);
 			} else {
-				predictedPathPoints.set(0, currentPoint);
+				predictedPath.setPoint(0, this.position.x, this.position.y);
 			}
 		}
 
 		else {
-			pathAndFlag.isCriticalFlag = false;
-			System.out.println("Updating predicted path!");
-			predictedPathPoints.clear();
-			predictedPathPoints.add(currentPoint);
-
-			// Vector in forward path. Requires significant scaling otherwise won't project far
-			// enough "into the future" to actually find the intersection point. Otherwise
-			// we can limit this distance based on an actual amount of time elapsed into the future.
-			Vector2 futurePosition = new Vector2(this.position).add(new Vector2(this.velocity)
-					.scl(100000f));
-			Line2D predictedLine = new Line2D.Float(this.position.x, this.position.y,
-					futurePosition.x, futurePosition.y);
-
-			Point2D intersectionPoint = getIntersectionPointAndCapLine(predictedLine,
-					tableCollisionFrame);
-			if (intersectionPoint == null) {
-				return; // Short-circuit return
+			fullPathRefreshCount++;
+			predictionStartPosition.set(this.position);
+			predictionVelocity.set(this.velocity);
+			if (Constants.DEBUG_LOGGING_ENABLED) {
+				System.out.println("Updating predicted path!");
 			}
-			predictedPathPoints.add(intersectionPoint);
-			// Build and add the remaining reflections to the projected path.
-			// Only build until critical path reached (i.e. a path that leads to a goal!)
-			for (int i = 0; i < numberReflections; i++) {
-				predictedLine = getReflectedPredictedLine(predictedLine, tableCollisionFrame);
-				// Break if predicted line (or intersection point) not found
-				if (predictedLine == null) {
-					break;
-				}
-
-				Point2D endPoint = predictedLine.getP2();
-				predictedPathPoints.add(endPoint);
-				if (this.table.isIntersectingGoal(new Vector2(endPoint), this.getRadius())) {
-					pathAndFlag.isCriticalFlag = true;
-					break;
-				}
+			// Closed-form bounces, with drag, up to the goal line if the path leads to a goal
+			TrajectoryPredictor trajectoryPredictor = getTrajectoryPredictor();
+			trajectoryPredictor.predict(this.position, this.velocity, numberReflections,
+					Constants.PREDICTION_MAX_TIME_SECONDS);
+
+			predictedPath.clear();
+			predictedPath.addPoint(this.position.x, this.position.y);
+			for (int i = 1; i < trajectoryPredictor.getNumberOfPoints(); i++) {
+				predictedPath.addPoint(trajectoryPredictor.getPointX(i),
+						trajectoryPredictor.getPointY(i));
 			}
-			System.out.println(predictedPathPoints.size());
-		}
-
-		// Build path with saved points
-		this.intersectionPoint = null;
-		Line2D[] strategyLines = StrategySelector.getStrategyLines();
-		
-		for (int i = 0; i < predictedPathPoints.size() - 1; i++) {
-			Point2D firstPoint = predictedPathPoints.get(i);
-			Point2D secondPoint = predictedPathPoints.get(i + 1);
-			Line2D line = new Line2D.Float(firstPoint, secondPoint);
-			Path2D path = new Path2D.Float(line);
-
-			if(this.intersectionPoint == null && strategyLines != null){
-				for (int j = 0; j < strategyLines.length; j++){
-					Line2D strategyLine = strategyLines[j];
-					intersectionPoint = Intersection.getIntersectionPoint(line, strategyLine);
-					if(intersectionPoint != null){
-						break;
-					} 
-				
-				}
-			}
-			
-			if (i == 0) {
-				pathAndFlag.predictedPath = path;
-			} else {
-				pathAndFlag.predictedPath.append(path, true);	
-				
+			predictedPath.setCritical(trajectoryPredictor.getGoalScored() != GoalScoredEnum.NO_GOAL_SCORED);
+			if (Constants.DEBUG_LOGGING_ENABLED) {
+				System.out.println(predictedPath.getNumberOfPoints());
 			}
 		}
+
+		publishPredictedPath();
 	}
 
 	/**
-	 * General method to get the next path line, which is a reflection of the current predicted line against
-	 * boundary with which it collides.
-	 * @param predictedLine
-	 * @return reflected path line, or null if there is no intersection/reflection point
+	 * Overloaded. Uses the change detector to choose between a full and a partial refresh, for
+	 * measured (rather than simulated) states, where it is not known when the puck was hit.
+	 * @param numberReflections
 	 */
-	private final Line2D getReflectedPredictedLine(Line2D predictedLine, Rectangle2D collisionFrame) {
-		// Get angle between collision edge and incoming trajectory line
-		float incidentAngleRadians = getCollisionIncidentAngle(predictedLine, collisionFrame);
-		// Reflect according to angle of incidence
-		float reflectionAngleRadians = (float) (Math.PI - 2 * incidentAngleRadians);
-
-		// Set up the reflected path
-		Line2D secondPredictedLine = new Line2D.Float((float) predictedLine.getX2(),
-				(float) predictedLine.getY2(), (float) predictedLine.getX1(),
-				(float) predictedLine.getY1());
-		//		secondPredictedLine = LineVectorUtils.rotateLineAboutStartingPoint(secondPredictedLine, reflectionAngleRadians);
-		Path2D secondPredictedPath = new Path2D.Float(secondPredictedLine);
-
-		// Set up the rotation transformation based on the reflection, and then rotate the line
-		// NOTE that this is just a graphical reflection. The reflected line is not rotated geometrically.
-		AffineTransform rotationTransform = new AffineTransform();
-		rotationTransform.rotate(reflectionAngleRadians, (float) predictedLine.getX2(),
-				(float) predictedLine.getY2());
-		secondPredictedPath.transform(rotationTransform);
-
-		// Get the rotated line, then extend it up to the next boundary (i.e. table edge)
-		secondPredictedLine = Geometry.getStartpoints(secondPredictedPath);
-		LineVectorUtils.scaleLine(secondPredictedLine, 100000f);
-		Point2D intersectionPoint = getIntersectionPointAndCapLine(secondPredictedLine,
-				collisionFrame);
-		if (intersectionPoint == null) {
-			return null;
-		}
-		return secondPredictedLine;
+	public void updatePredictedPath(int numberReflections) {
+		updatePredictedPath(numberReflections, isPredictedPathStale());
 	}
 
 	/**
-	 * Internal method to retrieve intersection point of predicted line and frame. Caps the line (i.e. sets
-	 * endpoint) to the intersection point.
-	 * @param predictedLine
-	 * @param collisionFrame
-	 * @return intersection point, null if not exists. In this case, predicted line is not modified.
+	 * Change detector for the predicted path. The path only needs rebuilding if the item has
+	 * changed direction or speed beyond the tolerances since the last full refresh (e.g. it has
+	 * bounced or been hit), or has drifted off the predicted ray; while it coasts along the same
+	 * ray, advancing the start point is enough.
+	 * @return true iff a full refresh is needed
 	 */
-	private final Point2D getIntersectionPointAndCapLine(Line2D predictedLine,
-			Rectangle2D collisionFrame) {
-		Point2D intersectionPoint = Intersection
-				.getIntersectionPoint(predictedLine, collisionFrame);
-		if (intersectionPoint == null) {
-			// Only output message on first iteration
-			if (predictedPathFound) {
-				System.out.println("No intersection point found!");
-			}
-			predictedPathFound = false;
-		} else {
-			predictedPathFound = true;
-			predictedLine.setLine(predictedLine.getX1(), predictedLine.getY1(),
-					intersectionPoint.getX(), intersectionPoint.getY());
+	public boolean isPredictedPathStale() {
+		if (predictedPath.getNumberOfPoints() < 2) {
+			return true;
+		}
+		float speed = this.velocity.len();
+		float predictedSpeed = predictionVelocity.len();
+		if (speed == 0f || predictedSpeed == 0f) {
+			return speed != predictedSpeed;
+		}
+		if (Math.abs(speed - predictedSpeed) > Constants.PREDICTION_REFRESH_SPEED_TOLERANCE
+				* predictedSpeed) {
+			return true;
 		}
-		return intersectionPoint;
+		if (this.velocity.dot(predictionVelocity) < Constants.PREDICTION_REFRESH_MIN_DIRECTION_COSINE
+				* speed * predictedSpeed) {
+			return true;
+		}
+		// Distance from the predicted ray
+		float offRayDistance = Math.abs((this.position.x - predictionStartPosition.x)
+				* predictionVelocity.y - (this.position.y - predictionStartPosition.y)
+				* predictionVelocity.x) / predictedSpeed;
+		return offRayDistance > Constants.PREDICTION_REFRESH_POSITION_TOLERANCE_METERS;
 	}
 
 	/**
-	 * Gets angle between predicted path and the edge with which it collides.
-	 * Expects the final endpoint of the predicted line to be the intersection point between the lines.
-	 * @param predictedLine
-	 * @param collisionFrame
-	 * @return
+	 * Number of full rebuilds of the predicted path so far.
 	 */
-	private final static float getCollisionIncidentAngle(Line2D predictedLine,
-			Rectangle2D collisionFrame) {
-		return Intersection.getAngleBetweenLines(
-				predictedLine,
-				Intersection.getCollisionEdge((float) predictedLine.getX2(),
-						(float) predictedLine.getY2(), collisionFrame));
+	public long getFullPathRefreshCount() {
+		return fullPathRefreshCount;
 	}
-	
+
+	/**
+	 * Number of partial refreshes (start point advanced, path reused) of the predicted path so far.
+	 */
+	public long getPartialPathRefreshCount() {
+		return partialPathRefreshCount;
+	}
+
+	/**
+	 * Get the predictor used for the predicted path, creating it on first use (only the puck's path
+	 * is predicted). The latest prediction may be read from it.
+	 * @return TrajectoryPredictor
+	 */
+	public TrajectoryPredictor getTrajectoryPredictor() {
+		if (trajectoryPredictor == null) {
+			trajectoryPredictor = new TrajectoryPredictor(this.table, this.radius, this.mass,
+					Constants.NUMBER_PREDICTED_PATH_REFLECTIONS);
+		}
+		return trajectoryPredictor;
+	}
+
+	/**
+	 * Get the first point at which the predicted path crosses a line. Game thread only.
+	 * @param line
+	 * @return intersection point, or null if the path does not cross the line
+	 */
 	public Point2D getExpectedInterectionWithLine(Line2D line){
-		Point2D intersectionPoint = null;
-		Line2D currentLine;
-		
-		for (int i = 0; i < predictedPathPoints.size()-1; i++){
-			Point2D p1 = predictedPathPoints.get(i);
-			Point2D p2 = predictedPathPoints.get(i+1);
-
-			currentLine = new Line2D.Float(p1, p2);
-			intersectionPoint = Intersection.getIntersectionPoint(currentLine, line);
-			if(intersectionPoint != null){
-				break;
+		for (int i = 0; i < predictedPath.getNumberOfPoints() - 1; i++){
+			if (PrimitiveGeometry.getSegmentIntersection(predictedPath.getX(i),
+					predictedPath.getY(i), predictedPath.getX(i + 1), predictedPath.getY(i + 1),
+					line.getX1(), line.getY1(), line.getX2(), line.getY2(), expectedIntersection)) {
+				return new Point2D.Float(expectedIntersection.x, expectedIntersection.y);
 			}
 		}
-		
-		return intersectionPoint;
+		return null;
 	}
 	
-	public Point2D getExpectedInterectionWithLine(Line2D lines[]){
-		Point2D intersectionPoint = null;
-		Line2D currentLine;
-
-	
-		
-		for (int i = 0; i < predictedPathPoints.size()-1; i++){
-			Point2D p1 = predictedPathPoints.get(i);
-			Point2D p2 = predictedPathPoints.get(i+1);
-			currentLine = new Line2D.Float(p1, p2);
-
-			
-			for (int j = 0; j < lines.length; j++){
-				Line2D line = lines[j];
-				intersectionPoint = Intersection.getIntersectionPoint(currentLine, line);
-				if(intersectionPoint != null){
-					break;
-				}
-			
-			}
-
-			if(intersectionPoint != null){
-				break;
+	/**
+	 * Overloaded. Get the first point at which the predicted path crosses any of the indexed lines
+	 * (the first on the path, ties going to the earlier line). Allocation-free. Game thread only.
+	 * @param index may be null
+	 * @param out vector in which to store the intersection point
+	 * @return true iff the path crosses one of the lines
+	 */
+	public boolean getExpectedInterectionWithLine(SegmentIndex index, Vector2 out){
+		if (index == null) {
+			return false;
+		}
+		for (int i = 0; i < predictedPath.getNumberOfPoints() - 1; i++){
+			if (index.findFirstCrossing(predictedPath.getX(i), predictedPath.getY(i),
+					predictedPath.getX(i + 1), predictedPath.getY(i + 1)) != SegmentIndex.NONE) {
+				out.set(index.getCrossingX(), index.getCrossingY());
+				return true;
 			}
 		}
-		
-		return intersectionPoint;
-	}	
+		return false;
+	}
 
-	
+	/**
+	 * Get the first point at which the predicted path crosses the active strategy lines (see
+	 * setStrategyIndex). Computed on demand, so refreshing the path does not pay for it.
+	 * @return intersection point, or null
+	 */
 	public Point2D getExpectedInterectionPoint(){
-		return this.intersectionPoint;
+		if (!getExpectedInterectionWithLine(this.strategyIndex, expectedIntersection)) {
+			return null;
+		}
+		return new Point2D.Float(expectedIntersection.x, expectedIntersection.y);
 	}
 
 }
\ No newline at end of file
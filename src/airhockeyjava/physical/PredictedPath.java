@@ -0,0 +1,81 @@
+package airhockeyjava.physical;
+
+/**
+ * Predicted path of a moving item: a polyline held in preallocated primitive arrays, with a flag
+ * for whether it leads to a goal (a critical path). Refreshing or copying a path does not
+ * allocate. Not thread safe by itself; see MovingItem for how paths are handed to the GUI.
+ */
+public class PredictedPath {
+
+	private final float[] x;
+	private final float[] y;
+	private int numberOfPoints = 0;
+	private boolean isCritical = false;
+
+	/**
+	 * Constructor.
+	 * @param maxPoints capacity of the polyline
+	 */
+	public PredictedPath(int maxPoints) {
+		this.x = new float[maxPoints];
+		this.y = new float[maxPoints];
+	}
+
+	public void clear() {
+		numberOfPoints = 0;
+		isCritical = false;
+	}
+
+	/**
+	 * Append a point. Points beyond the capacity are ignored.
+	 * @param pointX
+	 * @param pointY
+	 */
+	public void addPoint(float pointX, float pointY) {
+		if (numberOfPoints < x.length) {
+			x[numberOfPoints] = pointX;
+			y[numberOfPoints] = pointY;
+			numberOfPoints++;
+		}
+	}
+
+	public void setPoint(int index, float pointX, float pointY) {
+		x[index] = pointX;
+		y[index] = pointY;
+	}
+
+	/**
+	 * Copy another path into this one, up to this path's capacity.
+	 * @param other
+	 */
+	public void copyFrom(PredictedPath other) {
+		numberOfPoints = Math.min(other.numberOfPoints, x.length);
+		System.arraycopy(other.x, 0, x, 0, numberOfPoints);
+		System.arraycopy(other.y, 0, y, 0, numberOfPoints);
+		isCritical = other.isCritical;
+	}
+
+	public int getNumberOfPoints() {
+		return numberOfPoints;
+	}
+
+	public float getX(int index) {
+		return x[index];
+	}
+
+	public float getY(int index) {
+		return y[index];
+	}
+
+	public boolean isCritical() {
+		return isCritical;
+	}
+
+	public void setCritical(boolean isCritical) {
+		this.isCritical = isCritical;
+	}
+
+	public int getMaxPoints() {
+		return x.length;
+	}
+}
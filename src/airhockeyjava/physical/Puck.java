@@ -3,6 +3,7 @@ package airhockeyjava.physical;
 import org.opencv.core.Scalar;
 
 import airhockeyjava.detection.ITrackingObject;
+import airhockeyjava.detection.PuckStateEstimator;
 import airhockeyjava.game.Constants;
 import airhockeyjava.util.Vector2;
 
@@ -19,6 +20,10 @@ public class Puck extends MovingItem implements ITrackingObject {
 	private static final int minObjectArea = Constants.DETECTION_PUCK_MIN_AREA;
 	private static final int maxObjectArea = Constants.DETECTION_PUCK_MAX_AREA;
 
+	// Estimates the state from measured positions (real games and sensor emulation)
+	private final PuckStateEstimator stateEstimator;
+	private final Vector2 estimatedPosition = new Vector2(); // Scratch
+
 	/**
 	 * Expected constructor.
 	 * 
@@ -28,18 +33,47 @@ public class Puck extends MovingItem implements ITrackingObject {
 	 */
 	public Puck(Vector2 position, Vector2 velocity, float radius, Table table) {
 		super(position, velocity, radius, Constants.GAME_PUCK_MASS_GRAMS, table);
+		this.stateEstimator = new PuckStateEstimator(table, radius,
+				Constants.GAME_PUCK_MASS_GRAMS, Constants.KALMAN_MEASUREMENT_NOISE_METERS,
+				Constants.KALMAN_PROCESS_NOISE_ACCELERATION_METERS_PER_SECOND_SQUARED);
 	}
 
 	public Puck(Vector2 position, Vector2 velocity, Table table) {
-		super(position, velocity, Constants.GAME_PUCK_RADIUS_METERS,
-				Constants.GAME_PUCK_MASS_GRAMS, table);
+		this(position, velocity, Constants.GAME_PUCK_RADIUS_METERS, table);
 	}
 
 	public Puck(Table table) {
-		super(new Vector2(Constants.GAME_PUCK_INITIAL_POSITION_X,
+		this(new Vector2(Constants.GAME_PUCK_INITIAL_POSITION_X,
 				Constants.GAME_PUCK_INITIAL_POSITION_Y), new Vector2(
 				Constants.GAME_PUCK_INITIAL_VELOCITY_X, Constants.GAME_PUCK_INITIAL_VELOCITY_Y),
-				Constants.GAME_PUCK_RADIUS_METERS, Constants.GAME_PUCK_MASS_GRAMS, table);
+				Constants.GAME_PUCK_RADIUS_METERS, table);
+	}
+
+	/**
+	 * Feed a detected position to the state estimator. May be called from the tracking thread; the
+	 * puck itself only changes in updateFromStateEstimate.
+	 */
+	@Override
+	public void addMeasurement(Vector2 measuredPosition, double timeSeconds) {
+		stateEstimator.addMeasurement(measuredPosition, timeSeconds);
+	}
+
+	/**
+	 * Set the position and velocity from the state estimator, extrapolated to the given time, if it
+	 * has an estimate. Call from the game thread.
+	 * @param timeSeconds on the measurement clock, e.g. when the robot will act on the state
+	 * @return true iff there was an estimate
+	 */
+	public boolean updateFromStateEstimate(double timeSeconds) {
+		if (!stateEstimator.extrapolate(timeSeconds, estimatedPosition, getVelocity())) {
+			return false;
+		}
+		setPosition(estimatedPosition);
+		return true;
+	}
+
+	public PuckStateEstimator getStateEstimator() {
+		return stateEstimator;
 	}
 
 	@Override
@@ -6,9 +6,8 @@ import airhockeyjava.util.Vector2;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.RoundRectangle2D;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
 
 /** 
  * Class to represent the air hockey table.
@@ -25,12 +24,27 @@ public class Table extends RoundRectangle2D.Float {
 	 */
 	private static final long serialVersionUID = -828896685446216562L;
 	private final float goalWidth; // Width of goal
+	private final FrictionGrid frictionGrid; // Surface friction, over the whole table
+	private final TableDistanceField distanceField; // Boundary geometry, including corners and goals
 
 	public final Vector2 gameTableUserGoalCenterPosition;
 	public final Vector2 gameTableRobotGoalCenterPosition;
 
-	// Map to cache collision frames
-	private Map<java.lang.Float, Rectangle2D> collisionFrameMap = new HashMap<java.lang.Float, Rectangle2D>();
+	// Cached collision frame for one radius. Immutable pair, so that it is safe to read from the GUI
+	// thread.
+	private static class CachedCollisionFrame {
+		final float collisionRadius;
+		final Rectangle2D collisionFrame;
+
+		CachedCollisionFrame(float collisionRadius, Rectangle2D collisionFrame) {
+			this.collisionRadius = collisionRadius;
+			this.collisionFrame = collisionFrame;
+		}
+	}
+
+	// Collision frames by radius, copied on write so that lookups are lock-free and never box the
+	// radius. Only a few radii (puck, mallet) are ever requested.
+	private volatile CachedCollisionFrame[] collisionFrames = new CachedCollisionFrame[0];
 
 	/**
 	 * Standard constructor. 
@@ -41,6 +55,13 @@ public class Table extends RoundRectangle2D.Float {
 	public Table(float height, float width, float cornerRadius, float goalWidth) {
 		super(0, 0, height, width, cornerRadius, cornerRadius);
 		this.goalWidth = goalWidth;
+		this.frictionGrid = new FrictionGrid(Constants.FRICTION_GRID_ROWS,
+				Constants.FRICTION_GRID_COLUMNS, (float) this.getWidth(), (float) this.getHeight(),
+				Constants.PUCK_SURFACE_FRICTION_LOSS_COEFFICIENT);
+		this.distanceField = new TableDistanceField((float) this.getWidth(),
+				(float) this.getHeight(), this.getCornerRadius(), this.getGoalStartY(),
+				this.getGoalEndY(), Constants.TABLE_DISTANCE_FIELD_CELL_SIZE_METERS,
+				Constants.TABLE_DISTANCE_FIELD_MARGIN_METERS);
 		this.gameTableUserGoalCenterPosition = new Vector2(0, height / 2);
 		this.gameTableRobotGoalCenterPosition = new Vector2(width, height / 2);
 	}
@@ -54,6 +75,22 @@ public class Table extends RoundRectangle2D.Float {
 		return this.goalWidth;
 	}
 
+	public FrictionGrid getFrictionGrid() {
+		return this.frictionGrid;
+	}
+
+	public TableDistanceField getDistanceField() {
+		return this.distanceField;
+	}
+
+	/**
+	 * Get the radius of the rounded corners (half the arc width)
+	 * @return
+	 */
+	public final float getCornerRadius() {
+		return (float) (this.getArcWidth() / 2.0);
+	}
+
 	/**
 	 * Returns the frame, modified to account for radius of round colliding objects. This is the effective
 	 * collision bounding box of the table; we simply reduce all the dimensions by the given radius.
@@ -61,15 +98,37 @@ public class Table extends RoundRectangle2D.Float {
 	 * @return Rectangle2D collision frame
 	 */
 	public Rectangle2D getCollisionFrame(float collisionRadius) {
-		Rectangle2D collisionFrame = collisionFrameMap.get(collisionRadius);
-		if (collisionFrame == null) {
-			collisionFrame = this.getFrame(); // Lower precision frame
-			//		Rectangle2D collisionFrame = this.getBounds2D(); // Higher precision frame
-			collisionFrame.setFrame(collisionFrame.getMinX() + collisionRadius,
-					collisionFrame.getMinY() + collisionRadius, collisionFrame.getMaxX() - 2
-							* collisionRadius, collisionFrame.getMaxY() - 2 * collisionRadius);
-			collisionFrameMap.put(collisionRadius, collisionFrame);
+		CachedCollisionFrame[] cachedCollisionFrames = collisionFrames;
+		for (int i = 0; i < cachedCollisionFrames.length; i++) {
+			if (cachedCollisionFrames[i].collisionRadius == collisionRadius) {
+				return cachedCollisionFrames[i].collisionFrame;
+			}
+		}
+		return addCollisionFrame(collisionRadius);
+	}
+
+	/**
+	 * Create and cache the collision frame for a new radius.
+	 * @param collisionRadius
+	 * @return Rectangle2D collision frame
+	 */
+	private synchronized Rectangle2D addCollisionFrame(float collisionRadius) {
+		CachedCollisionFrame[] cachedCollisionFrames = collisionFrames;
+		for (int i = 0; i < cachedCollisionFrames.length; i++) {
+			if (cachedCollisionFrames[i].collisionRadius == collisionRadius) {
+				return cachedCollisionFrames[i].collisionFrame; // Added by another thread
+			}
 		}
+		Rectangle2D collisionFrame = this.getFrame(); // Lower precision frame
+		//		Rectangle2D collisionFrame = this.getBounds2D(); // Higher precision frame
+		collisionFrame.setFrame(collisionFrame.getMinX() + collisionRadius,
+				collisionFrame.getMinY() + collisionRadius, collisionFrame.getMaxX() - 2
+						* collisionRadius, collisionFrame.getMaxY() - 2 * collisionRadius);
+		CachedCollisionFrame[] newCollisionFrames = Arrays.copyOf(cachedCollisionFrames,
+				cachedCollisionFrames.length + 1);
+		newCollisionFrames[cachedCollisionFrames.length] = new CachedCollisionFrame(
+				collisionRadius, collisionFrame);
+		collisionFrames = newCollisionFrames;
 		return collisionFrame;
 	}
 
@@ -130,20 +189,43 @@ public class Table extends RoundRectangle2D.Float {
 		return this.isIntersectingRightGoal(item.getPosition(), item.getRadius());
 	}
 
+	/**
+	 * Test whether a round item is within the goal allowance of the left goal mouth. O(1) and
+	 * allocation-free, using the distance field.
+	 * @param position
+	 * @param radius
+	 * @return true iff intersecting
+	 */
 	public final boolean isIntersectingLeftGoal(Vector2 position, float radius) {
-		return (position.x <= getCollisionFrame(radius).getMinX() + Constants.GAME_GOAL_ALLOWANCE)
-				&& isGoalInY(position, radius);
+		return (distanceField.getRegion(position.x, position.y) == TableDistanceField.REGION_LEFT_GOAL)
+				&& isGoalInDistance(position, radius) && isGoalInY(position, radius);
 	}
 
 	public final boolean isIntersectingRightGoal(Vector2 position, float radius) {
-		return (position.x >= getCollisionFrame(radius).getMaxX() - Constants.GAME_GOAL_ALLOWANCE)
-				&& isGoalInY(position, radius);
+		return (distanceField.getRegion(position.x, position.y) == TableDistanceField.REGION_RIGHT_GOAL)
+				&& isGoalInDistance(position, radius) && isGoalInY(position, radius);
+	}
+
+	private final boolean isGoalInDistance(Vector2 position, float radius) {
+		return distanceField.getSignedDistance(position.x, position.y) <= radius
+				+ Constants.GAME_GOAL_ALLOWANCE;
 	}
 
 	private final boolean isGoalInY(Vector2 position, float radius) {
+		return isGoalInY(position.y, radius);
+	}
+
+	/**
+	 * Test whether a round item at the given y is within the mouth of the goals (with allowance),
+	 * i.e. would score if it crossed a goal line there.
+	 * @param y
+	 * @param radius
+	 * @return true iff within the goal mouth
+	 */
+	public final boolean isGoalInY(float y, float radius) {
 		float goalStartY = (float) ((height - goalWidth) / 2.0);
-		return (position.y >= goalStartY + radius - Constants.GAME_GOAL_ALLOWANCE)
-				&& (position.y <= goalStartY + goalWidth - radius + Constants.GAME_GOAL_ALLOWANCE);
+		return (y >= goalStartY + radius - Constants.GAME_GOAL_ALLOWANCE)
+				&& (y <= goalStartY + goalWidth - radius + Constants.GAME_GOAL_ALLOWANCE);
 	}
 
 	/**
@@ -168,11 +250,12 @@ public class Table extends RoundRectangle2D.Float {
 	 * @return the same position object, to be used for chaining
 	 */
 	public Vector2 enforceSafeRobotPosition(Vector2 position, float safetyMargin) {
-		Rectangle2D collisionFrame = this.getRobotWorkspaceCollisionFrame(safetyMargin);
-		position.x = (float) Math.min(Math.max(position.x, collisionFrame.getMinX()),
-				collisionFrame.getMaxX());
-		position.y = (float) Math.min(Math.max(position.y, collisionFrame.getMinY()),
-				collisionFrame.getMaxY());
+		// The bounds of getRobotWorkspaceCollisionFrame, without allocating it every tick
+		float tableWidth = (float) this.getWidth();
+		float tableHeight = (float) this.getHeight();
+		position.x = Math.min(Math.max(position.x, tableWidth / 2f + safetyMargin),
+				tableWidth - safetyMargin);
+		position.y = Math.min(Math.max(position.y, safetyMargin), tableHeight - safetyMargin);
 		return position;
 	}
 }
@@ -0,0 +1,183 @@
+package airhockeyjava.physical;
+
+import airhockeyjava.util.Vector2;
+
+/**
+ * Sampled signed-distance field of the table boundary. The boundary (a rectangle with rounded
+ * corners) is compiled once into a grid of samples, each holding the signed distance to the
+ * boundary (positive inside the table), the inward unit normal of the nearest boundary point, and
+ * a region code marking the goal mouths. Queries interpolate bilinearly between the four nearest
+ * samples, so collision, goal and prediction checks against the exact corner geometry are O(1)
+ * and allocation-free. A round item of radius r at a point is touching the boundary wherever the
+ * signed distance there is at most r.
+ *
+ * The grid extends a margin beyond the table so that items which have slightly penetrated the
+ * boundary still get a (negative) distance and a normal back into the table.
+ */
+public class TableDistanceField {
+
+	// Region codes
+	public static final byte REGION_PLAY = 0;
+	public static final byte REGION_LEFT_GOAL = 1; // Nearest boundary point is in the left goal mouth
+	public static final byte REGION_RIGHT_GOAL = 2; // Nearest boundary point is in the right goal mouth
+
+	private final float originX; // Position of the first sample
+	private final float originY;
+	private final float cellSize;
+	private final int columns; // Samples along x
+	private final int rows; // Samples along y
+
+	// Samples, stored row-major (rows along y, columns along x)
+	private final float[] distance;
+	private final float[] normalX;
+	private final float[] normalY;
+	private final byte[] region;
+
+	/**
+	 * Constructor. Compiles the field for a table with its origin at (0, 0).
+	 * @param tableWidth along x
+	 * @param tableHeight along y
+	 * @param cornerRadius radius of the rounded corners
+	 * @param goalStartY top y-bound of both goals
+	 * @param goalEndY bottom y-bound of both goals
+	 * @param cellSize spacing of the samples
+	 * @param margin distance covered beyond the table edges
+	 */
+	public TableDistanceField(float tableWidth, float tableHeight, float cornerRadius,
+			float goalStartY, float goalEndY, float cellSize, float margin) {
+		this.originX = -margin;
+		this.originY = -margin;
+		this.cellSize = cellSize;
+		this.columns = (int) Math.ceil((tableWidth + 2f * margin) / cellSize) + 1;
+		this.rows = (int) Math.ceil((tableHeight + 2f * margin) / cellSize) + 1;
+		this.distance = new float[rows * columns];
+		this.normalX = new float[rows * columns];
+		this.normalY = new float[rows * columns];
+		this.region = new byte[rows * columns];
+
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				computeSample(row * columns + column, originX + column * cellSize, originY + row
+						* cellSize, tableWidth, tableHeight, cornerRadius, goalStartY, goalEndY);
+			}
+		}
+	}
+
+	/**
+	 * Compute the exact distance, normal and region at a point.
+	 */
+	private void computeSample(int index, float x, float y, float tableWidth, float tableHeight,
+			float cornerRadius, float goalStartY, float goalEndY) {
+		// Offset from the rectangle of corner circle centres, if the point is beyond it
+		float cornerOffsetX = (x < cornerRadius) ? x - cornerRadius
+				: ((x > tableWidth - cornerRadius) ? x - (tableWidth - cornerRadius) : 0f);
+		float cornerOffsetY = (y < cornerRadius) ? y - cornerRadius
+				: ((y > tableHeight - cornerRadius) ? y - (tableHeight - cornerRadius) : 0f);
+
+		if (cornerOffsetX != 0f && cornerOffsetY != 0f) {
+			// Corner: distance to the arc, normal towards the corner circle centre
+			float offset = (float) Math.sqrt(cornerOffsetX * cornerOffsetX + cornerOffsetY
+					* cornerOffsetY);
+			distance[index] = cornerRadius - offset;
+			normalX[index] = -cornerOffsetX / offset;
+			normalY[index] = -cornerOffsetY / offset;
+			region[index] = REGION_PLAY;
+			return;
+		}
+
+		// Straight edge: nearest of the four walls
+		float left = x;
+		float right = tableWidth - x;
+		float top = y;
+		float bottom = tableHeight - y;
+		boolean isInGoalMouth = (y >= goalStartY) && (y <= goalEndY);
+		if (left <= right && left <= top && left <= bottom) {
+			setSample(index, left, 1f, 0f, isInGoalMouth ? REGION_LEFT_GOAL : REGION_PLAY);
+		} else if (right <= top && right <= bottom) {
+			setSample(index, right, -1f, 0f, isInGoalMouth ? REGION_RIGHT_GOAL : REGION_PLAY);
+		} else if (top <= bottom) {
+			setSample(index, top, 0f, 1f, REGION_PLAY);
+		} else {
+			setSample(index, bottom, 0f, -1f, REGION_PLAY);
+		}
+	}
+
+	private void setSample(int index, float sampleDistance, float sampleNormalX,
+			float sampleNormalY, byte sampleRegion) {
+		distance[index] = sampleDistance;
+		normalX[index] = sampleNormalX;
+		normalY[index] = sampleNormalY;
+		region[index] = sampleRegion;
+	}
+
+	/**
+	 * Get the signed distance from a point to the table boundary, positive inside the table.
+	 * @param x
+	 * @param y
+	 * @return signed distance
+	 */
+	public float getSignedDistance(float x, float y) {
+		float column = getColumn(x);
+		float row = getRow(y);
+		int column0 = Math.min((int) column, columns - 2);
+		int row0 = Math.min((int) row, rows - 2);
+		return interpolate(distance, row0 * columns + column0, column - column0, row - row0);
+	}
+
+	/**
+	 * Get the signed distance from a point to the table boundary, and the inward unit normal of
+	 * the boundary there.
+	 * @param x
+	 * @param y
+	 * @param normal output
+	 * @return signed distance
+	 */
+	public float getSignedDistanceAndNormal(float x, float y, Vector2 normal) {
+		float column = getColumn(x);
+		float row = getRow(y);
+		int column0 = Math.min((int) column, columns - 2);
+		int row0 = Math.min((int) row, rows - 2);
+		int index = row0 * columns + column0;
+		float tx = column - column0;
+		float ty = row - row0;
+		normal.set(interpolate(normalX, index, tx, ty), interpolate(normalY, index, tx, ty)).nor();
+		return interpolate(distance, index, tx, ty);
+	}
+
+	/**
+	 * Get the region code of the nearest sample to a point.
+	 * @param x
+	 * @param y
+	 * @return one of the REGION_ codes
+	 */
+	public byte getRegion(float x, float y) {
+		int column = (int) (getColumn(x) + 0.5f);
+		int row = (int) (getRow(y) + 0.5f);
+		return region[row * columns + column];
+	}
+
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Fractional sample column of a point, clamped to the grid.
+	 */
+	private float getColumn(float x) {
+		return Math.min(Math.max((x - originX) / cellSize, 0f), columns - 1);
+	}
+
+	/**
+	 * Fractional sample row of a point, clamped to the grid.
+	 */
+	private float getRow(float y) {
+		return Math.min(Math.max((y - originY) / cellSize, 0f), rows - 1);
+	}
+
+	private float interpolate(float[] samples, int index, float tx, float ty) {
+		float top = samples[index] + (samples[index + 1] - samples[index]) * tx;
+		float bottom = samples[index + columns]
+				+ (samples[index + columns + 1] - samples[index + columns]) * tx;
+		return top + (bottom - top) * ty;
+	}
+}
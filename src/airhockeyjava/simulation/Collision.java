@@ -14,6 +14,109 @@ import airhockeyjava.util.Vector2;
  */
 public class Collision {
 
+	public static final float NO_IMPACT = -1f; // Returned by time of impact methods if no contact
+
+	/**
+	 * Static method to find the time of impact of two circles moving at constant velocity, i.e. the
+	 * earliest time t in [0, maxTime] at which |(posA + velA * t) - (posB + velB * t)| = radiusSum.
+	 * Solves the quadratic |dp + dv * t|^2 = radiusSum^2 for the smaller root. Circles which are
+	 * already overlapping and still approaching impact at t = 0; separating circles never impact.
+	 * Reference: http://twobitcoder.blogspot.ca/2010/04/circle-collision-detection.html
+	 * @param posA
+	 * @param velA
+	 * @param posB
+	 * @param velB
+	 * @param radiusSum
+	 * @param maxTime
+	 * @return time of impact, or NO_IMPACT
+	 */
+	public static float timeOfImpact(Vector2 posA, Vector2 velA, Vector2 posB, Vector2 velB,
+			float radiusSum, float maxTime) {
+		float dpx = posA.x - posB.x;
+		float dpy = posA.y - posB.y;
+		float dvx = velA.x - velB.x;
+		float dvy = velA.y - velB.y;
+
+		float b = dpx * dvx + dpy * dvy; // Half the linear coefficient
+		if (b >= 0f) {
+			return NO_IMPACT; // Separating or at rest relative to each other
+		}
+		float c = dpx * dpx + dpy * dpy - radiusSum * radiusSum;
+		if (c <= 0f) {
+			return 0f; // Already in contact and approaching
+		}
+		float a = dvx * dvx + dvy * dvy;
+		float discriminant = b * b - a * c;
+		if (discriminant < 0f) {
+			return NO_IMPACT; // Closest approach is further apart than the radius sum
+		}
+		float t = (-b - (float) Math.sqrt(discriminant)) / a;
+		return (t <= maxTime) ? t : NO_IMPACT;
+	}
+
+	/**
+	 * Static method to find the time at which a point moving at constant speed along one axis
+	 * leaves the interval [min, max], i.e. the time of impact of a circle centre with one axis of a
+	 * collision frame (which is already inset by the radius). A point already outside and moving
+	 * further out impacts at t = 0.
+	 * @param position
+	 * @param speed
+	 * @param min
+	 * @param max
+	 * @param maxTime
+	 * @return time of impact, or NO_IMPACT
+	 */
+	public static float timeOfImpactWithBounds(float position, float speed, float min, float max,
+			float maxTime) {
+		float t;
+		if (speed > 0f) {
+			t = (max - position) / speed;
+		} else if (speed < 0f) {
+			t = (min - position) / speed;
+		} else {
+			return NO_IMPACT;
+		}
+		t = Math.max(t, 0f);
+		return (t <= maxTime) ? t : NO_IMPACT;
+	}
+
+	/**
+	 * Static method to find the time at which a point moving at constant velocity inside a circle
+	 * reaches its edge, i.e. the larger root of |(pos + vel * t) - centre|^2 = radius^2. Used for
+	 * a circle centre running along the inside of a rounded corner. A point already on or outside
+	 * the edge and moving further out impacts at t = 0.
+	 * @param pos
+	 * @param vel
+	 * @param centre
+	 * @param radius
+	 * @param maxTime
+	 * @return time of impact, or NO_IMPACT
+	 */
+	public static float timeOfImpactFromInsideCircle(Vector2 pos, Vector2 vel, Vector2 centre,
+			float radius, float maxTime) {
+		float dpx = pos.x - centre.x;
+		float dpy = pos.y - centre.y;
+
+		float a = vel.x * vel.x + vel.y * vel.y;
+		if (a == 0f) {
+			return NO_IMPACT;
+		}
+		float b = dpx * vel.x + dpy * vel.y; // Half the linear coefficient
+		float c = dpx * dpx + dpy * dpy - radius * radius;
+		if (c >= 0f && b > 0f) {
+			return 0f; // Outside and moving further out
+		}
+		float discriminant = b * b - a * c;
+		if (discriminant < 0f) {
+			return NO_IMPACT; // Outside and the line misses the circle
+		}
+		float t = (-b + (float) Math.sqrt(discriminant)) / a;
+		if (t < 0f) {
+			return NO_IMPACT; // Outside, and moving away from the circle
+		}
+		return (t <= maxTime) ? t : NO_IMPACT;
+	}
+
 	/**
 	 * Static method to check if two moving items are colliding
 	 * @param itemA
@@ -21,8 +124,9 @@ public class Collision {
 	 * @return
 	 */
 	public static boolean isColliding(IMovingItem itemA, IMovingItem itemB) {
-		return ((itemA != itemB) && new Vector2(itemA.getPosition()).sub(itemB.getPosition()).len() <= itemA
-				.getRadius() + itemB.getRadius());
+		float radiusSum = itemA.getRadius() + itemB.getRadius();
+		return ((itemA != itemB) && itemA.getPosition().dst2(itemB.getPosition()) <= radiusSum
+				* radiusSum);
 	}
 
 	public static boolean hasCollided(IMovingItem itemA, IMovingItem itemB) {
@@ -44,23 +148,62 @@ public class Collision {
 	 * @return Vector2 the new velocity of the puck
 	 */
 	public static Vector2 handleCollision(Puck puck, Mallet mallet) {
+		return handleCollision(puck, mallet, mallet.getPosition());
+	}
+
+	/**
+	 * Overloaded. Handle collision with the mallet at the given position rather than its current
+	 * one, e.g. where it was part way through a simulation step.
+	 * @param puck
+	 * @param mallet
+	 * @param malletPosition
+	 * @return Vector2 the new velocity of the puck
+	 */
+	public static Vector2 handleCollision(Puck puck, Mallet mallet, Vector2 malletPosition) {
+		return handleCollision(puck, mallet, malletPosition, new Vector2());
+	}
+
+	/**
+	 * Overloaded. Allocation-free: works on scalar components and stores the new puck velocity in
+	 * the given vector, which may be the puck's own velocity.
+	 * @param puck
+	 * @param mallet
+	 * @param malletPosition
+	 * @param out
+	 * @return out
+	 */
+	public static Vector2 handleCollision(Puck puck, Mallet mallet, Vector2 malletPosition,
+			Vector2 out) {
+		Vector2 puckPosition = puck.getPosition();
+		Vector2 puckVelocity = puck.getVelocity();
+		Vector2 malletVelocity = mallet.getVelocity();
+
+		// Find the unit normal vector, from mallet to puck
+		float normalX = puckPosition.x - malletPosition.x;
+		float normalY = puckPosition.y - malletPosition.y;
+		float distance = (float) Math.sqrt(normalX * normalX + normalY * normalY);
+		if (distance != 0f) {
+			normalX /= distance;
+			normalY /= distance;
+		}
+
 		// Correct position of puck to prevent cascading/duplicate collisions
-		Vector2 unitNormalVector = new Vector2(puck.getPosition()).sub(mallet.getPosition()).nor();
-		puck.setPosition(new Vector2(mallet.getPosition()).add(new Vector2(unitNormalVector)
-				.scl(puck.getRadius() + mallet.getRadius())));
+		float radiusSum = puck.getRadius() + mallet.getRadius();
+		puckPosition.set(malletPosition.x + normalX * radiusSum, malletPosition.y + normalY
+				* radiusSum);
 
-		// Find the unit tangent vector
-		Vector2 unitTangentVector = new Vector2(unitNormalVector).rotate90(0);
+		// Find the unit tangent vector (normal rotated 90 degrees counter-clockwise)
+		float tangentX = -normalY;
+		float tangentY = normalX;
 
 		// After collision, tangential components of velocities are unchanged.
 		// Normal component of velocities can be found using the one-dimensional collision
 		// formulas. Need to resolve velocity vectors v1, v2 into normal and tangential components.
 		// To do this, project velocity vectors onto unit normal and unit tangent vectors by computing
 		// the dot product.
-		float puckSpeedNormal = unitNormalVector.dot(puck.getVelocity());
-		float malletSpeedNormal = unitNormalVector.dot(mallet.getVelocity());
-		float puckSpeedTangent = unitTangentVector.dot(puck.getVelocity());
-		//		float malletSpeedTangent = unitTangentVector.dot(mallet.getVelocity());
+		float puckSpeedNormal = normalX * puckVelocity.x + normalY * puckVelocity.y;
+		float malletSpeedNormal = normalX * malletVelocity.x + normalY * malletVelocity.y;
+		float puckSpeedTangent = tangentX * puckVelocity.x + tangentY * puckVelocity.y;
 
 		float newPuckSpeedNormal;
 		// If mallet is infinite mass, simplify equation and short-circuit
@@ -76,12 +219,10 @@ public class Collision {
 
 		}
 		// Convert scalar normal and tangential velocities into vectors by multiplying unit normal vector by
-		// scalar normal velocity; similar for tangential.
-		Vector2 newPuckNormalVelocity = new Vector2(unitNormalVector).scl(newPuckSpeedNormal);
-		Vector2 newPuckTangentVelocity = new Vector2(unitTangentVector).scl(puckSpeedTangent);
-
-		// Finally, find final velocity vectors by adding normal and tangential components for each object.
-		return new Vector2(newPuckNormalVelocity).add(newPuckTangentVelocity);
+		// scalar normal velocity; similar for tangential. Finally, find final velocity vector by adding
+		// normal and tangential components.
+		return out.set(normalX * newPuckSpeedNormal + tangentX * puckSpeedTangent, normalY
+				* newPuckSpeedNormal + tangentY * puckSpeedTangent);
 
 	}
 }
\ No newline at end of file
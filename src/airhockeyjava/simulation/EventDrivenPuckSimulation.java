@@ -0,0 +1,332 @@
+package airhockeyjava.simulation;
+
+import java.awt.geom.Rectangle2D;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.physical.FrictionGrid;
+import airhockeyjava.physical.Puck;
+import airhockeyjava.physical.Table;
+import airhockeyjava.physical.Table.GoalScoredEnum;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Event-driven puck simulation, for long rollouts (strategy search, tournaments). Between
+ * contacts the puck follows a closed-form path: a straight line, slowed by exponential air
+ * friction. Rather than stepping every frame, the simulation works out the time of the next wall,
+ * mallet or goal event analytically and jumps straight to it, so the cost of a rollout scales
+ * with the number of contacts rather than its duration.
+ *
+ * Since drag only rescales time along the line (see PuckSimulation.getDragAdjustedTime), events
+ * are found with the linear time of impact methods in Collision, using drag-adjusted time, then
+ * converted back to real time. Mallets are treated as stationary obstacles for the same reason.
+ * Surface friction from the table's friction grid is added to the air drag, sampled at the start
+ * of each segment; unless the grid is uniform, long segments are split at friction grid cell
+ * lengths so that it follows the grid. The rounded corners are circular arcs, whose times of
+ * impact are also found analytically.
+ * Collision responses match the stepped simulation (restitution on walls and mallets).
+ *
+ * Instances hold mutable state and are not thread safe; use one per thread.
+ */
+public class EventDrivenPuckSimulation {
+
+	public static enum EventTypeEnum {
+		WALL_COLLISION, MALLET_COLLISION, GOAL_SCORED, PUCK_STOPPED, TIME_LIMIT
+	}
+
+	private final Table table;
+	private final FrictionGrid frictionGrid;
+	private final float airDragRate; // k/m
+	private float dragRate; // c, for the current segment: air drag plus surface friction
+	private final float puckRadius;
+	private final float minX, maxX, minY, maxY; // Collision frame of the puck centre
+	private final float leftGoalLineX, rightGoalLineX;
+
+	// Rounded corners, as seen by the puck centre: arcs of this radius about these centres, within
+	// the quadrant given by the signs (i.e. beyond the centre in both x and y)
+	private static final float[] CORNER_SIGNS_X = { -1f, 1f, -1f, 1f };
+	private static final float[] CORNER_SIGNS_Y = { -1f, -1f, 1f, 1f };
+	private final Vector2[] cornerCentres;
+	private final float cornerPathRadius;
+
+	private final Vector2 position = new Vector2();
+	private final Vector2 velocity = new Vector2();
+	private float time = 0f;
+	private GoalScoredEnum goalScored = GoalScoredEnum.NO_GOAL_SCORED;
+	private int eventCount = 0;
+
+	// Stationary mallets
+	private final Vector2[] malletPositions;
+	private final float[] malletRadii;
+	private int numberOfMallets = 0;
+
+	// Scratch vectors
+	private final Vector2 stationary = new Vector2();
+	private final Vector2 normal = new Vector2();
+
+	/**
+	 * Constructor.
+	 * @param table
+	 * @param puckRadius
+	 * @param puckMass
+	 * @param airFrictionCoefficient
+	 * @param maxMallets
+	 */
+	public EventDrivenPuckSimulation(Table table, float puckRadius, float puckMass,
+			float airFrictionCoefficient, int maxMallets) {
+		this.table = table;
+		this.puckRadius = puckRadius;
+		this.frictionGrid = table.getFrictionGrid();
+		this.airDragRate = airFrictionCoefficient / puckMass;
+		Rectangle2D collisionFrame = table.getCollisionFrame(puckRadius);
+		this.minX = (float) collisionFrame.getMinX();
+		this.maxX = (float) collisionFrame.getMaxX();
+		this.minY = (float) collisionFrame.getMinY();
+		this.maxY = (float) collisionFrame.getMaxY();
+		this.leftGoalLineX = minX + Constants.GAME_GOAL_ALLOWANCE;
+		this.rightGoalLineX = maxX - Constants.GAME_GOAL_ALLOWANCE;
+		this.cornerPathRadius = table.getCornerRadius() - puckRadius;
+		if (cornerPathRadius > 0f) {
+			this.cornerCentres = new Vector2[CORNER_SIGNS_X.length];
+			for (int i = 0; i < cornerCentres.length; i++) {
+				cornerCentres[i] = new Vector2((CORNER_SIGNS_X[i] < 0f) ? minX + cornerPathRadius
+						: maxX - cornerPathRadius, (CORNER_SIGNS_Y[i] < 0f) ? minY
+						+ cornerPathRadius : maxY - cornerPathRadius);
+			}
+		} else {
+			this.cornerCentres = new Vector2[0]; // Corners sharper than the puck act as square
+		}
+		this.malletPositions = new Vector2[maxMallets];
+		for (int i = 0; i < maxMallets; i++) {
+			malletPositions[i] = new Vector2();
+		}
+		this.malletRadii = new float[maxMallets];
+	}
+
+	/**
+	 * Overloaded. Uses the game puck dimensions and air friction, with room for two mallets.
+	 * @param table
+	 */
+	public EventDrivenPuckSimulation(Table table) {
+		this(table, Constants.GAME_PUCK_RADIUS_METERS, Constants.GAME_PUCK_MASS_GRAMS,
+				Constants.PUCK_AIR_FRICTION_COEFFICIENT, 2);
+	}
+
+	/**
+	 * Reset the simulation to the given puck state, at time zero, with no mallets.
+	 * @param puckPosition
+	 * @param puckVelocity
+	 */
+	public void reset(Vector2 puckPosition, Vector2 puckVelocity) {
+		position.set(puckPosition);
+		velocity.set(puckVelocity);
+		time = 0f;
+		goalScored = GoalScoredEnum.NO_GOAL_SCORED;
+		eventCount = 0;
+		numberOfMallets = 0;
+	}
+
+	/**
+	 * Overloaded. Reset to the current state of the puck.
+	 * @param puck
+	 */
+	public void reset(Puck puck) {
+		reset(puck.getPosition(), puck.getVelocity());
+	}
+
+	/**
+	 * Add a stationary mallet obstacle.
+	 * @param malletPosition
+	 * @param malletRadius
+	 */
+	public void addMallet(Vector2 malletPosition, float malletRadius) {
+		malletPositions[numberOfMallets].set(malletPosition);
+		malletRadii[numberOfMallets] = malletRadius;
+		numberOfMallets++;
+	}
+
+	/**
+	 * Jump to the next event, or to the time limit if that comes first, resolving the event.
+	 * @param maxTime absolute simulation time limit
+	 * @return the type of event reached
+	 */
+	public EventTypeEnum advanceToNextEvent(float maxTime) {
+		if (goalScored != GoalScoredEnum.NO_GOAL_SCORED) {
+			return EventTypeEnum.GOAL_SCORED;
+		}
+		if (isStopped()) {
+			return EventTypeEnum.PUCK_STOPPED;
+		}
+
+		while (true) {
+			// Drag for this segment: air, plus surface friction where the segment starts
+			dragRate = airDragRate + frictionGrid.getFrictionCoefficient(position.x, position.y);
+
+			// Work in drag-adjusted time, in which the path is linear with the current velocity
+			float maxDragTime = PuckSimulation.getDragAdjustedTime(dragRate, maxTime - time);
+			// Re-sample surface friction at least once per friction grid cell travelled
+			float segmentDragTime = frictionGrid.isUniform() ? maxDragTime : Math.min(
+					maxDragTime, frictionGrid.getCellSize() / velocity.len());
+			float timeX = Collision.timeOfImpactWithBounds(position.x, velocity.x, minX, maxX,
+					segmentDragTime);
+			float timeY = Collision.timeOfImpactWithBounds(position.y, velocity.y, minY, maxY,
+					segmentDragTime);
+			float timeGoal = Collision.timeOfImpactWithBounds(position.x, velocity.x, leftGoalLineX,
+					rightGoalLineX, segmentDragTime);
+			float timeMallet = Collision.NO_IMPACT;
+			int malletIndex = -1;
+			for (int i = 0; i < numberOfMallets; i++) {
+				float timeOfImpact = Collision.timeOfImpact(position, velocity, malletPositions[i],
+						stationary, puckRadius + malletRadii[i], segmentDragTime);
+				if (timeOfImpact != Collision.NO_IMPACT
+						&& (timeMallet == Collision.NO_IMPACT || timeOfImpact < timeMallet)) {
+					timeMallet = timeOfImpact;
+					malletIndex = i;
+				}
+			}
+
+			float timeCorner = Collision.NO_IMPACT;
+			int cornerIndex = -1;
+			for (int i = 0; i < cornerCentres.length; i++) {
+				float timeOfImpact = Collision.timeOfImpactFromInsideCircle(position, velocity,
+						cornerCentres[i], cornerPathRadius, segmentDragTime);
+				if (timeOfImpact != Collision.NO_IMPACT && isInCorner(i, timeOfImpact)
+						&& (timeCorner == Collision.NO_IMPACT || timeOfImpact < timeCorner)) {
+					timeCorner = timeOfImpact;
+					cornerIndex = i;
+				}
+			}
+
+			// Goal lines are inside the walls, so crossing one within the goal mouth comes first
+			if (timeGoal != Collision.NO_IMPACT
+					&& (timeMallet == Collision.NO_IMPACT || timeGoal <= timeMallet)
+					&& (timeY == Collision.NO_IMPACT || timeGoal <= timeY)
+					&& (timeCorner == Collision.NO_IMPACT || timeGoal <= timeCorner)) {
+				float goalY = position.y + velocity.y * timeGoal;
+				if (goalY >= table.getGoalStartY() + puckRadius - Constants.GAME_GOAL_ALLOWANCE
+						&& goalY <= table.getGoalEndY() - puckRadius + Constants.GAME_GOAL_ALLOWANCE) {
+					advance(timeGoal);
+					goalScored = (velocity.x < 0f) ? GoalScoredEnum.GOAL_SCORED_FOR_ROBOT
+							: GoalScoredEnum.GOAL_SCORED_FOR_USER;
+					eventCount++;
+					return EventTypeEnum.GOAL_SCORED;
+				}
+			}
+
+			float timeWall = earliest(earliest(timeX, timeY), timeCorner);
+			float timeEvent = earliest(timeWall, timeMallet);
+			if (timeEvent == Collision.NO_IMPACT) {
+				if (segmentDragTime < maxDragTime) {
+					// Next friction sample
+					advance(segmentDragTime);
+					if (isStopped()) {
+						return EventTypeEnum.PUCK_STOPPED;
+					}
+					continue;
+				}
+				advance(maxDragTime);
+				time = maxTime; // Avoid rounding in the round trip through drag-adjusted time
+				return EventTypeEnum.TIME_LIMIT;
+			}
+
+			advance(timeEvent);
+			eventCount++;
+			if (timeEvent == timeMallet) {
+				// Stationary, infinite mass mallet: reflect about the contact normal
+				normal.set(position).sub(malletPositions[malletIndex]).nor();
+				velocity.mulAdd(normal, -2f * normal.dot(velocity)).scl(
+						Constants.MALLET_PUCK_COLLISION_RESTITUTION_COEFFICIENT);
+				return EventTypeEnum.MALLET_COLLISION;
+			}
+			if (timeEvent == timeCorner) {
+				// Reflect about the arc normal, towards the corner circle centre
+				normal.set(position).sub(cornerCentres[cornerIndex]).nor();
+				velocity.mulAdd(normal, -2f * normal.dot(velocity));
+			} else if (timeEvent == timeX) {
+				velocity.x *= -1f;
+			} else {
+				velocity.y *= -1f;
+			}
+			velocity.scl(Constants.WALL_PUCK_COLLISION_RESTITUTION_COEFFICIENT);
+			return EventTypeEnum.WALL_COLLISION;
+		}
+	}
+
+	/**
+	 * Run until a goal is scored, the puck stops, the time limit or the event limit.
+	 * @param maxTime absolute simulation time limit
+	 * @param maxEvents
+	 * @return the goal scored, if any
+	 */
+	public GoalScoredEnum runUntilGoal(float maxTime, int maxEvents) {
+		while (eventCount < maxEvents) {
+			EventTypeEnum event = advanceToNextEvent(maxTime);
+			if (event == EventTypeEnum.GOAL_SCORED || event == EventTypeEnum.PUCK_STOPPED
+					|| event == EventTypeEnum.TIME_LIMIT) {
+				break;
+			}
+		}
+		return goalScored;
+	}
+
+	/**
+	 * Move along the current path by the given drag-adjusted time, updating real time and slowing
+	 * the puck accordingly.
+	 * @param dragAdjustedTime
+	 */
+	private void advance(float dragAdjustedTime) {
+		position.mulAdd(velocity, dragAdjustedTime);
+		// Speed decays linearly with distance: v = v_0 * (1 - cs)
+		velocity.scl(1f - dragRate * dragAdjustedTime);
+		time += PuckSimulation.getTimeFromDragAdjustedTime(dragRate, dragAdjustedTime);
+	}
+
+	/**
+	 * Check whether the puck has effectively stopped, and if so stop it.
+	 */
+	private boolean isStopped() {
+		if (velocity.len2() < Constants.SIMULATION_MIN_PUCK_SPEED_METERS_PER_SECOND
+				* Constants.SIMULATION_MIN_PUCK_SPEED_METERS_PER_SECOND) {
+			velocity.setZero();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check whether the puck's position after the given drag-adjusted time is within the quadrant
+	 * of a corner, where its arc is the boundary.
+	 */
+	private boolean isInCorner(int cornerIndex, float dragAdjustedTime) {
+		return (position.x + velocity.x * dragAdjustedTime - cornerCentres[cornerIndex].x)
+				* CORNER_SIGNS_X[cornerIndex] >= 0f
+				&& (position.y + velocity.y * dragAdjustedTime - cornerCentres[cornerIndex].y)
+						* CORNER_SIGNS_Y[cornerIndex] >= 0f;
+	}
+
+	private static float earliest(float timeA, float timeB) {
+		if (timeA == Collision.NO_IMPACT) {
+			return timeB;
+		}
+		return (timeB == Collision.NO_IMPACT) ? timeA : Math.min(timeA, timeB);
+	}
+
+	public Vector2 getPosition() {
+		return position;
+	}
+
+	public Vector2 getVelocity() {
+		return velocity;
+	}
+
+	public float getTime() {
+		return time;
+	}
+
+	public GoalScoredEnum getGoalScored() {
+		return goalScored;
+	}
+
+	public int getEventCount() {
+		return eventCount;
+	}
+}
@@ -0,0 +1,445 @@
+package airhockeyjava.simulation;
+
+import java.awt.geom.Rectangle2D;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.physical.Table;
+import airhockeyjava.util.RandomXS128;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Monte Carlo prediction of where the puck will cross the robot's goal line, given that its
+ * measured state is noisy. The measured velocity is a difference of two camera frames, so a single
+ * noisy frame can swing the single predicted path across the whole goal; instead, N initial states
+ * are sampled around the measured one from a gaussian noise model (per axis, for position and
+ * velocity) and propagated in PuckBatch chunks. The result is the distribution of goal line
+ * crossings: the fraction of samples which cross, the mean and standard deviation of the crossing
+ * y, the mean crossing time, and the probability of a goal. The samples which score are also
+ * followed across a defence line in front of the goal, if one is set, for the mean y at which to
+ * cover them there; banked shots cross it far from the straight line to their goal line crossing.
+ *
+ * Chunks are propagated in parallel on the common ForkJoinPool when there are enough samples for it
+ * to pay off, and sequentially otherwise. Each update is given a time budget: chunks stop
+ * propagating when it runs out, and samples still in flight count as not crossing. The number of
+ * samples adapts, halving after an update which ran out of time and doubling (up to the capacity)
+ * after one which used less than a quarter of its budget. Sampling is sequential from a seeded
+ * RandomXS128, so for a given sample count the samples do not depend on the number of threads.
+ * The results are not reproducible run to run, though: which samples are cut short, and the sample
+ * count of the next update, depend on the wall-clock time taken. With an infinite budget (as in
+ * headless games) every sample is propagated and the sample count stays as set, so they are.
+ *
+ * The propagation has the PuckBatch semantics: rectangular collision frame, air drag plus the
+ * table's friction grid, as learned, no mallets. Update and query from one thread; updates do not
+ * allocate beyond the fork/join machinery.
+ */
+public class MonteCarloPuckPrediction {
+
+	private final int chunkSize;
+	private final PuckBatch[] chunks;
+	private final ChunkTask[] chunkTasks;
+	private final RootTask rootTask = new RootTask();
+
+	// Per sample, indexed by chunk then index within the chunk
+	private final float[][] crossingY;
+	private final float[][] crossingTime;
+	private final boolean[][] isResolved; // Crossed, scored in the other goal, or stopped
+	private final float[][] defenceCrossingY; // NaN until the sample crosses the defence line
+
+	private final float goalLineX; // Robot goal line, for the puck centre
+	private final float goalMinY, goalMaxY; // Range of puck centre y within the goal mouth
+	private final float stepSeconds;
+	private final RandomXS128 random;
+	private float defenceLineX = Float.NaN; // For the puck centre; none if NaN
+
+	private float positionNoise; // Standard deviations, per axis
+	private float velocityNoise;
+
+	private int sampleCount;
+	private int activeChunks;
+	private float timeHorizonSeconds = Constants.MONTE_CARLO_TIME_HORIZON_SECONDS;
+	private volatile boolean hasDeadline;
+	private volatile long deadlineNanoseconds;
+	private volatile boolean isTruncated;
+
+	// Results of the last update
+	private int crossingCount = 0;
+	private int goalCount = 0;
+	private float meanCrossingY = 0f;
+	private float crossingYStandardDeviation = 0f;
+	private float meanCrossingTime = 0f;
+	private int defenceCrossingCount = 0;
+	private float meanDefenceCrossingY = 0f;
+	private float lastElapsedSeconds = 0f;
+	private long budgetOverrunCount = 0;
+
+	/**
+	 * Constructor.
+	 * @param table
+	 * @param puckRadius
+	 * @param puckMass
+	 * @param maxSamples greatest number of samples per update, rounded up to whole chunks
+	 * @param chunkSize samples per chunk (the unit of parallel work)
+	 * @param seed
+	 */
+	public MonteCarloPuckPrediction(Table table, float puckRadius, float puckMass, int maxSamples,
+			int chunkSize, long seed) {
+		int numberOfChunks = Math.max((maxSamples + chunkSize - 1) / chunkSize, 1);
+		this.chunkSize = chunkSize;
+		this.chunks = new PuckBatch[numberOfChunks];
+		this.chunkTasks = new ChunkTask[numberOfChunks];
+		this.crossingY = new float[numberOfChunks][chunkSize];
+		this.crossingTime = new float[numberOfChunks][chunkSize];
+		this.isResolved = new boolean[numberOfChunks][chunkSize];
+		this.defenceCrossingY = new float[numberOfChunks][chunkSize];
+		for (int i = 0; i < numberOfChunks; i++) {
+			chunks[i] = new PuckBatch(chunkSize, table, puckRadius, puckMass);
+			chunkTasks[i] = new ChunkTask(i);
+		}
+
+		Rectangle2D collisionFrame = table.getCollisionFrame(puckRadius);
+		this.goalLineX = (float) collisionFrame.getMaxX() - Constants.GAME_GOAL_ALLOWANCE;
+		this.goalMinY = table.getGoalStartY() + puckRadius - Constants.GAME_GOAL_ALLOWANCE;
+		this.goalMaxY = table.getGoalEndY() - puckRadius + Constants.GAME_GOAL_ALLOWANCE;
+		this.stepSeconds = Constants.MONTE_CARLO_STEP_SECONDS;
+		this.random = new RandomXS128(seed);
+		this.positionNoise = Constants.MONTE_CARLO_POSITION_NOISE_METERS;
+		this.velocityNoise = Constants.MONTE_CARLO_VELOCITY_NOISE_METERS_PER_SECOND;
+		setSampleCount(maxSamples);
+	}
+
+	/**
+	 * Overloaded. Uses the game puck dimensions and the default number of samples.
+	 * @param table
+	 */
+	public MonteCarloPuckPrediction(Table table) {
+		this(table, Constants.GAME_PUCK_RADIUS_METERS, Constants.GAME_PUCK_MASS_GRAMS,
+				Constants.MONTE_CARLO_MAX_SAMPLES, Constants.MONTE_CARLO_CHUNK_SIZE,
+				Constants.MONTE_CARLO_DEFAULT_SEED);
+	}
+
+	/**
+	 * Set the noise of the measured puck state, e.g. from the measured camera centroid noise. For
+	 * a velocity from the difference of two frames a time dt apart, the velocity noise is
+	 * sqrt(2) * positionNoise / dt.
+	 * @param positionNoise standard deviation of the position, per axis, in meters
+	 * @param velocityNoise standard deviation of the velocity, per axis, in meters per second
+	 */
+	public void setNoiseModel(float positionNoise, float velocityNoise) {
+		this.positionNoise = positionNoise;
+		this.velocityNoise = velocityNoise;
+	}
+
+	/**
+	 * Sample the measured state, propagate the samples, and compute the crossing distribution.
+	 * @param position measured puck position
+	 * @param velocity measured puck velocity
+	 * @param timeBudgetSeconds time allowed for the update, or infinite for no limit
+	 */
+	public void update(Vector2 position, Vector2 velocity, float timeBudgetSeconds) {
+		long startTime = System.nanoTime();
+		long budgetNanoseconds = (long) (timeBudgetSeconds * 1e9f);
+		hasDeadline = timeBudgetSeconds < Float.POSITIVE_INFINITY;
+		deadlineNanoseconds = startTime + budgetNanoseconds;
+		isTruncated = false;
+
+		for (int chunk = 0; chunk < activeChunks; chunk++) {
+			sampleChunk(chunk, position, velocity);
+		}
+		if (activeChunks >= Constants.MONTE_CARLO_PARALLEL_MIN_CHUNKS
+				&& ForkJoinPool.getCommonPoolParallelism() > 1) {
+			rootTask.reinitialize();
+			ForkJoinPool.commonPool().invoke(rootTask);
+		} else {
+			for (int chunk = 0; chunk < activeChunks; chunk++) {
+				propagateChunk(chunk);
+			}
+		}
+		computeDistribution();
+
+		long elapsedNanoseconds = System.nanoTime() - startTime;
+		lastElapsedSeconds = elapsedNanoseconds / 1e9f;
+		if (!hasDeadline) {
+			return;
+		}
+		if (isTruncated) {
+			budgetOverrunCount++;
+			setSampleCount(sampleCount / 2);
+		} else if (elapsedNanoseconds < budgetNanoseconds / 4) {
+			setSampleCount(sampleCount * 2);
+		}
+	}
+
+	/**
+	 * Fill a chunk with samples around the measured state.
+	 */
+	private void sampleChunk(int chunk, Vector2 position, Vector2 velocity) {
+		PuckBatch batch = chunks[chunk];
+		batch.setSize(chunkSize);
+		for (int i = 0; i < chunkSize; i++) {
+			batch.x[i] = position.x + positionNoise * (float) random.nextGaussian();
+			batch.y[i] = position.y + positionNoise * (float) random.nextGaussian();
+			batch.vx[i] = velocity.x + velocityNoise * (float) random.nextGaussian();
+			batch.vy[i] = velocity.y + velocityNoise * (float) random.nextGaussian();
+			batch.goalScored[i] = PuckBatch.NO_GOAL_SCORED;
+			isResolved[chunk][i] = false;
+			crossingTime[chunk][i] = PuckPrediction.NEVER;
+			defenceCrossingY[chunk][i] = Float.NaN;
+		}
+	}
+
+	/**
+	 * Step a chunk until every sample is resolved, the time horizon is reached, or the deadline
+	 * passes.
+	 */
+	private void propagateChunk(int chunk) {
+		PuckBatch batch = chunks[chunk];
+		int maxSteps = (int) (timeHorizonSeconds / stepSeconds);
+		for (int step = 0; step < maxSteps; step++) {
+			recordCrossings(chunk, step * stepSeconds);
+			if (step % Constants.MONTE_CARLO_STEPS_PER_DEADLINE_CHECK == 0) {
+				if (countInFlight(chunk) == 0) {
+					return;
+				}
+				if (hasDeadline && System.nanoTime() > deadlineNanoseconds) {
+					isTruncated = true;
+					return;
+				}
+			}
+			batch.step(stepSeconds);
+		}
+	}
+
+	/**
+	 * Before a step: record the samples which will cross the goal line or the defence line during
+	 * it, along the straight line of the step. Runs every step, so kept to a single well-predicted
+	 * branch per line; with no defence line set its test is always false.
+	 */
+	private void recordCrossings(int chunk, float time) {
+		PuckBatch batch = chunks[chunk];
+		final float[] x = batch.x, y = batch.y, vx = batch.vx, vy = batch.vy;
+		final float[] crossingY = this.crossingY[chunk], crossingTime = this.crossingTime[chunk];
+		final float[] defenceCrossingY = this.defenceCrossingY[chunk];
+		final boolean[] isResolved = this.isResolved[chunk];
+		final float lineX = goalLineX, defenceX = defenceLineX, deltaTime = stepSeconds;
+		for (int i = 0; i < chunkSize; i++) {
+			if (x[i] + vx[i] * deltaTime >= defenceX && x[i] < defenceX && vx[i] > 0f
+					&& !isResolved[i]) {
+				defenceCrossingY[i] = y[i] + vy[i] * (defenceX - x[i]) / vx[i];
+			}
+			if (x[i] + vx[i] * deltaTime >= lineX && vx[i] > 0f && !isResolved[i]) {
+				float timeToLine = Math.max(lineX - x[i], 0f) / vx[i];
+				crossingY[i] = y[i] + vy[i] * timeToLine;
+				crossingTime[i] = time + timeToLine;
+				isResolved[i] = true;
+			}
+		}
+	}
+
+	/**
+	 * Resolve the samples which have stopped or scored in the other goal, and count the rest.
+	 * @return number of samples still in flight
+	 */
+	private int countInFlight(int chunk) {
+		PuckBatch batch = chunks[chunk];
+		final float[] vx = batch.vx, vy = batch.vy;
+		final boolean[] isResolved = this.isResolved[chunk];
+		final float minSpeed2 = Constants.SIMULATION_MIN_PUCK_SPEED_METERS_PER_SECOND
+				* Constants.SIMULATION_MIN_PUCK_SPEED_METERS_PER_SECOND;
+		int inFlight = 0;
+		for (int i = 0; i < chunkSize; i++) {
+			if (!isResolved[i] && (batch.goalScored[i] != PuckBatch.NO_GOAL_SCORED
+					|| vx[i] * vx[i] + vy[i] * vy[i] < minSpeed2)) {
+				isResolved[i] = true;
+			}
+			inFlight += isResolved[i] ? 0 : 1;
+		}
+		return inFlight;
+	}
+
+	/**
+	 * Reduce the recorded crossings to the distribution.
+	 */
+	private void computeDistribution() {
+		double sumY = 0.0, sumY2 = 0.0, sumTime = 0.0, sumDefenceY = 0.0;
+		int crossings = 0, goals = 0, defenceCrossings = 0;
+		for (int chunk = 0; chunk < activeChunks; chunk++) {
+			for (int i = 0; i < chunkSize; i++) {
+				float time = crossingTime[chunk][i];
+				if (time == PuckPrediction.NEVER) {
+					continue;
+				}
+				float y = crossingY[chunk][i];
+				sumY += y;
+				sumY2 += y * y;
+				sumTime += time;
+				crossings++;
+				if (y >= goalMinY && y <= goalMaxY) {
+					goals++;
+					float defenceY = defenceCrossingY[chunk][i];
+					if (defenceY == defenceY) { // Not NaN
+						sumDefenceY += defenceY;
+						defenceCrossings++;
+					}
+				}
+			}
+		}
+		defenceCrossingCount = defenceCrossings;
+		meanDefenceCrossingY = (defenceCrossings > 0) ? (float) (sumDefenceY / defenceCrossings)
+				: 0f;
+		crossingCount = crossings;
+		goalCount = goals;
+		if (crossings > 0) {
+			meanCrossingY = (float) (sumY / crossings);
+			crossingYStandardDeviation = (float) Math.sqrt(Math.max(sumY2 / crossings
+					- (sumY / crossings) * (sumY / crossings), 0.0));
+			meanCrossingTime = (float) (sumTime / crossings);
+		} else {
+			meanCrossingY = 0f;
+			crossingYStandardDeviation = 0f;
+			meanCrossingTime = PuckPrediction.NEVER;
+		}
+	}
+
+	/**
+	 * Set the number of samples for the next update, in whole chunks, between one chunk and the
+	 * capacity.
+	 * @param samples
+	 */
+	public void setSampleCount(int samples) {
+		activeChunks = Math.min(Math.max((samples + chunkSize - 1) / chunkSize, 1), chunks.length);
+		sampleCount = activeChunks * chunkSize;
+	}
+
+	public int getSampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 * Set the x of a line in front of the goal across which to follow the samples that score, for
+	 * getMeanDefenceCrossingY.
+	 * @param defenceLineX for the puck centre, or NaN for none
+	 */
+	public void setDefenceLineX(float defenceLineX) {
+		this.defenceLineX = defenceLineX;
+	}
+
+	public void setTimeHorizonSeconds(float timeHorizonSeconds) {
+		this.timeHorizonSeconds = timeHorizonSeconds;
+	}
+
+	/**
+	 * Fraction of the samples in the last update which crossed the goal line.
+	 */
+	public float getCrossingProbability() {
+		return (float) crossingCount / sampleCount;
+	}
+
+	/**
+	 * Fraction of the samples in the last update which crossed the goal line within the goal mouth.
+	 */
+	public float getGoalProbability() {
+		return (float) goalCount / sampleCount;
+	}
+
+	/**
+	 * Mean y of the goal line crossings, or zero if there were none.
+	 */
+	public float getMeanCrossingY() {
+		return meanCrossingY;
+	}
+
+	/**
+	 * Standard deviation of the y of the goal line crossings.
+	 */
+	public float getCrossingYStandardDeviation() {
+		return crossingYStandardDeviation;
+	}
+
+	/**
+	 * Mean time from the measured state to the goal line crossings, or PuckPrediction.NEVER if
+	 * there were none.
+	 */
+	public float getMeanCrossingTime() {
+		return meanCrossingTime;
+	}
+
+	/**
+	 * Number of samples in the last update which scored, having crossed the defence line on the way.
+	 * Samples which started beyond the line are not counted.
+	 */
+	public int getDefenceCrossingCount() {
+		return defenceCrossingCount;
+	}
+
+	/**
+	 * Mean y at which the samples that scored in the last update crossed the defence line, or zero
+	 * if none did.
+	 */
+	public float getMeanDefenceCrossingY() {
+		return meanDefenceCrossingY;
+	}
+
+	public float getGoalLineX() {
+		return goalLineX;
+	}
+
+	/**
+	 * Wall-clock time taken by the last update.
+	 */
+	public float getLastElapsedSeconds() {
+		return lastElapsedSeconds;
+	}
+
+	/**
+	 * Whether the last update ran out of time before every sample was resolved.
+	 */
+	public boolean isLastUpdateTruncated() {
+		return isTruncated;
+	}
+
+	/**
+	 * Number of updates so far which ran out of time.
+	 */
+	public long getBudgetOverrunCount() {
+		return budgetOverrunCount;
+	}
+
+	/**
+	 * Propagates one chunk. Preallocated and reinitialised for each update.
+	 */
+	private class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int chunk;
+
+		ChunkTask(int chunk) {
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected void compute() {
+			propagateChunk(chunk);
+		}
+	}
+
+	/**
+	 * Forks the active chunks and waits for them.
+	 */
+	private class RootTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+			for (int i = 1; i < activeChunks; i++) {
+				chunkTasks[i].reinitialize();
+				chunkTasks[i].fork();
+			}
+			chunkTasks[0].reinitialize();
+			chunkTasks[0].invoke();
+			for (int i = 1; i < activeChunks; i++) {
+				chunkTasks[i].join();
+			}
+		}
+	}
+}
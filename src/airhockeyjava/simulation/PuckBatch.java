@@ -0,0 +1,274 @@
+package airhockeyjava.simulation;
+
+import java.awt.geom.Rectangle2D;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.physical.FrictionGrid;
+import airhockeyjava.physical.Puck;
+import airhockeyjava.physical.Table;
+
+/**
+ * Structure-of-arrays store for a batch of hypothetical pucks, used for Monte Carlo rollouts.
+ * Holds only primitive state (position, velocity, goal flag) in parallel float arrays, instead of a
+ * full Puck object each, and advances the whole batch with a single kernel.
+ *
+ * The kernel is laid out for the JIT to auto-vectorise: short counted loops over the arrays (one
+ * per axis, one for velocity decay) with no calls, object accesses or data-dependent branches. Wall
+ * hits are computed arithmetically as 0 or 1, since pucks bounce at unpredictable times. It is
+ * split into several loops because a single loop doing everything is too large for C2 to unroll
+ * and vectorise. Goals are checked in a separate, scalar, loop.
+ *
+ * Semantics match the puck physics in PuckSimulation: walls reflect the normal component of
+ * velocity and apply restitution to the whole velocity, then air and surface friction decay the
+ * velocity by e ^ (-(k/m + c)t), with c from the table's friction grid at the puck's new position.
+ * While the grid is uniform the decay is the same for every puck, and the friction pass stays a
+ * single vectorisable loop; once it has been learned, c is sampled per puck in a scalar loop
+ * first. A goal is scored if the position at the end of the step is within a goal, and the puck
+ * is then frozen in place. Differences, which are second order in the step size: the position
+ * after a wall hit is mirrored about the wall with the normal overshoot scaled by restitution,
+ * rather than swept exactly; goals are not swept along the step as in SimulatedDetection; mallets
+ * and the speed cap are not modelled.
+ */
+public class PuckBatch {
+
+	public static final byte NO_GOAL_SCORED = 0;
+	public static final byte GOAL_SCORED_FOR_ROBOT = 1; // Puck in the left (user) goal
+	public static final byte GOAL_SCORED_FOR_USER = 2; // Puck in the right (robot) goal
+
+	// Scale for turning a wall overshoot into a 0 or 1 hit flag. Any non-zero overshoot on the table
+	// is far larger than 1 / HIT_SHARPNESS, so the flag is exact.
+	private static final float HIT_SHARPNESS = 1e30f;
+
+	public final float[] x;
+	public final float[] y;
+	public final float[] vx;
+	public final float[] vy;
+	public final byte[] goalScored;
+
+	// Per-step restitution factors from wall hits along each axis, and friction decay (scratch)
+	private final float[] restitutionX;
+	private final float[] restitutionY;
+	private final float[] decay;
+
+	private final int capacity;
+	private int size = 0;
+
+	private final float minX, maxX, minY, maxY; // Collision frame of the puck centre
+	private final float leftGoalLineX, rightGoalLineX;
+	private final float goalMinY, goalMaxY; // Range of puck centre y within the goal mouth
+	private final float dragRate; // Air drag k/m
+	private final FrictionGrid frictionGrid; // Surface friction, added to the air drag
+	private final float wallRestitution;
+
+	/**
+	 * Constructor.
+	 * @param capacity maximum number of pucks
+	 * @param table
+	 * @param puckRadius
+	 * @param puckMass
+	 */
+	public PuckBatch(int capacity, Table table, float puckRadius, float puckMass) {
+		this.capacity = capacity;
+		this.x = new float[capacity];
+		this.y = new float[capacity];
+		this.vx = new float[capacity];
+		this.vy = new float[capacity];
+		this.goalScored = new byte[capacity];
+		this.restitutionX = new float[capacity];
+		this.restitutionY = new float[capacity];
+		this.decay = new float[capacity];
+
+		Rectangle2D collisionFrame = table.getCollisionFrame(puckRadius);
+		this.minX = (float) collisionFrame.getMinX();
+		this.maxX = (float) collisionFrame.getMaxX();
+		this.minY = (float) collisionFrame.getMinY();
+		this.maxY = (float) collisionFrame.getMaxY();
+		this.leftGoalLineX = minX + Constants.GAME_GOAL_ALLOWANCE;
+		this.rightGoalLineX = maxX - Constants.GAME_GOAL_ALLOWANCE;
+		this.goalMinY = table.getGoalStartY() + puckRadius - Constants.GAME_GOAL_ALLOWANCE;
+		this.goalMaxY = table.getGoalEndY() - puckRadius + Constants.GAME_GOAL_ALLOWANCE;
+		this.dragRate = Constants.PUCK_AIR_FRICTION_COEFFICIENT / puckMass;
+		this.frictionGrid = table.getFrictionGrid();
+		this.wallRestitution = Constants.WALL_PUCK_COLLISION_RESTITUTION_COEFFICIENT;
+	}
+
+	/**
+	 * Overloaded. Uses the game puck dimensions.
+	 * @param capacity
+	 * @param table
+	 */
+	public PuckBatch(int capacity, Table table) {
+		this(capacity, table, Constants.GAME_PUCK_RADIUS_METERS, Constants.GAME_PUCK_MASS_GRAMS);
+	}
+
+	/**
+	 * Import the state of a live puck as a new batch entry.
+	 * @param puck
+	 * @return index of the new entry
+	 */
+	public int add(Puck puck) {
+		if (size >= capacity) {
+			throw new IllegalStateException("Puck batch is full (capacity " + capacity + ")");
+		}
+		set(size, puck);
+		return size++;
+	}
+
+	/**
+	 * Import the state of a live puck into an existing entry.
+	 * @param index
+	 * @param puck
+	 */
+	public void set(int index, Puck puck) {
+		x[index] = puck.getPosition().x;
+		y[index] = puck.getPosition().y;
+		vx[index] = puck.getVelocity().x;
+		vy[index] = puck.getVelocity().y;
+		goalScored[index] = NO_GOAL_SCORED;
+	}
+
+	/**
+	 * Fill the batch to capacity with copies of a live puck, e.g. before perturbing each copy.
+	 * @param puck
+	 */
+	public void fill(Puck puck) {
+		for (int i = 0; i < capacity; i++) {
+			set(i, puck);
+		}
+		size = capacity;
+	}
+
+	/**
+	 * Export an entry to a live puck, in place.
+	 * @param index
+	 * @param puck
+	 */
+	public void get(int index, Puck puck) {
+		puck.setPosition(x[index], y[index]);
+		puck.getVelocity().set(vx[index], vy[index]);
+	}
+
+	/**
+	 * Advance every puck in the batch by the given time.
+	 * @param deltaTime
+	 */
+	public void step(float deltaTime) {
+		stepGoals(deltaTime);
+		stepAxis(x, vx, restitutionX, minX, maxX, deltaTime);
+		stepAxis(y, vy, restitutionY, minY, maxY, deltaTime);
+
+		// Restitution for any wall hits, then air and surface friction
+		final float[] vx = this.vx, vy = this.vy;
+		final float[] restitutionX = this.restitutionX, restitutionY = this.restitutionY;
+		final int size = this.size;
+		if (frictionGrid.isUniform()) {
+			final float decay = (float) StrictMath.exp(-(dragRate + frictionGrid.get(0, 0))
+					* deltaTime);
+			for (int i = 0; i < size; i++) {
+				float scale = restitutionX[i] * restitutionY[i] * decay;
+				vx[i] *= scale;
+				vy[i] *= scale;
+			}
+		} else {
+			sampleDecay(deltaTime);
+			final float[] decay = this.decay;
+			for (int i = 0; i < size; i++) {
+				float scale = restitutionX[i] * restitutionY[i] * decay[i];
+				vx[i] *= scale;
+				vy[i] *= scale;
+			}
+		}
+	}
+
+	/**
+	 * Friction pass for a learned grid: the velocity decay of each puck over the step, from the
+	 * surface friction at its position.
+	 * @param deltaTime
+	 */
+	private void sampleDecay(float deltaTime) {
+		final float[] x = this.x, y = this.y, decay = this.decay;
+		final int size = this.size;
+		for (int i = 0; i < size; i++) {
+			decay[i] = (float) StrictMath.exp(-(dragRate
+					+ frictionGrid.getFrictionCoefficient(x[i], y[i])) * deltaTime);
+		}
+	}
+
+	/**
+	 * Goal pass: flag pucks whose end position is within a goal, and stop them. Goals are rare, so
+	 * the branch is well predicted; a stopped puck stays in the goal and is simply flagged again.
+	 * @param deltaTime
+	 */
+	private void stepGoals(float deltaTime) {
+		final float[] x = this.x, y = this.y, vx = this.vx, vy = this.vy;
+		final int size = this.size;
+		for (int i = 0; i < size; i++) {
+			float nx = x[i] + vx[i] * deltaTime;
+			float ny = y[i] + vy[i] * deltaTime;
+			if (ny >= goalMinY && ny <= goalMaxY && (nx <= leftGoalLineX || nx >= rightGoalLineX)) {
+				goalScored[i] = (nx <= leftGoalLineX) ? GOAL_SCORED_FOR_ROBOT : GOAL_SCORED_FOR_USER;
+				vx[i] = 0f;
+				vy[i] = 0f;
+			}
+		}
+	}
+
+	/**
+	 * Axis pass: move along one axis, reflecting off the walls at min and max. The position is
+	 * mirrored back by the overshoot scaled by restitution, the velocity component is negated, and
+	 * the restitution factor for the whole velocity is recorded.
+	 * @param position
+	 * @param velocity
+	 * @param restitution
+	 * @param min
+	 * @param max
+	 * @param deltaTime
+	 */
+	private void stepAxis(float[] position, float[] velocity, float[] restitution, float min,
+			float max, float deltaTime) {
+		final float e = wallRestitution;
+		final int size = this.size;
+		for (int i = 0; i < size; i++) {
+			float next = position[i] + velocity[i] * deltaTime;
+			// Signed overshoot past the walls, zero if inside
+			float overshoot = Math.max(next - max, 0f) + Math.min(next - min, 0f);
+			float isHit = Math.min(Math.abs(overshoot) * HIT_SHARPNESS, 1f);
+			// Clamp in case of more than one bounce in a step
+			position[i] = Math.min(Math.max(next - (1f + e) * overshoot, min), max);
+			velocity[i] *= 1f - 2f * isHit;
+			restitution[i] = 1f - (1f - e) * isHit;
+		}
+	}
+
+	/**
+	 * Count the pucks for which the given goal has been scored.
+	 * @param goal one of the GOAL_SCORED constants
+	 * @return count
+	 */
+	public int countGoals(byte goal) {
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			count += (goalScored[i] == goal) ? 1 : 0;
+		}
+		return count;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Set the number of entries in use, e.g. to reuse the arrays for a smaller batch.
+	 * @param size
+	 */
+	public void setSize(int size) {
+		if (size < 0 || size > capacity) {
+			throw new IllegalArgumentException("Invalid puck batch size " + size);
+		}
+		this.size = size;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+}
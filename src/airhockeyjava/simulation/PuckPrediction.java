@@ -0,0 +1,322 @@
+package airhockeyjava.simulation;
+
+import java.awt.geom.Line2D;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.physical.FrictionGrid;
+import airhockeyjava.physical.Puck;
+import airhockeyjava.physical.Table;
+import airhockeyjava.physical.Table.GoalScoredEnum;
+import airhockeyjava.util.SegmentIndex;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Time-parameterised prediction of the puck, built once per tick from the puck state. Answers
+ * where the puck will be and how fast it will be going at a time t, when it will first cross a
+ * line (or an x-coordinate), and when it will reach a goal, so that strategies can decide whether
+ * the robot can get somewhere in time rather than only where to go.
+ *
+ * The path is the polyline of bounce points from a TrajectoryPredictor. Along each segment the
+ * puck moves in a straight line at the drag-adjusted time of the segment's starting drag rate
+ * (air drag plus the surface friction where the segment starts), so each query is a scan over the
+ * segments, O(number of bounces), and allocation-free. Beyond the end of the path, the puck is
+ * taken to stay at its last predicted state.
+ *
+ * Not thread safe; build and query from the game thread.
+ */
+public class PuckPrediction {
+
+	public static final float NEVER = -1f; // Returned by the time queries if there is no crossing
+
+	private final TrajectoryPredictor trajectoryPredictor;
+	private final FrictionGrid frictionGrid;
+	private final float airDragRate; // k/m
+	private final int maxBounces;
+
+	// Per segment (from point i to point i + 1), indexed by the starting point
+	private final float[] segmentDragRates;
+	private final float[] segmentSpeeds; // Speed leaving the starting point
+	private final float[] segmentDragAdjustedLengths; // Length of the segment divided by its speed
+
+	private int numberOfPoints = 0;
+
+	/**
+	 * Constructor.
+	 * @param table
+	 * @param puckRadius
+	 * @param puckMass
+	 * @param maxBounces wall bounces followed by each prediction
+	 */
+	public PuckPrediction(Table table, float puckRadius, float puckMass, int maxBounces) {
+		this.maxBounces = maxBounces;
+		this.trajectoryPredictor = new TrajectoryPredictor(table, puckRadius, puckMass, maxBounces);
+		this.frictionGrid = table.getFrictionGrid();
+		this.airDragRate = Constants.PUCK_AIR_FRICTION_COEFFICIENT / puckMass;
+		this.segmentDragRates = new float[maxBounces + 2];
+		this.segmentSpeeds = new float[maxBounces + 2];
+		this.segmentDragAdjustedLengths = new float[maxBounces + 2];
+	}
+
+	/**
+	 * Overloaded. Uses the game puck dimensions and the default number of bounces.
+	 * @param table
+	 */
+	public PuckPrediction(Table table) {
+		this(table, Constants.GAME_PUCK_RADIUS_METERS, Constants.GAME_PUCK_MASS_GRAMS,
+				Constants.PREDICTION_MAX_BOUNCES);
+	}
+
+	/**
+	 * Rebuild the prediction from the given puck state, at time zero.
+	 * @param position
+	 * @param velocity
+	 */
+	public void update(Vector2 position, Vector2 velocity) {
+		trajectoryPredictor.predict(position, velocity, maxBounces,
+				Constants.PREDICTION_MAX_TIME_SECONDS);
+		numberOfPoints = trajectoryPredictor.getNumberOfPoints();
+		for (int i = 0; i < numberOfPoints - 1; i++) {
+			float x = trajectoryPredictor.getPointX(i);
+			float y = trajectoryPredictor.getPointY(i);
+			float speed = (float) Math.sqrt(trajectoryPredictor.getVelocityX(i)
+					* trajectoryPredictor.getVelocityX(i) + trajectoryPredictor.getVelocityY(i)
+					* trajectoryPredictor.getVelocityY(i));
+			float dx = trajectoryPredictor.getPointX(i + 1) - x;
+			float dy = trajectoryPredictor.getPointY(i + 1) - y;
+			segmentDragRates[i] = airDragRate + frictionGrid.getFrictionCoefficient(x, y);
+			segmentSpeeds[i] = speed;
+			segmentDragAdjustedLengths[i] = (speed > 0f) ? (float) Math.sqrt(dx * dx + dy * dy)
+					/ speed : 0f;
+		}
+	}
+
+	/**
+	 * Overloaded. Rebuild from the current state of the puck.
+	 * @param puck
+	 */
+	public void update(Puck puck) {
+		update(puck.getPosition(), puck.getVelocity());
+	}
+
+	/**
+	 * Get the predicted position at a time.
+	 * @param time from the state the prediction was built from, in seconds
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public Vector2 getPositionAt(float time, Vector2 out) {
+		int segment = getSegmentAt(time);
+		if (segment < 0) {
+			int last = numberOfPoints - 1;
+			return out.set(trajectoryPredictor.getPointX(last), trajectoryPredictor.getPointY(last));
+		}
+		float dragAdjustedTime = getDragAdjustedTimeInSegment(segment, time);
+		return out.set(trajectoryPredictor.getPointX(segment)
+				+ trajectoryPredictor.getVelocityX(segment) * dragAdjustedTime,
+				trajectoryPredictor.getPointY(segment) + trajectoryPredictor.getVelocityY(segment)
+						* dragAdjustedTime);
+	}
+
+	/**
+	 * Get the predicted velocity at a time.
+	 * @param time from the state the prediction was built from, in seconds
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public Vector2 getVelocityAt(float time, Vector2 out) {
+		int segment = getSegmentAt(time);
+		if (segment < 0) {
+			int last = numberOfPoints - 1;
+			return out.set(trajectoryPredictor.getVelocityX(last),
+					trajectoryPredictor.getVelocityY(last));
+		}
+		// Speed decays linearly with distance: v = v_0 * (1 - cs)
+		float scale = 1f - segmentDragRates[segment]
+				* getDragAdjustedTimeInSegment(segment, time);
+		return out.set(trajectoryPredictor.getVelocityX(segment) * scale,
+				trajectoryPredictor.getVelocityY(segment) * scale);
+	}
+
+	/**
+	 * Get the time at which the puck first crosses the vertical line at the given x.
+	 * @param x
+	 * @return time, or NEVER
+	 */
+	public float getTimeToCrossX(float x) {
+		for (int i = 0; i < numberOfPoints - 1; i++) {
+			float startX = trajectoryPredictor.getPointX(i);
+			float endX = trajectoryPredictor.getPointX(i + 1);
+			if ((startX - x) * (endX - x) <= 0f && startX != endX) {
+				return getTimeInSegment(i, (x - startX) / trajectoryPredictor.getVelocityX(i));
+			}
+		}
+		return NEVER;
+	}
+
+	/**
+	 * Get the time at which the puck first crosses the line segment between two points.
+	 * @param x1
+	 * @param y1
+	 * @param x2
+	 * @param y2
+	 * @return time, or NEVER
+	 */
+	public float getTimeToCrossLine(float x1, float y1, float x2, float y2) {
+		float lineX = x2 - x1;
+		float lineY = y2 - y1;
+		for (int i = 0; i < numberOfPoints - 1; i++) {
+			// Solve start + velocity * s = p1 + line * w, for s in the segment and w in [0, 1]
+			float velocityX = trajectoryPredictor.getVelocityX(i);
+			float velocityY = trajectoryPredictor.getVelocityY(i);
+			float denominator = velocityX * lineY - velocityY * lineX;
+			if (denominator == 0f) {
+				continue; // Parallel
+			}
+			float offsetX = x1 - trajectoryPredictor.getPointX(i);
+			float offsetY = y1 - trajectoryPredictor.getPointY(i);
+			float dragAdjustedTime = (offsetX * lineY - offsetY * lineX) / denominator;
+			float w = (offsetX * velocityY - offsetY * velocityX) / denominator;
+			if (dragAdjustedTime >= 0f && dragAdjustedTime <= segmentDragAdjustedLengths[i]
+					&& w >= 0f && w <= 1f) {
+				return getTimeInSegment(i, dragAdjustedTime);
+			}
+		}
+		return NEVER;
+	}
+
+	/**
+	 * Overloaded.
+	 * @param line
+	 * @return time, or NEVER
+	 */
+	public float getTimeToCrossLine(Line2D line) {
+		return getTimeToCrossLine((float) line.getX1(), (float) line.getY1(),
+				(float) line.getX2(), (float) line.getY2());
+	}
+
+	/**
+	 * Get the earliest time at which the puck crosses any of the given lines.
+	 * @param lines may be null
+	 * @return time, or NEVER
+	 */
+	public float getTimeToCrossLines(Line2D[] lines) {
+		float earliestTime = NEVER;
+		if (lines == null) {
+			return earliestTime;
+		}
+		for (int i = 0; i < lines.length; i++) {
+			float time = getTimeToCrossLine(lines[i]);
+			if (time != NEVER && (earliestTime == NEVER || time < earliestTime)) {
+				earliestTime = time;
+			}
+		}
+		return earliestTime;
+	}
+
+	/**
+	 * Overloaded. Get the earliest time at which the puck crosses any of the indexed lines.
+	 * @param index may be null
+	 * @return time, or NEVER
+	 */
+	public float getTimeToCrossLines(SegmentIndex index) {
+		if (index == null) {
+			return NEVER;
+		}
+		for (int i = 0; i < numberOfPoints - 1; i++) {
+			if (index.findFirstCrossing(trajectoryPredictor.getPointX(i),
+					trajectoryPredictor.getPointY(i), trajectoryPredictor.getPointX(i + 1),
+					trajectoryPredictor.getPointY(i + 1)) != SegmentIndex.NONE) {
+				return getTimeInSegment(i,
+						index.getCrossingFraction() * segmentDragAdjustedLengths[i]);
+			}
+		}
+		return NEVER;
+	}
+
+	/**
+	 * Get the time at which the puck reaches a goal line within the goal mouth.
+	 * @return time, or NEVER if the predicted path does not end in a goal
+	 */
+	public float getTimeToGoal() {
+		return (getGoalScored() != GoalScoredEnum.NO_GOAL_SCORED) ? trajectoryPredictor
+				.getPointTime(numberOfPoints - 1) : NEVER;
+	}
+
+	/**
+	 * Get the goal which the predicted path ends in, if any.
+	 * @return GoalScoredEnum
+	 */
+	public GoalScoredEnum getGoalScored() {
+		return trajectoryPredictor.getGoalScored();
+	}
+
+	/**
+	 * Get the number of straight segments between bounce points.
+	 */
+	public int getNumberOfSegments() {
+		return Math.max(numberOfPoints - 1, 0);
+	}
+
+	/**
+	 * Get the length of a segment.
+	 * @param segment from 0 to getNumberOfSegments() - 1
+	 * @return length, in meters
+	 */
+	public float getSegmentLength(int segment) {
+		return segmentDragAdjustedLengths[segment] * segmentSpeeds[segment];
+	}
+
+	/**
+	 * Get the time at which the puck has travelled the given distance along a segment, for walking
+	 * the path in steps of distance.
+	 * @param segment from 0 to getNumberOfSegments() - 1
+	 * @param distance from the start of the segment, in meters
+	 * @return time, capped at the segment end
+	 */
+	public float getTimeAlongSegment(int segment, float distance) {
+		if (segmentSpeeds[segment] == 0f) {
+			return trajectoryPredictor.getPointTime(segment);
+		}
+		return getTimeInSegment(segment, distance / segmentSpeeds[segment]);
+	}
+
+	/**
+	 * Get the underlying bounce points.
+	 * @return TrajectoryPredictor
+	 */
+	public TrajectoryPredictor getTrajectoryPredictor() {
+		return trajectoryPredictor;
+	}
+
+	/**
+	 * Index of the segment containing the given time, or -1 if beyond the end of the path.
+	 */
+	private int getSegmentAt(float time) {
+		for (int i = 0; i < numberOfPoints - 1; i++) {
+			if (time < trajectoryPredictor.getPointTime(i + 1)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Drag-adjusted time into a segment at the given time, capped at the segment end.
+	 */
+	private float getDragAdjustedTimeInSegment(int segment, float time) {
+		float timeInSegment = Math.max(time - trajectoryPredictor.getPointTime(segment), 0f);
+		return Math.min(PuckSimulation.getDragAdjustedTime(segmentDragRates[segment],
+				timeInSegment), segmentDragAdjustedLengths[segment]);
+	}
+
+	/**
+	 * Time at which the puck is the given drag-adjusted time into a segment, capped at the segment
+	 * end.
+	 */
+	private float getTimeInSegment(int segment, float dragAdjustedTime) {
+		float time = trajectoryPredictor.getPointTime(segment)
+				+ PuckSimulation.getTimeFromDragAdjustedTime(segmentDragRates[segment],
+						dragAdjustedTime);
+		return Math.min(time, trajectoryPredictor.getPointTime(segment + 1));
+	}
+}
@@ -3,111 +3,330 @@ package airhockeyjava.simulation;
 import java.awt.geom.Rectangle2D;
 
 import airhockeyjava.game.Constants;
+import airhockeyjava.physical.FrictionGrid;
 import airhockeyjava.physical.IMovingItem;
 import airhockeyjava.physical.Mallet;
 import airhockeyjava.physical.Puck;
 import airhockeyjava.physical.Table;
+import airhockeyjava.physical.Table.GoalScoredEnum;
+import airhockeyjava.physical.TableDistanceField;
 import airhockeyjava.util.Vector2;
 
 /**
  * Class which defines simulated puck behavior. Used by both the simulated detection/physics engine, and 
  * by the strategy engine for predicted where puck will be, in order to decide how to respond.
+ * The instance methods make up the per-tick step pipeline and do not allocate: they work in place
+ * on the puck's own vectors and on scratch vectors owned by the instance, so an instance must not
+ * be shared between threads.
  * @author Joshua Segeren
  *
  */
 public class PuckSimulation {
 
+	private final Table table;
+	private final FrictionGrid frictionGrid;
+	private final TableDistanceField distanceField;
+
+	// Scratch vectors for the allocation-free step pipeline
+	private final Vector2 malletPositionA = new Vector2();
+	private final Vector2 malletPositionB = new Vector2();
+	private final Vector2 unitNormalVector = new Vector2();
+
+	// Goal scored during the last step, and the time into the step at which the puck crossed the
+	// goal line
+	private GoalScoredEnum goalScored = GoalScoredEnum.NO_GOAL_SCORED;
+	private float goalTime = 0f;
+
 	/**
-	 * Static method to update puck state. Note the assumptions currently in place for the physical model:
-	 * - Collision between puck and mallet do not affect the velocity/position of the mallet.
-	 *
-	 * Reference (billiard collisions i.e. 1st year physics):
-	 * http://www.real-world-physics-problems.com/physics-of-billiards.html
-	 *
-	 * Note that this method DOES modify the passed puck object velocity and position based on wall reflections.
+	 * Constructor.
+	 * @param table supplies the surface friction, applied on top of air friction when stepping,
+	 * and the boundary distance field, used for the rounded corners
+	 */
+	public PuckSimulation(Table table) {
+		this.table = table;
+		this.frictionGrid = table.getFrictionGrid();
+		this.distanceField = table.getDistanceField();
+	}
+
+	/**
+	 * Advance the puck over one tick: swept wall, mallet and goal line crossings, then air friction
+	 * and the speed cap. If a goal is scored the puck is left on the goal line, and the goal is
+	 * available from getGoalScored. Allocation-free.
 	 * @param puck
 	 * @param tablePuckCollisionFrame
+	 * @param malletA
+	 * @param malletB
 	 * @param deltaTime
+	 * @param isGoalDetectionOn if false, the puck rebounds off the end walls within the goal mouths
 	 * @return true iff collision handled
-	 * 
 	 */
-	public static boolean updatePuckFromWallCollisions(Puck puck, Rectangle2D tablePuckCollisionFrame,
-			float deltaTime) {
-		boolean isCollision = false;
-		Vector2 expectedPosition = puck.getExpectedPosition(deltaTime);
-		// First check for puck-wall collisions over last-to-current interval and reflect if necessary
-		// TODO implement some energy loss into collision; right now assuming elastic and frictionless
-		float newPuckPositionX = expectedPosition.x;
-		float newPuckPositionY = expectedPosition.y;
-
-		// Check for puck-wall collisions over last-to-current interval and modify (reflect) velocities
-		// accordingly. TODO implement some energy loss into collision; right now assuming elastic and frictionless
-		if (newPuckPositionX >= tablePuckCollisionFrame.getMaxX()
-				|| newPuckPositionX <= tablePuckCollisionFrame.getMinX()) {
-			isCollision = true;
-			puck.getVelocity().x *= -1f;
-			// Apply restitution (i.e. not perfectly elastic collision)
-			applyRestitutionToPuckVelocity(puck, Constants.WALL_PUCK_COLLISION_RESTITUTION_COEFFICIENT);
-			// Revise position projections
-			newPuckPositionX = puck.getPosition().x + puck.getVelocity().x * deltaTime;
-		}
-		if (newPuckPositionY >= tablePuckCollisionFrame.getMaxY()
-				|| newPuckPositionY <= tablePuckCollisionFrame.getMinY()) {
-			isCollision = true;
-			puck.getVelocity().y *= -1f;
-			// Apply restitution (i.e. not perfectly elastic collision)
-			applyRestitutionToPuckVelocity(puck, Constants.WALL_PUCK_COLLISION_RESTITUTION_COEFFICIENT);
-			// Revise position projections
-			newPuckPositionY = puck.getPosition().y + puck.getVelocity().y * deltaTime;
+	public boolean stepPuck(Puck puck, Rectangle2D tablePuckCollisionFrame, Mallet malletA,
+			Mallet malletB, float deltaTime, boolean isGoalDetectionOn) {
+		boolean isCollision = updatePuckFromSweptCollisions(puck, tablePuckCollisionFrame, malletA,
+				malletB, deltaTime, isGoalDetectionOn);
+		if (goalScored != GoalScoredEnum.NO_GOAL_SCORED) {
+			return isCollision;
 		}
 
-		// Return puck position, enforcing boundary-based position constraints
-		puck.setPosition(new Vector2((float) Math.min(
-				Math.max(newPuckPositionX, tablePuckCollisionFrame.getMinX()),
-				tablePuckCollisionFrame.getMaxX()), (float) Math.min(
-				Math.max(newPuckPositionY, tablePuckCollisionFrame.getMinY()),
-				tablePuckCollisionFrame.getMaxY())));
-		
+		// Apply air friction, plus surface friction where the puck is now
+		applyAirFrictionToPuckVelocity(puck, Constants.PUCK_AIR_FRICTION_COEFFICIENT, deltaTime);
+		applySurfaceFrictionToPuckVelocity(puck, frictionGrid, deltaTime);
+
+		// Cap out the maximum puck speed
+		puck.getVelocity().limit(Constants.MAX_PUCK_SPEED_METERS_PER_SECOND);
 		return isCollision;
 	}
 
 	/**
-	 * Static method to update puck position, velocity based on mallet collisions over
-	 * elapsed time interval.
+	 * Advance the puck over the elapsed time interval with continuous (swept)
+	 * collision detection against the table collision frame and both mallets. Rather than checking
+	 * for overlap at the end of the interval, finds the analytic time of impact of each contact,
+	 * advances to the earliest one, resolves it, and repeats with the remaining time, so contacts
+	 * are handled in time order and the puck cannot tunnel through a mallet or wall however large
+	 * the step. Mallets are assumed to move at their current velocity over the interval (they are
+	 * updated by their controllers afterwards), and are not affected by the puck. The rounded
+	 * corners, which lie inside the collision frame, are resolved against the table distance field
+	 * at the end of the interval.
+	 *
+	 * Goal lines (the goal allowance inside each end of the collision frame) are swept in the same
+	 * way: if the puck crosses one within the goal mouth before any other contact, the goal is
+	 * recorded with the exact crossing time and the puck stops there. Scoring therefore does not
+	 * depend on the step size.
+	 *
+	 * Note that this method DOES modify the passed puck object velocity and position.
 	 * @param puck
+	 * @param tablePuckCollisionFrame
 	 * @param malletA
 	 * @param malletB
 	 * @param deltaTime
+	 * @param isGoalDetectionOn
 	 * @return true iff collision handled
 	 */
-	public static boolean updatePuckFromMalletCollisions(Puck puck, Mallet malletA, Mallet malletB,
-			float deltaTime) {
+	public boolean updatePuckFromSweptCollisions(Puck puck, Rectangle2D tablePuckCollisionFrame,
+			Mallet malletA, Mallet malletB, float deltaTime, boolean isGoalDetectionOn) {
 		boolean isCollision = false;
-		if (Collision.isColliding(puck, malletA) || Collision.hasCollided(puck, malletA)) {
-			isCollision = true;
-			puck.setVelocity(Collision.handleCollision(puck, malletA).scl(
-					Constants.MALLET_PUCK_COLLISION_RESTITUTION_COEFFICIENT));
+		goalScored = GoalScoredEnum.NO_GOAL_SCORED;
+		goalTime = 0f;
+		Vector2 puckPosition = puck.getPosition();
+		malletPositionA.set(malletA.getPosition());
+		malletPositionB.set(malletB.getPosition());
+		float minX = (float) tablePuckCollisionFrame.getMinX();
+		float maxX = (float) tablePuckCollisionFrame.getMaxX();
+		float minY = (float) tablePuckCollisionFrame.getMinY();
+		float maxY = (float) tablePuckCollisionFrame.getMaxY();
+		float leftGoalLineX = minX + Constants.GAME_GOAL_ALLOWANCE;
+		float rightGoalLineX = maxX - Constants.GAME_GOAL_ALLOWANCE;
+
+		// Already over a goal line, e.g. goal detection was just switched on
+		if (isGoalDetectionOn) {
+			goalScored = table.checkForIntersectionGoal(puckPosition, puck.getRadius());
+			if (goalScored != GoalScoredEnum.NO_GOAL_SCORED) {
+				return false;
+			}
 		}
-		if (Collision.isColliding(puck, malletB) || Collision.hasCollided(puck, malletB)) {
+
+		float remainingTime = deltaTime;
+		for (int contact = 0; contact < Constants.SIMULATION_MAX_CONTACTS_PER_STEP
+				&& remainingTime > 0f; contact++) {
+			Vector2 puckVelocity = puck.getVelocity();
+
+			// Find the earliest contact in the remaining time
+			float timeX = Collision.timeOfImpactWithBounds(puckPosition.x, puckVelocity.x, minX,
+					maxX, remainingTime);
+			float timeY = Collision.timeOfImpactWithBounds(puckPosition.y, puckVelocity.y, minY,
+					maxY, remainingTime);
+			float timeA = Collision.timeOfImpact(puckPosition, puckVelocity, malletPositionA,
+					malletA.getVelocity(), puck.getRadius() + malletA.getRadius(), remainingTime);
+			float timeB = Collision.timeOfImpact(puckPosition, puckVelocity, malletPositionB,
+					malletB.getVelocity(), puck.getRadius() + malletB.getRadius(), remainingTime);
+			float impactTime = earliestImpact(earliestImpact(timeX, timeY),
+					earliestImpact(timeA, timeB));
+
+			// Goal lines are inside the end walls, so are crossed first
+			if (isGoalDetectionOn) {
+				float timeGoal = Collision.timeOfImpactWithBounds(puckPosition.x, puckVelocity.x,
+						leftGoalLineX, rightGoalLineX, remainingTime);
+				if (timeGoal != Collision.NO_IMPACT
+						&& (impactTime == Collision.NO_IMPACT || timeGoal <= impactTime)
+						&& table.isGoalInY(puckPosition.y + puckVelocity.y * timeGoal,
+								puck.getRadius())) {
+					puckPosition.mulAdd(puckVelocity, timeGoal);
+					goalScored = (puckVelocity.x < 0f) ? GoalScoredEnum.GOAL_SCORED_FOR_ROBOT
+							: GoalScoredEnum.GOAL_SCORED_FOR_USER;
+					goalTime = deltaTime - remainingTime + timeGoal;
+					return isCollision;
+				}
+			}
+			if (impactTime == Collision.NO_IMPACT) {
+				break;
+			}
+
+			// Advance everything to the time of impact
+			puckPosition.mulAdd(puckVelocity, impactTime);
+			malletPositionA.mulAdd(malletA.getVelocity(), impactTime);
+			malletPositionB.mulAdd(malletB.getVelocity(), impactTime);
+			remainingTime -= impactTime;
 			isCollision = true;
-			puck.setVelocity(Collision.handleCollision(puck, malletB).scl(
-					Constants.MALLET_PUCK_COLLISION_RESTITUTION_COEFFICIENT));
+
+			// Resolve the contact. Walls reflect the normal component and apply restitution.
+			if (impactTime == timeX) {
+				puckVelocity.x *= -1f;
+				applyRestitutionToPuckVelocity(puck,
+						Constants.WALL_PUCK_COLLISION_RESTITUTION_COEFFICIENT);
+			} else if (impactTime == timeY) {
+				puckVelocity.y *= -1f;
+				applyRestitutionToPuckVelocity(puck,
+						Constants.WALL_PUCK_COLLISION_RESTITUTION_COEFFICIENT);
+			} else if (impactTime == timeA) {
+				resolveMalletContact(puck, malletA, malletPositionA);
+			} else {
+				resolveMalletContact(puck, malletB, malletPositionB);
+			}
 		}
-		return isCollision;
+
+		// Advance through the rest of the interval, and keep the puck within the table
+		puckPosition.mulAdd(puck.getVelocity(), remainingTime);
+		puckPosition.x = Math.min(Math.max(puckPosition.x, minX), maxX);
+		puckPosition.y = Math.min(Math.max(puckPosition.y, minY), maxY);
+		return resolveBoundaryContact(puck) || isCollision;
+	}
+
+	/**
+	 * Resolve penetration of the table boundary using the distance field: push the puck back out
+	 * along the boundary normal, and if it is still moving into the boundary, reflect it and apply
+	 * restitution. Along the straight walls the swept collisions never leave the puck penetrating,
+	 * so in practice this handles the rounded corners.
+	 * @param puck
+	 * @return true iff collision handled
+	 */
+	private boolean resolveBoundaryContact(Puck puck) {
+		Vector2 puckPosition = puck.getPosition();
+		float penetration = puck.getRadius()
+				- distanceField.getSignedDistanceAndNormal(puckPosition.x, puckPosition.y,
+						unitNormalVector);
+		if (penetration <= Constants.SIMULATION_BOUNDARY_CONTACT_TOLERANCE_METERS) {
+			return false;
+		}
+		puckPosition.mulAdd(unitNormalVector, penetration);
+		Vector2 puckVelocity = puck.getVelocity();
+		float normalSpeed = unitNormalVector.dot(puckVelocity);
+		if (normalSpeed >= 0f) {
+			return false; // Already moving away
+		}
+		puckVelocity.mulAdd(unitNormalVector, -2f * normalSpeed);
+		applyRestitutionToPuckVelocity(puck, Constants.WALL_PUCK_COLLISION_RESTITUTION_COEFFICIENT);
+		return true;
+	}
+
+	/**
+	 * Get the goal scored during the last step, if any.
+	 * @return GoalScoredEnum
+	 */
+	public GoalScoredEnum getGoalScored() {
+		return goalScored;
+	}
+
+	/**
+	 * Get the time into the last step at which the goal was scored.
+	 * @return time, in seconds
+	 */
+	public float getGoalTime() {
+		return goalTime;
+	}
+
+	/**
+	 * Resolve a puck-mallet contact with the mallet at the given position, applying restitution. If
+	 * the mallet is chasing the puck fast enough that the puck would still be approaching it after
+	 * restitution, the puck is given the mallet's normal speed instead (i.e. it is pushed), so the
+	 * same contact is not found again at zero time.
+	 * @param puck
+	 * @param mallet
+	 * @param malletPosition
+	 */
+	private void resolveMalletContact(Puck puck, Mallet mallet, Vector2 malletPosition) {
+		Vector2 puckVelocity = puck.getVelocity();
+		Collision.handleCollision(puck, mallet, malletPosition, puckVelocity).scl(
+				Constants.MALLET_PUCK_COLLISION_RESTITUTION_COEFFICIENT);
+		unitNormalVector.set(puck.getPosition()).sub(malletPosition).nor();
+		float relativeSpeedNormal = unitNormalVector.dot(puckVelocity)
+				- unitNormalVector.dot(mallet.getVelocity());
+		if (relativeSpeedNormal < 0f) {
+			puckVelocity.mulAdd(unitNormalVector, -relativeSpeedNormal);
+		}
+	}
+
+	/**
+	 * Earlier of two times of impact, either of which may be NO_IMPACT.
+	 */
+	private static float earliestImpact(float timeA, float timeB) {
+		if (timeA == Collision.NO_IMPACT) {
+			return timeB;
+		}
+		return (timeB == Collision.NO_IMPACT) ? timeA : Math.min(timeA, timeB);
 	}
 
 	/**
 	 * Attenuate puck velocity by applying air friction
 	 * Where v_t = v_0 * e ^ (-kt/m)
+	 * Uses StrictMath so that results are bit-identical between runs (and between interpreted and
+	 * compiled code), which the fixed-timestep simulation relies on.
 	 * @param puck
 	 * @param coefficientOfAirFriction
 	 */
 	public static void applyAirFrictionToPuckVelocity(Puck puck, float airFrictionCoefficient,
 			float deltaTime) {
 		puck.getVelocity().scl(
-				(float) (Math.exp(-1 * airFrictionCoefficient * deltaTime / puck.getMass())));
+				(float) (StrictMath.exp(-1 * airFrictionCoefficient * deltaTime / puck.getMass())));
 	}
 	
+	/**
+	 * Attenuate puck velocity by applying surface friction from the friction grid at the puck's
+	 * position, where v_t = v_0 * e ^ (-ct) with c the local coefficient.
+	 * @param puck
+	 * @param frictionGrid
+	 * @param deltaTime
+	 */
+	public static void applySurfaceFrictionToPuckVelocity(Puck puck, FrictionGrid frictionGrid,
+			float deltaTime) {
+		float frictionCoefficient = frictionGrid.getFrictionCoefficient(puck.getPosition().x,
+				puck.getPosition().y);
+		puck.getVelocity().scl((float) (StrictMath.exp(-1 * frictionCoefficient * deltaTime)));
+	}
+
+	/**
+	 * Closed-form distance travelled under air friction, as a fraction of initial speed. With
+	 * dv/dt = -c * v, where c = k/m, the puck moves in a straight line with
+	 * x_t = x_0 + v_0 * (1 - e ^ (-ct)) / c, so between contacts the path is the constant-velocity
+	 * path evaluated at this "drag-adjusted" time instead of t. It tends to 1/c as t grows.
+	 * @param dragRate c = k/m, in 1/s
+	 * @param time
+	 * @return drag-adjusted time (1 - e ^ (-ct)) / c
+	 */
+	public static float getDragAdjustedTime(float dragRate, float time) {
+		if (dragRate == 0f) {
+			return time;
+		}
+		return (float) (-StrictMath.expm1(-dragRate * time) / dragRate);
+	}
+
+	/**
+	 * Inverse of getDragAdjustedTime: the real time at which the puck has covered the distance that
+	 * it would cover in the given time without friction, t = -ln(1 - cs) / c.
+	 * @param dragRate c = k/m, in 1/s
+	 * @param dragAdjustedTime
+	 * @return time, or Float.POSITIVE_INFINITY if the puck stops short of that distance
+	 */
+	public static float getTimeFromDragAdjustedTime(float dragRate, float dragAdjustedTime) {
+		if (dragRate == 0f) {
+			return dragAdjustedTime;
+		}
+		float fraction = dragRate * dragAdjustedTime;
+		if (fraction >= 1f) {
+			return Float.POSITIVE_INFINITY;
+		}
+		return (float) (-StrictMath.log1p(-fraction) / dragRate);
+	}
+
 	/**
 	 * Apply some restitution (i.e. inelastic loss) to puck velocity following collision.
 	 * @param puck
@@ -0,0 +1,135 @@
+package airhockeyjava.simulation;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.physical.Table;
+import airhockeyjava.physical.Table.GoalScoredEnum;
+import airhockeyjava.simulation.EventDrivenPuckSimulation.EventTypeEnum;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Predicts the path of the puck as a polyline of bounce points, using the event-driven simulation
+ * with no mallets. Each bounce reflects the velocity components analytically against the collision
+ * frame (and the rounded corners), and the path is slowed by the same drag model as the stepped
+ * simulation, so predicted arrival positions and times match the simulator. The cost of each bounce
+ * does not depend on its length (beyond the friction grid cells it crosses), and the path ends
+ * where the puck scores, stops, or runs out of time or bounces.
+ *
+ * Points are stored in preallocated arrays, so predicting does not allocate. Not thread safe.
+ */
+public class TrajectoryPredictor {
+
+	private final EventDrivenPuckSimulation simulation;
+	private final int maxBounces;
+
+	// Path points: the start, then each bounce, then the end point. Velocities are those leaving
+	// each point.
+	private final float[] pointX;
+	private final float[] pointY;
+	private final float[] pointTime;
+	private final float[] velocityX;
+	private final float[] velocityY;
+	private int numberOfPoints = 0;
+	private GoalScoredEnum goalScored = GoalScoredEnum.NO_GOAL_SCORED;
+
+	/**
+	 * Constructor.
+	 * @param table
+	 * @param puckRadius
+	 * @param puckMass
+	 * @param maxBounces greatest number of bounces that may be predicted
+	 */
+	public TrajectoryPredictor(Table table, float puckRadius, float puckMass, int maxBounces) {
+		this.simulation = new EventDrivenPuckSimulation(table, puckRadius, puckMass,
+				Constants.PUCK_AIR_FRICTION_COEFFICIENT, 0);
+		this.maxBounces = maxBounces;
+		this.pointX = new float[maxBounces + 2];
+		this.pointY = new float[maxBounces + 2];
+		this.pointTime = new float[maxBounces + 2];
+		this.velocityX = new float[maxBounces + 2];
+		this.velocityY = new float[maxBounces + 2];
+	}
+
+	/**
+	 * Overloaded. Uses the game puck dimensions and default number of bounces.
+	 * @param table
+	 */
+	public TrajectoryPredictor(Table table) {
+		this(table, Constants.GAME_PUCK_RADIUS_METERS, Constants.GAME_PUCK_MASS_GRAMS,
+				Constants.NUMBER_PREDICTED_PATH_REFLECTIONS);
+	}
+
+	/**
+	 * Predict the path from the given puck state, replacing any previous prediction.
+	 * @param position
+	 * @param velocity
+	 * @param numberOfBounces bounces to follow, at most the maximum given on construction
+	 * @param maxTime time horizon, in seconds
+	 */
+	public void predict(Vector2 position, Vector2 velocity, int numberOfBounces, float maxTime) {
+		simulation.reset(position, velocity);
+		numberOfPoints = 0;
+		goalScored = GoalScoredEnum.NO_GOAL_SCORED;
+		addPoint();
+
+		int maxPoints = Math.min(numberOfBounces, maxBounces) + 2;
+		while (numberOfPoints < maxPoints) {
+			EventTypeEnum event = simulation.advanceToNextEvent(maxTime);
+			addPoint();
+			if (event == EventTypeEnum.GOAL_SCORED) {
+				goalScored = simulation.getGoalScored();
+				break;
+			}
+			if (event != EventTypeEnum.WALL_COLLISION) {
+				break; // Stopped, or reached the time horizon
+			}
+		}
+	}
+
+	private void addPoint() {
+		Vector2 position = simulation.getPosition();
+		Vector2 velocity = simulation.getVelocity();
+		pointX[numberOfPoints] = position.x;
+		pointY[numberOfPoints] = position.y;
+		pointTime[numberOfPoints] = simulation.getTime();
+		velocityX[numberOfPoints] = velocity.x;
+		velocityY[numberOfPoints] = velocity.y;
+		numberOfPoints++;
+	}
+
+	public int getNumberOfPoints() {
+		return numberOfPoints;
+	}
+
+	public float getPointX(int index) {
+		return pointX[index];
+	}
+
+	public float getPointY(int index) {
+		return pointY[index];
+	}
+
+	/**
+	 * Get the time at which the puck reaches a point, from the start of the prediction.
+	 * @param index
+	 * @return time, in seconds
+	 */
+	public float getPointTime(int index) {
+		return pointTime[index];
+	}
+
+	public float getVelocityX(int index) {
+		return velocityX[index];
+	}
+
+	public float getVelocityY(int index) {
+		return velocityY[index];
+	}
+
+	/**
+	 * Get the goal that the predicted path ends in, if any.
+	 * @return GoalScoredEnum
+	 */
+	public GoalScoredEnum getGoalScored() {
+		return goalScored;
+	}
+}
@@ -0,0 +1,106 @@
+package airhockeyjava.strategy;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.game.Game;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.util.PrimitiveGeometry;
+import airhockeyjava.util.SegmentIndex;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Strategy layer. Strikes the puck along the shot chosen by an AdversarialShotSearch, the one
+ * that does best against the user's replies. While lining up behind the puck, a run-up for the
+ * shot's speed back along it, the search is run again every tick, within the time budget in the
+ * settings, so the shot follows the user's mallet; once lined up the shot is held and the mallet
+ * strikes through the puck, as far as the workspace allows, before lining up again. The search
+ * is only run while this is the robot's current strategy, so evaluating it as a candidate costs
+ * no search budget. Without a shot it shoots straight along -x from just behind the puck.
+ */
+public class AdversarialOffenseStrategy implements IStrategy {
+
+	final private static String strategyLabelString = Constants.STRATEGY_ADVERSARIAL_OFFENSE_STRING;
+	final private Game game;
+	final private AdversarialShotSearch search;
+	final private Rectangle2D workspace;
+	final private Vector2 aim = new Vector2();
+	final private Vector2 targetPosition = new Vector2();
+	private boolean isStriking = false;
+
+	public AdversarialOffenseStrategy(Game game) {
+		this.game = game;
+		this.search = new AdversarialShotSearch(game.gameTable);
+		this.workspace = game.gameTable.getRobotWorkspaceCollisionFrame(
+				Constants.MECHANICAL_ROBOT_EDGE_SAFETY_MARGIN_METERS);
+	}
+
+	@Override
+	public Vector2 getTargetPosition(WorldSnapshot world, float deltaTime) {
+		if (isStriking) {
+			if (world.getRobotMalletDistanceSquared(targetPosition.x, targetPosition.y)
+					> Constants.STRATEGY_VIA_SWITCH_DISTANCE_METERS_SQUARED) {
+				return targetPosition;
+			}
+			isStriking = false;
+		}
+
+		float distanceBehind;
+		if (game.getRobotStrategy().getCurrentStrategy() == this
+				&& search.search(world, game.settings.adversarialTimeBudgetSeconds)) {
+			// A run-up behind the puck along the shot
+			aim.set(search.getBestAimX(), search.getBestAimY());
+			distanceBehind = world.getPuckRadius() + world.getMalletRadius()
+					+ AdversarialShotSearch.getRunUp(search.getBestSpeed());
+		} else {
+			// Just behind the puck along -x
+			aim.set(-1f, 0f);
+			distanceBehind = world.getPuckRadius() * 2 + world.getMalletRadius();
+		}
+
+		targetPosition.set(world.getPuckX() - aim.x * distanceBehind,
+				world.getPuckY() - aim.y * distanceBehind);
+		if (world.getRobotMalletDistanceSquared(targetPosition.x, targetPosition.y)
+				> Constants.STRATEGY_MOVEMENT_TOLERANCE * Constants.STRATEGY_MOVEMENT_TOLERANCE) {
+			return targetPosition;
+		}
+
+		// Lined up: strike through the puck
+		float endX = world.getPuckX() + aim.x * Constants.STRATEGY_VIA_DISTANCE_AHEAD_PUCK_METERS;
+		float endY = world.getPuckY() + aim.y * Constants.STRATEGY_VIA_DISTANCE_AHEAD_PUCK_METERS;
+		if (!PrimitiveGeometry.getRectangleExit(world.getRobotMalletX(), world.getRobotMalletY(),
+				endX, endY, workspace.getMinX(), workspace.getMinY(), workspace.getMaxX(),
+				workspace.getMaxY(), targetPosition)) {
+			targetPosition.set(endX, endY);
+		}
+		isStriking = true;
+		return targetPosition;
+	}
+
+	/**
+	 * Get the search used for the shots, for its results and costs.
+	 */
+	public AdversarialShotSearch getSearch() {
+		return search;
+	}
+
+	public String getLabelString() {
+		return this.strategyLabelString;
+	}
+
+	@Override
+	public void initStrategy() {
+		isStriking = false;
+	}
+
+	@Override
+	public Line2D[] getStrategyLines() {
+		return null;
+	}
+
+	@Override
+	public SegmentIndex getStrategyIndex() {
+		return null;
+	}
+}
@@ -0,0 +1,515 @@
+package airhockeyjava.strategy;
+
+import java.awt.geom.Rectangle2D;
+
+import airhockeyjava.control.ReachabilityMap;
+import airhockeyjava.game.Constants;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.physical.Mallet;
+import airhockeyjava.physical.Puck;
+import airhockeyjava.physical.Table;
+import airhockeyjava.physical.Table.GoalScoredEnum;
+import airhockeyjava.simulation.Collision;
+import airhockeyjava.simulation.PuckPrediction;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Bounded-depth adversarial search for the robot's shot. Each robot shot is answered by every
+ * reply the user's mallet can make in the time the puck takes to reach it, each of which is
+ * answered in turn by the robot, up to STRATEGY_ADVERSARIAL_MAX_DEPTH strikes in all. The robot
+ * maximises the value and the user minimises it.
+ *
+ * A strike puts the mallet behind the puck along the aim and resolves the contact as
+ * PuckSimulation does, with Collision.handleCollision and the mallet restitution, and the path
+ * after it is followed with a PuckPrediction. The side replying may let the puck go, or meet it
+ * at one of STRATEGY_ADVERSARIAL_INTERCEPTS times spread over the part of the path on its half,
+ * if its mallet can get there first: the user's at STRATEGY_USER_MALLET_SPEED_METERS_PER_SECOND,
+ * the robot's by the ReachabilityMap, both starting at rest from where they last were. From there
+ * it aims at the centre of the other goal, straight or off either side wall. The user strikes at
+ * its assumed speed. The robot, like the gantry, needs a run-up of v^2 / 2a to strike at speed v:
+ * it lines up that far behind the puck, within its workspace, and strikes at the fastest of
+ * STRATEGY_ADVERSARIAL_STRIKE_SPEEDS fractions of the maximum speed for which it can line up and
+ * run up in time. If the puck is let go, a goal against the side replying counts in proportion
+ * to the chance of it missing the puck, a logistic function of its best margin over the samples
+ * with a spread of STRATEGY_REACH_TIMING_SPREAD_SECONDS. A path that ends in no goal within
+ * STRATEGY_ADVERSARIAL_HORIZON_SECONDS is worth up to STRATEGY_ADVERSARIAL_TERRITORY_WEIGHT
+ * either way, by how far into either half the puck is left, which breaks ties between safe shots.
+ *
+ * The robot's shots are STRATEGY_ADVERSARIAL_ROOT_ANGLES directions over the half turn towards
+ * the user, each at STRATEGY_ADVERSARIAL_STRIKE_SPEEDS speeds whose run-up fits in the workspace;
+ * the user gets the time the robot needs to line up and run up as a lead. Values of the replies
+ * are kept in a transposition table of 2^STRATEGY_ADVERSARIAL_CACHE_BITS entries, keyed on the
+ * state after the strike discretised to STRATEGY_ADVERSARIAL_POSITION_CELL_METERS,
+ * STRATEGY_ADVERSARIAL_VELOCITY_CELL_METERS_PER_SECOND and
+ * STRATEGY_ADVERSARIAL_TIME_CELL_SECONDS: the puck, the replying mallet, the lead, the depth
+ * and the side. The striking mallet is taken to be at the puck, where the strike leaves it. The
+ * table is kept between searches, so a search from a state close to the last one's is mostly
+ * hits. A new entry always replaces the old one in its slot.
+ *
+ * Each search stops at its time budget, keeping the best of the shots fully evaluated by then.
+ * Replies cut short are not cached, but those completed before the budget ran out are, so a search
+ * that runs out of time leaves the next one less to do. The budget is on the wall clock; with an
+ * infinite budget (as in headless games) searches always complete and are reproducible.
+ * Allocation-free; not thread safe.
+ */
+public class AdversarialShotSearch {
+
+	private static final int ROBOT = 1; // Sides, as the sign of a goal for them
+	private static final int USER = -1;
+	private static final int NUMBER_OF_AIMS = 3; // Straight at the goal, off either side wall
+
+	private final ReachabilityMap reachabilityMap;
+	private final PuckPrediction[] predictions; // One per depth, as a path outlives its children
+	private final Vector2[] samplePositions;
+	private final Vector2[] sampleVelocities;
+	private final Puck strikePuck; // Scratch items for the strikes
+	private final Mallet strikeMallet;
+	private final Vector2 strikeMalletPosition = new Vector2();
+
+	private final float contactDistance; // Puck and mallet radii
+	private final float centreX; // Between the halves
+	private final float width;
+	private final float minX; // Robot mallet workspace, as Table.enforceSafeRobotPosition
+	private final float minY;
+	private final float maxX;
+	private final float maxY;
+	private final float[] aimY = new float[NUMBER_OF_AIMS]; // At the goal centre and its images
+
+	// Transposition table
+	private final long[] cacheKeys; // Zero if unused
+	private final float[] cacheValues;
+	private final int cacheShift;
+
+	// Current search
+	private boolean hasDeadline;
+	private long deadline;
+	private boolean isAborted;
+
+	// Result of the last search
+	private boolean isFound;
+	private float bestAimX;
+	private float bestAimY;
+	private float bestSpeed;
+	private float bestValue;
+
+	// Costs
+	private int lastNodeCount = 0;
+	private int lastCacheHitCount = 0;
+	private long lastElapsedNanoseconds = 0;
+	private long totalNodeCount = 0;
+	private long totalCacheHitCount = 0;
+	private int searchCount = 0;
+	private int abortedSearchCount = 0;
+
+	/**
+	 * Constructor.
+	 * @param table
+	 * @param puckRadius
+	 * @param puckMass
+	 * @param malletRadius
+	 * @param reachabilityMap
+	 */
+	public AdversarialShotSearch(Table table, float puckRadius, float puckMass,
+			float malletRadius, ReachabilityMap reachabilityMap) {
+		this.reachabilityMap = reachabilityMap;
+		int depths = Constants.STRATEGY_ADVERSARIAL_MAX_DEPTH + 1;
+		this.predictions = new PuckPrediction[depths];
+		this.samplePositions = new Vector2[depths];
+		this.sampleVelocities = new Vector2[depths];
+		for (int i = 0; i < depths; i++) {
+			predictions[i] = new PuckPrediction(table, puckRadius, puckMass,
+					Constants.STRATEGY_MAX_LOOKAHEAD_BOUNCES);
+			samplePositions[i] = new Vector2();
+			sampleVelocities[i] = new Vector2();
+		}
+		this.strikePuck = new Puck(new Vector2(), new Vector2(), puckRadius, table);
+		this.strikeMallet = new Mallet(new Vector2(), new Vector2(), malletRadius, false, table);
+
+		this.contactDistance = puckRadius + malletRadius;
+		this.width = (float) table.getWidth();
+		this.centreX = width / 2f;
+		Rectangle2D workspace = table.getRobotWorkspaceCollisionFrame(
+				Constants.MECHANICAL_ROBOT_EDGE_SAFETY_MARGIN_METERS);
+		this.minX = (float) workspace.getMinX();
+		this.minY = (float) workspace.getMinY();
+		this.maxX = (float) workspace.getMaxX();
+		this.maxY = (float) workspace.getMaxY();
+		float height = (float) table.getHeight();
+		float goalY = height / 2f;
+		aimY[0] = goalY;
+		aimY[1] = 2f * puckRadius - goalY; // Mirrored in the puck centre's line along each wall
+		aimY[2] = 2f * (height - puckRadius) - goalY;
+
+		int cacheSize = 1 << Constants.STRATEGY_ADVERSARIAL_CACHE_BITS;
+		this.cacheKeys = new long[cacheSize];
+		this.cacheValues = new float[cacheSize];
+		this.cacheShift = 64 - Constants.STRATEGY_ADVERSARIAL_CACHE_BITS;
+	}
+
+	/**
+	 * Overloaded. Uses the game item dimensions and the default reachability map.
+	 * @param table
+	 */
+	public AdversarialShotSearch(Table table) {
+		this(table, Constants.GAME_PUCK_RADIUS_METERS, Constants.GAME_PUCK_MASS_GRAMS,
+				Constants.GAME_MALLET_RADIUS_METERS, ReachabilityMap.getDefault());
+	}
+
+	/**
+	 * Search for the robot's best shot from the snapshot's state.
+	 * @param world
+	 * @param budgetSeconds time allowed for the search, or infinite for no limit
+	 * @return true iff a shot was fully evaluated within the budget
+	 */
+	public boolean search(WorldSnapshot world, float budgetSeconds) {
+		long startTime = System.nanoTime();
+		hasDeadline = budgetSeconds < Float.POSITIVE_INFINITY;
+		deadline = startTime + (long) (budgetSeconds * 1e9);
+		isAborted = false;
+		isFound = false;
+		bestValue = -Float.MAX_VALUE;
+		lastNodeCount = 0;
+		lastCacheHitCount = 0;
+
+		float puckX = world.getPuckX();
+		float puckY = world.getPuckY();
+		int angles = Constants.STRATEGY_ADVERSARIAL_ROOT_ANGLES;
+		int speeds = Constants.STRATEGY_ADVERSARIAL_STRIKE_SPEEDS;
+		search: for (int i = 0; i < angles; i++) {
+			double angle = Math.PI * (0.5d + (i + 0.5d) / angles);
+			float aimX = (float) Math.cos(angle);
+			float aimY = (float) Math.sin(angle);
+			for (int s = 1; s <= speeds; s++) {
+				float speed = Constants.MECHANICAL_MAX_SPEED_METERS_PER_SECOND * s / speeds;
+				float distanceBehind = contactDistance + getRunUp(speed);
+				float lineUpX = puckX - aimX * distanceBehind;
+				float lineUpY = puckY - aimY * distanceBehind;
+				if (lineUpX < minX || lineUpX > maxX || lineUpY < minY || lineUpY > maxY) {
+					break; // No room to run up, nor for the faster speeds
+				}
+				float lead = reachabilityMap.getArrivalTime(world.getRobotMalletX(),
+						world.getRobotMalletY(), world.getRobotMalletVelocityX(),
+						world.getRobotMalletVelocityY(), lineUpX, lineUpY)
+						+ getRunUpTime(speed);
+				float value = strike(1, ROBOT, puckX, puckY, world.getPuckVelocityX(),
+						world.getPuckVelocityY(), aimX, aimY, speed, world.getUserMalletX(),
+						world.getUserMalletY(), lead);
+				if (isAborted) {
+					break search;
+				}
+				if (value > bestValue) {
+					isFound = true;
+					bestValue = value;
+					bestAimX = aimX;
+					bestAimY = aimY;
+					bestSpeed = speed;
+				}
+			}
+		}
+
+		lastElapsedNanoseconds = System.nanoTime() - startTime;
+		totalNodeCount += lastNodeCount;
+		totalCacheHitCount += lastCacheHitCount;
+		searchCount++;
+		if (isAborted) {
+			abortedSearchCount++;
+		}
+		return isFound;
+	}
+
+	/**
+	 * Distance the robot mallet needs to accelerate from rest to a strike speed.
+	 */
+	static float getRunUp(float speed) {
+		return speed * speed
+				/ (2f * Constants.MECHANICAL_MAX_ACCELERATION_METERS_PER_SECOND_SQUARED);
+	}
+
+	/**
+	 * Time the robot mallet takes over its run-up to a strike speed.
+	 */
+	private static float getRunUpTime(float speed) {
+		return speed / Constants.MECHANICAL_MAX_ACCELERATION_METERS_PER_SECOND_SQUARED;
+	}
+
+	/**
+	 * Strike the puck and evaluate the other side's replies.
+	 * @param depth number of this strike, from 1
+	 * @param striker ROBOT or USER
+	 * @param puckX puck state before the strike
+	 * @param puckY
+	 * @param puckVelocityX
+	 * @param puckVelocityY
+	 * @param aimX unit direction of the strike
+	 * @param aimY
+	 * @param speed of the striking mallet
+	 * @param responderX position of the other side's mallet
+	 * @param responderY
+	 * @param lead time the other side has before the strike
+	 * @return value to the robot
+	 */
+	private float strike(int depth, int striker, float puckX, float puckY, float puckVelocityX,
+			float puckVelocityY, float aimX, float aimY, float speed, float responderX,
+			float responderY, float lead) {
+		strikePuck.getPosition().set(puckX, puckY);
+		Vector2 puckVelocity = strikePuck.getVelocity().set(puckVelocityX, puckVelocityY);
+		strikeMallet.getVelocity().set(aimX * speed, aimY * speed);
+		strikeMalletPosition.set(puckX - aimX * contactDistance, puckY - aimY * contactDistance);
+
+		// As PuckSimulation: the puck leaves no slower than the mallet along the normal
+		Collision.handleCollision(strikePuck, strikeMallet, strikeMalletPosition, puckVelocity)
+				.scl(Constants.MALLET_PUCK_COLLISION_RESTITUTION_COEFFICIENT);
+		float relativeSpeedNormal = aimX * puckVelocity.x + aimY * puckVelocity.y - speed;
+		if (relativeSpeedNormal < 0f) {
+			puckVelocity.x -= aimX * relativeSpeedNormal;
+			puckVelocity.y -= aimY * relativeSpeedNormal;
+		}
+
+		Vector2 puckPosition = strikePuck.getPosition();
+		return reply(depth, -striker, puckPosition.x, puckPosition.y, puckVelocity.x,
+				puckVelocity.y, responderX, responderY, strikeMalletPosition.x,
+				strikeMalletPosition.y, lead);
+	}
+
+	/**
+	 * Evaluate the replies of a side to the puck as struck: letting it go, or striking it back
+	 * wherever its mallet can meet it in time, while the depth allows.
+	 * @param depth number of the strike just made
+	 * @param responder ROBOT or USER
+	 * @param puckX puck state after the strike
+	 * @param puckY
+	 * @param puckVelocityX
+	 * @param puckVelocityY
+	 * @param responderX position of the replying mallet
+	 * @param responderY
+	 * @param strikerX position of the striking mallet
+	 * @param strikerY
+	 * @param lead time the replying side had before the strike
+	 * @return value to the robot, or 0 if the search is cut short
+	 */
+	private float reply(int depth, int responder, float puckX, float puckY, float puckVelocityX,
+			float puckVelocityY, float responderX, float responderY, float strikerX,
+			float strikerY, float lead) {
+		if (hasDeadline && System.nanoTime() > deadline) {
+			isAborted = true;
+			return 0f;
+		}
+		long key = getKey(depth, responder, puckX, puckY, puckVelocityX, puckVelocityY,
+				responderX, responderY, lead);
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> cacheShift);
+		if (cacheKeys[slot] == key) {
+			lastCacheHitCount++;
+			return cacheValues[slot];
+		}
+		lastNodeCount++;
+
+		PuckPrediction prediction = predictions[depth];
+		Vector2 position = samplePositions[depth];
+		Vector2 velocity = sampleVelocities[depth];
+		prediction.update(position.set(puckX, puckY), velocity.set(puckVelocityX, puckVelocityY));
+		GoalScoredEnum goal = prediction.getGoalScored();
+		int goalSide = (goal == GoalScoredEnum.GOAL_SCORED_FOR_ROBOT) ? ROBOT
+				: (goal == GoalScoredEnum.GOAL_SCORED_FOR_USER) ? USER : 0;
+
+		// Part of the path on the replying side's half
+		float endTime = (goalSide != 0) ? prediction.getTimeToGoal() : prediction
+				.getTrajectoryPredictor().getPointTime(prediction.getNumberOfSegments());
+		endTime = Math.min(endTime, Constants.STRATEGY_ADVERSARIAL_HORIZON_SECONDS);
+		boolean isOnResponderHalf = (responder == ROBOT) ? puckX >= centreX : puckX <= centreX;
+		float startTime = isOnResponderHalf ? 0f : prediction.getTimeToCrossX(centreX);
+
+		boolean canStrike = depth < Constants.STRATEGY_ADVERSARIAL_MAX_DEPTH;
+		float goalX = (responder == ROBOT) ? 0f : width; // At which the reply is aimed
+		float bestReply = (responder == ROBOT) ? -Float.MAX_VALUE : Float.MAX_VALUE;
+		float margin = -Float.MAX_VALUE; // Best of the replying mallet over the samples
+		int samples = Constants.STRATEGY_ADVERSARIAL_INTERCEPTS;
+		for (int j = 0; startTime != PuckPrediction.NEVER && endTime > startTime && j < samples;
+				j++) {
+			float time = startTime + (j + 0.5f) * (endTime - startTime) / samples;
+			prediction.getPositionAt(time, position);
+			if ((responder == ROBOT) ? position.x < centreX : position.x > centreX) {
+				continue;
+			}
+
+			// The mallet must get behind the puck, on its own goal's side of it
+			float reachTime;
+			if (responder == ROBOT) {
+				float targetX = Math.min(Math.max(position.x + contactDistance, minX), maxX);
+				float targetY = Math.min(Math.max(position.y, minY), maxY);
+				reachTime = reachabilityMap.getArrivalTime(responderX, responderY, 0f, 0f,
+						targetX, targetY);
+			} else {
+				reachTime = Vector2.dst(responderX, responderY, position.x - contactDistance,
+						position.y) / Constants.STRATEGY_USER_MALLET_SPEED_METERS_PER_SECOND;
+			}
+			float sampleMargin = time + lead - reachTime;
+			margin = Math.max(margin, sampleMargin);
+			if (!canStrike || sampleMargin < 0f) {
+				continue;
+			}
+
+			prediction.getVelocityAt(time, velocity);
+			for (int a = 0; a < NUMBER_OF_AIMS; a++) {
+				float aimX = goalX - position.x;
+				float aimY = this.aimY[a] - position.y;
+				float length = (float) Math.sqrt(aimX * aimX + aimY * aimY);
+				aimX /= length;
+				aimY /= length;
+				float speed = (responder == ROBOT) ? getRobotStrikeSpeed(responderX, responderY,
+						position.x, position.y, aimX, aimY, time + lead)
+						: Constants.STRATEGY_USER_MALLET_SPEED_METERS_PER_SECOND;
+				if (speed == 0f) {
+					continue; // Cannot line up and run up in time
+				}
+				float value = strike(depth + 1, responder, position.x, position.y, velocity.x,
+						velocity.y, aimX, aimY, speed, strikerX, strikerY, 0f);
+				if (isAborted) {
+					return 0f;
+				}
+				bestReply = (responder == ROBOT) ? Math.max(bestReply, value) : Math.min(
+						bestReply, value);
+			}
+		}
+
+		// Letting the puck go
+		float value = goalSide;
+		if (goalSide == 0) {
+			prediction.getPositionAt(endTime, position);
+			value = Constants.STRATEGY_ADVERSARIAL_TERRITORY_WEIGHT * (centreX - position.x)
+					/ centreX;
+		}
+		if (goalSide == -responder) {
+			value *= (float) (1d / (1d + Math.exp(margin
+					/ Constants.STRATEGY_REACH_TIMING_SPREAD_SECONDS)));
+		}
+		value = (responder == ROBOT) ? Math.max(value, bestReply) : Math.min(value, bestReply);
+
+		cacheKeys[slot] = key;
+		cacheValues[slot] = value;
+		return value;
+	}
+
+	/**
+	 * Fastest speed at which the robot mallet, at rest, can strike the puck at a point along an
+	 * aim: one whose line-up point, a run-up behind the puck, is in the workspace and can be
+	 * reached, and the run-up made, in the time available.
+	 * @return speed, or 0 if there is none
+	 */
+	private float getRobotStrikeSpeed(float malletX, float malletY, float puckX, float puckY,
+			float aimX, float aimY, float time) {
+		int speeds = Constants.STRATEGY_ADVERSARIAL_STRIKE_SPEEDS;
+		for (int s = speeds; s >= 1; s--) {
+			float speed = Constants.MECHANICAL_MAX_SPEED_METERS_PER_SECOND * s / speeds;
+			float distanceBehind = contactDistance + getRunUp(speed);
+			float lineUpX = puckX - aimX * distanceBehind;
+			float lineUpY = puckY - aimY * distanceBehind;
+			if (lineUpX >= minX && lineUpX <= maxX && lineUpY >= minY && lineUpY <= maxY
+					&& reachabilityMap.getArrivalTime(malletX, malletY, 0f, 0f, lineUpX,
+							lineUpY) + getRunUpTime(speed) <= time) {
+				return speed;
+			}
+		}
+		return 0f;
+	}
+
+	/**
+	 * Transposition key of the state after a strike. Never zero, which marks an unused entry.
+	 */
+	private static long getKey(int depth, int responder, float puckX, float puckY,
+			float puckVelocityX, float puckVelocityY, float responderX, float responderY,
+			float lead) {
+		float position = Constants.STRATEGY_ADVERSARIAL_POSITION_CELL_METERS;
+		float velocity = Constants.STRATEGY_ADVERSARIAL_VELOCITY_CELL_METERS_PER_SECOND;
+		long key = 1L; // 1 bit
+		key = (key << 3) | depth; // 3 bits
+		key = (key << 1) | ((responder == ROBOT) ? 1 : 0); // 1 bit
+		key = (key << 7) | getCell(puckX, position, 0, 7);
+		key = (key << 6) | getCell(puckY, position, 0, 6);
+		key = (key << 9) | getCell(puckVelocityX, velocity, 256, 9);
+		key = (key << 9) | getCell(puckVelocityY, velocity, 256, 9);
+		key = (key << 7) | getCell(responderX, position, 0, 7);
+		key = (key << 6) | getCell(responderY, position, 0, 6);
+		key = (key << 6) | getCell(lead, Constants.STRATEGY_ADVERSARIAL_TIME_CELL_SECONDS, 0, 6);
+		return key;
+	}
+
+	/**
+	 * Index of the cell of a value, offset and clamped to the given number of bits.
+	 */
+	private static long getCell(float value, float cell, int offset, int bits) {
+		long index = (long) Math.floor(value / cell) + offset;
+		return Math.min(Math.max(index, 0L), (1L << bits) - 1L);
+	}
+
+	/**
+	 * Whether the last search found a shot.
+	 */
+	public boolean isFound() {
+		return isFound;
+	}
+
+	/**
+	 * Unit direction of the best shot of the last search; only meaningful if isFound.
+	 */
+	public float getBestAimX() {
+		return bestAimX;
+	}
+
+	public float getBestAimY() {
+		return bestAimY;
+	}
+
+	/**
+	 * Speed of the robot mallet at the best shot of the last search, which it reaches by running
+	 * up getRunUp(speed) behind the puck; only meaningful if isFound.
+	 */
+	public float getBestSpeed() {
+		return bestSpeed;
+	}
+
+	/**
+	 * Value of the best shot of the last search to the robot, from -1 (a certain goal for the
+	 * user) to 1 (a certain goal for the robot); only meaningful if isFound.
+	 */
+	public float getBestValue() {
+		return bestValue;
+	}
+
+	/**
+	 * Whether the last search was cut short by its budget.
+	 */
+	public boolean isAborted() {
+		return isAborted;
+	}
+
+	/**
+	 * Number of replies evaluated by the last search, not counting cache hits.
+	 */
+	public int getLastNodeCount() {
+		return lastNodeCount;
+	}
+
+	public int getLastCacheHitCount() {
+		return lastCacheHitCount;
+	}
+
+	public long getLastElapsedNanoseconds() {
+		return lastElapsedNanoseconds;
+	}
+
+	public long getTotalNodeCount() {
+		return totalNodeCount;
+	}
+
+	public long getTotalCacheHitCount() {
+		return totalCacheHitCount;
+	}
+
+	public int getSearchCount() {
+		return searchCount;
+	}
+
+	public int getAbortedSearchCount() {
+		return abortedSearchCount;
+	}
+}
@@ -6,12 +6,15 @@ import java.util.List;
 
 import airhockeyjava.game.Constants;
 import airhockeyjava.game.Game;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.util.SegmentIndex;
 import airhockeyjava.util.Vector2;
 
 public class AroundPuckStrategy implements IStrategy{
 	final private static String strategyLabelString = Constants.STRATEGY_AROUND_PUCK_MANNEUVER_STRING;
 	final private Game game;
-	Vector2 destination = null;
+	final private Vector2 destination = new Vector2();
+	private boolean isDestinationSet = false;
 	private Vector2 homePosition = new Vector2(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);
 
 	public AroundPuckStrategy(Game game) {
@@ -19,10 +22,11 @@ public class AroundPuckStrategy implements IStrategy{
 	}
 	
 	@Override
-	public Vector2 getTargetPosition(float deltaTime) {
-		float yPosition = (game.gamePuck.getPosition().y > Constants.GAME_TABLE_HEIGHT_METERS/2) ? 0 : Constants.GAME_TABLE_HEIGHT_METERS;
-		if(destination == null){
-			destination = new Vector2(Constants.GAME_TABLE_WIDTH_METERS, yPosition);
+	public Vector2 getTargetPosition(WorldSnapshot world, float deltaTime) {
+		float yPosition = (world.getPuckY() > Constants.GAME_TABLE_HEIGHT_METERS/2) ? 0 : Constants.GAME_TABLE_HEIGHT_METERS;
+		if(!isDestinationSet){
+			destination.set(Constants.GAME_TABLE_WIDTH_METERS, yPosition);
+			isDestinationSet = true;
 		}
 		return destination;
 	}
@@ -33,7 +37,7 @@ public class AroundPuckStrategy implements IStrategy{
 	
 	@Override
 	public void initStrategy() {
-		destination = null;
+		isDestinationSet = false;
 		
 	}
 
@@ -43,4 +47,9 @@ public class AroundPuckStrategy implements IStrategy{
 		return null;
 	}
 
+	@Override
+	public SegmentIndex getStrategyIndex() {
+		return null;
+	}
+
 }
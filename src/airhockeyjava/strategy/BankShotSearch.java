@@ -0,0 +1,442 @@
+package airhockeyjava.strategy;
+
+import java.awt.geom.Rectangle2D;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.physical.Table;
+import airhockeyjava.physical.Table.GoalScoredEnum;
+import airhockeyjava.simulation.TrajectoryPredictor;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Anytime search for the shot most likely to beat the user's mallet, straight or off the walls.
+ * A shot is a strike direction and a mallet speed. The puck velocity after the strike follows the
+ * same contact model as the rollouts, and its path is followed with a TrajectoryPredictor through
+ * up to STRATEGY_MAX_LOOKAHEAD_BOUNCES wall bounces. A shot that does not end in the user's goal
+ * scores zero. Otherwise, along each part of the path on the user's half, the puck's arrival time
+ * is compared with the time the user's mallet needs to get there from where it is now. The
+ * probability of beating it is a logistic function of the best margin the user has, with a spread
+ * of STRATEGY_REACH_TIMING_SPREAD_SECONDS; shots are ranked on the margin itself, which keeps
+ * its order where the probability is too small to represent.
+ *
+ * Directions cover the half turn towards the user's end. The first pass tries
+ * STRATEGY_BANK_SHOT_INITIAL_ANGLES of them; each refinement doubles the number, trying only the
+ * new ones, at each of STRATEGY_BANK_SHOT_SPEEDS speeds. A speed is only possible if the mallet
+ * has room in its workspace to accelerate to it behind the puck. The best shot so far is
+ * published after every improvement, so it can be read at any time. A new search starts by
+ * scoring the shot published by the last one in the new state, and keeps serving it until it
+ * finds a better one, so the shot does not drop out or flip between targets as the state moves.
+ *
+ * Requests are made every tick, but a new search only starts once the puck or the user's mallet
+ * has moved by STRATEGY_BANK_SHOT_REQUEST_TOLERANCE_METERS; otherwise the current search keeps
+ * refining. With a finite budget the search runs on its own daemon worker thread, started on the
+ * first request, so the game thread never waits for it; each search stops after its budget or
+ * when a newer request arrives, and the worker then waits for the next one. Close the search to
+ * stop the worker. The worker is not tied to the game clock, so its shots depend on the machine
+ * and its load; with an infinite budget (as in headless games) each search instead runs to the
+ * last refinement on the requesting thread, within the request, and is reproducible. A search
+ * is one or the other for its lifetime.
+ */
+public class BankShotSearch implements Runnable {
+
+	private static final float NEVER_BEATEN = Float.POSITIVE_INFINITY; // Margin of a hopeless shot
+
+	private final Object lock = new Object();
+	private Thread worker; // Started on the first request
+	private boolean isClosed = false; // Guarded by lock
+	private boolean isSynchronous = false; // Guarded by lock; set by the first request
+
+	// Latest request, guarded by lock
+	private final Vector2 requestPuckPosition = new Vector2();
+	private final Vector2 requestPuckVelocity = new Vector2();
+	private final Vector2 requestRobotMalletPosition = new Vector2();
+	private final Vector2 requestUserMalletPosition = new Vector2();
+	private float requestBudgetSeconds;
+	private int requestNumber = 0;
+
+	// Best shot, guarded by lock; kept from search to search until improved on
+	private boolean isShotFound = false;
+	private final Vector2 bestStrikeVelocity = new Vector2();
+	private float bestUserMargin = NEVER_BEATEN;
+	private int evaluatedShotCount = 0;
+	private int completedPasses = 0;
+	private float lastSearchSeconds = 0f;
+
+	// Owned by the searching thread: the worker, or the caller if synchronous
+	private final TrajectoryPredictor trajectoryPredictor;
+	private final Vector2 puckPosition = new Vector2();
+	private final Vector2 puckVelocity = new Vector2();
+	private final Vector2 robotMalletPosition = new Vector2();
+	private final Vector2 userMalletPosition = new Vector2();
+	private final Vector2 shotVelocity = new Vector2();
+	private final Vector2 previousStrikeVelocity = new Vector2();
+	private float budgetSeconds;
+
+	private final float contactDistance; // Puck and mallet radii
+	private final float userMaxX; // The user's mallet stays on its half
+	private final float minX; // Robot mallet workspace, as Table.enforceSafeRobotPosition
+	private final float minY;
+	private final float maxX;
+	private final float maxY;
+
+	/**
+	 * Constructor.
+	 * @param table
+	 * @param puckRadius
+	 * @param puckMass
+	 * @param malletRadius
+	 */
+	public BankShotSearch(Table table, float puckRadius, float puckMass, float malletRadius) {
+		this.trajectoryPredictor = new TrajectoryPredictor(table, puckRadius, puckMass,
+				Constants.STRATEGY_MAX_LOOKAHEAD_BOUNCES);
+		this.contactDistance = puckRadius + malletRadius;
+		this.userMaxX = (float) table.getWidth() / 2f;
+		Rectangle2D workspace = table.getRobotWorkspaceCollisionFrame(
+				Constants.MECHANICAL_ROBOT_EDGE_SAFETY_MARGIN_METERS);
+		this.minX = (float) workspace.getMinX();
+		this.minY = (float) workspace.getMinY();
+		this.maxX = (float) workspace.getMaxX();
+		this.maxY = (float) workspace.getMaxY();
+	}
+
+	/**
+	 * Overloaded. Uses the game item dimensions.
+	 * @param table
+	 */
+	public BankShotSearch(Table table) {
+		this(table, Constants.GAME_PUCK_RADIUS_METERS, Constants.GAME_PUCK_MASS_GRAMS,
+				Constants.GAME_MALLET_RADIUS_METERS);
+	}
+
+	/**
+	 * Ask for a search from the snapshot's state, unless the one under way is from nearly the same
+	 * state. With a finite budget, does not wait for the search; with an infinite one, searches
+	 * before returning.
+	 * @param world
+	 * @param budgetSeconds time allowed for the search, or infinite for a search to the last
+	 *        refinement on this thread
+	 * @throws IllegalStateException if the search has been closed, or the budget switches between
+	 *         finite and infinite
+	 */
+	public void request(WorldSnapshot world, float budgetSeconds) {
+		float toleranceSquared = Constants.STRATEGY_BANK_SHOT_REQUEST_TOLERANCE_METERS
+				* Constants.STRATEGY_BANK_SHOT_REQUEST_TOLERANCE_METERS;
+		boolean isSynchronousRequest = budgetSeconds == Float.POSITIVE_INFINITY;
+		int number;
+		synchronized (lock) {
+			if (isClosed) {
+				throw new IllegalStateException("Bank shot search is closed");
+			}
+			if (requestNumber == 0) {
+				isSynchronous = isSynchronousRequest;
+			} else if (isSynchronous != isSynchronousRequest) {
+				throw new IllegalStateException(
+						"Bank shot search cannot switch between the worker and the caller");
+			}
+			if (requestNumber > 0
+					&& requestPuckPosition.dst2(world.getPuckX(), world.getPuckY())
+							<= toleranceSquared
+					&& requestUserMalletPosition.dst2(world.getUserMalletX(),
+							world.getUserMalletY()) <= toleranceSquared) {
+				return;
+			}
+			world.getPuckPosition(requestPuckPosition);
+			world.getPuckVelocity(requestPuckVelocity);
+			world.getRobotMalletPosition(requestRobotMalletPosition);
+			world.getUserMalletPosition(requestUserMalletPosition);
+			requestBudgetSeconds = budgetSeconds;
+			requestNumber++;
+			if (isSynchronous) {
+				number = requestNumber;
+				takeRequest();
+			} else {
+				lock.notifyAll();
+				if (worker == null) {
+					worker = new Thread(this, "Bank shot search");
+					worker.setDaemon(true);
+					worker.start();
+				}
+				return;
+			}
+		}
+		search(number);
+	}
+
+	/**
+	 * Stop the worker, waiting for it to finish the shot it is evaluating. The search cannot be
+	 * used afterwards.
+	 */
+	public void close() {
+		Thread stoppedWorker;
+		synchronized (lock) {
+			isClosed = true;
+			lock.notifyAll();
+			stoppedWorker = worker;
+		}
+		if (stoppedWorker != null) {
+			try {
+				stoppedWorker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Get the best shot found so far, in the state of the latest search to have scored it.
+	 * @param strikeVelocityOut vector in which to store the mallet velocity at the strike
+	 * @return true iff a shot with some chance of scoring has been found
+	 */
+	public boolean getBestShot(Vector2 strikeVelocityOut) {
+		synchronized (lock) {
+			if (!isShotFound) {
+				return false;
+			}
+			strikeVelocityOut.set(bestStrikeVelocity);
+			return true;
+		}
+	}
+
+	/**
+	 * Probability of the best shot so far beating the user's mallet.
+	 */
+	public float getBestProbability() {
+		synchronized (lock) {
+			return isShotFound ? getProbability(bestUserMargin) : 0f;
+		}
+	}
+
+	/**
+	 * Number of shots evaluated by the latest search so far.
+	 */
+	public int getEvaluatedShotCount() {
+		synchronized (lock) {
+			return evaluatedShotCount;
+		}
+	}
+
+	/**
+	 * Number of passes over the angles completed by the latest search so far, the first pass
+	 * included.
+	 */
+	public int getCompletedPasses() {
+		synchronized (lock) {
+			return completedPasses;
+		}
+	}
+
+	/**
+	 * Duration of the last finished search.
+	 */
+	public float getLastSearchSeconds() {
+		synchronized (lock) {
+			return lastSearchSeconds;
+		}
+	}
+
+	/**
+	 * Worker loop: wait for a request, search it, repeat.
+	 */
+	@Override
+	public void run() {
+		int searchedNumber = 0;
+		while (true) {
+			int number;
+			synchronized (lock) {
+				while (requestNumber == searchedNumber && !isClosed) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (isClosed) {
+					return;
+				}
+				number = requestNumber;
+				takeRequest();
+			}
+			search(number);
+			searchedNumber = number;
+		}
+	}
+
+	/**
+	 * Copy the latest request for the search, with the best shot so far to score first. Called
+	 * holding the lock.
+	 */
+	private void takeRequest() {
+		puckPosition.set(requestPuckPosition);
+		puckVelocity.set(requestPuckVelocity);
+		robotMalletPosition.set(requestRobotMalletPosition);
+		userMalletPosition.set(requestUserMalletPosition);
+		budgetSeconds = requestBudgetSeconds;
+		previousStrikeVelocity.set(isShotFound ? bestStrikeVelocity : Vector2.Zero);
+		evaluatedShotCount = 0;
+		completedPasses = 0;
+	}
+
+	/**
+	 * Try the shots coarse to fine until the budget runs out, the refinements are done, or a newer
+	 * request arrives.
+	 * @param number of the request being searched
+	 */
+	private void search(int number) {
+		long startTime = System.nanoTime();
+		boolean hasDeadline = budgetSeconds < Float.POSITIVE_INFINITY;
+		long deadline = startTime + (long) (budgetSeconds * 1e9);
+		float maxSpeed = Constants.MECHANICAL_MAX_SPEED_METERS_PER_SECOND;
+		int numberOfAngles = Constants.STRATEGY_BANK_SHOT_INITIAL_ANGLES;
+
+		// Score the previous best shot in the new state; it stands until a shot beats it
+		float previousSpeed = previousStrikeVelocity.len();
+		float previousMargin = (previousSpeed > 0f) ? evaluate(previousStrikeVelocity.x
+				/ previousSpeed, previousStrikeVelocity.y / previousSpeed, previousSpeed)
+				: NEVER_BEATEN;
+		synchronized (lock) {
+			if (requestNumber != number || isClosed) {
+				return; // Superseded
+			}
+			isShotFound = previousMargin < NEVER_BEATEN;
+			bestUserMargin = previousMargin;
+		}
+
+		int maxRefinements = Constants.STRATEGY_BANK_SHOT_MAX_REFINEMENTS;
+		search: for (int refinement = 0; refinement <= maxRefinements; refinement++) {
+			// Angles from straight up the table to straight down it, through the user's end; a
+			// refinement only tries the odd multiples of its step, which are new
+			for (int i = 1; i < numberOfAngles; i += (refinement == 0) ? 1 : 2) {
+				float angle = (float) (Math.PI / 2d + Math.PI * i / numberOfAngles);
+				float directionX = (float) Math.cos(angle);
+				float directionY = (float) Math.sin(angle);
+				for (int s = 1; s <= Constants.STRATEGY_BANK_SHOT_SPEEDS; s++) {
+					float speed = maxSpeed * s / Constants.STRATEGY_BANK_SHOT_SPEEDS;
+					float userMargin = evaluate(directionX, directionY, speed);
+					synchronized (lock) {
+						if (requestNumber != number || isClosed) {
+							break search; // Superseded
+						}
+						evaluatedShotCount++;
+						if (userMargin < bestUserMargin) {
+							isShotFound = true;
+							bestUserMargin = userMargin;
+							bestStrikeVelocity.set(directionX * speed, directionY * speed);
+						}
+					}
+				}
+				if (hasDeadline && System.nanoTime() > deadline) {
+					break search;
+				}
+			}
+			synchronized (lock) {
+				if (requestNumber == number) {
+					completedPasses = refinement + 1;
+				}
+			}
+			numberOfAngles *= 2;
+		}
+		synchronized (lock) {
+			lastSearchSeconds = (System.nanoTime() - startTime) / 1e9f;
+		}
+	}
+
+	/**
+	 * Probability of beating the user's mallet, given the user's margin.
+	 */
+	private static float getProbability(float userMargin) {
+		return (float) (1d / (1d + Math.exp(userMargin
+				/ Constants.STRATEGY_REACH_TIMING_SPREAD_SECONDS)));
+	}
+
+	/**
+	 * Margin by which the user's mallet can get in the way of a shot, the lower the better.
+	 * @param directionX unit direction of the strike
+	 * @param directionY
+	 * @param speed of the mallet at the strike
+	 * @return margin, in seconds, or NEVER_BEATEN if the shot misses the goal or the mallet has no
+	 *         room to make it
+	 */
+	private float evaluate(float directionX, float directionY, float speed) {
+		// Run-up behind the puck, from rest at the acceleration limit
+		float runUp = speed * speed
+				/ (2f * Constants.MECHANICAL_MAX_ACCELERATION_METERS_PER_SECOND_SQUARED);
+		float approachX = puckPosition.x - directionX * (contactDistance + runUp);
+		float approachY = puckPosition.y - directionY * (contactDistance + runUp);
+		if (approachX < minX || approachX > maxX || approachY < minY || approachY > maxY) {
+			return NEVER_BEATEN;
+		}
+
+		// Strike, with the contact model of the rollouts: the normal is the strike direction
+		float puckSpeedNormal = puckVelocity.x * directionX + puckVelocity.y * directionY;
+		float speedChange = 2f * (speed - puckSpeedNormal);
+		shotVelocity.set(puckVelocity).add(directionX * speedChange, directionY * speedChange)
+				.scl(Constants.MALLET_PUCK_COLLISION_RESTITUTION_COEFFICIENT);
+		trajectoryPredictor.predict(puckPosition, shotVelocity,
+				Constants.STRATEGY_MAX_LOOKAHEAD_BOUNCES, Constants.PREDICTION_MAX_TIME_SECONDS);
+		if (trajectoryPredictor.getGoalScored() != GoalScoredEnum.GOAL_SCORED_FOR_ROBOT) {
+			return NEVER_BEATEN;
+		}
+
+		// The puck leaves once the mallet has got behind it and run up
+		float strikeTime = robotMalletPosition.dst(approachX, approachY)
+				/ Constants.MECHANICAL_MAX_SPEED_METERS_PER_SECOND + 2f * runUp / speed;
+		return getUserMargin(strikeTime);
+	}
+
+	/**
+	 * Greatest margin, over the predicted path on the user's half, by which the user's mallet can
+	 * get to the puck before it: puck arrival time less mallet arrival time. Along each segment
+	 * the puck is taken at its mean speed, so the margin is concave in the distance along it, and
+	 * its maximum has a closed form.
+	 * @param strikeTime time until the puck leaves the mallet
+	 * @return margin, in seconds; negative if the user cannot reach the path in time
+	 */
+	private float getUserMargin(float strikeTime) {
+		float userSpeed = Constants.STRATEGY_USER_MALLET_SPEED_METERS_PER_SECOND;
+		float margin = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < trajectoryPredictor.getNumberOfPoints() - 1; i++) {
+			float startX = trajectoryPredictor.getPointX(i);
+			float startY = trajectoryPredictor.getPointY(i);
+			float endX = trajectoryPredictor.getPointX(i + 1);
+			float endY = trajectoryPredictor.getPointY(i + 1);
+			float duration = trajectoryPredictor.getPointTime(i + 1)
+					- trajectoryPredictor.getPointTime(i);
+			float dx = endX - startX;
+			float dy = endY - startY;
+			float length = (float) Math.sqrt(dx * dx + dy * dy);
+			if (length == 0f || duration <= 0f || (startX > userMaxX && endX > userMaxX)) {
+				continue;
+			}
+			// Part of the segment on the user's half
+			float minDistance = 0f;
+			float maxDistance = length;
+			if (startX > userMaxX) {
+				minDistance = length * (userMaxX - startX) / dx;
+			} else if (endX > userMaxX) {
+				maxDistance = length * (userMaxX - startX) / dx;
+			}
+
+			float unitX = dx / length;
+			float unitY = dy / length;
+			float puckSpeed = length / duration;
+			float offsetX = userMalletPosition.x - startX;
+			float offsetY = userMalletPosition.y - startY;
+			float footDistance = offsetX * unitX + offsetY * unitY;
+			float lineDistance = Math.abs(offsetX * unitY - offsetY * unitX);
+			// Where d/ds (s / puckSpeed - |p(s) - mallet| / userSpeed) = 0
+			float ratio = userSpeed / puckSpeed;
+			float distance = (ratio < 1f) ? footDistance + lineDistance * ratio
+					/ (float) Math.sqrt(1f - ratio * ratio) : maxDistance;
+			distance = Math.min(Math.max(distance, minDistance), maxDistance);
+
+			float puckTime = strikeTime + trajectoryPredictor.getPointTime(i) + distance
+					/ puckSpeed;
+			float reach = Math.max(userMalletPosition.dst(startX + unitX * distance, startY
+					+ unitY * distance)
+					- contactDistance, 0f);
+			margin = Math.max(margin, puckTime - reach / userSpeed);
+		}
+		return margin;
+	}
+}
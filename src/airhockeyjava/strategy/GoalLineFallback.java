@@ -0,0 +1,64 @@
+package airhockeyjava.strategy;
+
+import airhockeyjava.control.ReachabilityMap;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.simulation.PuckPrediction;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Fallback shared by the defence strategies for a shot on goal which the mallet cannot meet where
+ * the predicted path crosses the strategy's lines: slide straight across, keeping the mallet's x,
+ * to where the puck will cross that x, if the mallet can get there first. Reachability is checked
+ * against the ReachabilityMap. Does not allocate.
+ */
+class GoalLineFallback {
+
+	private final ReachabilityMap reachabilityMap;
+	private final Vector2 crossing = new Vector2(); // Scratch
+
+	GoalLineFallback(ReachabilityMap reachabilityMap) {
+		this.reachabilityMap = reachabilityMap;
+	}
+
+	/**
+	 * Overloaded. Uses the map for the mechanical limits.
+	 */
+	GoalLineFallback() {
+		this(ReachabilityMap.getDefault());
+	}
+
+	/**
+	 * Whether the puck threatens the goal and the mallet cannot reach the target before the puck.
+	 * @param world
+	 * @param target where the strategy would meet the puck
+	 * @param crossingTime when the puck gets there
+	 */
+	boolean isTooLate(WorldSnapshot world, Vector2 target, float crossingTime) {
+		return world.isGoalThreat() && !reachabilityMap.isReachable(world.getRobotMalletX(),
+				world.getRobotMalletY(), world.getRobotMalletVelocityX(),
+				world.getRobotMalletVelocityY(), target.x, target.y, crossingTime);
+	}
+
+	/**
+	 * Find where the puck will cross the mallet's x, if the mallet can get there first.
+	 * @param world
+	 * @param out target, unchanged unless there is one
+	 * @return true iff there is such a target
+	 */
+	boolean getSlideAcrossTarget(WorldSnapshot world, Vector2 out) {
+		PuckPrediction prediction = world.getPuckPrediction();
+		float malletX = world.getRobotMalletX();
+		float crossingTime = prediction.getTimeToCrossX(malletX);
+		if (crossingTime == PuckPrediction.NEVER) {
+			return false;
+		}
+		prediction.getPositionAt(crossingTime, crossing);
+		if (!reachabilityMap.isReachable(malletX, world.getRobotMalletY(),
+				world.getRobotMalletVelocityX(), world.getRobotMalletVelocityY(), malletX,
+				crossing.y, crossingTime)) {
+			return false;
+		}
+		out.set(malletX, crossing.y);
+		return true;
+	}
+}
@@ -5,20 +5,23 @@ import java.awt.geom.Point2D;
 
 import airhockeyjava.game.Constants;
 import airhockeyjava.game.Game;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.util.SegmentIndex;
 import airhockeyjava.util.Vector2;
 
 public class HomePositionStrategy implements IStrategy {
 
 	final private static String strategyLabelString = Constants.STRATEGY_HOMING_POSITION_STRING;
+	final private Vector2 homePosition = new Vector2(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);
 
 	public HomePositionStrategy(Game game) {
 
 	}
 
 	@Override
-	public Vector2 getTargetPosition(float deltaTime) {
+	public Vector2 getTargetPosition(WorldSnapshot world, float deltaTime) {
 
-		return new Vector2(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);			
+		return homePosition;
 
 		
 	
@@ -38,5 +41,10 @@ public class HomePositionStrategy implements IStrategy {
 	public Line2D[] getStrategyLines() {
 		return null;
 	}
+
+	@Override
+	public SegmentIndex getStrategyIndex() {
+		return null;
+	}
 }
 
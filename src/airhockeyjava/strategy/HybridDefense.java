@@ -5,6 +5,9 @@ import java.awt.geom.Point2D;
 
 import airhockeyjava.game.Constants;
 import airhockeyjava.game.Game;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.simulation.PuckPrediction;
+import airhockeyjava.util.SegmentIndex;
 import airhockeyjava.util.Vector2;
 
 public class HybridDefense implements IStrategy {
@@ -12,6 +15,10 @@ public class HybridDefense implements IStrategy {
 	final private static String strategyLabelString = Constants.STRATEGY_HYBRID_DEFENSE_STRING;
 	final private Game game;
 	private Line2D[] defenceLines = new Line2D.Float[3];
+	final private SegmentIndex defenceIndex;
+	final private Vector2 targetPosition = new Vector2();
+	final private GoalLineFallback goalLineFallback = new GoalLineFallback();
+	final private InterceptPlanner interceptPlanner;
 
 	public HybridDefense(Game game) {
 		//Generate lines to represent the triangle
@@ -35,26 +42,39 @@ public class HybridDefense implements IStrategy {
 		defenceLines[0] = frontLine;		
 		defenceLines[1] = new Line2D.Float(homePosition, traingleBase1);
 		defenceLines[2] = new Line2D.Float(homePosition, traingleBase2);
-		
+		defenceIndex = new SegmentIndex(defenceLines);
+		// Stay in the region the selector defends from, or it would call a retreat
+		interceptPlanner = new InterceptPlanner(game.gameTable, Constants.MALLET_DEFENDABLE_REGION);
 	}
 
 	@Override
-	public Vector2 getTargetPosition(float deltaTime) {
+	public Vector2 getTargetPosition(WorldSnapshot world, float deltaTime) {
 		if(game.guiLayer != null){
 			game.guiLayer.strategyLines = defenceLines;
 		}
 
-		Point2D collisionPoint = game.gamePuck.getExpectedInterectionPoint();
+		// Time at which the predicted puck path first crosses the lines, if it does
+		PuckPrediction prediction = world.getPuckPrediction();
+		float crossingTime = prediction.getTimeToCrossLines(defenceIndex);
 		
-		Vector2 puckPosition = game.gamePuck.getPosition();
-		if(puckPosition.x < game.gameTable.getWidth() / 3){
-			return new Vector2(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);
+		if(world.getPuckX() < world.getTableWidth() / 3){
+			return targetPosition.set(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);
 		} else {
 
-			if(collisionPoint != null){
-				return new Vector2((float)collisionPoint.getX(), (float)collisionPoint.getY());
+			if(crossingTime != PuckPrediction.NEVER){
+				prediction.getPositionAt(crossingTime, targetPosition);
+				if (goalLineFallback.isTooLate(world, targetPosition, crossingTime)) {
+					// Too late to meet it there: meet it wherever else along the path the mallet
+					// can, or failing that slide across to where it will pass the mallet
+					if (interceptPlanner.plan(world, game.settings.interceptDeadlineSeconds)) {
+						return targetPosition.set(interceptPlanner.getInterceptX(),
+								interceptPlanner.getInterceptY());
+					}
+					goalLineFallback.getSlideAcrossTarget(world, targetPosition);
+				}
+				return targetPosition;
 			}else{
-				return new Vector2(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);			
+				return targetPosition.set(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);			
 			}
 
 		}
@@ -62,6 +82,13 @@ public class HybridDefense implements IStrategy {
 	
 	}
 	
+	/**
+	 * Get the planner used for intercepts, for its costs.
+	 */
+	public InterceptPlanner getInterceptPlanner() {
+		return interceptPlanner;
+	}
+
 	public String getLabelString(){
 		return this.strategyLabelString;
 	}
@@ -76,4 +103,9 @@ public class HybridDefense implements IStrategy {
 	public Line2D[] getStrategyLines() {
 		return defenceLines;
 	}
+
+	@Override
+	public SegmentIndex getStrategyIndex() {
+		return defenceIndex;
+	}
 }
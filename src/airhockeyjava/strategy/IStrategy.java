@@ -2,6 +2,8 @@ package airhockeyjava.strategy;
 
 import java.awt.geom.Line2D;
 
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.util.SegmentIndex;
 import airhockeyjava.util.Vector2;
 
 /**
@@ -13,10 +15,13 @@ import airhockeyjava.util.Vector2;
 public interface IStrategy {
 	
 	/**
-	 * Returns the desired position for this iteration, regardless of state.
+	 * Returns the desired position for this iteration, regardless of state. The vector returned
+	 * may be reused by the strategy on the next call; callers must copy rather than modify or keep
+	 * it.
+	 * @param world state of the game for this tick, shared by all strategies
 	 * @param deltaTime
 	 */
-	public Vector2 getTargetPosition(float deltaTime);
+	public Vector2 getTargetPosition(WorldSnapshot world, float deltaTime);
 	
 	/**
 	 * Initialize / reset the internal (persisted) state of the strategy component
@@ -26,5 +31,11 @@ public interface IStrategy {
 	public String getLabelString();
 	
 	public Line2D[] getStrategyLines();
+
+	/**
+	 * Index of the strategy lines, built once when the strategy is created, against which the
+	 * predicted puck path is intersected. May be null if the strategy has no lines.
+	 */
+	public SegmentIndex getStrategyIndex();
 }
 
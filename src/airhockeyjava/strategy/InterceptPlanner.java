@@ -0,0 +1,273 @@
+package airhockeyjava.strategy;
+
+import java.awt.geom.Rectangle2D;
+
+import airhockeyjava.control.ReachabilityMap;
+import airhockeyjava.game.Constants;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.physical.Table;
+import airhockeyjava.simulation.PuckPrediction;
+import airhockeyjava.simulation.TrajectoryPredictor;
+
+/**
+ * Plans where the robot mallet should meet the puck, by walking the predicted path in steps of
+ * STRATEGY_PROJECTED_STEP_DISTANCE_METERS, parameterised by time. At each candidate point the
+ * mallet is placed behind the puck on the line to the centre of the user's goal, and the time for
+ * the mallet to get there (from the ReachabilityMap) is compared with the time at which the puck
+ * gets there. The earliest candidate that the mallet reaches in time, by
+ * STRATEGY_INTERCEPT_TIME_MARGIN_SECONDS, is feasible; of the feasible candidates up to
+ * STRATEGY_INTERCEPT_ANGLE_WINDOW_SECONDS after it, the one with the best follow-through is chosen,
+ * that is the one where the puck is coming most directly against the shot. Candidates where the
+ * puck is moving away from the mallet, or the mallet would be outside its workspace, are skipped.
+ *
+ * Each plan stops at the deadline given to it, keeping the best intercept found by then. The
+ * deadline is on the wall clock, so a plan that hits it depends on the machine and its load;
+ * with an infinite deadline (as in headless games) plans are reproducible. The number of
+ * candidates evaluated and the time taken are kept, for benchmarking the cost per candidate.
+ * Allocation-free; not thread safe.
+ */
+public class InterceptPlanner {
+
+	private final ReachabilityMap reachabilityMap;
+	private final float contactDistance; // Puck and mallet radii
+	private final float stepDistance;
+
+	// Mallet workspace, as Table.enforceSafeRobotPosition
+	private final float minX;
+	private final float minY;
+	private final float maxX;
+	private final float maxY;
+
+	// Centre of the user's goal, at which the shot is aimed
+	private final float goalX;
+	private final float goalY;
+
+	// Result of the last plan
+	private boolean isFound;
+	private float interceptX; // Mallet target
+	private float interceptY;
+	private float interceptTime;
+	private float followThroughCosine;
+	private boolean isTruncated;
+
+	// Costs
+	private int lastCandidateCount = 0;
+	private long lastElapsedNanoseconds = 0;
+	private long totalCandidateCount = 0;
+	private long totalElapsedNanoseconds = 0;
+	private int planCount = 0;
+	private int deadlineMissCount = 0;
+
+	/**
+	 * Constructor.
+	 * @param table
+	 * @param puckRadius
+	 * @param malletRadius
+	 * @param reachabilityMap
+	 * @param minInterceptX least x at which to place the mallet, within the robot workspace
+	 */
+	public InterceptPlanner(Table table, float puckRadius, float malletRadius,
+			ReachabilityMap reachabilityMap, float minInterceptX) {
+		this.reachabilityMap = reachabilityMap;
+		this.contactDistance = puckRadius + malletRadius;
+		this.stepDistance = Constants.STRATEGY_PROJECTED_STEP_DISTANCE_METERS;
+		Rectangle2D workspace = table.getRobotWorkspaceCollisionFrame(
+				Constants.MECHANICAL_ROBOT_EDGE_SAFETY_MARGIN_METERS);
+		this.minX = Math.max((float) workspace.getMinX(), minInterceptX);
+		this.minY = (float) workspace.getMinY();
+		this.maxX = (float) workspace.getMaxX();
+		this.maxY = (float) workspace.getMaxY();
+		this.goalX = 0f;
+		this.goalY = (float) table.getHeight() / 2f;
+	}
+
+	/**
+	 * Overloaded. Uses the game item dimensions and the default reachability map.
+	 * @param table
+	 * @param minInterceptX least x at which to place the mallet, within the robot workspace
+	 */
+	public InterceptPlanner(Table table, float minInterceptX) {
+		this(table, Constants.GAME_PUCK_RADIUS_METERS, Constants.GAME_MALLET_RADIUS_METERS,
+				ReachabilityMap.getDefault(), minInterceptX);
+	}
+
+	/**
+	 * Plan an intercept from the snapshot's prediction and robot mallet state.
+	 * @param world
+	 * @param deadlineSeconds time allowed for the plan, or infinite for none
+	 * @return true iff a feasible intercept was found
+	 */
+	public boolean plan(WorldSnapshot world, float deadlineSeconds) {
+		return plan(world.getPuckPrediction(), world.getRobotMalletX(), world.getRobotMalletY(),
+				world.getRobotMalletVelocityX(), world.getRobotMalletVelocityY(), deadlineSeconds);
+	}
+
+	/**
+	 * Plan an intercept along a prediction.
+	 * @param prediction
+	 * @param malletX current robot mallet position
+	 * @param malletY
+	 * @param malletVelocityX current robot mallet velocity
+	 * @param malletVelocityY
+	 * @param deadlineSeconds time allowed for the plan, or infinite for none
+	 * @return true iff a feasible intercept was found
+	 */
+	public boolean plan(PuckPrediction prediction, float malletX, float malletY,
+			float malletVelocityX, float malletVelocityY, float deadlineSeconds) {
+		long startTime = System.nanoTime();
+		boolean hasDeadline = deadlineSeconds < Float.POSITIVE_INFINITY;
+		long deadline = startTime + (long) (deadlineSeconds * 1e9);
+		isFound = false;
+		isTruncated = false;
+		followThroughCosine = -Float.MAX_VALUE;
+		float earliestTime = PuckPrediction.NEVER;
+		int candidates = 0;
+
+		TrajectoryPredictor path = prediction.getTrajectoryPredictor();
+		int numberOfSegments = prediction.getNumberOfSegments();
+		float distance = 0f; // Along the current segment, carried over so steps stay even
+		walk: for (int segment = 0; segment < numberOfSegments; segment++) {
+			float length = prediction.getSegmentLength(segment);
+			float velocityX = path.getVelocityX(segment);
+			float velocityY = path.getVelocityY(segment);
+			float speed = (float) Math.sqrt(velocityX * velocityX + velocityY * velocityY);
+			if (speed == 0f) {
+				break;
+			}
+			float directionX = velocityX / speed;
+			float directionY = velocityY / speed;
+			for (; distance <= length; distance += stepDistance) {
+				if (++candidates % Constants.STRATEGY_INTERCEPT_DEADLINE_CHECK_INTERVAL == 0
+						&& hasDeadline && System.nanoTime() > deadline) {
+					isTruncated = true;
+					break walk;
+				}
+				float time = prediction.getTimeAlongSegment(segment, distance);
+				if (earliestTime != PuckPrediction.NEVER && time > earliestTime
+						+ Constants.STRATEGY_INTERCEPT_ANGLE_WINDOW_SECONDS) {
+					break walk;
+				}
+				float puckX = path.getPointX(segment) + directionX * distance;
+				float puckY = path.getPointY(segment) + directionY * distance;
+
+				// Strike towards the goal from behind the puck
+				float shotX = goalX - puckX;
+				float shotY = goalY - puckY;
+				float shotLength = (float) Math.sqrt(shotX * shotX + shotY * shotY);
+				shotX /= shotLength;
+				shotY /= shotLength;
+				// Head-on is best: the puck's direction against the shot. A puck moving with the
+				// shot would be struck from behind, so is not an intercept.
+				float cosine = -(directionX * shotX + directionY * shotY);
+				if (cosine <= 0f) {
+					continue;
+				}
+				float targetX = puckX - shotX * contactDistance;
+				float targetY = puckY - shotY * contactDistance;
+				if (targetX < minX || targetX > maxX || targetY < minY || targetY > maxY) {
+					continue;
+				}
+				if (reachabilityMap.getArrivalTime(malletX, malletY, malletVelocityX,
+						malletVelocityY, targetX, targetY)
+						+ Constants.STRATEGY_INTERCEPT_TIME_MARGIN_SECONDS > time) {
+					continue;
+				}
+
+				if (earliestTime == PuckPrediction.NEVER) {
+					earliestTime = time;
+				}
+				if (cosine > followThroughCosine) {
+					isFound = true;
+					followThroughCosine = cosine;
+					interceptX = targetX;
+					interceptY = targetY;
+					interceptTime = time;
+				}
+			}
+			distance -= length;
+		}
+
+		lastCandidateCount = candidates;
+		lastElapsedNanoseconds = System.nanoTime() - startTime;
+		totalCandidateCount += candidates;
+		totalElapsedNanoseconds += lastElapsedNanoseconds;
+		planCount++;
+		if (isTruncated) {
+			deadlineMissCount++;
+		}
+		return isFound;
+	}
+
+	/**
+	 * Whether the last plan found a feasible intercept.
+	 */
+	public boolean isFound() {
+		return isFound;
+	}
+
+	/**
+	 * Mallet position at which to meet the puck, from the last plan; only meaningful if isFound.
+	 */
+	public float getInterceptX() {
+		return interceptX;
+	}
+
+	public float getInterceptY() {
+		return interceptY;
+	}
+
+	/**
+	 * Time from the prediction at which the puck reaches the intercept; only meaningful if isFound.
+	 */
+	public float getInterceptTime() {
+		return interceptTime;
+	}
+
+	/**
+	 * Cosine of the angle between the puck's direction and the reverse of the shot at the
+	 * intercept, 1 for head-on; only meaningful if isFound.
+	 */
+	public float getFollowThroughCosine() {
+		return followThroughCosine;
+	}
+
+	/**
+	 * Whether the last plan was cut short by the deadline.
+	 */
+	public boolean isTruncated() {
+		return isTruncated;
+	}
+
+	public int getLastCandidateCount() {
+		return lastCandidateCount;
+	}
+
+	public long getLastElapsedNanoseconds() {
+		return lastElapsedNanoseconds;
+	}
+
+	/**
+	 * Mean cost of evaluating a candidate, over all plans.
+	 * @return nanoseconds per candidate, or 0 if none have been evaluated
+	 */
+	public double getNanosecondsPerCandidate() {
+		return (totalCandidateCount > 0) ? (double) totalElapsedNanoseconds / totalCandidateCount
+				: 0d;
+	}
+
+	public long getTotalCandidateCount() {
+		return totalCandidateCount;
+	}
+
+	public long getTotalElapsedNanoseconds() {
+		return totalElapsedNanoseconds;
+	}
+
+	public int getPlanCount() {
+		return planCount;
+	}
+
+	public int getDeadlineMissCount() {
+		return deadlineMissCount;
+	}
+}
@@ -1,10 +1,13 @@
 package airhockeyjava.strategy;
 
 import java.awt.geom.Line2D;
-import java.awt.geom.Point2D;
 
 import airhockeyjava.game.Constants;
 import airhockeyjava.game.Game;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.simulation.MonteCarloPuckPrediction;
+import airhockeyjava.simulation.PuckPrediction;
+import airhockeyjava.util.SegmentIndex;
 import airhockeyjava.util.Vector2;
 
 /**
@@ -20,25 +23,33 @@ public class NaiveDefenseStrategy implements IStrategy {
 	final private static String strategyLabelString = Constants.STRATEGY_NAIVE_DEFENSE_STRING;
 	final private Game game;
 	private Line2D[] defenceLines = new Line2D[1];
+	final private SegmentIndex defenceIndex;
+	final private Vector2 targetPosition = new Vector2();
+	final private GoalLineFallback goalLineFallback = new GoalLineFallback();
 
 	public NaiveDefenseStrategy(Game game) {
 		this.game = game;
 		this.defenceLines[0] = new Line2D.Float(Constants.ROBOT_MALLET_INITIAL_POSITION_X,0f,Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.GAME_TABLE_HEIGHT_METERS );
+		this.defenceIndex = new SegmentIndex(defenceLines);
+		game.puckUncertainty.setDefenceLineX((float) defenceLines[0].getX1());
 	}
 
 	@Override
-	public Vector2 getTargetPosition(float deltaTime) {
+	public Vector2 getTargetPosition(WorldSnapshot world, float deltaTime) {
 		if(game.guiLayer != null){
 			game.guiLayer.strategyLines = defenceLines;
 		}
 		
 		Vector2 nextPostion;
 		
-		Point2D collisionPoint = game.gamePuck.getExpectedInterectionPoint();
+		// Time at which the predicted puck path first crosses the defence line, if it does
+		PuckPrediction prediction = world.getPuckPrediction();
+		float crossingTime = prediction.getTimeToCrossLines(defenceIndex);
 		
-		Vector2 puckPosition = game.gamePuck.getPosition();
-		if(puckPosition.x < game.gameTable.getWidth() / 3){
-			return new Vector2(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);
+		float puckX = world.getPuckX();
+		float puckY = world.getPuckY();
+		if(puckX < world.getTableWidth() / 3){
+			return targetPosition.set(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);
 //		} else {
 //			if(collisionPoint != null){
 //				System.out.println("collision detected!");
@@ -54,14 +65,32 @@ public class NaiveDefenseStrategy implements IStrategy {
 //		}
 			
 		} else {
-			if(collisionPoint != null){
-				System.out.println("collision point detected!");
+			MonteCarloPuckPrediction uncertainty = game.puckUncertainty;
+			if (game.settings.enableMonteCarloPrediction && puckX < defenceLines[0].getX1()
+					&& uncertainty.getGoalProbability() >= Constants.STRATEGY_MONTE_CARLO_MIN_GOAL_PROBABILITY
+					&& uncertainty.getDefenceCrossingCount() > 0) {
+				// Cover the mean shot: where the sampled shots on goal cross the defence line, banks
+				// included, which is steadier than the single predicted path
+				return targetPosition.set((float) defenceLines[0].getX1(),
+						uncertainty.getMeanDefenceCrossingY());
+			}
+			if(crossingTime != PuckPrediction.NEVER){
+				if (Constants.DEBUG_LOGGING_ENABLED) {
+					System.out.println("collision point detected!");
+				}
 
-				return new Vector2((float)collisionPoint.getX(), (float)collisionPoint.getY());
+				prediction.getPositionAt(crossingTime, targetPosition);
+				if (goalLineFallback.isTooLate(world, targetPosition, crossingTime)) {
+					// Too late to meet it there: slide across to where it will pass the mallet
+					goalLineFallback.getSlideAcrossTarget(world, targetPosition);
+				}
+				return targetPosition;
 			}else{
-				System.out.println("no collision point detected!");
+				if (Constants.DEBUG_LOGGING_ENABLED) {
+					System.out.println("no collision point detected!");
+				}
 
-				return new Vector2(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);			
+				return targetPosition.set(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);
 			}
 
 		}
@@ -83,4 +112,9 @@ public class NaiveDefenseStrategy implements IStrategy {
 	public Line2D[] getStrategyLines() {
 		return defenceLines;
 	}
+
+	@Override
+	public SegmentIndex getStrategyIndex() {
+		return defenceIndex;
+	}
 }
\ No newline at end of file
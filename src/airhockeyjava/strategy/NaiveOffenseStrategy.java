@@ -4,6 +4,8 @@ import java.awt.geom.Line2D;
 
 import airhockeyjava.game.Constants;
 import airhockeyjava.game.Game;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.util.SegmentIndex;
 import airhockeyjava.util.Vector2;
 
 /**
@@ -18,21 +20,23 @@ public class NaiveOffenseStrategy implements IStrategy {
 
 	final private static String strategyLabelString = Constants.STRATEGY_NAIVE_OFFENSE_STRING;
 	final private Game game;
+	final private Vector2 targetPosition = new Vector2();
 
 	public NaiveOffenseStrategy(Game game) {
 		this.game = game;
 	}
 
 	@Override
-	public Vector2 getTargetPosition(float deltaTime) {
+	public Vector2 getTargetPosition(WorldSnapshot world, float deltaTime) {
 		// Position differential vector, scaled so that the "target" position is on the
 		// opposite side of the puck
 		
 		// TODO improve this so puck doesn't get stuck in corners. Get on the correct side
 		// of the puck.
-		return new Vector2(game.gamePuck.getPosition()).add(
-				new Vector2(game.gamePuck.getPosition()).sub(game.robotMallet.getPosition()).scl(
-						0.1f));
+		float puckX = world.getPuckX();
+		float puckY = world.getPuckY();
+		return targetPosition.set(puckX + (puckX - world.getRobotMalletX()) * 0.1f, puckY
+				+ (puckY - world.getRobotMalletY()) * 0.1f);
 	}
 
 	@Override
@@ -52,4 +56,9 @@ public class NaiveOffenseStrategy implements IStrategy {
 		return null;
 	}
 
+	@Override
+	public SegmentIndex getStrategyIndex() {
+		return null;
+	}
+
 }
\ No newline at end of file
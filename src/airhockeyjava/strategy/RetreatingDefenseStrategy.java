@@ -1,37 +1,51 @@
 package airhockeyjava.strategy;
 
 import java.awt.geom.Line2D;
-import java.awt.geom.Point2D;
 
 import airhockeyjava.game.Constants;
 import airhockeyjava.game.Game;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.util.PrimitiveGeometry;
+import airhockeyjava.util.SegmentIndex;
 import airhockeyjava.util.Vector2;
 
 public class RetreatingDefenseStrategy implements IStrategy {
 
 	final private static String strategyLabelString = Constants.STRATEGY_RETREATING_DEFENSE_STRING;
 	final private Game game;
-	private Line2D defenceLine;
+	final private Vector2 targetPosition = new Vector2();
+	final private Vector2 collisionPoint = new Vector2();
 
 	public RetreatingDefenseStrategy(Game game) {
 		this.game = game;
 	}
 
 	@Override
-	public Vector2 getTargetPosition(float deltaTime) {
-		float robotMalletX = game.robotMallet.getPosition().x; 
-		this.defenceLine = new Line2D.Float(
-				robotMalletX, 0f,
-				robotMalletX,
-				Constants.GAME_TABLE_HEIGHT_METERS);
-		
-		Point2D collisionPoint = game.gamePuck.getExpectedInterectionWithLine(this.defenceLine);
-
-		if (collisionPoint != null){
-			return new Vector2(Constants.ROBOT_MALLET_INITIAL_POSITION_X, (float) collisionPoint.getY());
+	public Vector2 getTargetPosition(WorldSnapshot world, float deltaTime) {
+		// Defend along the vertical line through the robot mallet
+		float robotMalletX = world.getRobotMalletX();
+
+		if (getPathCrossing(world, robotMalletX, world.getTableHeight())){
+			return targetPosition.set(Constants.ROBOT_MALLET_INITIAL_POSITION_X, collisionPoint.y);
 		}else{
-			return new Vector2(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);
+			return targetPosition.set(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);
+		}
+	}
+
+	/**
+	 * Find the first point at which the snapshot's predicted puck path crosses the vertical line
+	 * x = lineX, storing it in collisionPoint.
+	 * @return true iff the path crosses the line
+	 */
+	private boolean getPathCrossing(WorldSnapshot world, float lineX, float lineHeight) {
+		for (int i = 0; i < world.getPredictedPathNumberOfPoints() - 1; i++) {
+			if (PrimitiveGeometry.getSegmentIntersection(world.getPredictedPathX(i),
+					world.getPredictedPathY(i), world.getPredictedPathX(i + 1),
+					world.getPredictedPathY(i + 1), lineX, 0f, lineX, lineHeight, collisionPoint)) {
+				return true;
+			}
 		}
+		return false;
 	}
 
 	public String getLabelString(){
@@ -50,4 +64,9 @@ public class RetreatingDefenseStrategy implements IStrategy {
 		return null;
 	}
 
+	@Override
+	public SegmentIndex getStrategyIndex() {
+		return null;
+	}
+
 }
@@ -0,0 +1,94 @@
+package airhockeyjava.strategy;
+
+import java.awt.geom.Line2D;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.game.Game;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.util.RandomXS128;
+import airhockeyjava.util.SegmentIndex;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Strategy layer. Scripted opponent which drives the user mallet when there is no mouse input,
+ * i.e. in headless simulated games. Shadows the puck along the user defense line while the puck
+ * is moving towards the user goal, otherwise lines up behind the puck and strikes it towards the
+ * robot goal. Each shot is aimed with a seeded random spread so that games with different seeds
+ * play out differently, while games with the same seed are reproducible.
+ */
+public class SimulatedUserStrategy implements IStrategy {
+
+	final private static String strategyLabelString = Constants.STRATEGY_SIMULATED_USER_STRING;
+	final private Game game;
+	final private RandomXS128 random;
+
+	private final Vector2 targetPosition = new Vector2();
+	private final Vector2 shotDirection = new Vector2();
+	private final Vector2 puckPosition = new Vector2();
+	private boolean isShotAimed = false;
+
+	public SimulatedUserStrategy(Game game, long seed) {
+		this.game = game;
+		this.random = new RandomXS128(seed);
+	}
+
+	@Override
+	public Vector2 getTargetPosition(WorldSnapshot world, float deltaTime) {
+		world.getPuckPosition(puckPosition);
+		float malletRadius = game.userMallet.getRadius();
+		float puckRadius = world.getPuckRadius();
+		float tableWidth = world.getTableWidth();
+		float tableHeight = world.getTableHeight();
+
+		boolean isPuckOnUserSide = puckPosition.x <= tableWidth / 2f;
+		boolean isPuckIncoming = world.getPuckVelocityX() < -Constants.STRATEGY_OFFENSE_MAX_PUCK_SPEED_TO_ENGAGE;
+
+		if (isPuckIncoming || !isPuckOnUserSide) {
+			// Defend: shadow the puck across the mouth of the goal
+			isShotAimed = false;
+			float goalStartY = world.getGoalStartY();
+			targetPosition.set(Constants.USER_MALLET_INITIAL_POSITION_X, Math.min(
+					Math.max(puckPosition.y, goalStartY), goalStartY + world.getGoalWidth()));
+		} else {
+			// Attack: aim at the robot goal, with some jitter, and strike through the puck
+			if (!isShotAimed) {
+				// Jitter the aim point along the goal line (no trigonometry, so runs are reproducible)
+				float aimY = world.getGoalStartY() + world.getGoalWidth() / 2f
+						+ (2f * random.nextFloat() - 1f) * Constants.HEADLESS_USER_AIM_SPREAD_METERS;
+				shotDirection.set(tableWidth, aimY).sub(puckPosition).nor();
+				isShotAimed = true;
+			}
+			float strikeDistance = puckRadius + malletRadius;
+			boolean isBehindPuck = (world.getUserMalletX() < puckPosition.x - strikeDistance / 2f);
+			targetPosition.set(shotDirection).scl(isBehindPuck ? strikeDistance : -2f * strikeDistance)
+					.add(puckPosition);
+		}
+
+		// Keep the target on the table, and on the user half if movement is restricted
+		float maxX = game.settings.restrictUserMalletMovement ? tableWidth / 2f - malletRadius
+				: tableWidth - malletRadius;
+		targetPosition.x = Math.min(Math.max(targetPosition.x, malletRadius), maxX);
+		targetPosition.y = Math.min(Math.max(targetPosition.y, malletRadius),
+				tableHeight - malletRadius);
+		return targetPosition;
+	}
+
+	public String getLabelString() {
+		return SimulatedUserStrategy.strategyLabelString;
+	}
+
+	@Override
+	public void initStrategy() {
+		isShotAimed = false;
+	}
+
+	@Override
+	public Line2D[] getStrategyLines() {
+		return null;
+	}
+
+	@Override
+	public SegmentIndex getStrategyIndex() {
+		return null;
+	}
+}
@@ -0,0 +1,367 @@
+package airhockeyjava.strategy;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import airhockeyjava.game.Constants;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.physical.Table;
+import airhockeyjava.physical.Table.GoalScoredEnum;
+import airhockeyjava.simulation.EventDrivenPuckSimulation;
+import airhockeyjava.util.Vector2;
+
+/**
+ * Scores candidate strategies by rolling the game forward a short horizon from the current
+ * snapshot with each one in control of the robot mallet. Each inactive candidate is initialised,
+ * as it would be on taking over, and asked for its target for this tick; the active strategy is
+ * not asked again (it advances its own state when asked, and is asked once per tick by the game),
+ * and its target from the last tick is used instead. The rollout then drives the robot mallet
+ * towards it at full speed (as the path planner does), striking the puck on contact, while the
+ * puck follows the event-driven simulation with the user mallet held where it is. After the
+ * horizon the mallets are held still and the puck is followed a little further. A goal against the
+ * robot within the horizon counts as a goal risk of one, and within the tail as
+ * STRATEGY_ROLLOUT_TAIL_WEIGHT; goals for the robot count towards the scoring chance likewise.
+ *
+ * Rollouts run in parallel on a dedicated fork-join pool, shared by all evaluators, when the
+ * machine has more than one core, and sequentially on the caller otherwise. Each evaluation is
+ * given a time budget: a rollout stops when it runs out, and the evaluation is reported as
+ * incomplete, so that the caller can fall back to another choice. The budget is on the wall clock,
+ * so an evaluation that runs out depends on the machine and its load; with an infinite budget (as
+ * in headless games) evaluations always complete and are reproducible. The cost of each candidate
+ * (target plus rollout) is kept for reporting.
+ *
+ * Strategies are queried on the calling thread, since they hold state and write to the GUI; the
+ * rollouts only read the snapshot. Evaluate from one thread.
+ */
+public class StrategyRolloutEvaluator {
+
+	private static ForkJoinPool rolloutPool; // Created on first parallel use
+
+	private final Table table;
+	private final Candidate[] candidates;
+	private final RootTask rootTask = new RootTask();
+	private final boolean isParallel;
+
+	private WorldSnapshot world; // Being evaluated
+	private volatile boolean hasDeadline;
+	private volatile long deadlineNanoseconds;
+	private volatile boolean isTruncated;
+
+	private float lastElapsedSeconds = 0f;
+	private long evaluationCount = 0;
+	private long budgetOverrunCount = 0;
+
+	/**
+	 * A candidate strategy, with its own simulation and the results of its last rollout.
+	 */
+	private class Candidate {
+		final IStrategy strategy;
+		final EventDrivenPuckSimulation simulation;
+		final CandidateTask task = new CandidateTask(this);
+
+		final Vector2 target = new Vector2();
+		final Vector2 puckPosition = new Vector2();
+		final Vector2 puckVelocity = new Vector2();
+		final Vector2 malletPosition = new Vector2();
+		final Vector2 malletVelocity = new Vector2();
+		final Vector2 userMalletPosition = new Vector2();
+
+		float goalRisk;
+		float scoringChance;
+		float score;
+		long lastNanoseconds;
+		long totalNanoseconds;
+
+		Candidate(IStrategy strategy) {
+			this.strategy = strategy;
+			this.simulation = new EventDrivenPuckSimulation(table);
+		}
+	}
+
+	private class CandidateTask extends RecursiveAction {
+		private static final long serialVersionUID = 2071563810842267925L;
+
+		private final Candidate candidate;
+
+		CandidateTask(Candidate candidate) {
+			this.candidate = candidate;
+		}
+
+		@Override
+		protected void compute() {
+			rollout(candidate);
+		}
+	}
+
+	private class RootTask extends RecursiveAction {
+		private static final long serialVersionUID = -5824637009216489130L;
+
+		@Override
+		protected void compute() {
+			for (int i = 0; i < candidates.length; i++) {
+				candidates[i].task.reinitialize();
+			}
+			for (int i = 1; i < candidates.length; i++) {
+				candidates[i].task.fork();
+			}
+			candidates[0].task.invoke();
+			for (int i = 1; i < candidates.length; i++) {
+				candidates[i].task.join();
+			}
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param table
+	 * @param strategies candidates, in order of preference when scores tie
+	 */
+	public StrategyRolloutEvaluator(Table table, IStrategy[] strategies) {
+		this.table = table;
+		this.candidates = new Candidate[strategies.length];
+		for (int i = 0; i < strategies.length; i++) {
+			candidates[i] = new Candidate(strategies[i]);
+		}
+		this.isParallel = Runtime.getRuntime().availableProcessors() > 1 && strategies.length > 1;
+	}
+
+	private static synchronized ForkJoinPool getRolloutPool() {
+		if (rolloutPool == null) {
+			rolloutPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		}
+		return rolloutPool;
+	}
+
+	/**
+	 * Take each candidate's target from the snapshot and roll it out.
+	 * @param world
+	 * @param deltaTime passed on to the strategies
+	 * @param timeBudgetSeconds time allowed for the whole evaluation, or infinite for no limit
+	 * @param activeStrategy strategy in control of the robot, which is not asked for a target
+	 * @param activeTarget target of the active strategy as of the last tick
+	 * @return true iff every rollout completed within the budget
+	 */
+	public boolean evaluate(WorldSnapshot world, float deltaTime, float timeBudgetSeconds,
+			IStrategy activeStrategy, Vector2 activeTarget) {
+		long startTime = System.nanoTime();
+		hasDeadline = timeBudgetSeconds < Float.POSITIVE_INFINITY;
+		deadlineNanoseconds = startTime + (long) (timeBudgetSeconds * 1e9f);
+		isTruncated = false;
+		this.world = world;
+
+		for (int i = 0; i < candidates.length; i++) {
+			Candidate candidate = candidates[i];
+			long targetStartTime = System.nanoTime();
+			if (candidate.strategy == activeStrategy) {
+				candidate.target.set(activeTarget);
+			} else {
+				candidate.strategy.initStrategy();
+				candidate.target.set(candidate.strategy.getTargetPosition(world, deltaTime));
+			}
+			table.enforceSafeRobotPosition(candidate.target,
+					Constants.MECHANICAL_ROBOT_EDGE_SAFETY_MARGIN_METERS);
+			candidate.lastNanoseconds = System.nanoTime() - targetStartTime;
+		}
+
+		if (isParallel) {
+			rootTask.reinitialize();
+			getRolloutPool().invoke(rootTask);
+		} else {
+			for (int i = 0; i < candidates.length; i++) {
+				rollout(candidates[i]);
+			}
+		}
+
+		for (int i = 0; i < candidates.length; i++) {
+			candidates[i].totalNanoseconds += candidates[i].lastNanoseconds;
+		}
+		evaluationCount++;
+		lastElapsedSeconds = (System.nanoTime() - startTime) / 1e9f;
+		if (isTruncated) {
+			budgetOverrunCount++;
+		}
+		return !isTruncated;
+	}
+
+	/**
+	 * Roll the game forward with the candidate's target, and score the outcome.
+	 */
+	private void rollout(Candidate candidate) {
+		long startTime = System.nanoTime();
+		EventDrivenPuckSimulation simulation = candidate.simulation;
+		Vector2 puckPosition = world.getPuckPosition(candidate.puckPosition);
+		Vector2 puckVelocity = world.getPuckVelocity(candidate.puckVelocity);
+		Vector2 malletPosition = world.getRobotMalletPosition(candidate.malletPosition);
+		Vector2 malletVelocity = candidate.malletVelocity;
+		Vector2 userMalletPosition = world.getUserMalletPosition(candidate.userMalletPosition);
+		float malletRadius = world.getMalletRadius();
+		float stepSeconds = Constants.STRATEGY_ROLLOUT_STEP_SECONDS;
+		int numberOfSteps = (int) Math.ceil(Constants.STRATEGY_ROLLOUT_HORIZON_SECONDS
+				/ stepSeconds);
+		candidate.goalRisk = 0f;
+		candidate.scoringChance = 0f;
+		candidate.score = 0f;
+
+		GoalScoredEnum goalScored = GoalScoredEnum.NO_GOAL_SCORED;
+		for (int step = 0; step < numberOfSteps
+				&& goalScored == GoalScoredEnum.NO_GOAL_SCORED; step++) {
+			if (hasDeadline && System.nanoTime() > deadlineNanoseconds) {
+				isTruncated = true;
+				candidate.lastNanoseconds += System.nanoTime() - startTime;
+				return;
+			}
+			// Full speed towards the target, stopping within the position resolution
+			float distance = malletVelocity.set(candidate.target).sub(malletPosition).len();
+			if (distance < Constants.MECHANICAL_MAX_POSITION_RESOLUTION_METERS) {
+				malletVelocity.setZero();
+			} else {
+				malletVelocity.scl(Constants.MECHANICAL_MAX_SPEED_METERS_PER_SECOND / distance);
+			}
+			strikeIfInContact(candidate, world.getPuckRadius() + malletRadius);
+
+			simulation.reset(puckPosition, puckVelocity);
+			simulation.addMallet(malletPosition, malletRadius);
+			simulation.addMallet(userMalletPosition, malletRadius);
+			goalScored = simulation.runUntilGoal(stepSeconds,
+					Constants.STRATEGY_ROLLOUT_MAX_EVENTS_PER_STEP);
+			puckPosition.set(simulation.getPosition());
+			puckVelocity.set(simulation.getVelocity());
+
+			malletPosition.mulAdd(malletVelocity, Math.min(stepSeconds, distance
+					/ Constants.MECHANICAL_MAX_SPEED_METERS_PER_SECOND));
+		}
+		float weight = 1f;
+		if (goalScored == GoalScoredEnum.NO_GOAL_SCORED) {
+			// Follow the puck a little further with the mallets held still
+			simulation.reset(puckPosition, puckVelocity);
+			simulation.addMallet(malletPosition, malletRadius);
+			simulation.addMallet(userMalletPosition, malletRadius);
+			goalScored = simulation.runUntilGoal(Constants.STRATEGY_ROLLOUT_TAIL_SECONDS,
+					Constants.STRATEGY_ROLLOUT_MAX_EVENTS_PER_STEP);
+			weight = Constants.STRATEGY_ROLLOUT_TAIL_WEIGHT;
+		}
+		// A goal for the user is a goal in the robot's net
+		if (goalScored == GoalScoredEnum.GOAL_SCORED_FOR_USER) {
+			candidate.goalRisk = weight;
+		} else if (goalScored == GoalScoredEnum.GOAL_SCORED_FOR_ROBOT) {
+			candidate.scoringChance = weight;
+		}
+		candidate.score = Constants.STRATEGY_ROLLOUT_SCORING_WEIGHT * candidate.scoringChance
+				- Constants.STRATEGY_ROLLOUT_GOAL_RISK_WEIGHT * candidate.goalRisk;
+		candidate.lastNanoseconds += System.nanoTime() - startTime;
+	}
+
+	/**
+	 * If the puck overlaps the moving robot mallet, resolve the contact as the physics does: move
+	 * the puck out to the contact distance, reflect its normal velocity about the mallet's
+	 * (infinite mass), apply restitution, and push it if the mallet would still be chasing it.
+	 */
+	private static void strikeIfInContact(Candidate candidate, float radiusSum) {
+		Vector2 puckPosition = candidate.puckPosition;
+		Vector2 puckVelocity = candidate.puckVelocity;
+		Vector2 malletVelocity = candidate.malletVelocity;
+		float normalX = puckPosition.x - candidate.malletPosition.x;
+		float normalY = puckPosition.y - candidate.malletPosition.y;
+		float distance = (float) Math.sqrt(normalX * normalX + normalY * normalY);
+		if (distance >= radiusSum || distance == 0f) {
+			return;
+		}
+		normalX /= distance;
+		normalY /= distance;
+		puckPosition.set(candidate.malletPosition.x + normalX * radiusSum,
+				candidate.malletPosition.y + normalY * radiusSum);
+		float puckSpeedNormal = normalX * puckVelocity.x + normalY * puckVelocity.y;
+		float malletSpeedNormal = normalX * malletVelocity.x + normalY * malletVelocity.y;
+		float speedChange = 2f * (malletSpeedNormal - puckSpeedNormal);
+		puckVelocity.add(normalX * speedChange, normalY * speedChange).scl(
+				Constants.MALLET_PUCK_COLLISION_RESTITUTION_COEFFICIENT);
+		float relativeSpeedNormal = normalX * puckVelocity.x + normalY * puckVelocity.y
+				- malletSpeedNormal;
+		if (relativeSpeedNormal < 0f) {
+			puckVelocity.add(-normalX * relativeSpeedNormal, -normalY * relativeSpeedNormal);
+		}
+	}
+
+	/**
+	 * Choose the best scoring candidate of the last evaluation. The preferred strategy is kept
+	 * unless another beats it by at least STRATEGY_ROLLOUT_MIN_SCORE_IMPROVEMENT; most rollouts end
+	 * without a goal, and so tie.
+	 * @param preferredStrategy e.g. the rule-based choice
+	 * @return the strategy chosen
+	 */
+	public IStrategy getBestStrategy(IStrategy preferredStrategy) {
+		IStrategy bestStrategy = preferredStrategy;
+		float bestScore = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < candidates.length; i++) {
+			if (candidates[i].strategy == preferredStrategy) {
+				bestScore = candidates[i].score + Constants.STRATEGY_ROLLOUT_MIN_SCORE_IMPROVEMENT;
+			}
+		}
+		for (int i = 0; i < candidates.length; i++) {
+			if (candidates[i].score > bestScore) {
+				bestScore = candidates[i].score;
+				bestStrategy = candidates[i].strategy;
+			}
+		}
+		return bestStrategy;
+	}
+
+	public int getNumberOfCandidates() {
+		return candidates.length;
+	}
+
+	public IStrategy getStrategy(int candidate) {
+		return candidates[candidate].strategy;
+	}
+
+	/**
+	 * Goal risk of a candidate in the last evaluation, between 0 and 1.
+	 */
+	public float getGoalRisk(int candidate) {
+		return candidates[candidate].goalRisk;
+	}
+
+	/**
+	 * Scoring chance of a candidate in the last evaluation, between 0 and 1.
+	 */
+	public float getScoringChance(int candidate) {
+		return candidates[candidate].scoringChance;
+	}
+
+	public float getScore(int candidate) {
+		return candidates[candidate].score;
+	}
+
+	/**
+	 * Time taken to evaluate a candidate (target plus rollout) in the last evaluation.
+	 */
+	public float getLastEvaluationSeconds(int candidate) {
+		return candidates[candidate].lastNanoseconds / 1e9f;
+	}
+
+	/**
+	 * Mean time taken to evaluate a candidate over all evaluations.
+	 */
+	public float getMeanEvaluationSeconds(int candidate) {
+		return (evaluationCount == 0) ? 0f
+				: (float) (candidates[candidate].totalNanoseconds / 1e9 / evaluationCount);
+	}
+
+	/**
+	 * Wall time of the last evaluation, including any waiting on the pool.
+	 */
+	public float getLastElapsedSeconds() {
+		return lastElapsedSeconds;
+	}
+
+	public long getEvaluationCount() {
+		return evaluationCount;
+	}
+
+	/**
+	 * Number of evaluations which ran out of time.
+	 */
+	public long getBudgetOverrunCount() {
+		return budgetOverrunCount;
+	}
+}
@@ -4,7 +4,7 @@ import java.awt.geom.Line2D;
 
 import airhockeyjava.game.Constants;
 import airhockeyjava.game.Game;
-import airhockeyjava.util.Conversion;
+import airhockeyjava.game.WorldSnapshot;
 import airhockeyjava.util.Vector2;
 
 /**
@@ -20,15 +20,19 @@ public class StrategySelector {
 	final private IStrategy triangleDefenseStrategy;
 	final private IStrategy naiveDefenseStrategy;
 	final private IStrategy naiveOffenseStrategy;
-	final private IStrategy waypointOffenseStrategy;
+	final private WaypointOffenseStrategy waypointOffenseStrategy;
+	final private IStrategy adversarialOffenseStrategy;
 	final private IStrategy hybridDefenseStrategy;
 	final private IStrategy homePositionStrategy;
 	final private IStrategy aroundPuckStrategy;
 	final private IStrategy retreatDefenseStrategy;
+	final private StrategyRolloutEvaluator rolloutEvaluator;
+	final private StrategyRolloutEvaluator adversarialRolloutEvaluator; // Also the adversarial offense
+	final private Vector2 activeTarget = new Vector2();
 
-	private static IStrategy currentStrategy;
+	private IStrategy currentStrategy;
 
-	private long lastUpdatedTime;
+	private double lastUpdatedTime; // Game time (seconds) of the last strategy transition
 
 	public StrategySelector(Game game) {
 		this.game = game;
@@ -36,29 +40,75 @@ public class StrategySelector {
 		this.naiveDefenseStrategy = new NaiveDefenseStrategy(game);
 		this.naiveOffenseStrategy = new NaiveOffenseStrategy(game);
 		this.waypointOffenseStrategy = new WaypointOffenseStrategy(game);
+		this.adversarialOffenseStrategy = new AdversarialOffenseStrategy(game);
 		this.hybridDefenseStrategy = new HybridDefense(game);
 		this.homePositionStrategy = new HomePositionStrategy(game);
 		this.aroundPuckStrategy = new AroundPuckStrategy(game);
 		this.retreatDefenseStrategy = new RetreatingDefenseStrategy(game);
+		this.rolloutEvaluator = new StrategyRolloutEvaluator(game.gameTable, new IStrategy[] {
+				hybridDefenseStrategy, naiveDefenseStrategy, triangleDefenseStrategy,
+				retreatDefenseStrategy, waypointOffenseStrategy, aroundPuckStrategy,
+				naiveOffenseStrategy, homePositionStrategy });
+		this.adversarialRolloutEvaluator = new StrategyRolloutEvaluator(game.gameTable,
+				new IStrategy[] { hybridDefenseStrategy, naiveDefenseStrategy,
+						triangleDefenseStrategy, retreatDefenseStrategy, waypointOffenseStrategy,
+						adversarialOffenseStrategy, aroundPuckStrategy, naiveOffenseStrategy,
+						homePositionStrategy });
 		this.updateStrategy(naiveDefenseStrategy);
 	}
 
-	public IStrategy getBestStrategy() {
-		Vector2 puckPosition = game.gamePuck.getPosition();
-		Vector2 puckVelocity = game.gamePuck.getVelocity();
+	/**
+	 * Choose the strategy for this tick from the game state: by the rules, or if enabled in the
+	 * settings, by the rollout scores, falling back to the rules if the rollouts run over budget.
+	 * @param world state of the game for this tick
+	 * @param deltaTime
+	 * @return the current strategy
+	 */
+	public IStrategy getBestStrategy(WorldSnapshot world, float deltaTime) {
+		IStrategy desiredStrategy = getRuleBasedStrategy(world);
+		if (game.settings.enableRolloutStrategySelection) {
+			// The candidates draw their own lines when asked for targets; keep the active one's
+			Line2D[] shownLines = (game.guiLayer != null) ? game.guiLayer.strategyLines : null;
+			StrategyRolloutEvaluator rolloutEvaluator = getRolloutEvaluator();
+			boolean isEvaluated = rolloutEvaluator.evaluate(world, deltaTime,
+					game.settings.rolloutTimeBudgetSeconds, currentStrategy,
+					game.getRobotTargetPosition(activeTarget));
+			if (game.guiLayer != null) {
+				game.guiLayer.strategyLines = shownLines;
+			}
+			if (isEvaluated) {
+				desiredStrategy = rolloutEvaluator.getBestStrategy(desiredStrategy);
+			}
+		}
+		updateStrategy(desiredStrategy);
+
+		// Hand the active strategy's lines to the puck for its predicted path intersection
+		game.gamePuck.setStrategyIndex(currentStrategy.getStrategyIndex());
+		return currentStrategy;
+	}
 
-		boolean isHighSpeed = (puckVelocity.len() > Constants.STRATEGY_OFFENSE_MAX_PUCK_SPEED_TO_ENGAGE) ? true	: false;
-		boolean isPuckInFrontOfMallet = (game.robotMallet.getPosition().x > puckPosition.x) ? true	: false;
-		boolean isMalletInDefendableRegion = (game.robotMallet.getPosition().x > Constants.MALLET_DEFENDABLE_REGION) ? true	: false;
-		boolean isPuckOnRobotSide = (game.gamePuck.getPosition().x > Constants.GAME_TABLE_WIDTH_METERS / 2) ? true : false;
+	/**
+	 * Internal method to choose a strategy by rules on the puck speed and the positions of the puck
+	 * and mallet.
+	 * @param world
+	 * @return the strategy desired
+	 */
+	private IStrategy getRuleBasedStrategy(WorldSnapshot world) {
+		IStrategy desiredStrategy;
+		boolean isHighSpeed = (world.getPuckSpeed() > Constants.STRATEGY_OFFENSE_MAX_PUCK_SPEED_TO_ENGAGE) ? true	: false;
+		boolean isPuckInFrontOfMallet = (world.getRobotMalletX() > world.getPuckX()) ? true	: false;
+		boolean isMalletInDefendableRegion = (world.getRobotMalletX() > Constants.MALLET_DEFENDABLE_REGION) ? true	: false;
+		boolean isPuckOnRobotSide = world.isPuckOnRobotSide();
 		boolean shouldRetreat = false;
 		
-		System.out.println("STRATEGY: " + currentStrategy.getLabelString());
-		System.out.println("isHighSpeed: " + isHighSpeed
-				+ ", isPuckInFrontOfMallet: " + isPuckInFrontOfMallet
-				+ ", isMalletInDefendableRegion: " + isMalletInDefendableRegion
-				+ ", isPuckOnRobotSide: " + isPuckOnRobotSide
-				+ ", shouldRetreat: " + shouldRetreat);
+		if (Constants.DEBUG_LOGGING_ENABLED) {
+			System.out.println("STRATEGY: " + currentStrategy.getLabelString());
+			System.out.println("isHighSpeed: " + isHighSpeed
+					+ ", isPuckInFrontOfMallet: " + isPuckInFrontOfMallet
+					+ ", isMalletInDefendableRegion: " + isMalletInDefendableRegion
+					+ ", isPuckOnRobotSide: " + isPuckOnRobotSide
+					+ ", shouldRetreat: " + shouldRetreat);
+		}
 
 		// Retreat when the robot is vulnerable (not in a defendable region) and the user is able to shoot
 		if (!isPuckOnRobotSide && !isMalletInDefendableRegion) {
@@ -71,18 +121,19 @@ public class StrategySelector {
 				shouldRetreat = false;
 			}
 
-			updateStrategy(retreatDefenseStrategy);
+			desiredStrategy = retreatDefenseStrategy;
 		} else {
 			if (!isHighSpeed && isPuckOnRobotSide) {
 				// Puck is slow, ATTACK!
 				if (isPuckInFrontOfMallet) {
-					updateStrategy(waypointOffenseStrategy);
+					desiredStrategy = game.settings.enableAdversarialSearch ? adversarialOffenseStrategy
+							: waypointOffenseStrategy;
 				} else {
-					updateStrategy(aroundPuckStrategy);
+					desiredStrategy = aroundPuckStrategy;
 				}
 			} else {
 				// Puck is fast, DEFEND!
-				updateStrategy(hybridDefenseStrategy);
+				desiredStrategy = hybridDefenseStrategy;
 
 			}
 		}
@@ -111,16 +162,19 @@ public class StrategySelector {
 		//
 		// }
 		// }
-		return currentStrategy;
 
+		return desiredStrategy;
 	}
 
 	private void updateStrategy(IStrategy desiredStrategy) {
-		long currentTime = System.nanoTime();
+		// Use game time rather than wall-clock time so headless games running faster than real time
+		// transition identically
+		double currentTime = game.gameTimeElapsedSeconds;
 		if (currentStrategy == null
-				|| (!currentStrategy.equals(desiredStrategy) && (currentTime - lastUpdatedTime) > Conversion
-						.secondsToNanoseconds(Constants.MIN_TIME_BETWEEN_STRATEGY_TRANSITION_SECONDS))) {
-			System.out.println(desiredStrategy.toString());
+				|| (!currentStrategy.equals(desiredStrategy) && (currentTime - lastUpdatedTime) > Constants.MIN_TIME_BETWEEN_STRATEGY_TRANSITION_SECONDS)) {
+			if (Constants.DEBUG_LOGGING_ENABLED) {
+				System.out.println(desiredStrategy.toString());
+			}
 			currentStrategy = desiredStrategy;
 			// Reinitialize strategy objects with persisted state
 			currentStrategy.initStrategy();
@@ -128,7 +182,27 @@ public class StrategySelector {
 		}
 	}
 
-	public static Line2D[] getStrategyLines() {
+	public Line2D[] getStrategyLines() {
 		return currentStrategy.getStrategyLines();
 	}
+
+	public IStrategy getCurrentStrategy() {
+		return currentStrategy;
+	}
+
+	/**
+	 * Scores and costs of the candidates in the rollout selection. The adversarial offense is only
+	 * a candidate while the adversarial search is enabled in the settings.
+	 */
+	public StrategyRolloutEvaluator getRolloutEvaluator() {
+		return game.settings.enableAdversarialSearch ? adversarialRolloutEvaluator
+				: rolloutEvaluator;
+	}
+
+	/**
+	 * Stop the strategies' background work, i.e. the bank shot search worker.
+	 */
+	public void close() {
+		waypointOffenseStrategy.getBankShotSearch().close();
+	}
 }
\ No newline at end of file
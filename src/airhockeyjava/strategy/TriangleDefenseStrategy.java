@@ -7,6 +7,9 @@ import java.util.List;
 
 import airhockeyjava.game.Constants;
 import airhockeyjava.game.Game;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.simulation.PuckPrediction;
+import airhockeyjava.util.SegmentIndex;
 import airhockeyjava.util.Vector2;
 
 /**
@@ -21,6 +24,9 @@ public class TriangleDefenseStrategy implements IStrategy {
 	final private static String strategyLabelString = Constants.STRATEGY_TRIANGLE_DEFENSE_STRING;
 	final private Game game;
 	private Line2D[] triangleLines = new Line2D.Float[2];
+	final private SegmentIndex triangleIndex;
+	final private Vector2 targetPosition = new Vector2();
+	final private GoalLineFallback goalLineFallback = new GoalLineFallback();
 
 	public TriangleDefenseStrategy(Game game) {
 		//Generate lines to represent the triangle
@@ -37,24 +43,31 @@ public class TriangleDefenseStrategy implements IStrategy {
 
 		triangleLines[0] = new Line2D.Float(homePosition, traingleBase1);
 		triangleLines[1] = new Line2D.Float(homePosition, traingleBase2);
+		triangleIndex = new SegmentIndex(triangleLines);
 	}
 
 	@Override
-	public Vector2 getTargetPosition(float deltaTime) {
+	public Vector2 getTargetPosition(WorldSnapshot world, float deltaTime) {
 		if(game.guiLayer != null){
 			game.guiLayer.strategyLines = triangleLines;
 		}
 
-		Point2D collisionPoint = game.gamePuck.getExpectedInterectionPoint();
+		// Time at which the predicted puck path first crosses the lines, if it does
+		PuckPrediction prediction = world.getPuckPrediction();
+		float crossingTime = prediction.getTimeToCrossLines(triangleIndex);
 		
-		Vector2 puckPosition = game.gamePuck.getPosition();
-		if(puckPosition.x < game.gameTable.getWidth() / 3){
-			return new Vector2(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);
+		if(world.getPuckX() < world.getTableWidth() / 3){
+			return targetPosition.set(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);
 		} else {
-			if(collisionPoint != null){
-				return new Vector2((float)collisionPoint.getX(), (float)collisionPoint.getY());
+			if(crossingTime != PuckPrediction.NEVER){
+				prediction.getPositionAt(crossingTime, targetPosition);
+				if (goalLineFallback.isTooLate(world, targetPosition, crossingTime)) {
+					// Too late to meet it there: slide across to where it will pass the mallet
+					goalLineFallback.getSlideAcrossTarget(world, targetPosition);
+				}
+				return targetPosition;
 			}else{
-				return new Vector2(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);			
+				return targetPosition.set(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);			
 			}
 
 		}
@@ -76,4 +89,9 @@ public class TriangleDefenseStrategy implements IStrategy {
 	public Line2D[] getStrategyLines() {
 		return triangleLines;
 	}
+
+	@Override
+	public SegmentIndex getStrategyIndex() {
+		return triangleIndex;
+	}
 }
\ No newline at end of file
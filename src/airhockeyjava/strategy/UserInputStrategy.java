@@ -5,7 +5,9 @@ import java.awt.geom.Rectangle2D;
 
 import airhockeyjava.game.Constants;
 import airhockeyjava.game.Game;
+import airhockeyjava.game.WorldSnapshot;
 import airhockeyjava.util.Conversion;
+import airhockeyjava.util.SegmentIndex;
 import airhockeyjava.util.Vector2;
 
 /**
@@ -21,6 +23,7 @@ public class UserInputStrategy implements IStrategy {
 	final private static String strategyLabelString = Constants.STRATEGY_USER_INPUT_STRING;
 	private Game game;
 	private final Rectangle2D tablePuckCollisionFrame;
+	private final Vector2 targetPosition = new Vector2();
 
 	public UserInputStrategy(Game game) {
 		this.game = game;
@@ -33,7 +36,7 @@ public class UserInputStrategy implements IStrategy {
 	 * @param deltaTime
 	 */
 	@Override
-	public Vector2 getTargetPosition(float deltaTime) {
+	public Vector2 getTargetPosition(WorldSnapshot world, float deltaTime) {
 		// Get the mouse coordinates relative to the table
 		int mouseX = game.inputLayer.getMouseX() - Constants.GUI_TABLE_OFFSET_X;
 		int mouseY = game.inputLayer.getMouseY() - Constants.GUI_TABLE_OFFSET_Y;
@@ -50,7 +53,7 @@ public class UserInputStrategy implements IStrategy {
 				Math.min(Conversion.pixelToMeter(mouseY), game.gameTable.getHeight()
 						- game.userMallet.getRadius()), game.userMallet.getRadius());
 
-		return new Vector2(targetPositionX, targetPositionY);
+		return targetPosition.set(targetPositionX, targetPositionY);
 	}
 
 	public String getLabelString(){
@@ -68,4 +71,9 @@ public class UserInputStrategy implements IStrategy {
 		// TODO Auto-generated method stub
 		return null;
 	}
+
+	@Override
+	public SegmentIndex getStrategyIndex() {
+		return null;
+	}
 }
\ No newline at end of file
@@ -2,16 +2,21 @@ package airhockeyjava.strategy;
 
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.List;
 
 import airhockeyjava.game.Constants;
 import airhockeyjava.game.Game;
+import airhockeyjava.game.WorldSnapshot;
+import airhockeyjava.util.PrimitiveGeometry;
+import airhockeyjava.util.SegmentIndex;
 import airhockeyjava.util.Vector2;
 
 /**
  * Strategy layer. Determines and sets waypoints, traverses the waypoints in sequence
- * to strike a puck
+ * to strike a puck. With bank shot search enabled in the settings, the strike follows the best
+ * shot found so far by a BankShotSearch, straight or off the walls, rather than straight along -x.
  * 
  * @author Joshua Segeren
  *
@@ -25,13 +30,24 @@ public class WaypointOffenseStrategy implements IStrategy {
 	private int nextWaypointIndex = 0; // Index of the waypoint to which we are going
 	
 	private Vector2 homePosition = new Vector2(Constants.ROBOT_MALLET_INITIAL_POSITION_X, Constants.ROBOT_MALLET_INITIAL_POSITION_Y);
+	final private Vector2 behindPuckTargetPosition = new Vector2();
+	final private Line2D[] targetLines = new Line2D[] { new Line2D.Float() };
+	final private BankShotSearch bankShotSearch;
+	final private Rectangle2D workspace;
+	final private Vector2 strikeVelocity = new Vector2();
+	final private Vector2 strikeDirection = new Vector2();
+	final private Vector2 strikeEnd = new Vector2();
+	final private Vector2 shotWaypoint = new Vector2(); // The only waypoint, reused by every shot
 
 	public WaypointOffenseStrategy(Game game) {
 		this.game = game;
+		this.bankShotSearch = new BankShotSearch(game.gameTable);
+		this.workspace = game.gameTable.getRobotWorkspaceCollisionFrame(
+				Constants.MECHANICAL_ROBOT_EDGE_SAFETY_MARGIN_METERS);
 	}
 
 	@Override
-	public Vector2 getTargetPosition(float deltaTime) {
+	public Vector2 getTargetPosition(WorldSnapshot world, float deltaTime) {
 		// TODO Update waypoints and index
 //		waypointsList.clear();
 //		Vector2 shotDirection = new Vector2(game.gameTable.gameTableUserGoalCenterPosition).sub(
@@ -64,29 +80,65 @@ public class WaypointOffenseStrategy implements IStrategy {
 //		}
 		
 		//if (game.robotMallet.getPosition().x > game.gamePuck.getPosition().x){
-			// Just behind the puck
-			Vector2 behindPuckTargetPosition = new Vector2(game.gamePuck.getPosition()).add(new Vector2(game.gamePuck.getRadius() * 2, 0));
+			// Take the best bank shot found so far, while lining up
+			boolean isBankShot = false;
+			if (game.settings.enableBankShotSearch && waypointsList.size() == 0) {
+				bankShotSearch.request(world, game.settings.bankShotSearchBudgetSeconds);
+				isBankShot = bankShotSearch.getBestShot(strikeVelocity);
+			}
+			if (isBankShot) {
+				// Behind the puck along the shot, with room to run up to the strike speed
+				strikeDirection.set(strikeVelocity).nor();
+				float distanceBehind = world.getPuckRadius() + world.getMalletRadius()
+						+ strikeVelocity.len2()
+						/ (2f * Constants.MECHANICAL_MAX_ACCELERATION_METERS_PER_SECOND_SQUARED);
+				behindPuckTargetPosition.set(world.getPuckX() - strikeDirection.x * distanceBehind,
+						world.getPuckY() - strikeDirection.y * distanceBehind);
+			} else {
+				// Just behind the puck
+				behindPuckTargetPosition.set(world.getPuckX() + world.getPuckRadius() * 2, world.getPuckY());
+			}
 			
 			if(game.guiLayer != null){
-				game.guiLayer.strategyLines = new Line2D[]{ new Line2D.Float(behindPuckTargetPosition.x, behindPuckTargetPosition.y, behindPuckTargetPosition.x, behindPuckTargetPosition.y)};
+				targetLines[0].setLine(behindPuckTargetPosition.x, behindPuckTargetPosition.y, behindPuckTargetPosition.x, behindPuckTargetPosition.y);
+				game.guiLayer.strategyLines = targetLines;
 			}
 			
 			
-			Vector2 targetDiff = new Vector2(game.robotMallet.getPosition()).sub(behindPuckTargetPosition);
-			System.out.println("Target Diff: " + targetDiff);
-			if (!(Math.abs(targetDiff.x) < 0.02 && Math.abs(targetDiff.y) < 0.02) && waypointsList.size() == 0) {
+			float targetDiffX = world.getRobotMalletX() - behindPuckTargetPosition.x;
+			float targetDiffY = world.getRobotMalletY() - behindPuckTargetPosition.y;
+			if (Constants.DEBUG_LOGGING_ENABLED) {
+				System.out.println("Target Diff: [" + targetDiffX + ":" + targetDiffY + "]");
+			}
+			if (!(Math.abs(targetDiffX) < 0.02 && Math.abs(targetDiffY) < 0.02) && waypointsList.size() == 0) {
 				return behindPuckTargetPosition;
 			}
 			else {
-				if (waypointsList.size() == 0) {
-					float waypointX = (float) Math.max(game.gameTable.getWidth() / 2f + Constants.MECHANICAL_ROBOT_EDGE_SAFETY_MARGIN_METERS,  game.robotMallet.getPosition().x - 1f);
-					System.out.println("Making a Shot X-Away: " + waypointX);
-					waypointsList.add(new Vector2(waypointX,game.robotMallet.getPosition().y));
+				if (waypointsList.size() == 0 && isBankShot) {
+					// Strike through the puck along the shot, as far as the workspace allows
+					float endX = world.getRobotMalletX() + strikeDirection.x
+							* Constants.STRATEGY_BANK_SHOT_MAX_STRIKE_METERS;
+					float endY = world.getRobotMalletY() + strikeDirection.y
+							* Constants.STRATEGY_BANK_SHOT_MAX_STRIKE_METERS;
+					if (!PrimitiveGeometry.getRectangleExit(world.getRobotMalletX(),
+							world.getRobotMalletY(), endX, endY, workspace.getMinX(),
+							workspace.getMinY(), workspace.getMaxX(), workspace.getMaxY(),
+							strikeEnd)) {
+						strikeEnd.set(endX, endY);
+					}
+					waypointsList.add(shotWaypoint.set(strikeEnd));
+					return waypointsList.get(0);
+				} else if (waypointsList.size() == 0) {
+					float waypointX = (float) Math.max(world.getTableWidth() / 2f + Constants.MECHANICAL_ROBOT_EDGE_SAFETY_MARGIN_METERS,  world.getRobotMalletX() - 1f);
+					if (Constants.DEBUG_LOGGING_ENABLED) {
+						System.out.println("Making a Shot X-Away: " + waypointX);
+					}
+					waypointsList.add(shotWaypoint.set(waypointX, world.getRobotMalletY()));
 					return waypointsList.get(0);
 				}
 				else {
 					Vector2 nextWaypoint = waypointsList.get(0);
-					if (nextWaypoint.dst2(game.robotMallet.getPosition()) <= Constants.STRATEGY_VIA_SWITCH_DISTANCE_METERS_SQUARED) {
+					if (world.getRobotMalletDistanceSquared(nextWaypoint.x, nextWaypoint.y) <= Constants.STRATEGY_VIA_SWITCH_DISTANCE_METERS_SQUARED) {
 						waypointsList.clear();
 						return homePosition;
 					} else {
@@ -103,6 +155,13 @@ public class WaypointOffenseStrategy implements IStrategy {
 		//return waypointsList.get(nextWaypointIndex);
 	}
 
+	/**
+	 * Get the search used for bank shots, for its results.
+	 */
+	public BankShotSearch getBankShotSearch() {
+		return bankShotSearch;
+	}
+
 	public String getLabelString(){
 		return this.strategyLabelString;
 	}
@@ -118,4 +177,9 @@ public class WaypointOffenseStrategy implements IStrategy {
 		// TODO Auto-generated method stub
 		return null;
 	}
+
+	@Override
+	public SegmentIndex getStrategyIndex() {
+		return null;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+package airhockeyjava.util;
+
+/**
+ * Primitive counterparts of the Intersection queries used in prediction and strategy: segment
+ * against segment, segment against rectangle, the rectangle edge a point lies on, ray against
+ * circle, and reflection. Arguments are plain coordinates and results go to out-parameters or
+ * return values, so unlike Intersection (which takes java.awt.geom shapes and returns new
+ * Point2D and Line2D objects) none of these allocate. Computation is in double precision.
+ *
+ * See airhockeyjava.benchmark.GeometryBenchmark for a comparison against Intersection.
+ */
+public final class PrimitiveGeometry {
+
+	// Edges of an axis-aligned rectangle, as returned by getCollisionEdge
+	public static final int EDGE_NONE = -1;
+	public static final int EDGE_LEFT = 0;
+	public static final int EDGE_TOP = 1;
+	public static final int EDGE_RIGHT = 2;
+	public static final int EDGE_BOTTOM = 3;
+
+	public static final double NO_HIT = -1d; // Returned by the fraction and time queries if there is no hit
+
+	private PrimitiveGeometry() {
+	}
+
+	/**
+	 * Intersection of the segment from (x1, y1) to (x2, y2) with the segment from (x3, y3) to
+	 * (x4, y4), endpoints included. Parallel segments have no intersection.
+	 * @param out vector in which to store the intersection point
+	 * @return true iff the segments intersect
+	 */
+	public static boolean getSegmentIntersection(double x1, double y1, double x2, double y2,
+			double x3, double y3, double x4, double y4, Vector2 out) {
+		double fraction = getSegmentIntersectionFraction(x1, y1, x2, y2, x3, y3, x4, y4);
+		if (fraction == NO_HIT) {
+			return false;
+		}
+		out.set((float) (x1 + (x2 - x1) * fraction), (float) (y1 + (y2 - y1) * fraction));
+		return true;
+	}
+
+	/**
+	 * Intersection of two segments as a fraction of the way along the first.
+	 * @return fraction in [0, 1], or NO_HIT
+	 */
+	public static double getSegmentIntersectionFraction(double x1, double y1, double x2,
+			double y2, double x3, double y3, double x4, double y4) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double ex = x4 - x3;
+		double ey = y4 - y3;
+		double denominator = dx * ey - dy * ex;
+		if (denominator == 0d) {
+			return NO_HIT; // Parallel
+		}
+		double offsetX = x3 - x1;
+		double offsetY = y3 - y1;
+		double t = (offsetX * ey - offsetY * ex) / denominator;
+		double w = (offsetX * dy - offsetY * dx) / denominator;
+		return (t >= 0d && t <= 1d && w >= 0d && w <= 1d) ? t : NO_HIT;
+	}
+
+	/**
+	 * Point at which the segment from (x1, y1) to (x2, y2), followed in its direction of travel,
+	 * crosses the boundary of a rectangle: for a segment starting inside, where it leaves. As
+	 * Intersection.getIntersectionPoint(Line2D, Rectangle2D), but also for axis-aligned segments.
+	 * @param out vector in which to store the crossing point
+	 * @return true iff the segment reaches the boundary
+	 */
+	public static boolean getRectangleExit(double x1, double y1, double x2, double y2,
+			double minX, double minY, double maxX, double maxY, Vector2 out) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		// Fractions along the segment at which it reaches the vertical and horizontal edges it is
+		// heading for
+		double edgeX = (dx > 0d) ? maxX : minX;
+		double edgeY = (dy > 0d) ? maxY : minY;
+		double tx = (dx != 0d) ? (edgeX - x1) / dx : Double.POSITIVE_INFINITY;
+		double ty = (dy != 0d) ? (edgeY - y1) / dy : Double.POSITIVE_INFINITY;
+		// Try the edge reached first, then the other
+		for (int attempt = 0; attempt < 2; attempt++) {
+			boolean isVerticalEdge = (tx <= ty) == (attempt == 0);
+			double t = isVerticalEdge ? tx : ty;
+			if (t < 0d || t > 1d) {
+				continue;
+			}
+			double x = isVerticalEdge ? edgeX : x1 + dx * t;
+			double y = isVerticalEdge ? y1 + dy * t : edgeY;
+			if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+				out.set((float) x, (float) y);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Edge of a rectangle on which a point lies, to within a tolerance, checked in the order left,
+	 * top, right, bottom (as Intersection.getCollisionEdge).
+	 * @param epsilon tolerance
+	 * @return one of the EDGE_ constants
+	 */
+	public static int getCollisionEdge(double x, double y, double minX, double minY,
+			double maxX, double maxY, double epsilon) {
+		if (Math.abs(minX - x) <= epsilon) {
+			return EDGE_LEFT;
+		}
+		if (Math.abs(minY - y) <= epsilon) {
+			return EDGE_TOP;
+		}
+		if (Math.abs(maxX - x) <= epsilon) {
+			return EDGE_RIGHT;
+		}
+		if (Math.abs(maxY - y) <= epsilon) {
+			return EDGE_BOTTOM;
+		}
+		return EDGE_NONE;
+	}
+
+	/**
+	 * Inward unit normal of a rectangle edge.
+	 * @param edge one of the EDGE_ constants other than EDGE_NONE
+	 * @param out vector in which to store the normal
+	 * @return out
+	 */
+	public static Vector2 getEdgeNormal(int edge, Vector2 out) {
+		switch (edge) {
+		case EDGE_LEFT:
+			return out.set(1f, 0f);
+		case EDGE_TOP:
+			return out.set(0f, 1f);
+		case EDGE_RIGHT:
+			return out.set(-1f, 0f);
+		case EDGE_BOTTOM:
+			return out.set(0f, -1f);
+		default:
+			throw new IllegalArgumentException("No normal for edge " + edge);
+		}
+	}
+
+	/**
+	 * Time at which a point moving from (originX, originY) with velocity (dx, dy) first reaches a
+	 * circle, e.g. a puck centre reaching the circle of the summed radii about a mallet.
+	 * @return time (in units of the velocity), zero if the point starts inside, or NO_HIT
+	 */
+	public static double getRayCircleTime(double originX, double originY, double dx, double dy,
+			double centreX, double centreY, double radius) {
+		double offsetX = originX - centreX;
+		double offsetY = originY - centreY;
+		double c = offsetX * offsetX + offsetY * offsetY - radius * radius;
+		if (c <= 0d) {
+			return 0d;
+		}
+		// Solve |offset + d * t| = radius: a t^2 + 2 b t + c = 0
+		double a = dx * dx + dy * dy;
+		double b = offsetX * dx + offsetY * dy;
+		if (a == 0d || b >= 0d) {
+			return NO_HIT; // Stationary or moving away
+		}
+		double discriminant = b * b - a * c;
+		if (discriminant < 0d) {
+			return NO_HIT;
+		}
+		return (-b - Math.sqrt(discriminant)) / a;
+	}
+
+	/**
+	 * Reflect a velocity off a surface with the given unit normal: v - (1 + e) (v . n) n.
+	 * @param restitution e, the fraction of the normal component kept; 1 for a perfect bounce
+	 * @param out vector in which to store the result
+	 * @return out
+	 */
+	public static Vector2 reflect(double vx, double vy, double normalX, double normalY,
+			double restitution, Vector2 out) {
+		double normalComponent = (1d + restitution) * (vx * normalX + vy * normalY);
+		return out.set((float) (vx - normalComponent * normalX),
+				(float) (vy - normalComponent * normalY));
+	}
+}
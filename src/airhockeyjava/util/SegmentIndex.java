@@ -0,0 +1,343 @@
+package airhockeyjava.util;
+
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+
+import airhockeyjava.game.Constants;
+
+/**
+ * Uniform grid index over a set of line segments (e.g. a strategy's defence lines), for finding
+ * the first segment crossed by a query segment such as a leg of the predicted puck path. The
+ * segments are registered once and compiled into per-cell lists of the segments whose bounding
+ * box overlaps the cell. A query walks only the cells along the query segment, in order, testing
+ * each segment at most once, and stops as soon as a crossing is found in the cells walked so far,
+ * so its cost depends on the segments near the path rather than on the total number of segments.
+ * Small sets (up to SEGMENT_INDEX_LINEAR_SCAN_MAX_SEGMENTS) are simply scanned, which is cheaper
+ * than walking the cells. Queries do not allocate.
+ *
+ * Crossings outside the bounds of the grid may be missed. Not thread safe; the result of a query
+ * is held in the index until the next one.
+ */
+public class SegmentIndex {
+
+	public static final int NONE = -1; // Returned by findFirstCrossing if there is no crossing
+
+	private final float originX; // Corner of the first cell
+	private final float originY;
+	private final float cellSize;
+	private final int columns; // Cells along x
+	private final int rows; // Cells along y
+
+	// Registered segments, from (x1, y1) to (x2, y2)
+	private final float[] x1;
+	private final float[] y1;
+	private final float[] x2;
+	private final float[] y2;
+	private int numberOfSegments = 0;
+
+	// Cells, stored row-major; the segments in cell c are cellSegments[cellStart[c]] up to but not
+	// including cellSegments[cellStart[c + 1]]
+	private final int[] cellStart;
+	private int[] cellSegments = new int[0];
+
+	// Stamp of the last query that tested each segment, so a segment spanning several cells is
+	// only tested once per query
+	private final int[] testedStamp;
+	private int queryStamp = 0;
+
+	// Result of the last query
+	private int bestSegment;
+	private float bestFraction;
+	private float crossingX;
+	private float crossingY;
+
+	/**
+	 * Constructor.
+	 * @param minX
+	 * @param minY
+	 * @param maxX
+	 * @param maxY
+	 * @param cellSize
+	 * @param maxSegments capacity
+	 */
+	public SegmentIndex(float minX, float minY, float maxX, float maxY, float cellSize,
+			int maxSegments) {
+		this.originX = minX;
+		this.originY = minY;
+		this.cellSize = cellSize;
+		this.columns = Math.max(1, (int) Math.ceil((maxX - minX) / cellSize));
+		this.rows = Math.max(1, (int) Math.ceil((maxY - minY) / cellSize));
+		this.x1 = new float[maxSegments];
+		this.y1 = new float[maxSegments];
+		this.x2 = new float[maxSegments];
+		this.y2 = new float[maxSegments];
+		this.cellStart = new int[columns * rows + 1];
+		this.testedStamp = new int[maxSegments];
+	}
+
+	/**
+	 * Overloaded. Covers the table, plus a margin, with the default cell size.
+	 * @param maxSegments capacity
+	 */
+	public SegmentIndex(int maxSegments) {
+		this(-Constants.SEGMENT_INDEX_MARGIN_METERS, -Constants.SEGMENT_INDEX_MARGIN_METERS,
+				Constants.GAME_TABLE_WIDTH_METERS + Constants.SEGMENT_INDEX_MARGIN_METERS,
+				Constants.GAME_TABLE_HEIGHT_METERS + Constants.SEGMENT_INDEX_MARGIN_METERS,
+				Constants.SEGMENT_INDEX_CELL_SIZE_METERS, maxSegments);
+	}
+
+	/**
+	 * Overloaded. Creates an index of the given lines, sized to fit them.
+	 * @param lines
+	 */
+	public SegmentIndex(Line2D[] lines) {
+		this(lines.length);
+		setSegments(lines);
+	}
+
+	/**
+	 * Remove all segments. Call build after adding new ones.
+	 */
+	public void clear() {
+		numberOfSegments = 0;
+		Arrays.fill(cellStart, 0);
+	}
+
+	/**
+	 * Add a segment. Call build once all have been added.
+	 * @return index of the segment
+	 */
+	public int addSegment(float startX, float startY, float endX, float endY) {
+		if (numberOfSegments == x1.length) {
+			throw new IllegalStateException("Segment index is full (" + x1.length + " segments)");
+		}
+		x1[numberOfSegments] = startX;
+		y1[numberOfSegments] = startY;
+		x2[numberOfSegments] = endX;
+		y2[numberOfSegments] = endY;
+		return numberOfSegments++;
+	}
+
+	/**
+	 * Replace the segments with the given lines and build the index. The lines are copied.
+	 * @param lines may be null, for no segments
+	 */
+	public void setSegments(Line2D[] lines) {
+		clear();
+		if (lines != null) {
+			for (int i = 0; i < lines.length; i++) {
+				addSegment((float) lines[i].getX1(), (float) lines[i].getY1(),
+						(float) lines[i].getX2(), (float) lines[i].getY2());
+			}
+		}
+		build();
+	}
+
+	/**
+	 * Compile the cell lists from the segments added. Allocates if the lists outgrow their
+	 * previous size, so build when registering geometry rather than per query.
+	 */
+	public void build() {
+		// Count the segments in each cell, then turn the counts into starting offsets
+		Arrays.fill(cellStart, 0);
+		for (int i = 0; i < numberOfSegments; i++) {
+			forEachCell(i, true);
+		}
+		int total = 0;
+		for (int cell = 0; cell < columns * rows; cell++) {
+			int count = cellStart[cell];
+			cellStart[cell] = total;
+			total += count;
+		}
+		cellStart[columns * rows] = total;
+		if (cellSegments.length < total) {
+			cellSegments = new int[total];
+		}
+		// Fill, advancing each cell's offset, which leaves it at the start of the next cell
+		for (int i = 0; i < numberOfSegments; i++) {
+			forEachCell(i, false);
+		}
+		for (int cell = columns * rows; cell > 0; cell--) {
+			cellStart[cell] = cellStart[cell - 1];
+		}
+		cellStart[0] = 0;
+	}
+
+	/**
+	 * Visit the cells overlapped by a segment's bounding box, either counting the segment in each
+	 * cell's start entry or storing it at the cell's current offset.
+	 */
+	private void forEachCell(int segment, boolean isCounting) {
+		int minColumn = getColumn(Math.min(x1[segment], x2[segment]));
+		int maxColumn = getColumn(Math.max(x1[segment], x2[segment]));
+		int minRow = getRow(Math.min(y1[segment], y2[segment]));
+		int maxRow = getRow(Math.max(y1[segment], y2[segment]));
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int column = minColumn; column <= maxColumn; column++) {
+				int cell = row * columns + column;
+				if (isCounting) {
+					cellStart[cell]++;
+				} else {
+					cellSegments[cellStart[cell]++] = segment;
+				}
+			}
+		}
+	}
+
+	private int getColumn(float x) {
+		return Math.min(columns - 1, Math.max(0, (int) Math.floor((x - originX) / cellSize)));
+	}
+
+	private int getRow(float y) {
+		return Math.min(rows - 1, Math.max(0, (int) Math.floor((y - originY) / cellSize)));
+	}
+
+	/**
+	 * Find the segment first crossed going from the start to the end of the query segment
+	 * (endpoints included; ties go to the earlier registered segment). The crossing is available
+	 * from getCrossingFraction, getCrossingX and getCrossingY until the next query.
+	 * @param startX
+	 * @param startY
+	 * @param endX
+	 * @param endY
+	 * @return index of the segment, or NONE
+	 */
+	public int findFirstCrossing(float startX, float startY, float endX, float endY) {
+		float dx = endX - startX;
+		float dy = endY - startY;
+		bestSegment = NONE;
+		bestFraction = Float.POSITIVE_INFINITY;
+		if (numberOfSegments == 0 || (dx == 0f && dy == 0f)) {
+			return NONE;
+		}
+		if (numberOfSegments <= Constants.SEGMENT_INDEX_LINEAR_SCAN_MAX_SEGMENTS) {
+			for (int segment = 0; segment < numberOfSegments; segment++) {
+				testSegment(segment, startX, startY, dx, dy);
+			}
+			return setCrossing(startX, startY, dx, dy);
+		}
+
+		// Clip the query to the grid (Liang-Barsky), as fractions of the way along it
+		float gridMaxX = originX + columns * cellSize;
+		float gridMaxY = originY + rows * cellSize;
+		float enter = 0f;
+		float exit = 1f;
+		if (dx != 0f) {
+			float a = (originX - startX) / dx;
+			float b = (gridMaxX - startX) / dx;
+			enter = Math.max(enter, Math.min(a, b));
+			exit = Math.min(exit, Math.max(a, b));
+		} else if (startX < originX || startX > gridMaxX) {
+			return NONE;
+		}
+		if (dy != 0f) {
+			float a = (originY - startY) / dy;
+			float b = (gridMaxY - startY) / dy;
+			enter = Math.max(enter, Math.min(a, b));
+			exit = Math.min(exit, Math.max(a, b));
+		} else if (startY < originY || startY > gridMaxY) {
+			return NONE;
+		}
+		if (enter > exit) {
+			return NONE;
+		}
+
+		if (++queryStamp == Integer.MAX_VALUE) {
+			Arrays.fill(testedStamp, 0);
+			queryStamp = 1;
+		}
+
+		// Walk the cells along the query in order (Amanatides-Woo), tracking the fraction at
+		// which the walk leaves the current cell across a column or row boundary
+		int column = getColumn(startX + dx * enter);
+		int row = getRow(startY + dy * enter);
+		int stepColumn = (dx > 0f) ? 1 : -1;
+		int stepRow = (dy > 0f) ? 1 : -1;
+		float deltaColumn = (dx != 0f) ? cellSize / Math.abs(dx) : Float.POSITIVE_INFINITY;
+		float deltaRow = (dy != 0f) ? cellSize / Math.abs(dy) : Float.POSITIVE_INFINITY;
+		float nextColumn = (dx != 0f) ? (originX + (column + (dx > 0f ? 1 : 0)) * cellSize - startX)
+				/ dx : Float.POSITIVE_INFINITY;
+		float nextRow = (dy != 0f) ? (originY + (row + (dy > 0f ? 1 : 0)) * cellSize - startY)
+				/ dy : Float.POSITIVE_INFINITY;
+
+		while (true) {
+			int cell = row * columns + column;
+			for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+				int segment = cellSegments[k];
+				if (testedStamp[segment] != queryStamp) {
+					testedStamp[segment] = queryStamp;
+					testSegment(segment, startX, startY, dx, dy);
+				}
+			}
+			float cellExit = Math.min(nextColumn, nextRow);
+			// Any crossing not found yet lies in a later cell, so beyond this one's exit
+			if (bestFraction <= cellExit || cellExit >= exit) {
+				break;
+			}
+			if (nextColumn < nextRow) {
+				column += stepColumn;
+				nextColumn += deltaColumn;
+				if (column < 0 || column >= columns) {
+					break;
+				}
+			} else {
+				row += stepRow;
+				nextRow += deltaRow;
+				if (row < 0 || row >= rows) {
+					break;
+				}
+			}
+		}
+
+		return setCrossing(startX, startY, dx, dy);
+	}
+
+	/**
+	 * Test a segment against the query, keeping it if it is crossed before the best so far.
+	 */
+	private void testSegment(int segment, float startX, float startY, float dx, float dy) {
+		// Solve start + d * t = p1 + e * w, for t and w in [0, 1]
+		float ex = x2[segment] - x1[segment];
+		float ey = y2[segment] - y1[segment];
+		float denominator = dx * ey - dy * ex;
+		if (denominator == 0f) {
+			return; // Parallel
+		}
+		float offsetX = x1[segment] - startX;
+		float offsetY = y1[segment] - startY;
+		float t = (offsetX * ey - offsetY * ex) / denominator;
+		float w = (offsetX * dy - offsetY * dx) / denominator;
+		if (t >= 0f && t <= 1f && w >= 0f && w <= 1f
+				&& (t < bestFraction || (t == bestFraction && segment < bestSegment))) {
+			bestFraction = t;
+			bestSegment = segment;
+		}
+	}
+
+	private int setCrossing(float startX, float startY, float dx, float dy) {
+		if (bestSegment != NONE) {
+			crossingX = startX + dx * bestFraction;
+			crossingY = startY + dy * bestFraction;
+		}
+		return bestSegment;
+	}
+
+	/**
+	 * Fraction of the way along the last query segment at which the crossing was found.
+	 */
+	public float getCrossingFraction() {
+		return bestFraction;
+	}
+
+	public float getCrossingX() {
+		return crossingX;
+	}
+
+	public float getCrossingY() {
+		return crossingY;
+	}
+
+	public int getNumberOfSegments() {
+		return numberOfSegments;
+	}
+}